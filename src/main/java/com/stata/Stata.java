@@ -1,5 +1,6 @@
 package com.stata;
 
+import com.stata.analysis.NumericKernels;
 import com.stata.project.Project;
 import com.stata.runtime.Runtime;
 import com.stata.ui.UI;
@@ -106,6 +107,9 @@ public enum Stata
      */
     private void start()
     {
+        // Choose the numeric kernels
+        NumericKernels.select(this.runtime.getRuntimeValue("kernels_vector", Boolean.class));
+
         // Launch JavaFX
         UI.launch(UI.class, this.arguments);
 
@@ -0,0 +1,450 @@
+package com.stata.analysis;
+
+import com.stata.project.Datatype;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.Storage;
+import com.stata.project.columns.StringColumn;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The accumulator class. This computes one statistic of a column for each
+ * group of rows. Each statistic is held in primitive arrays indexed by group,
+ * and the values of a segment are added with tight loops over its primitive
+ * values, so that no values are boxed.
+ *
+ * @author Dan Jenkins
+ */
+final class Accumulator
+{
+    /** The statistic to compute. */
+    private final Statistic statistic;
+
+    /** The column to aggregate. */
+    private final Column column;
+
+    /** The number of present values in each group. */
+    private long[] counts;
+
+    /** The sums or bounds of each group held as numbers, if any. */
+    private double[] doubles;
+
+    /** The sums, bounds or encoded values of each group held as longs, if any. */
+    private long[] longs;
+
+    /** The row of the first or last value of each group, if any. */
+    private int[] rows;
+
+    /** The buffers used to encode the values of a segment. */
+    private long[] values, masks;
+
+    /**
+     * The default constructor. This creates an accumulator without any
+     * groups.
+     *
+     * @param statistic The statistic to compute
+     * @param column The column to aggregate
+     */
+    Accumulator(Statistic statistic, Column column)
+    {
+        // Check that the statistic can be computed for the column
+        if (column.getType() == Datatype.STRING && !statistic.acceptsText())
+        {
+            throw new IllegalArgumentException("type mismatch");
+        }
+        this.statistic = statistic;
+        this.column = column;
+
+        // And create the arrays needed by the statistic
+        boolean ends = statistic == Statistic.FIRST || statistic == Statistic.LAST;
+        boolean bounds = statistic == Statistic.SUM || statistic == Statistic.MIN || statistic == Statistic.MAX;
+        this.counts = new long[0];
+        if (statistic == Statistic.MEAN || (bounds && column instanceof NumberColumn)) this.doubles = new double[0];
+        if (ends || (bounds && !(column instanceof NumberColumn)))                      this.longs = new long[0];
+        if (ends)                                                                       this.rows = new int[0];
+    }
+
+    /**
+     * A function used to make room for the statistics of a number of groups.
+     *
+     * @param groups The number of groups
+     */
+    void ensure(int groups)
+    {
+        // Check whether we already have room
+        int previous = this.counts.length;
+        if (groups <= previous) return;
+        int capacity = Math.max(groups, previous * 2);
+
+        // Grow the counts
+        this.counts = Arrays.copyOf(this.counts, capacity);
+
+        // Grow the statistics, starting each bound at the far end of its range
+        if (this.doubles != null)
+        {
+            this.doubles = Arrays.copyOf(this.doubles, capacity);
+            if (this.statistic == Statistic.MIN)      Arrays.fill(this.doubles, previous, capacity, Double.POSITIVE_INFINITY);
+            else if (this.statistic == Statistic.MAX) Arrays.fill(this.doubles, previous, capacity, Double.NEGATIVE_INFINITY);
+        }
+        if (this.longs != null)
+        {
+            this.longs = Arrays.copyOf(this.longs, capacity);
+            if (this.statistic == Statistic.MIN)      Arrays.fill(this.longs, previous, capacity, Long.MAX_VALUE);
+            else if (this.statistic == Statistic.MAX) Arrays.fill(this.longs, previous, capacity, Long.MIN_VALUE);
+        }
+
+        // And start the first rows after every row, and the last rows before
+        if (this.rows != null)
+        {
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            Arrays.fill(this.rows, previous, capacity, this.statistic == Statistic.FIRST ? Integer.MAX_VALUE : -1);
+        }
+    }
+
+    /**
+     * A function used to add the values of a segment to their groups.
+     *
+     * @param segment The index of the segment
+     * @param start The first row of the segment
+     * @param end The end of the segment
+     * @param groups The group of each row of the segment, or -1 to skip it
+     */
+    void add(int segment, int start, int end, int[] groups)
+    {
+        // Check whether we are taking the first or last values
+        if (this.rows != null)
+        {
+            this.addEnds(segment, start, end, groups);
+            return;
+        }
+
+        // Find the runs of present values
+        int[] runs = Accumulator.findRuns(this.column, start, end);
+
+        // Check whether we are only counting the values
+        if (this.statistic == Statistic.COUNT)
+        {
+            for (int r = 0; r < runs.length; r += 2)
+            {
+                for (int i = runs[r]; i < runs[r + 1]; i++)
+                {
+                    if (groups[i] >= 0) this.counts[groups[i]]++;
+                }
+            }
+            return;
+        }
+
+        // And add the values of the column, reading booleans as zero or one
+        if (this.column instanceof NumberColumn)
+        {
+            this.addNumbers(((NumberColumn) this.column).getSegment(segment), runs, groups);
+        }
+        else if (this.column instanceof IntegerColumn)
+        {
+            this.addIntegers(((IntegerColumn) this.column).getSegment(segment), runs, groups);
+        }
+        else if (this.column instanceof BooleanColumn)
+        {
+            this.addIntegers(this.encode(segment, start, end), runs, groups);
+        }
+    }
+
+    /**
+     * A function used to add runs of values of a number segment to their
+     * groups.
+     *
+     * @param values The values of the segment
+     * @param runs The start and end of each run of present values
+     * @param groups The group of each row of the segment, or -1 to skip it
+     */
+    private void addNumbers(double[] values, int[] runs, int[] groups)
+    {
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            for (int i = runs[r]; i < runs[r + 1]; i++)
+            {
+                int group = groups[i];
+                if (group < 0) continue;
+
+                // Add the value to its group
+                double value = values[i];
+                switch (this.statistic)
+                {
+                    case MIN: if (value < this.doubles[group]) this.doubles[group] = value; break;
+                    case MAX: if (value > this.doubles[group]) this.doubles[group] = value; break;
+                    default:  this.doubles[group] += value;
+                }
+
+                // And count the value
+                this.counts[group]++;
+            }
+        }
+    }
+
+    /**
+     * A function used to add runs of values of an integer segment to their
+     * groups. Sums are kept as longs, while means are kept as numbers.
+     *
+     * @param values The values of the segment
+     * @param runs The start and end of each run of present values
+     * @param groups The group of each row of the segment, or -1 to skip it
+     */
+    private void addIntegers(long[] values, int[] runs, int[] groups)
+    {
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            for (int i = runs[r]; i < runs[r + 1]; i++)
+            {
+                int group = groups[i];
+                if (group < 0) continue;
+
+                // Add the value to its group
+                long value = values[i];
+                switch (this.statistic)
+                {
+                    case MIN:  if (value < this.longs[group]) this.longs[group] = value; break;
+                    case MAX:  if (value > this.longs[group]) this.longs[group] = value; break;
+                    case MEAN: this.doubles[group] += value; break;
+                    default:   this.longs[group] += value;
+                }
+
+                // And count the value
+                this.counts[group]++;
+            }
+        }
+    }
+
+    /**
+     * A function used to take the first or last value of each group within a
+     * segment, whether or not it is missing.
+     *
+     * @param segment The index of the segment
+     * @param start The first row of the segment
+     * @param end The end of the segment
+     * @param groups The group of each row of the segment, or -1 to skip it
+     */
+    private void addEnds(int segment, int start, int end, int[] groups)
+    {
+        // Encode the values of the segment
+        long[] values = this.encode(segment, start, end);
+        boolean first = this.statistic == Statistic.FIRST;
+
+        // And take the value of any row which comes before the first row, or
+        // after the last row, of its group
+        for (int i = 0, row = start; row < end; i++, row++)
+        {
+            int group = groups[i];
+            if (group < 0 || (first ? row >= this.rows[group] : row <= this.rows[group])) continue;
+            this.rows[group] = row;
+            this.longs[group] = values[i];
+            this.counts[group] = this.masks[i] == 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * A function used to merge the statistics of another accumulator, built
+     * from other rows of the same column, into this one.
+     *
+     * @param other The accumulator to merge
+     * @param mapping The group in this accumulator of each group of the other
+     */
+    void merge(Accumulator other, int[] mapping)
+    {
+        for (int g = 0; g < mapping.length; g++)
+        {
+            int group = mapping[g];
+            switch (this.statistic)
+            {
+                case FIRST:
+                case LAST:
+                    // Keep whichever value comes first or last
+                    if (this.statistic == Statistic.FIRST ? other.rows[g] < this.rows[group] : other.rows[g] > this.rows[group])
+                    {
+                        this.rows[group] = other.rows[g];
+                        this.longs[group] = other.longs[g];
+                        this.counts[group] = other.counts[g];
+                    }
+                    continue;
+
+                case MIN:
+                    // Keep the smaller bound
+                    if (this.doubles != null) this.doubles[group] = Math.min(this.doubles[group], other.doubles[g]);
+                    if (this.longs != null)   this.longs[group] = Math.min(this.longs[group], other.longs[g]);
+                    break;
+
+                case MAX:
+                    // Keep the larger bound
+                    if (this.doubles != null) this.doubles[group] = Math.max(this.doubles[group], other.doubles[g]);
+                    if (this.longs != null)   this.longs[group] = Math.max(this.longs[group], other.longs[g]);
+                    break;
+
+                default:
+                    // Add the sums
+                    if (this.doubles != null) this.doubles[group] += other.doubles[g];
+                    if (this.longs != null)   this.longs[group] += other.longs[g];
+            }
+
+            // And add the counts
+            this.counts[group] += other.counts[g];
+        }
+    }
+
+    /**
+     * A function used to create the column holding the statistic of each
+     * group.
+     *
+     * @param order The groups, in the order of the rows of the column
+     * @param storage The storage in which the column lives
+     *
+     * @return The column of statistics
+     */
+    Column result(int[] order, Storage storage)
+    {
+        // Create the column, keeping the type of the aggregated column for
+        // bounds and values
+        Column result;
+        switch (this.statistic)
+        {
+            case COUNT: result = new IntegerColumn(storage); break;
+            case MEAN:  result = new NumberColumn(storage); break;
+            case SUM:   result = this.doubles != null ? new NumberColumn(storage) : new IntegerColumn(storage); break;
+            default:    result = Column.create(this.column.getType(), storage);
+        }
+
+        // And append the statistic of each group
+        for (int group : order)
+        {
+            if (this.statistic == Statistic.COUNT)                        ((IntegerColumn) result).append(this.counts[group]);
+            else if (this.statistic == Statistic.SUM && this.longs != null) ((IntegerColumn) result).append(this.longs[group]);
+            else if (this.statistic == Statistic.SUM)                     ((NumberColumn) result).append(this.doubles[group]);
+            else if (this.counts[group] == 0)                             result.appendMissing();
+            else if (this.statistic == Statistic.MEAN)                    ((NumberColumn) result).append(this.doubles[group] / this.counts[group]);
+            else if (this.longs == null)                                  ((NumberColumn) result).append(this.doubles[group]);
+            else                                                          Accumulator.decode(this.column, this.longs[group], result);
+        }
+        return result;
+    }
+
+    /**
+     * A function used to encode the values of a segment into the buffers of
+     * the accumulator.
+     *
+     * @param segment The index of the segment
+     * @param start The first row of the segment
+     * @param end The end of the segment
+     *
+     * @return The encoded values
+     */
+    private long[] encode(int segment, int start, int end)
+    {
+        // Create the buffers if necessary
+        if (this.values == null)
+        {
+            this.values = new long[Column.SEGMENT_SIZE];
+            this.masks = new long[Column.SEGMENT_SIZE];
+        }
+
+        // And encode the values
+        Arrays.fill(this.masks, 0, end - start, 0);
+        Accumulator.encode(this.column, segment, start, end, this.values, this.masks, 0);
+        return this.values;
+    }
+
+    /**
+     * A function used to encode the values of a segment of a column as longs,
+     * so that they can be hashed and compared without boxing. Numbers are
+     * stored as their bits, booleans as zero or one, and text as its
+     * dictionary code. Missing rows are stored as zero, and marked by setting
+     * a bit of their mask.
+     *
+     * @param column The column to encode
+     * @param segment The index of the segment
+     * @param start The first row of the segment
+     * @param end The end of the segment
+     * @param values The array to fill with the encoded values
+     * @param masks The array of masks in which to mark the missing rows
+     * @param bit The bit of the mask to set for missing rows
+     */
+    static void encode(Column column, int segment, int start, int end, long[] values, long[] masks, int bit)
+    {
+        // Encode the values of the segment, treating negative zero as zero
+        int count = end - start;
+        if (column instanceof NumberColumn)
+        {
+            double[] numbers = ((NumberColumn) column).getSegment(segment);
+            for (int i = 0; i < count; i++) values[i] = Double.doubleToLongBits(numbers[i] + 0.0);
+        }
+        else if (column instanceof IntegerColumn)
+        {
+            System.arraycopy(((IntegerColumn) column).getSegment(segment), 0, values, 0, count);
+        }
+        else if (column instanceof BooleanColumn)
+        {
+            BitSet bits = ((BooleanColumn) column).getValues();
+            for (int i = 0; i < count; i++) values[i] = bits.get(start + i) ? 1 : 0;
+        }
+        else if (column instanceof StringColumn && count > 0)
+        {
+            int[] codes = ((StringColumn) column).getSegment(segment);
+            for (int i = 0; i < count; i++) values[i] = codes[i];
+        }
+
+        // And mark the missing rows
+        for (int row = column.nextMissing(start); row < end; row = column.nextMissing(row + 1))
+        {
+            values[row - start] = 0;
+            masks[row - start] |= 1L << bit;
+        }
+    }
+
+    /**
+     * A function used to decode a value encoded from a column, and append it
+     * to another column of the same type.
+     *
+     * @param column The column the value was encoded from
+     * @param value The encoded value
+     * @param result The column to append the value to
+     */
+    static void decode(Column column, long value, Column result)
+    {
+        if (column instanceof NumberColumn)       ((NumberColumn) result).append(Double.longBitsToDouble(value));
+        else if (column instanceof IntegerColumn) ((IntegerColumn) result).append(value);
+        else if (column instanceof BooleanColumn) ((BooleanColumn) result).append(value != 0);
+        else if (column instanceof StringColumn)  result.append(((StringColumn) column).getDictionary().get((int) value));
+    }
+
+    /**
+     * A function used to find the runs of present values in a segment of a
+     * column.
+     *
+     * @param column The column to scan
+     * @param start The first row of the segment
+     * @param end The end of the segment
+     *
+     * @return The start and end of each run, relative to the start of the segment
+     */
+    private static int[] findRuns(Column column, int start, int end)
+    {
+        // Find each run between the missing rows
+        int[] runs = new int[8];
+        int count = 0;
+        for (int row = start; row < end;)
+        {
+            int next = Math.min(column.nextMissing(row), end);
+            if (next > row)
+            {
+                if (count == runs.length) runs = Arrays.copyOf(runs, count * 2);
+                runs[count++] = row - start;
+                runs[count++] = next - start;
+            }
+            row = next + 1;
+        }
+
+        // And return the runs
+        return Arrays.copyOf(runs, count);
+    }
+}
@@ -0,0 +1,90 @@
+package com.stata.analysis;
+
+/**
+ * The aggregation class. This describes one column of a collapsed table: the
+ * statistic to compute, the column it is computed from, and the name of the
+ * column holding the result.
+ *
+ * @author Dan Jenkins
+ */
+public class Aggregation
+{
+    /** The statistic to compute. */
+    private final Statistic statistic;
+
+    /** The name of the column to aggregate. */
+    private final String source;
+
+    /** The name of the column holding the result. */
+    private final String target;
+
+    /**
+     * The default constructor. This creates an aggregation whose result keeps
+     * the name of the column it is computed from.
+     *
+     * @param statistic The statistic to compute
+     * @param source The name of the column to aggregate
+     */
+    public Aggregation(Statistic statistic, String source)
+    {
+        this(statistic, source, source);
+    }
+
+    /**
+     * The main constructor. This creates an aggregation whose result is
+     * stored under a new name.
+     *
+     * @param statistic The statistic to compute
+     * @param source The name of the column to aggregate
+     * @param target The name of the column holding the result
+     */
+    public Aggregation(Statistic statistic, String source, String target)
+    {
+        this.statistic = statistic;
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * A simple function which returns the statistic to compute.
+     *
+     * @return The statistic
+     */
+    public Statistic getStatistic()
+    {
+        return this.statistic;
+    }
+
+    /**
+     * A simple function which returns the name of the column to aggregate.
+     *
+     * @return The source column name
+     */
+    public String getSource()
+    {
+        return this.source;
+    }
+
+    /**
+     * A simple function which returns the name of the column holding the
+     * result.
+     *
+     * @return The target column name
+     */
+    public String getTarget()
+    {
+        return this.target;
+    }
+
+    /**
+     * A function used to easily print a string representation of the
+     * aggregation, as written in the collapse command.
+     *
+     * @return The aggregation as a string
+     */
+    @Override
+    public String toString()
+    {
+        return "(" + this.statistic.getName() + ") " + (this.source.equals(this.target) ? this.source : this.target + "=" + this.source);
+    }
+}
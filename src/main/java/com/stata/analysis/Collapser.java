@@ -0,0 +1,387 @@
+package com.stata.analysis;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.StringColumn;
+import com.stata.query.Selection;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Collapser class. This static class collapses a table into a table of
+ * statistics for each group of rows, like the collapse command. Rows are
+ * grouped by the values of one or more columns, with missing values forming
+ * a group of their own, and the groups are ordered by their values with
+ * missing values last.
+ *
+ * The segments of the table are split into ranges across a fork-join pool.
+ * Each range groups its rows into its own hash table, keyed on the primitive
+ * values or dictionary codes of the columns, and the partial statistics of
+ * each range are then merged.
+ *
+ * @author Dan Jenkins
+ */
+public class Collapser
+{
+    /** The largest number of columns which the rows may be grouped by. */
+    private static final int MAX_KEYS = 64;
+
+    /**
+     * The collapse function. This collapses every row of a table.
+     *
+     * @param table The table to collapse
+     * @param aggregations The statistics to compute for each group
+     * @param by The names of the columns to group the rows by
+     *
+     * @return The collapsed table
+     */
+    public static Datatable collapse(Datatable table, List<Aggregation> aggregations, List<String> by)
+    {
+        return Collapser.collapse(table, aggregations, by, null);
+    }
+
+    /**
+     * The collapse function. This collapses the selected rows of a table,
+     * such as the rows which satisfy a query.
+     *
+     * @param table The table to collapse
+     * @param aggregations The statistics to compute for each group
+     * @param by The names of the columns to group the rows by
+     * @param selection The rows to collapse, or null for every row
+     *
+     * @return The collapsed table
+     */
+    public static Datatable collapse(Datatable table, List<Aggregation> aggregations, List<String> by, Selection selection)
+    {
+        // Find the columns to group by
+        if (by.size() > MAX_KEYS) throw new IllegalArgumentException("too many variables in by()");
+        Column[] keys = new Column[by.size()];
+        for (int k = 0; k < keys.length; k++) keys[k] = Collapser.column(table, by.get(k));
+
+        // Find the columns to aggregate, checking that each statistic can be
+        // computed for its column
+        Column[] sources = new Column[aggregations.size()];
+        for (int a = 0; a < sources.length; a++)
+        {
+            sources[a] = Collapser.column(table, aggregations.get(a).getSource());
+            new Accumulator(aggregations.get(a).getStatistic(), sources[a]);
+        }
+
+        // Aggregate ranges of the segments in parallel
+        int rows = table.getRowCount();
+        int segments = (rows + Column.SEGMENT_SIZE - 1) >>> Column.SEGMENT_SHIFT;
+        int grain = Math.max(1, segments / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        Partial partial = ForkJoinPool.commonPool().invoke(new CollapseTask(keys, aggregations, sources, selection, rows, 0, segments, grain));
+
+        // Order the groups by their keys
+        int[] order = Collapser.order(partial.groups, keys);
+
+        // Create the collapsed table
+        Datatable result = new Datatable();
+        result.setName(table.getName());
+        result.setStorage(table.getStorage());
+
+        // Add the columns holding the keys of each group
+        for (int k = 0; k < keys.length; k++)
+        {
+            Column column = Column.create(keys[k].getType(), table.getStorage());
+            for (int group : order)
+            {
+                if ((partial.groups.getKey(group, 0) & (1L << k)) != 0) column.appendMissing();
+                else                                                      Accumulator.decode(keys[k], partial.groups.getKey(group, k + 1), column);
+            }
+            result.addColumn(by.get(k), column);
+        }
+
+        // And add the columns holding the statistics of each group
+        for (int a = 0; a < sources.length; a++)
+        {
+            result.addColumn(aggregations.get(a).getTarget(), partial.accumulators[a].result(order, table.getStorage()));
+        }
+        return result;
+    }
+
+    /**
+     * A function used to find a column of a table by its name.
+     *
+     * @param table The table holding the column
+     * @param name The name of the column
+     *
+     * @return The column
+     */
+    private static Column column(Datatable table, String name)
+    {
+        // Find the column
+        Column column = table.getColumn(name);
+
+        // And check that it exists
+        if (column == null) throw new IllegalArgumentException("variable " + name + " not found");
+        return column;
+    }
+
+    /**
+     * A function used to order the groups by their keys, comparing the keys
+     * in turn. Missing keys come after every other key.
+     *
+     * @param groups The groups to order
+     * @param keys The columns the rows were grouped by
+     *
+     * @return The groups in order
+     */
+    private static int[] order(GroupTable groups, Column[] keys)
+    {
+        // Sort the groups
+        Integer[] order = new Integer[groups.size()];
+        for (int g = 0; g < order.length; g++) order[g] = g;
+        Arrays.sort(order, (a, b) ->
+        {
+            for (int k = 0; k < keys.length; k++)
+            {
+                // Check whether either key is missing
+                boolean missingA = (groups.getKey(a, 0) & (1L << k)) != 0;
+                boolean missingB = (groups.getKey(b, 0) & (1L << k)) != 0;
+                if (missingA || missingB)
+                {
+                    if (missingA != missingB) return missingA ? 1 : -1;
+                    continue;
+                }
+
+                // And compare the keys
+                int comparison = Collapser.compare(keys[k], groups.getKey(a, k + 1), groups.getKey(b, k + 1));
+                if (comparison != 0) return comparison;
+            }
+            return 0;
+        });
+
+        // And return the order
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * A function used to compare two values encoded from a column.
+     *
+     * @param column The column the values were encoded from
+     * @param a The first value
+     * @param b The second value
+     *
+     * @return The comparison of the values
+     */
+    private static int compare(Column column, long a, long b)
+    {
+        if (column instanceof NumberColumn)
+        {
+            return Double.compare(Double.longBitsToDouble(a), Double.longBitsToDouble(b));
+        }
+        else if (column instanceof StringColumn)
+        {
+            List<String> dictionary = ((StringColumn) column).getDictionary();
+            return dictionary.get((int) a).compareTo(dictionary.get((int) b));
+        }
+        return Long.compare(a, b);
+    }
+
+    /**
+     * The partial class. This holds the groups and statistics of a range of
+     * the rows of a table.
+     */
+    private static class Partial
+    {
+        /** The columns the rows are grouped by. */
+        private final Column[] keys;
+
+        /** The rows to collapse, or null for every row. */
+        private final Selection selection;
+
+        /** The number of rows in the table. */
+        private final int rows;
+
+        /** The groups of the rows. */
+        private final GroupTable groups;
+
+        /** The statistics of each group. */
+        private final Accumulator[] accumulators;
+
+        /**
+         * The default constructor. This creates an empty partial.
+         *
+         * @param keys The columns the rows are grouped by
+         * @param aggregations The statistics to compute for each group
+         * @param sources The columns to aggregate
+         * @param selection The rows to collapse, or null for every row
+         * @param rows The number of rows in the table
+         */
+        public Partial(Column[] keys, List<Aggregation> aggregations, Column[] sources, Selection selection, int rows)
+        {
+            // Store the details
+            this.keys = keys;
+            this.selection = selection;
+            this.rows = rows;
+
+            // Create the table of groups, keyed on the mask of missing keys
+            // and each of the keys
+            this.groups = new GroupTable(keys.length + 1);
+
+            // And create the statistics
+            this.accumulators = new Accumulator[sources.length];
+            for (int a = 0; a < sources.length; a++)
+            {
+                this.accumulators[a] = new Accumulator(aggregations.get(a).getStatistic(), sources[a]);
+            }
+        }
+
+        /**
+         * A function used to add the rows of a range of segments.
+         *
+         * @param from The first segment
+         * @param to The end of the range of segments
+         */
+        public void add(int from, int to)
+        {
+            // Create the buffers for the keys and groups of a segment
+            long[][] values = new long[this.keys.length][Column.SEGMENT_SIZE];
+            long[] masks = new long[Column.SEGMENT_SIZE];
+            long[] key = new long[this.keys.length + 1];
+            int[] groups = new int[Column.SEGMENT_SIZE];
+
+            for (int segment = from; segment < to; segment++)
+            {
+                // Encode the keys of the segment
+                int start = segment << Column.SEGMENT_SHIFT;
+                int end = Math.min(start + Column.SEGMENT_SIZE, this.rows);
+                Arrays.fill(masks, 0, end - start, 0);
+                for (int k = 0; k < this.keys.length; k++)
+                {
+                    Accumulator.encode(this.keys[k], segment, start, end, values[k], masks, k);
+                }
+
+                // Find the group of each row, skipping the rows which aren't
+                // selected
+                for (int i = 0, row = start; row < end; i++, row++)
+                {
+                    if (this.selection != null && !this.selection.contains(row))
+                    {
+                        groups[i] = -1;
+                        continue;
+                    }
+                    key[0] = masks[i];
+                    for (int k = 0; k < this.keys.length; k++) key[k + 1] = values[k][i];
+                    groups[i] = this.groups.find(key, 0, row);
+                }
+
+                // And add the values of the segment to their groups
+                for (Accumulator accumulator : this.accumulators)
+                {
+                    accumulator.ensure(this.groups.size());
+                    accumulator.add(segment, start, end, groups);
+                }
+            }
+        }
+
+        /**
+         * A function used to merge the groups and statistics of another range
+         * of rows into this one.
+         *
+         * @param other The partial to merge
+         */
+        public void merge(Partial other)
+        {
+            // Merge the groups
+            int[] mapping = this.groups.merge(other.groups);
+
+            // And merge the statistics of each group
+            for (int a = 0; a < this.accumulators.length; a++)
+            {
+                this.accumulators[a].ensure(this.groups.size());
+                this.accumulators[a].merge(other.accumulators[a], mapping);
+            }
+        }
+    }
+
+    /**
+     * The collapse task class. This collapses a range of the segments of a
+     * table, splitting the range in half until it is small enough to collapse
+     * on a single thread.
+     */
+    @SuppressWarnings("serial")
+    private static class CollapseTask extends RecursiveTask<Partial>
+    {
+        /** The columns the rows are grouped by. */
+        private final Column[] keys;
+
+        /** The statistics to compute for each group. */
+        private final List<Aggregation> aggregations;
+
+        /** The columns to aggregate. */
+        private final Column[] sources;
+
+        /** The rows to collapse, or null for every row. */
+        private final Selection selection;
+
+        /** The number of rows in the table. */
+        private final int rows;
+
+        /** The first segment and the end of the range of segments. */
+        private final int from, to;
+
+        /** The largest number of segments to collapse on a single thread. */
+        private final int grain;
+
+        /**
+         * The default constructor. This creates a task to collapse a range of
+         * segments.
+         *
+         * @param keys The columns the rows are grouped by
+         * @param aggregations The statistics to compute for each group
+         * @param sources The columns to aggregate
+         * @param selection The rows to collapse, or null for every row
+         * @param rows The number of rows in the table
+         * @param from The first segment
+         * @param to The end of the range of segments
+         * @param grain The largest number of segments to collapse on a single thread
+         */
+        public CollapseTask(Column[] keys, List<Aggregation> aggregations, Column[] sources, Selection selection, int rows, int from, int to, int grain)
+        {
+            this.keys = keys;
+            this.aggregations = aggregations;
+            this.sources = sources;
+            this.selection = selection;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        /**
+         * The compute function. This collapses the range of segments.
+         *
+         * @return The groups and statistics of the range
+         */
+        @Override
+        protected Partial compute()
+        {
+            // Collapse a small range directly
+            if (this.to - this.from <= this.grain)
+            {
+                Partial partial = new Partial(this.keys, this.aggregations, this.sources, this.selection, this.rows);
+                partial.add(this.from, this.to);
+                return partial;
+            }
+
+            // Otherwise, split the range in half
+            int middle = (this.from + this.to) >>> 1;
+            CollapseTask left = new CollapseTask(this.keys, this.aggregations, this.sources, this.selection, this.rows, this.from, middle, this.grain);
+            CollapseTask right = new CollapseTask(this.keys, this.aggregations, this.sources, this.selection, this.rows, middle, this.to, this.grain);
+            left.fork();
+
+            // And merge the partials
+            Partial partial = right.compute();
+            Partial other = left.join();
+            other.merge(partial);
+            return other;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.stata.analysis;
+
+import java.util.Base64;
+
+/**
+ * The distinct sketch class. This estimates the number of distinct values in
+ * a stream of values in a small, fixed amount of memory, using the
+ * HyperLogLog sketch of Flajolet et al. Each value is hashed, the first bits
+ * of the hash choose a register, and the register keeps the longest run of
+ * leading zeros seen in the rest of the hash. The counts are accurate to
+ * within about two percent.
+ *
+ * Numbers are hashed by their value, so that integers and the same numbers
+ * stored as doubles are counted once, and sketches of separate ranges of a
+ * column can be merged by keeping the larger of each register.
+ *
+ * @author Dan Jenkins
+ */
+public class DistinctSketch
+{
+    /** The number of bits of the hash which choose a register. */
+    private static final int PRECISION = 12;
+
+    /** The number of registers. */
+    private static final int REGISTERS = 1 << PRECISION;
+
+    /** The longest run of leading zeros seen by each register. */
+    private final byte[] registers;
+
+    /**
+     * The default constructor. This creates an empty sketch.
+     */
+    public DistinctSketch()
+    {
+        this(new byte[REGISTERS]);
+    }
+
+    /**
+     * The main constructor. This creates a sketch from its registers.
+     *
+     * @param registers The registers
+     */
+    private DistinctSketch(byte[] registers)
+    {
+        this.registers = registers;
+    }
+
+    /**
+     * A function used to add a number to the sketch.
+     *
+     * @param value The value to add
+     */
+    public void add(double value)
+    {
+        // Adding zero turns negative zero into zero, so that they hash alike
+        this.addHash(DistinctSketch.mix(Double.doubleToLongBits(value + 0.0)));
+    }
+
+    /**
+     * A function used to add a piece of text to the sketch.
+     *
+     * @param value The value to add
+     */
+    public void add(String value)
+    {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        this.addHash(DistinctSketch.mix(hash));
+    }
+
+    /**
+     * A function used to add a hashed value to the sketch.
+     *
+     * @param hash The hash of the value
+     */
+    private void addHash(long hash)
+    {
+        // Choose the register from the first bits of the hash
+        int index = (int) (hash >>> (Long.SIZE - PRECISION));
+
+        // And note the position of the first one in the rest of the hash
+        byte rank = (byte) Math.min(Long.numberOfLeadingZeros(hash << PRECISION) + 1, Long.SIZE - PRECISION + 1);
+        if (rank > this.registers[index]) this.registers[index] = rank;
+    }
+
+    /**
+     * A function used to merge the sketch of another range of values into
+     * this one.
+     *
+     * @param other The sketch to merge
+     */
+    public void merge(DistinctSketch other)
+    {
+        for (int i = 0; i < REGISTERS; i++)
+        {
+            if (other.registers[i] > this.registers[i]) this.registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * A function used to create a copy of the sketch.
+     *
+     * @return The copy
+     */
+    public DistinctSketch copy()
+    {
+        return new DistinctSketch(this.registers.clone());
+    }
+
+    /**
+     * A function used to estimate the number of distinct values. Small
+     * counts, where many registers are still empty, are estimated from the
+     * number of empty registers instead, which is more accurate.
+     *
+     * @return The estimated number of distinct values
+     */
+    public long getEstimate()
+    {
+        // Sum the harmonic mean of the registers
+        double sum = 0;
+        int empty = 0;
+        for (byte register : this.registers)
+        {
+            sum += Double.longBitsToDouble((1023L - register) << 52);
+            if (register == 0) empty++;
+        }
+
+        // Find the raw estimate
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+
+        // And correct small estimates by counting the empty registers
+        if (estimate <= 2.5 * REGISTERS && empty > 0) estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+        return Math.round(estimate);
+    }
+
+    /**
+     * A function used to mix the bits of a value into a hash, using the
+     * finalizer of MurmurHash3.
+     *
+     * @param value The value
+     *
+     * @return The hash
+     */
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB93FE1A85EC3L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * A function used to export the sketch for storage in a file.
+     *
+     * @return The sketch encoded as text
+     */
+    public String getString()
+    {
+        return Base64.getEncoder().encodeToString(this.registers);
+    }
+
+    /**
+     * A function used to import a sketch from a file.
+     *
+     * @param string The sketch encoded as text
+     *
+     * @return The sketch
+     */
+    public static DistinctSketch fromString(String string)
+    {
+        byte[] registers = Base64.getDecoder().decode(string);
+        if (registers.length != REGISTERS) throw new IllegalArgumentException("invalid distinct sketch");
+        return new DistinctSketch(registers);
+    }
+}
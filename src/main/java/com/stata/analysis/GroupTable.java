@@ -0,0 +1,285 @@
+package com.stata.analysis;
+
+import java.util.Arrays;
+
+/**
+ * The group table class. This is an open-addressing hash table which maps the
+ * keys of each row to a dense group number. Keys are fixed-width tuples of
+ * longs held in one flat array, so finding a group never allocates, and each
+ * slot holds a copy of its key so that probing stays within one array.
+ *
+ * @author Dan Jenkins
+ */
+final class GroupTable
+{
+    /** The number of groups the table has room for when it is created. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The odd multiplier used to combine the parts of a key. */
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** The number of longs in each key. */
+    private final int width;
+
+    /** The keys of each group, one after another. */
+    private long[] keys;
+
+    /** The first row of each group. */
+    private int[] rows;
+
+    /** The slots of the table, holding one more than a group, or zero. */
+    private int[] slots;
+
+    /** The keys of each slot, one after another. */
+    private long[] slotKeys;
+
+    /** The number of groups. */
+    private int count;
+
+    /**
+     * The default constructor. This creates an empty table.
+     *
+     * @param width The number of longs in each key
+     */
+    GroupTable(int width)
+    {
+        this.width = width;
+        this.keys = new long[INITIAL_CAPACITY * width];
+        this.rows = new int[INITIAL_CAPACITY];
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.slotKeys = new long[INITIAL_CAPACITY * 2 * width];
+        this.count = 0;
+    }
+
+    /**
+     * A simple function which returns the number of groups in the table.
+     *
+     * @return The number of groups
+     */
+    int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * A simple function which returns part of the key of a group.
+     *
+     * @param group The group
+     * @param index The index of the part of the key
+     *
+     * @return The part of the key
+     */
+    long getKey(int group, int index)
+    {
+        return this.keys[group * this.width + index];
+    }
+
+    /**
+     * A function used to find the group of a key, adding a new group if the
+     * key hasn't been seen.
+     *
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     * @param row The row holding the key
+     *
+     * @return The group of the key
+     */
+    int find(long[] key, int offset, int row)
+    {
+        // Check for a key of two parts, such as a single column and its
+        // mask, which is probed without looping over the parts
+        if (this.width == 2) return this.find(key, offset, key[offset], key[offset + 1], row);
+
+        // Otherwise, probe the slots until we find the key or an empty slot
+        int mask = this.slots.length - 1;
+        for (int slot = GroupTable.hash(key, offset, this.width) & mask;; slot = (slot + 1) & mask)
+        {
+            int group = this.slots[slot] - 1;
+            if (group < 0) return this.add(key, offset, row, slot);
+            if (this.matches(slot, key, offset)) return group;
+        }
+    }
+
+    /**
+     * A function used to find the group of a key without adding it, so that
+     * a table which has been built can be probed from several threads.
+     *
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     *
+     * @return The group of the key, or -1 if the key hasn't been seen
+     */
+    int get(long[] key, int offset)
+    {
+        // Probe the slots until we find the key or an empty slot
+        int mask = this.slots.length - 1;
+        for (int slot = GroupTable.hash(key, offset, this.width) & mask;; slot = (slot + 1) & mask)
+        {
+            int group = this.slots[slot] - 1;
+            if (group < 0 || this.matches(slot, key, offset)) return group;
+        }
+    }
+
+    /**
+     * A function used to find the group of a key of two parts, adding a new
+     * group if the key hasn't been seen.
+     *
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     * @param first The first part of the key
+     * @param second The second part of the key
+     * @param row The row holding the key
+     *
+     * @return The group of the key
+     */
+    private int find(long[] key, int offset, long first, long second, int row)
+    {
+        // Probe the slots until we find the key or an empty slot
+        int mask = this.slots.length - 1;
+        long hash = (first * MULTIPLIER + second) * MULTIPLIER;
+        for (int slot = GroupTable.mix(hash) & mask;; slot = (slot + 1) & mask)
+        {
+            int group = this.slots[slot] - 1;
+            if (group < 0) return this.add(key, offset, row, slot);
+            if (this.slotKeys[slot << 1] == first && this.slotKeys[(slot << 1) + 1] == second) return group;
+        }
+    }
+
+    /**
+     * A function used to merge the groups of another table into this one.
+     * The first row of each group is kept, so that tables built from earlier
+     * rows may be merged with tables built from later ones in either order.
+     *
+     * @param other The table to merge
+     *
+     * @return The group in this table of each group of the other table
+     */
+    int[] merge(GroupTable other)
+    {
+        int[] mapping = new int[other.count];
+        for (int g = 0; g < other.count; g++)
+        {
+            // Find the group in this table
+            int group = this.find(other.keys, g * this.width, other.rows[g]);
+
+            // And keep the first row of the group
+            this.rows[group] = Math.min(this.rows[group], other.rows[g]);
+            mapping[g] = group;
+        }
+        return mapping;
+    }
+
+    /**
+     * A function used to add a new group to the table.
+     *
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     * @param row The row holding the key
+     * @param slot The empty slot for the group
+     *
+     * @return The new group
+     */
+    private int add(long[] key, int offset, int row, int slot)
+    {
+        // Grow the groups if necessary
+        if (this.count == this.rows.length)
+        {
+            this.keys = Arrays.copyOf(this.keys, this.keys.length * 2);
+            this.rows = Arrays.copyOf(this.rows, this.rows.length * 2);
+        }
+
+        // Store the group
+        int group = this.count++;
+        System.arraycopy(key, offset, this.keys, group * this.width, this.width);
+        System.arraycopy(key, offset, this.slotKeys, slot * this.width, this.width);
+        this.rows[group] = row;
+        this.slots[slot] = group + 1;
+
+        // And keep the table at most half full
+        if (this.count * 2 > this.slots.length) this.rehash();
+        return group;
+    }
+
+    /**
+     * A function used to double the number of slots in the table, placing
+     * each group into its new slot.
+     */
+    private void rehash()
+    {
+        this.slots = new int[this.slots.length * 2];
+        this.slotKeys = new long[this.slots.length * this.width];
+        int mask = this.slots.length - 1;
+        for (int g = 0; g < this.count; g++)
+        {
+            int slot = GroupTable.hash(this.keys, g * this.width, this.width) & mask;
+            while (this.slots[slot] != 0) slot = (slot + 1) & mask;
+            this.slots[slot] = g + 1;
+            System.arraycopy(this.keys, g * this.width, this.slotKeys, slot * this.width, this.width);
+        }
+    }
+
+    /**
+     * A function used to check whether the key of a slot matches a key.
+     *
+     * @param slot The slot
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     *
+     * @return Whether the keys match
+     */
+    private boolean matches(int slot, long[] key, int offset)
+    {
+        for (int i = 0, start = slot * this.width; i < this.width; i++)
+        {
+            if (this.slotKeys[start + i] != key[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A function used to hash a key. The same key always has the same hash,
+     * whichever table it is found in.
+     *
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     * @param width The number of longs in the key
+     *
+     * @return The hash of the key
+     */
+    static int hash(long[] key, int offset, int width)
+    {
+        return GroupTable.mix(GroupTable.combine(key, offset, width));
+    }
+
+    /**
+     * A function used to combine the parts of a key into one long.
+     *
+     * @param key The array holding the key
+     * @param offset The position of the key within the array
+     * @param width The number of longs in the key
+     *
+     * @return The combined key
+     */
+    private static long combine(long[] key, int offset, int width)
+    {
+        long hash = 0;
+        for (int i = 0; i < width; i++) hash = (hash + key[offset + i]) * MULTIPLIER;
+        return hash;
+    }
+
+    /**
+     * A function used to mix the bits of a combined key into a hash, so that
+     * runs of nearby integers spread across the table.
+     *
+     * @param hash The combined key
+     *
+     * @return The hash of the key
+     */
+    private static int mix(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+}
@@ -0,0 +1,147 @@
+package com.stata.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The key index class. This is a hash index over the keys of the rows of a
+ * table, which numbers each distinct key. The rows are first split into
+ * partitions by the hash of their keys, and each partition is then indexed
+ * into its own group table in parallel. Once built, the index may be probed
+ * from several threads at once.
+ *
+ * Keys are read from one flat array holding the key of each row in turn, as
+ * used by the group table.
+ *
+ * @author Dan Jenkins
+ */
+final class KeyIndex
+{
+    /** The largest number of partitions. */
+    private static final int MAX_PARTITIONS = 64;
+
+    /** The number of longs in each key. */
+    private final int width;
+
+    /** The number of bits of the hash which choose the partition. */
+    private final int bits;
+
+    /** The group table of each partition. */
+    private final GroupTable[] partitions;
+
+    /** The number of the first group of each partition. */
+    private final int[] offsets;
+
+    /** The group of each row of the indexed table. */
+    private final int[] groups;
+
+    /**
+     * The default constructor. This indexes the keys of the rows of a table.
+     *
+     * @param keys The key of each row, one after another
+     * @param width The number of longs in each key
+     * @param rows The number of rows
+     */
+    KeyIndex(long[] keys, int width, int rows)
+    {
+        // Choose the number of partitions
+        this.width = width;
+        int target = Math.min(MAX_PARTITIONS, ForkJoinPool.getCommonPoolParallelism() * 4);
+        this.bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, target) - 1);
+        int count = 1 << this.bits;
+
+        // Find the partition of each row
+        int[] partition = new int[rows];
+        Arrays.parallelSetAll(partition, row -> this.partition(keys, row * width));
+
+        // Bucket the rows by partition, keeping them in order
+        int[] starts = new int[count + 1];
+        for (int row = 0; row < rows; row++) starts[partition[row] + 1]++;
+        for (int p = 0; p < count; p++) starts[p + 1] += starts[p];
+        int[] bucketed = new int[rows];
+        int[] positions = Arrays.copyOf(starts, count);
+        for (int row = 0; row < rows; row++) bucketed[positions[partition[row]]++] = row;
+
+        // Index each partition in parallel
+        this.partitions = new GroupTable[count];
+        this.groups = new int[rows];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int p = 0; p < count; p++)
+        {
+            int index = p;
+            tasks.add(ForkJoinTask.adapt(() ->
+            {
+                GroupTable table = new GroupTable(width);
+                for (int i = starts[index]; i < starts[index + 1]; i++)
+                {
+                    int row = bucketed[i];
+                    this.groups[row] = table.find(keys, row * width, row);
+                }
+                this.partitions[index] = table;
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        // And number the groups across the partitions
+        this.offsets = new int[count];
+        for (int p = 1; p < count; p++) this.offsets[p] = this.offsets[p - 1] + this.partitions[p - 1].size();
+        Arrays.parallelSetAll(this.groups, row -> this.groups[row] + this.offsets[partition[row]]);
+    }
+
+    /**
+     * A simple function which returns the number of distinct keys.
+     *
+     * @return The number of groups
+     */
+    int size()
+    {
+        int last = this.partitions.length - 1;
+        return this.offsets[last] + this.partitions[last].size();
+    }
+
+    /**
+     * A simple function which returns the group of a row of the indexed
+     * table.
+     *
+     * @param row The row
+     *
+     * @return The group of the row
+     */
+    int getGroup(int row)
+    {
+        return this.groups[row];
+    }
+
+    /**
+     * A function used to find the group of a key, such as the key of a row of
+     * another table.
+     *
+     * @param keys The array holding the key
+     * @param offset The position of the key within the array
+     *
+     * @return The group of the key, or -1 if no row has the key
+     */
+    int find(long[] keys, int offset)
+    {
+        int partition = this.partition(keys, offset);
+        int group = this.partitions[partition].get(keys, offset);
+        return group < 0 ? -1 : group + this.offsets[partition];
+    }
+
+    /**
+     * A function used to find the partition of a key, from the highest bits of
+     * its hash.
+     *
+     * @param keys The array holding the key
+     * @param offset The position of the key within the array
+     *
+     * @return The partition of the key
+     */
+    private int partition(long[] keys, int offset)
+    {
+        return this.bits == 0 ? 0 : GroupTable.hash(keys, offset, this.width) >>> (32 - this.bits);
+    }
+}
@@ -0,0 +1,88 @@
+package com.stata.analysis;
+
+/**
+ * The merge type enum. This lists the kinds of merge between two tables, and
+ * which of the tables must have keys which identify each of their rows.
+ *
+ * @author Dan Jenkins
+ */
+public enum MergeType
+{
+    ONE_TO_ONE("1:1", true, true),
+    MANY_TO_ONE("m:1", false, true),
+    ONE_TO_MANY("1:m", true, false);
+
+    /** The name of the merge type. */
+    private final String name;
+
+    /** Whether the keys must identify each row of the master and using tables. */
+    private final boolean uniqueMaster, uniqueUsing;
+
+    /**
+     * The default constructor. This creates a new merge type.
+     *
+     * @param name The name of the merge type
+     * @param uniqueMaster Whether the keys must identify each master row
+     * @param uniqueUsing Whether the keys must identify each using row
+     */
+    private MergeType(String name, boolean uniqueMaster, boolean uniqueUsing)
+    {
+        this.name = name;
+        this.uniqueMaster = uniqueMaster;
+        this.uniqueUsing = uniqueUsing;
+    }
+
+    /**
+     * A simple function which returns the name of the merge type, as written
+     * in the merge command.
+     *
+     * @return The name of the merge type
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * A simple function which returns whether the keys must identify each row
+     * of the master table.
+     *
+     * @return Whether the master keys must be unique
+     */
+    public boolean isUniqueMaster()
+    {
+        return this.uniqueMaster;
+    }
+
+    /**
+     * A simple function which returns whether the keys must identify each row
+     * of the using table.
+     *
+     * @return Whether the using keys must be unique
+     */
+    public boolean isUniqueUsing()
+    {
+        return this.uniqueUsing;
+    }
+
+    /**
+     * A simple function to get a MergeType from its name.
+     *
+     * @param string The name of the merge type
+     *
+     * @return The MergeType match, or null if there is no such type
+     */
+    public static MergeType fromString(String string)
+    {
+        // Iterate through each of our types
+        for (MergeType type : MergeType.values())
+        {
+            // Test for a match and return
+            if (type.getName().equals(string))
+                return type;
+        }
+
+        // If we haven't found anything, return null
+        return null;
+    }
+}
@@ -0,0 +1,465 @@
+package com.stata.analysis;
+
+import com.stata.project.Datatable;
+import com.stata.project.Datatype;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.Storage;
+import com.stata.project.columns.StringColumn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The Merger class. This static class merges two tables on the values of one
+ * or more key columns, like the merge command. Rows whose keys are equal are
+ * matched, with missing keys matching each other, and each row of the result
+ * records where it came from in a _merge column:
+ *
+ * 1. The row was only found in the master table.
+ * 2. The row was only found in the using table.
+ * 3. The row was matched between the tables.
+ *
+ * The result holds the rows of the master table in order, each followed by
+ * any further rows it matched, and then the rows of the using table which
+ * weren't matched. Columns found in both tables keep the values of the master
+ * table, except on rows only found in the using table.
+ *
+ * The join is a partitioned hash join. The keys of both tables are encoded as
+ * primitive tuples, with text translated into the dictionary of the master
+ * table, and the smaller table is indexed on its keys. The rows of the larger
+ * table then probe the index in parallel.
+ *
+ * @author Dan Jenkins
+ */
+public class Merger
+{
+    /** The name of the column recording where each row came from. */
+    public static final String MERGE_COLUMN = "_merge";
+
+    /** The values of the merge column. */
+    public static final int MASTER_ONLY = 1, USING_ONLY = 2, MATCHED = 3;
+
+    /**
+     * The merge function. This merges a using table into a master table.
+     *
+     * @param master The master table
+     * @param using The using table
+     * @param type The type of merge, stating which tables have unique keys
+     * @param keys The names of the key columns
+     *
+     * @return The merged table
+     */
+    public static Datatable merge(Datatable master, Datatable using, MergeType type, List<String> keys)
+    {
+        // Make sure that the data of both tables is loaded, so that their row counts are known
+        using.load();
+        master.load();
+
+        // Check that the key columns fit
+        if (keys.isEmpty())                   throw new IllegalArgumentException("no key variables specified");
+        if (keys.size() >= Long.SIZE)         throw new IllegalArgumentException("too many key variables");
+        if (master.getColumn(MERGE_COLUMN) != null) throw new IllegalArgumentException("variable " + MERGE_COLUMN + " already defined");
+
+        // Encode the keys of each table
+        int width = keys.size() + 1;
+        long[] masterKeys = new long[Merger.getKeySize(master.getRowCount(), width, "master")];
+        long[] usingKeys = new long[Merger.getKeySize(using.getRowCount(), width, "using")];
+        for (int k = 0; k < keys.size(); k++)
+        {
+            Merger.encode(master, using, keys.get(k), k, width, masterKeys, usingKeys);
+        }
+
+        // Index the smaller table and probe it with the larger one
+        int[] masterGroups, usingGroups;
+        boolean uniqueMaster, uniqueUsing;
+        if (using.getRowCount() <= master.getRowCount())
+        {
+            KeyIndex index = new KeyIndex(usingKeys, width, using.getRowCount());
+            usingGroups = Merger.groups(index, using.getRowCount());
+            masterGroups = Merger.probe(index, masterKeys, width, master.getRowCount());
+            uniqueUsing = index.size() == using.getRowCount();
+            uniqueMaster = !type.isUniqueMaster() || Merger.isUnique(masterKeys, width, master.getRowCount());
+        }
+        else
+        {
+            KeyIndex index = new KeyIndex(masterKeys, width, master.getRowCount());
+            masterGroups = Merger.groups(index, master.getRowCount());
+            usingGroups = Merger.probe(index, usingKeys, width, using.getRowCount());
+            uniqueMaster = index.size() == master.getRowCount();
+            uniqueUsing = !type.isUniqueUsing() || Merger.isUnique(usingKeys, width, using.getRowCount());
+        }
+
+        // Check that the keys identify the rows where they must
+        if (type.isUniqueMaster() && !uniqueMaster)
+        {
+            throw new IllegalArgumentException("variables " + String.join(" ", keys) + " do not uniquely identify observations in the master data");
+        }
+        if (type.isUniqueUsing() && !uniqueUsing)
+        {
+            throw new IllegalArgumentException("variables " + String.join(" ", keys) + " do not uniquely identify observations in the using data");
+        }
+
+        // Pair up the rows of the tables
+        int[][] pairs = Merger.pair(masterGroups, usingGroups);
+
+        // And build the merged table
+        return Merger.build(master, using, pairs[0], pairs[1]);
+    }
+
+    /**
+     * A function used to find the number of values needed to hold the encoded
+     * keys of a table, which is one more than the number of keys per row.
+     *
+     * @param rows The number of rows in the table
+     * @param width The number of values per row
+     * @param side The name of the table in error messages
+     *
+     * @return The number of values
+     */
+    static int getKeySize(int rows, int width, String side)
+    {
+        try
+        {
+            return Math.multiplyExact(rows, width);
+        }
+        catch (ArithmeticException exception)
+        {
+            throw new IllegalArgumentException("too many observations in the " + side + " data to merge on " + (width - 1) + " key variables");
+        }
+    }
+
+    /**
+     * A function used to find a column of a table by its name.
+     *
+     * @param table The table holding the column
+     * @param name The name of the column
+     * @param side The name of the table in error messages
+     *
+     * @return The column
+     */
+    private static Column column(Datatable table, String name, String side)
+    {
+        // Find the column
+        Column column = table.getColumn(name);
+
+        // And check that it exists
+        if (column == null) throw new IllegalArgumentException("variable " + name + " not found in " + side + " data");
+        return column;
+    }
+
+    /**
+     * A function used to encode a key column of both tables into their key
+     * tuples. Numbers are compared as doubles if either table stores them as
+     * doubles, and text in the using table is translated into the dictionary
+     * of the master table, with text only found in the using table given
+     * codes past the end of that dictionary.
+     *
+     * @param master The master table
+     * @param using The using table
+     * @param name The name of the key column
+     * @param k The index of the key column
+     * @param width The number of longs in each key tuple
+     * @param masterKeys The key tuples of the master table
+     * @param usingKeys The key tuples of the using table
+     */
+    private static void encode(Datatable master, Datatable using, String name, int k, int width, long[] masterKeys, long[] usingKeys)
+    {
+        // Find the columns
+        Column masterColumn = Merger.column(master, name, "master");
+        Column usingColumn = Merger.column(using, name, "using");
+
+        // Check that the columns can be compared
+        boolean masterText = masterColumn.getType() == Datatype.STRING;
+        boolean usingText = usingColumn.getType() == Datatype.STRING;
+        if (masterText != usingText && masterColumn.getType() != Datatype.NULL && usingColumn.getType() != Datatype.NULL)
+        {
+            throw new IllegalArgumentException("key variable " + name + " is " + (masterText ? "str" : "numeric") + " in master but " + (usingText ? "str" : "numeric") + " in using data");
+        }
+
+        // Decide how to compare the values
+        boolean doubles = masterColumn instanceof NumberColumn || usingColumn instanceof NumberColumn;
+        long[] translation = null;
+        if (masterColumn instanceof StringColumn && usingColumn instanceof StringColumn)
+        {
+            // Translate each code of the using table
+            List<String> masterDictionary = ((StringColumn) masterColumn).getDictionary();
+            List<String> usingDictionary = ((StringColumn) usingColumn).getDictionary();
+            Map<String, Integer> codes = new HashMap<>();
+            for (int c = 0; c < masterDictionary.size(); c++) codes.put(masterDictionary.get(c), c);
+            translation = new long[usingDictionary.size()];
+            for (int c = 0; c < translation.length; c++)
+            {
+                Integer code = codes.get(usingDictionary.get(c));
+                translation[c] = code != null ? code : masterDictionary.size() + c;
+            }
+        }
+
+        // And encode each of the tables
+        Merger.encode(masterColumn, master.getRowCount(), k, width, doubles && !(masterColumn instanceof NumberColumn), null, masterKeys);
+        Merger.encode(usingColumn, using.getRowCount(), k, width, doubles && !(usingColumn instanceof NumberColumn), translation, usingKeys);
+    }
+
+    /**
+     * A function used to encode a key column into the key tuples of its table,
+     * encoding each segment in parallel.
+     *
+     * @param column The key column
+     * @param rows The number of rows in the table
+     * @param k The index of the key column
+     * @param width The number of longs in each key tuple
+     * @param widen Whether to encode the values as doubles
+     * @param translation The new code of each dictionary code, or null
+     * @param keys The key tuples of the table
+     */
+    private static void encode(Column column, int rows, int k, int width, boolean widen, long[] translation, long[] keys)
+    {
+        int segments = (rows + Column.SEGMENT_SIZE - 1) >>> Column.SEGMENT_SHIFT;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int s = 0; s < segments; s++)
+        {
+            int segment = s;
+            tasks.add(ForkJoinTask.adapt(() ->
+            {
+                // Encode the segment
+                int start = segment << Column.SEGMENT_SHIFT;
+                int end = Math.min(start + Column.SEGMENT_SIZE, rows);
+                long[] values = new long[end - start];
+                long[] masks = new long[end - start];
+                Accumulator.encode(column, segment, start, end, values, masks, k);
+
+                // And copy the values into the key tuples
+                for (int i = 0, offset = start * width; i < values.length; i++, offset += width)
+                {
+                    long value = values[i];
+                    if (masks[i] == 0 && translation != null) value = translation[(int) value];
+                    if (masks[i] == 0 && widen)               value = Double.doubleToLongBits((double) value);
+                    keys[offset] |= masks[i];
+                    keys[offset + k + 1] = value;
+                }
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * A function used to find the group of each row of an indexed table.
+     *
+     * @param index The index of the table
+     * @param rows The number of rows in the table
+     *
+     * @return The group of each row
+     */
+    private static int[] groups(KeyIndex index, int rows)
+    {
+        int[] groups = new int[rows];
+        Arrays.parallelSetAll(groups, index::getGroup);
+        return groups;
+    }
+
+    /**
+     * A function used to probe an index with the rows of a table in parallel.
+     *
+     * @param index The index to probe
+     * @param keys The key tuples of the table
+     * @param width The number of longs in each key tuple
+     * @param rows The number of rows in the table
+     *
+     * @return The group of each row, or -1 for rows which aren't in the index
+     */
+    private static int[] probe(KeyIndex index, long[] keys, int width, int rows)
+    {
+        int[] groups = new int[rows];
+        Arrays.parallelSetAll(groups, row -> index.find(keys, row * width));
+        return groups;
+    }
+
+    /**
+     * A function used to check whether each row of a table has its own key.
+     *
+     * @param keys The key tuples of the table
+     * @param width The number of longs in each key tuple
+     * @param rows The number of rows in the table
+     *
+     * @return Whether the keys are unique
+     */
+    private static boolean isUnique(long[] keys, int width, int rows)
+    {
+        return new KeyIndex(keys, width, rows).size() == rows;
+    }
+
+    /**
+     * A function used to pair up the rows of the tables from the groups of
+     * their keys. Each master row is paired with every using row in its
+     * group, or with no row, and the using rows which aren't paired follow.
+     *
+     * @param masterGroups The group of each master row, or -1
+     * @param usingGroups The group of each using row, or -1
+     *
+     * @return The master rows and the using rows of each pair, or -1
+     */
+    private static int[][] pair(int[] masterGroups, int[] usingGroups)
+    {
+        // Find the number of groups
+        int groups = 0;
+        for (int group : masterGroups) groups = Math.max(groups, group + 1);
+        for (int group : usingGroups)  groups = Math.max(groups, group + 1);
+
+        // Bucket the using rows by group, keeping them in order
+        int[] starts = new int[groups + 1];
+        for (int group : usingGroups) if (group >= 0) starts[group + 1]++;
+        for (int g = 0; g < groups; g++) starts[g + 1] += starts[g];
+        int[] bucketed = new int[starts[groups]];
+        int[] positions = Arrays.copyOf(starts, groups);
+        for (int row = 0; row < usingGroups.length; row++)
+        {
+            if (usingGroups[row] >= 0) bucketed[positions[usingGroups[row]]++] = row;
+        }
+
+        // Note which groups hold master rows, and count the pairs
+        boolean[] matched = new boolean[groups];
+        long count = 0;
+        for (int group : masterGroups)
+        {
+            if (group >= 0) matched[group] = true;
+            count += group >= 0 ? Math.max(1, starts[group + 1] - starts[group]) : 1;
+        }
+        for (int group : usingGroups) if (group < 0 || !matched[group]) count++;
+        if (count > Integer.MAX_VALUE) throw new IllegalArgumentException("too many observations in merged data");
+
+        // Pair each master row with its using rows
+        int[] masterRows = new int[(int) count];
+        int[] usingRows = new int[(int) count];
+        int pair = 0;
+        for (int row = 0; row < masterGroups.length; row++)
+        {
+            int group = masterGroups[row];
+            if (group < 0 || starts[group] == starts[group + 1])
+            {
+                masterRows[pair] = row;
+                usingRows[pair++] = -1;
+                continue;
+            }
+            for (int i = starts[group]; i < starts[group + 1]; i++)
+            {
+                masterRows[pair] = row;
+                usingRows[pair++] = bucketed[i];
+            }
+        }
+
+        // And add the using rows which weren't paired
+        for (int row = 0; row < usingGroups.length; row++)
+        {
+            int group = usingGroups[row];
+            if (group >= 0 && matched[group]) continue;
+            masterRows[pair] = -1;
+            usingRows[pair++] = row;
+        }
+        return new int[][] { masterRows, usingRows };
+    }
+
+    /**
+     * A function used to build the merged table from the pairs of rows. The
+     * columns are gathered in parallel.
+     *
+     * @param master The master table
+     * @param using The using table
+     * @param masterRows The master row of each pair, or -1
+     * @param usingRows The using row of each pair, or -1
+     *
+     * @return The merged table
+     */
+    private static Datatable build(Datatable master, Datatable using, int[] masterRows, int[] usingRows)
+    {
+        // Find the headers of the merged table
+        List<String> headers = new ArrayList<>(master.getHeaders());
+        for (String header : using.getHeaders())
+        {
+            if (!headers.contains(header)) headers.add(header);
+        }
+
+        // Gather each of the columns in parallel
+        Column[] columns = new Column[headers.size()];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int c = 0; c < columns.length; c++)
+        {
+            int index = c;
+            tasks.add(ForkJoinTask.adapt(() ->
+            {
+                Column masterColumn = master.getColumn(headers.get(index));
+                Column usingColumn = using.getColumn(headers.get(index));
+                columns[index] = Merger.gather(masterColumn, masterRows, usingColumn, usingRows, master.getStorage());
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        // Create the merged table
+        Datatable result = new Datatable();
+        result.setName(master.getName());
+        result.setStorage(master.getStorage());
+        for (int c = 0; c < columns.length; c++) result.addColumn(headers.get(c), columns[c]);
+
+        // And add the column recording where each row came from
+        IntegerColumn merge = new IntegerColumn(master.getStorage());
+        for (int pair = 0; pair < masterRows.length; pair++)
+        {
+            merge.append(masterRows[pair] < 0 ? USING_ONLY : usingRows[pair] < 0 ? MASTER_ONLY : MATCHED);
+        }
+        result.addColumn(MERGE_COLUMN, merge);
+        return result;
+    }
+
+    /**
+     * A function used to gather a column of the merged table, taking the
+     * value of the master row of each pair where there is one, and the value
+     * of the using row otherwise.
+     *
+     * @param masterColumn The column of the master table, or null
+     * @param masterRows The master row of each pair, or -1
+     * @param usingColumn The column of the using table, or null
+     * @param usingRows The using row of each pair, or -1
+     * @param storage The storage for the gathered column
+     *
+     * @return The gathered column
+     */
+    private static Column gather(Column masterColumn, int[] masterRows, Column usingColumn, int[] usingRows, Storage storage)
+    {
+        // Create a column able to hold the values of both tables
+        Datatype type = Datatype.widen(masterColumn == null ? Datatype.NULL : masterColumn.getType(), usingColumn == null ? Datatype.NULL : usingColumn.getType());
+        Column column = Column.create(type, storage);
+
+        // And copy the value of each pair
+        for (int pair = 0; pair < masterRows.length; pair++)
+        {
+            if (masterColumn != null && masterRows[pair] >= 0) Merger.copy(masterColumn, masterRows[pair], column);
+            else if (usingColumn != null && usingRows[pair] >= 0) Merger.copy(usingColumn, usingRows[pair], column);
+            else column.appendMissing();
+        }
+        return column;
+    }
+
+    /**
+     * A function used to copy a value from one column to the end of another.
+     * Values are copied directly between columns of the same type, and
+     * formatted and parsed again otherwise.
+     *
+     * @param source The column to copy from
+     * @param row The row to copy
+     * @param target The column to copy to
+     */
+    private static void copy(Column source, int row, Column target)
+    {
+        if (source.isMissing(row))                                                    target.appendMissing();
+        else if (source instanceof NumberColumn && target instanceof NumberColumn)   ((NumberColumn) target).append(((NumberColumn) source).getDouble(row));
+        else if (source instanceof IntegerColumn && target instanceof IntegerColumn) ((IntegerColumn) target).append(((IntegerColumn) source).getLong(row));
+        else if (source instanceof IntegerColumn && target instanceof NumberColumn)  ((NumberColumn) target).append((double) ((IntegerColumn) source).getLong(row));
+        else if (source instanceof BooleanColumn && target instanceof BooleanColumn) ((BooleanColumn) target).append(((BooleanColumn) source).getBoolean(row));
+        else                                                                          target.append(source.get(row));
+    }
+}
@@ -0,0 +1,170 @@
+package com.stata.analysis;
+
+/**
+ * The numeric kernels class. This holds the arithmetic loops which the
+ * analyses spend most of their time in, such as sums, bounds and dot
+ * products of runs of numbers, elementwise arithmetic, and comparisons
+ * producing masks of rows.
+ *
+ * The kernels are chosen once when Stata starts. Vector kernels, which use
+ * the SIMD instructions of the processor through the incubating vector API,
+ * are used when the build includes them and the jdk.incubator.vector module
+ * is available. Otherwise, the scalar kernels are used.
+ *
+ * @author Dan Jenkins
+ */
+public abstract class NumericKernels
+{
+    /** The name of the class holding the vector kernels. */
+    private static final String VECTOR_KERNELS = "com.stata.analysis.VectorKernels";
+
+    /** The name of the module holding the vector API. */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /** The kernels in use. */
+    private static volatile NumericKernels instance;
+
+    /**
+     * A simple function which returns the kernels in use, choosing them if
+     * they haven't been chosen yet.
+     *
+     * @return The numeric kernels
+     */
+    public static NumericKernels getInstance()
+    {
+        // Choose the kernels if necessary
+        if (NumericKernels.instance == null) NumericKernels.select(true);
+
+        // And return the kernels
+        return NumericKernels.instance;
+    }
+
+    /**
+     * A function used to choose the kernels, such as when Stata starts. The
+     * scalar kernels are used if the vector kernels aren't wanted or can't be
+     * loaded.
+     *
+     * @param vector Whether to use the vector kernels if they are available
+     */
+    public static synchronized void select(boolean vector)
+    {
+        // Try to load the vector kernels
+        if (vector && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent())
+        {
+            try
+            {
+                NumericKernels.instance = (NumericKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+                return;
+            }
+            catch (ReflectiveOperationException | LinkageError exception)
+            {
+                // The build doesn't include the vector kernels
+            }
+        }
+
+        // And fall back to the scalar kernels
+        NumericKernels.instance = new ScalarKernels();
+    }
+
+    /**
+     * A simple function which returns the name of the kernels, for display.
+     *
+     * @return The name of the kernels
+     */
+    public abstract String getName();
+
+    /**
+     * A function used to sum a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The sum of the values
+     */
+    public abstract double sum(double[] values, int from, int to);
+
+    /**
+     * A function used to sum the squared differences of a range of values from
+     * a centre, such as their mean.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     * @param centre The value to find the differences from
+     *
+     * @return The sum of the squared differences
+     */
+    public abstract double squares(double[] values, int from, int to, double centre);
+
+    /**
+     * A function used to sum the products of two ranges of values, which is
+     * their dot product.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The sum of the products
+     */
+    public abstract double dot(double[] a, double[] b, int from, int to);
+
+    /**
+     * A function used to find the smallest of a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The smallest value, or positive infinity if the range is empty
+     */
+    public abstract double min(double[] values, int from, int to);
+
+    /**
+     * A function used to find the largest of a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The largest value, or negative infinity if the range is empty
+     */
+    public abstract double max(double[] values, int from, int to);
+
+    /**
+     * A function used to add two ranges of values elementwise.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param result The array to store the sums in, which may be either input
+     * @param from The first index of the range
+     * @param to The end of the range
+     */
+    public abstract void add(double[] a, double[] b, double[] result, int from, int to);
+
+    /**
+     * A function used to multiply two ranges of values elementwise.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param result The array to store the products in, which may be either input
+     * @param from The first index of the range
+     * @param to The end of the range
+     */
+    public abstract void multiply(double[] a, double[] b, double[] result, int from, int to);
+
+    /**
+     * A function used to compare up to 64 values with a range, producing a
+     * mask with a bit set for each value within the range.
+     *
+     * @param values The values
+     * @param from The index of the first value
+     * @param count The number of values, at most 64
+     * @param low The smallest value within the range
+     * @param high The largest value within the range
+     *
+     * @return The mask, with the first value in the lowest bit
+     */
+    public abstract long range(double[] values, int from, int count, double low, double high);
+}
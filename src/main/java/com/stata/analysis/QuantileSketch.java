@@ -0,0 +1,374 @@
+package com.stata.analysis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The quantile sketch class. This estimates the quantiles of a stream of
+ * values in a small, fixed amount of memory, in the style of the KLL sketch
+ * of Karnin, Lang and Liberty. Values are kept in a stack of levels, where
+ * each value at level h stands for 2^h of the original values. When a level
+ * fills up, it is sorted and every other value is promoted to the level
+ * above, so the sketch keeps a few hundred values however many it has seen.
+ *
+ * Sketches of separate ranges of a column can be merged, so that they can be
+ * built in parallel, and the rank of each quantile is accurate to within
+ * about one percent of the number of values.
+ *
+ * @author Dan Jenkins
+ */
+public class QuantileSketch
+{
+    /** The capacity of the highest level, which sets the accuracy. */
+    private static final int K = 200;
+
+    /** The ratio between the capacities of neighbouring levels. */
+    private static final double RATIO = 2.0 / 3;
+
+    /** The smallest capacity of a level. */
+    private static final int MIN_CAPACITY = 8;
+
+    /** The number of values sampled from a block of values before they are added. */
+    private static final int SAMPLE_SIZE = 1 << 13;
+
+    /** The values held at each level. */
+    private double[][] levels;
+
+    /** The number of values held at each level. */
+    private int[] sizes;
+
+    /** The number of values held across the levels. */
+    private int retained;
+
+    /** The number of values held once the levels are full. */
+    private int capacity;
+
+    /** The number of values that the sketch has seen. */
+    private long count;
+
+    /** The smallest and largest values that the sketch has seen. */
+    private double min, max;
+
+    /**
+     * The default constructor. This creates an empty sketch.
+     */
+    public QuantileSketch()
+    {
+        this.levels = new double[][] { new double[K] };
+        this.sizes = new int[1];
+        this.capacity = this.getCapacity();
+        this.min = Double.NaN;
+        this.max = Double.NaN;
+    }
+
+    /**
+     * A simple function which returns the number of values that the sketch
+     * has seen.
+     *
+     * @return The number of values
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * A function used to add a value to the sketch.
+     *
+     * @param value The value to add
+     */
+    public void add(double value)
+    {
+        // Add the value to the lowest level
+        this.append(0, value);
+        this.count++;
+        this.bound(value);
+
+        // And compact the levels if they are full
+        this.compress();
+    }
+
+    /**
+     * A function used to add a block of values to the sketch. Large blocks
+     * are sampled first, taking one value at random from each group of 2^h
+     * neighbouring values and adding it at level h, which stands for the
+     * values that it was chosen from. This is what compacting the lowest
+     * levels would do, without sorting them.
+     *
+     * @param values The values to add
+     * @param from The first value
+     * @param to The end of the range of values
+     */
+    public void addAll(double[] values, int from, int to)
+    {
+        // Check whether we have any values
+        if (to <= from) return;
+
+        // Find the bounds of the values
+        NumericKernels kernels = NumericKernels.getInstance();
+        this.bound(kernels.min(values, from, to));
+        this.bound(kernels.max(values, from, to));
+        this.count += to - from;
+
+        // Find the level which keeps a sample of the right size
+        int level = 0;
+        while ((to - from) >> level > SAMPLE_SIZE) level++;
+
+        // Sample a value from each whole group of values
+        int group = 1 << level, i = from;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (; i + group <= to; i += group)
+        {
+            this.append(level, values[i + (group == 1 ? 0 : random.nextInt(group))]);
+        }
+
+        // Add the rest of the values individually
+        for (; i < to; i++) this.append(0, values[i]);
+
+        // And compact the levels
+        this.compress();
+    }
+
+    /**
+     * A function used to merge the sketch of another range of values into
+     * this one.
+     *
+     * @param other The sketch to merge
+     */
+    public void merge(QuantileSketch other)
+    {
+        // Add the values of each level
+        for (int h = 0; h < other.levels.length; h++)
+        {
+            for (int i = 0; i < other.sizes[h]; i++) this.append(h, other.levels[h][i]);
+        }
+
+        // Merge the counts and bounds
+        this.count += other.count;
+        if (other.count > 0)
+        {
+            this.bound(other.min);
+            this.bound(other.max);
+        }
+
+        // And compact the levels
+        this.compress();
+    }
+
+    /**
+     * A function used to create a copy of the sketch.
+     *
+     * @return The copy
+     */
+    public QuantileSketch copy()
+    {
+        QuantileSketch copy = new QuantileSketch();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * A function used to estimate the value at a quantile of the values.
+     *
+     * @param quantile The quantile, between zero and one
+     *
+     * @return The estimated value, or NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile)
+    {
+        // Check whether we have any values, and whether we want the bounds
+        if (this.count == 0) return Double.NaN;
+        if (quantile <= 0) return this.min;
+        if (quantile >= 1) return this.max;
+
+        // Gather the values along with their levels
+        long[] items = new long[this.retained];
+        double[] values = new double[this.retained];
+        int index = 0;
+        for (int h = 0; h < this.levels.length; h++)
+        {
+            for (int i = 0; i < this.sizes[h]; i++)
+            {
+                values[index] = this.levels[h][i];
+                items[index] = ((long) index << 8) | h;
+                index++;
+            }
+        }
+
+        // Sort the values, carrying their levels with them
+        Long[] order = new Long[index];
+        for (int i = 0; i < index; i++) order[i] = items[i];
+        Arrays.sort(order, (a, b) -> Double.compare(values[(int) (a >>> 8)], values[(int) (b >>> 8)]));
+
+        // And find the value whose weight passes the rank of the quantile
+        double rank = quantile * this.count;
+        long weight = 0;
+        for (Long item : order)
+        {
+            weight += 1L << (item & 0xFF);
+            if (weight >= rank) return values[(int) (item >>> 8)];
+        }
+        return this.max;
+    }
+
+    /**
+     * A function used to widen the bounds to hold a value.
+     *
+     * @param value The value
+     */
+    private void bound(double value)
+    {
+        if (!(value >= this.min)) this.min = Double.isNaN(this.min) ? value : Math.min(this.min, value);
+        if (!(value <= this.max)) this.max = Double.isNaN(this.max) ? value : Math.max(this.max, value);
+    }
+
+    /**
+     * A function used to add a value to a level, adding the level if it
+     * doesn't exist yet.
+     *
+     * @param level The level
+     * @param value The value
+     */
+    private void append(int level, double value)
+    {
+        // Add any missing levels
+        if (level >= this.levels.length)
+        {
+            int from = this.levels.length;
+            this.levels = Arrays.copyOf(this.levels, level + 1);
+            this.sizes = Arrays.copyOf(this.sizes, level + 1);
+            for (int h = from; h <= level; h++) this.levels[h] = new double[K];
+            this.capacity = this.getCapacity();
+        }
+
+        // Grow the level if necessary
+        if (this.sizes[level] == this.levels[level].length)
+        {
+            this.levels[level] = Arrays.copyOf(this.levels[level], this.sizes[level] * 2);
+        }
+
+        // And add the value
+        this.levels[level][this.sizes[level]++] = value;
+        this.retained++;
+    }
+
+    /**
+     * A function used to compact the lowest full levels until the sketch
+     * fits within its capacity.
+     */
+    private void compress()
+    {
+        while (this.retained > this.capacity)
+        {
+            // Find the lowest level which is full
+            int level = 0;
+            while (level < this.levels.length - 1 && this.sizes[level] < this.getCapacity(level)) level++;
+
+            // And compact it
+            this.compact(level);
+        }
+    }
+
+    /**
+     * A function used to compact a level, sorting it and promoting every
+     * other value to the level above. The first or second value of each pair
+     * is chosen at random, so that the ranks stay unbiased.
+     *
+     * @param level The level to compact
+     */
+    private void compact(int level)
+    {
+        // Sort the values, keeping back one value if there are an odd number
+        double[] values = this.levels[level];
+        int size = this.sizes[level], pairs = size & ~1;
+        Arrays.sort(values, 0, size);
+
+        // Promote every other value
+        for (int i = ThreadLocalRandom.current().nextInt(2); i < pairs; i += 2) this.append(level + 1, values[i]);
+
+        // And keep the odd value behind
+        values = this.levels[level];
+        if (pairs < size) values[0] = values[size - 1];
+        this.sizes[level] = size - pairs;
+        this.retained -= pairs;
+    }
+
+    /**
+     * A function used to find the capacity of a level. The capacities shrink
+     * geometrically below the highest level, so most of the values are kept
+     * at the highest levels, which stand for the most values.
+     *
+     * @param level The level
+     *
+     * @return The capacity of the level
+     */
+    private int getCapacity(int level)
+    {
+        int depth = this.levels.length - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(K * Math.pow(RATIO, depth)));
+    }
+
+    /**
+     * A function used to find the capacity of the whole sketch.
+     *
+     * @return The total capacity of the levels
+     */
+    private int getCapacity()
+    {
+        int capacity = 0;
+        for (int h = 0; h < this.levels.length; h++) capacity += this.getCapacity(h);
+        return capacity;
+    }
+
+    /**
+     * A function used to export the sketch for storage in a file.
+     *
+     * @return The sketch encoded as text
+     */
+    public String getString()
+    {
+        // Allocate a buffer for the sketch
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 2 * Double.BYTES + Integer.BYTES
+            + this.levels.length * Integer.BYTES + this.retained * Double.BYTES);
+
+        // Write the count and bounds
+        buffer.putLong(this.count).putDouble(this.min).putDouble(this.max);
+
+        // And write the values of each level
+        buffer.putInt(this.levels.length);
+        for (int h = 0; h < this.levels.length; h++)
+        {
+            buffer.putInt(this.sizes[h]);
+            for (int i = 0; i < this.sizes[h]; i++) buffer.putDouble(this.levels[h][i]);
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    /**
+     * A function used to import a sketch from a file.
+     *
+     * @param string The sketch encoded as text
+     *
+     * @return The sketch
+     */
+    public static QuantileSketch fromString(String string)
+    {
+        // Read the count and bounds
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(string));
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.count = buffer.getLong();
+        sketch.min = buffer.getDouble();
+        sketch.max = buffer.getDouble();
+
+        // And read the values of each level
+        int levels = buffer.getInt();
+        for (int h = 0; h < levels; h++)
+        {
+            int size = buffer.getInt();
+            for (int i = 0; i < size; i++) sketch.append(h, buffer.getDouble());
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,273 @@
+package com.stata.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The regression class. This holds the results of a linear regression, in
+ * the style of the regress command: the coefficient of each independent
+ * variable and of the constant, their standard errors, and the fit of the
+ * model. Variables which are collinear with the variables before them are
+ * omitted, with a coefficient of zero and a missing standard error.
+ *
+ * @author Dan Jenkins
+ */
+public class Regression
+{
+    /** The name of the constant term. */
+    public static final String CONSTANT = "_cons";
+
+    /** The name of the dependent variable. */
+    private final String dependent;
+
+    /** The names of the terms, with the constant last. */
+    private final List<String> terms;
+
+    /** The coefficient of each term. */
+    private final double[] coefficients;
+
+    /** The standard error of each coefficient. */
+    private final double[] errors;
+
+    /** Whether each term was omitted. */
+    private final boolean[] omitted;
+
+    /** The number of observations used. */
+    private final long count;
+
+    /** The model and residual degrees of freedom. */
+    private final long modelDegrees, residualDegrees;
+
+    /** The model and residual sums of squares. */
+    private final double modelSquares, residualSquares;
+
+    /**
+     * The default constructor. This creates the results of a regression.
+     *
+     * @param dependent The name of the dependent variable
+     * @param independents The names of the independent variables
+     * @param coefficients The coefficient of each term, with the constant last
+     * @param errors The standard error of each coefficient
+     * @param omitted Whether each term was omitted
+     * @param count The number of observations used
+     * @param modelSquares The model sum of squares
+     * @param residualSquares The residual sum of squares
+     */
+    Regression(String dependent, List<String> independents, double[] coefficients, double[] errors, boolean[] omitted,
+        long count, double modelSquares, double residualSquares)
+    {
+        // Store the terms
+        this.dependent = dependent;
+        this.terms = new ArrayList<>(independents);
+        this.terms.add(CONSTANT);
+        this.coefficients = coefficients;
+        this.errors = errors;
+        this.omitted = omitted;
+
+        // Store the fit of the model
+        this.count = count;
+        this.modelSquares = modelSquares;
+        this.residualSquares = residualSquares;
+
+        // And find the degrees of freedom from the terms that were kept
+        long parameters = 0;
+        for (boolean omit : omitted) if (!omit) parameters++;
+        this.modelDegrees = parameters - 1;
+        this.residualDegrees = count - parameters;
+    }
+
+    /**
+     * A simple function which returns the name of the dependent variable.
+     *
+     * @return The dependent variable
+     */
+    public String getDependent()
+    {
+        return this.dependent;
+    }
+
+    /**
+     * A simple function which returns the names of the terms, which are the
+     * independent variables followed by the constant.
+     *
+     * @return The names of the terms
+     */
+    public List<String> getTerms()
+    {
+        return Collections.unmodifiableList(this.terms);
+    }
+
+    /**
+     * A simple function which returns the coefficient of a term.
+     *
+     * @param index The index of the term
+     *
+     * @return The coefficient, which is zero if the term was omitted
+     */
+    public double getCoefficient(int index)
+    {
+        return this.coefficients[index];
+    }
+
+    /**
+     * A simple function which returns the standard error of the coefficient
+     * of a term.
+     *
+     * @param index The index of the term
+     *
+     * @return The standard error, or NaN if the term was omitted
+     */
+    public double getStandardError(int index)
+    {
+        return this.errors[index];
+    }
+
+    /**
+     * A simple function which returns the t statistic of the coefficient of
+     * a term.
+     *
+     * @param index The index of the term
+     *
+     * @return The t statistic, or NaN if the term was omitted
+     */
+    public double getT(int index)
+    {
+        return this.coefficients[index] / this.errors[index];
+    }
+
+    /**
+     * A simple function which returns whether a term was omitted because it
+     * is collinear with the terms before it.
+     *
+     * @param index The index of the term
+     *
+     * @return Whether the term was omitted
+     */
+    public boolean isOmitted(int index)
+    {
+        return this.omitted[index];
+    }
+
+    /**
+     * A simple function which returns the number of observations used,
+     * which are the selected rows without any missing values.
+     *
+     * @return The number of observations
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * A simple function which returns the model degrees of freedom.
+     *
+     * @return The model degrees of freedom
+     */
+    public long getModelDegrees()
+    {
+        return this.modelDegrees;
+    }
+
+    /**
+     * A simple function which returns the residual degrees of freedom.
+     *
+     * @return The residual degrees of freedom
+     */
+    public long getResidualDegrees()
+    {
+        return this.residualDegrees;
+    }
+
+    /**
+     * A simple function which returns the model sum of squares.
+     *
+     * @return The model sum of squares
+     */
+    public double getModelSquares()
+    {
+        return this.modelSquares;
+    }
+
+    /**
+     * A simple function which returns the residual sum of squares.
+     *
+     * @return The residual sum of squares
+     */
+    public double getResidualSquares()
+    {
+        return this.residualSquares;
+    }
+
+    /**
+     * A simple function which returns the proportion of the variance of the
+     * dependent variable explained by the model.
+     *
+     * @return The R-squared, or NaN if the dependent variable is constant
+     */
+    public double getRSquared()
+    {
+        return this.modelSquares / (this.modelSquares + this.residualSquares);
+    }
+
+    /**
+     * A simple function which returns the R-squared adjusted for the
+     * degrees of freedom of the model.
+     *
+     * @return The adjusted R-squared, or NaN if there are no residual degrees of freedom
+     */
+    public double getAdjustedRSquared()
+    {
+        if (this.residualDegrees == 0) return Double.NaN;
+        return 1 - (1 - this.getRSquared()) * (this.count - 1) / this.residualDegrees;
+    }
+
+    /**
+     * A simple function which returns the standard deviation of the
+     * residuals.
+     *
+     * @return The root mean squared error, or NaN if there are no residual degrees of freedom
+     */
+    public double getRootMSE()
+    {
+        if (this.residualDegrees == 0) return Double.NaN;
+        return Math.sqrt(this.residualSquares / this.residualDegrees);
+    }
+
+    /**
+     * A simple function which returns the F statistic of the model, testing
+     * whether every coefficient other than the constant is zero.
+     *
+     * @return The F statistic, or NaN if the model has no terms or no residual degrees of freedom
+     */
+    public double getF()
+    {
+        if (this.modelDegrees == 0 || this.residualDegrees == 0) return Double.NaN;
+        return (this.modelSquares / this.modelDegrees) / (this.residualSquares / this.residualDegrees);
+    }
+
+    /**
+     * A function used to easily print a string representation of the
+     * regression, as a table of its coefficients.
+     *
+     * @return The regression as a string
+     */
+    @Override
+    public String toString()
+    {
+        // Print the fit of the model
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Number of obs = %d, F(%d, %d) = %.2f, R-squared = %.4f, Adj R-squared = %.4f, Root MSE = %g%n",
+            this.count, this.modelDegrees, this.residualDegrees, this.getF(), this.getRSquared(), this.getAdjustedRSquared(), this.getRootMSE()));
+
+        // And print each of the terms
+        builder.append(String.format("%12s | %12s %12s %8s%n", this.dependent, "Coefficient", "Std. err.", "t"));
+        for (int t = 0; t < this.terms.size(); t++)
+        {
+            if (this.omitted[t]) builder.append(String.format("%12s | %12s%n", this.terms.get(t), "(omitted)"));
+            else builder.append(String.format("%12s | %12g %12g %8.2f%n", this.terms.get(t), this.coefficients[t], this.errors[t], this.getT(t)));
+        }
+        return builder.toString();
+    }
+}
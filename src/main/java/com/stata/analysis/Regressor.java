@@ -0,0 +1,510 @@
+package com.stata.analysis;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.StringColumn;
+import com.stata.query.Selection;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Regressor class. This static class fits linear regressions by ordinary
+ * least squares, like the regress command. Rows which are missing any of the
+ * variables are left out.
+ *
+ * The data is read in a single pass, with ranges of the segments split across
+ * a fork-join pool. Each range gathers its rows into small blocks which fit
+ * in the cache, finds the means and cross products of the centred values of
+ * each block with the dot product kernels, and merges them into its running
+ * moments with the parallel update of Chan et al., as summaries are merged.
+ * Only one segment of each column is read at a time, so columns stored off
+ * the heap are streamed through without being held in memory. The normal
+ * equations are then solved from the moments with a Cholesky decomposition.
+ *
+ * @author Dan Jenkins
+ */
+public class Regressor
+{
+    /** The number of rows gathered into each block. */
+    private static final int BLOCK_SIZE = 1024;
+
+    /** The smallest pivot, relative to the variance of its variable, for the variable to be kept. */
+    private static final double TOLERANCE = 1e-10;
+
+    /**
+     * The regress function. This regresses a variable on some others over
+     * every row of a table.
+     *
+     * @param table The table holding the variables
+     * @param dependent The name of the dependent variable
+     * @param independents The names of the independent variables
+     *
+     * @return The results of the regression
+     */
+    public static Regression regress(Datatable table, String dependent, List<String> independents)
+    {
+        return Regressor.regress(table, dependent, independents, null);
+    }
+
+    /**
+     * The regress function. This regresses a variable on some others over
+     * the selected rows of a table, such as the rows which satisfy a query.
+     *
+     * @param table The table holding the variables
+     * @param dependent The name of the dependent variable
+     * @param independents The names of the independent variables
+     * @param selection The rows to use, or null for every row
+     *
+     * @return The results of the regression
+     */
+    public static Regression regress(Datatable table, String dependent, List<String> independents, Selection selection)
+    {
+        // Find the columns, with the dependent variable last
+        Column[] columns = new Column[independents.size() + 1];
+        for (int k = 0; k < independents.size(); k++) columns[k] = Regressor.column(table, independents.get(k));
+        columns[independents.size()] = Regressor.column(table, dependent);
+
+        // Find the moments of ranges of the segments in parallel
+        int rows = table.getRowCount();
+        int segments = (rows + Column.SEGMENT_SIZE - 1) >>> Column.SEGMENT_SHIFT;
+        int grain = Math.max(1, segments / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        Moments moments = ForkJoinPool.commonPool().invoke(new RegressionTask(columns, selection, rows, 0, segments, grain));
+
+        // Check that we have observations
+        if (moments.count == 0) throw new IllegalArgumentException("no observations");
+
+        // And solve the normal equations
+        return Regressor.solve(dependent, independents, moments);
+    }
+
+    /**
+     * A function used to find a numeric column of a table by its name.
+     *
+     * @param table The table holding the column
+     * @param name The name of the column
+     *
+     * @return The column
+     */
+    private static Column column(Datatable table, String name)
+    {
+        // Find the column
+        Column column = table.getColumn(name);
+
+        // And check that it exists and holds numbers
+        if (column == null) throw new IllegalArgumentException("variable " + name + " not found");
+        if (column instanceof StringColumn) throw new IllegalArgumentException("variable " + name + " is not numeric");
+        return column;
+    }
+
+    /**
+     * A function used to solve the normal equations from the moments of the
+     * variables. The cross products of the independent variables are split
+     * into a Cholesky decomposition, omitting any variable whose pivot shows
+     * that it is collinear with the variables before it, and the slopes are
+     * found by substitution. The constant then follows from the means.
+     *
+     * @param dependent The name of the dependent variable
+     * @param independents The names of the independent variables
+     * @param moments The moments of the variables, with the dependent variable last
+     *
+     * @return The results of the regression
+     */
+    private static Regression solve(String dependent, List<String> independents, Moments moments)
+    {
+        // Decompose the cross products of the independent variables
+        int k = independents.size();
+        double[][] products = moments.products;
+        double[][] lower = new double[k][k];
+        boolean[] omitted = new boolean[k + 1];
+        int parameters = 1;
+        for (int j = 0; j < k; j++)
+        {
+            // Find the pivot, omitting the variable if it is too small
+            double pivot = products[j][j];
+            for (int p = 0; p < j; p++) pivot -= lower[j][p] * lower[j][p];
+            if (!(pivot > TOLERANCE * products[j][j]))
+            {
+                omitted[j] = true;
+                continue;
+            }
+            parameters++;
+
+            // And find the rest of the column
+            lower[j][j] = Math.sqrt(pivot);
+            for (int i = j + 1; i < k; i++)
+            {
+                double sum = products[j][i];
+                for (int p = 0; p < j; p++) sum -= lower[i][p] * lower[j][p];
+                lower[i][j] = sum / lower[j][j];
+            }
+        }
+
+        // Check that we have enough observations
+        if (moments.count < parameters) throw new IllegalArgumentException("insufficient observations");
+
+        // Solve for the slopes
+        double[] right = new double[k];
+        for (int j = 0; j < k; j++) right[j] = products[j][k];
+        double[] slopes = Regressor.substitute(lower, omitted, Regressor.forward(lower, omitted, right));
+
+        // Find the sums of squares
+        double total = products[k][k], model = 0;
+        for (int j = 0; j < k; j++) model += slopes[j] * products[j][k];
+        double residual = Math.max(total - model, 0);
+        double variance = moments.count > parameters ? residual / (moments.count - parameters) : Double.NaN;
+
+        // Find the inverse of the decomposition, so that we can find the
+        // variances of the slopes
+        double[][] inverse = new double[k][];
+        for (int j = 0; j < k; j++)
+        {
+            double[] unit = new double[k];
+            unit[j] = omitted[j] ? 0 : 1;
+            inverse[j] = Regressor.forward(lower, omitted, unit);
+        }
+
+        // Find the coefficients and standard errors of the slopes
+        double[] coefficients = new double[k + 1], errors = new double[k + 1];
+        double constant = moments.means[k];
+        for (int j = 0; j < k; j++)
+        {
+            // Sum the squares of the column of the inverse
+            double squares = 0;
+            for (int i = j; i < k; i++) squares += inverse[j][i] * inverse[j][i];
+
+            // And store the slope
+            coefficients[j] = slopes[j];
+            errors[j] = omitted[j] ? Double.NaN : Math.sqrt(variance * squares);
+            constant -= slopes[j] * moments.means[j];
+        }
+
+        // And find the constant, whose variance depends on the means
+        double[] means = Regressor.forward(lower, omitted, moments.means);
+        double leverage = 1.0 / moments.count;
+        for (int j = 0; j < k; j++) leverage += means[j] * means[j];
+        coefficients[k] = constant;
+        errors[k] = Math.sqrt(variance * leverage);
+        return new Regression(dependent, independents, coefficients, errors, omitted, moments.count, model, residual);
+    }
+
+    /**
+     * A function used to solve a lower triangular system by forward
+     * substitution, skipping the omitted variables.
+     *
+     * @param lower The lower triangular matrix
+     * @param omitted Whether each variable was omitted
+     * @param values The right hand side, of which only the first entries are used
+     *
+     * @return The solution
+     */
+    private static double[] forward(double[][] lower, boolean[] omitted, double[] values)
+    {
+        double[] solution = new double[lower.length];
+        for (int i = 0; i < lower.length; i++)
+        {
+            if (omitted[i]) continue;
+            double sum = values[i];
+            for (int p = 0; p < i; p++) sum -= lower[i][p] * solution[p];
+            solution[i] = sum / lower[i][i];
+        }
+        return solution;
+    }
+
+    /**
+     * A function used to solve the transpose of a lower triangular system by
+     * back substitution, skipping the omitted variables.
+     *
+     * @param lower The lower triangular matrix
+     * @param omitted Whether each variable was omitted
+     * @param values The right hand side
+     *
+     * @return The solution
+     */
+    private static double[] substitute(double[][] lower, boolean[] omitted, double[] values)
+    {
+        double[] solution = new double[lower.length];
+        for (int i = lower.length - 1; i >= 0; i--)
+        {
+            if (omitted[i]) continue;
+            double sum = values[i];
+            for (int p = i + 1; p < lower.length; p++) sum -= lower[p][i] * solution[p];
+            solution[i] = sum / lower[i][i];
+        }
+        return solution;
+    }
+
+    /**
+     * A function used to gather the values of some rows of a segment of a
+     * column into a block.
+     *
+     * @param column The column to gather
+     * @param segment The index of the segment
+     * @param rows The positions of the rows within the segment
+     * @param count The number of rows
+     * @param values The block to store the values in
+     */
+    private static void gather(Column column, int segment, int[] rows, int count, double[] values)
+    {
+        if (column instanceof NumberColumn)
+        {
+            double[] segmentValues = ((NumberColumn) column).getSegment(segment);
+            for (int i = 0; i < count; i++) values[i] = segmentValues[rows[i]];
+        }
+        else if (column instanceof IntegerColumn)
+        {
+            long[] segmentValues = ((IntegerColumn) column).getSegment(segment);
+            for (int i = 0; i < count; i++) values[i] = segmentValues[rows[i]];
+        }
+        else
+        {
+            BitSet bits = ((BooleanColumn) column).getValues();
+            int start = segment << Column.SEGMENT_SHIFT;
+            for (int i = 0; i < count; i++) values[i] = bits.get(start + rows[i]) ? 1 : 0;
+        }
+    }
+
+    /**
+     * The moments class. This holds the number of observations in a range of
+     * the rows of a table, the means of the variables, and the cross products
+     * of their differences from the means.
+     */
+    private static class Moments
+    {
+        /** The columns of the variables. */
+        private final Column[] columns;
+
+        /** The rows to use, or null for every row. */
+        private final Selection selection;
+
+        /** The number of rows in the table. */
+        private final int rows;
+
+        /** The number of observations. */
+        private long count;
+
+        /** The mean of each variable. */
+        private final double[] means;
+
+        /** The cross products of the differences from the means, of which the upper triangle is used. */
+        private final double[][] products;
+
+        /**
+         * The default constructor. This creates empty moments.
+         *
+         * @param columns The columns of the variables
+         * @param selection The rows to use, or null for every row
+         * @param rows The number of rows in the table
+         */
+        public Moments(Column[] columns, Selection selection, int rows)
+        {
+            this.columns = columns;
+            this.selection = selection;
+            this.rows = rows;
+            this.means = new double[columns.length];
+            this.products = new double[columns.length][columns.length];
+        }
+
+        /**
+         * A function used to add the rows of a range of segments.
+         *
+         * @param from The first segment
+         * @param to The end of the range of segments
+         */
+        public void add(int from, int to)
+        {
+            // Create the buffers for a block of rows
+            double[][] block = new double[this.columns.length][BLOCK_SIZE];
+            double[] means = new double[this.columns.length];
+            double[][] products = new double[this.columns.length][this.columns.length];
+            boolean[] dropped = new boolean[BLOCK_SIZE];
+            int[] kept = new int[BLOCK_SIZE];
+
+            for (int segment = from; segment < to; segment++)
+            {
+                int first = segment << Column.SEGMENT_SHIFT;
+                int last = Math.min(first + Column.SEGMENT_SIZE, this.rows);
+                for (int start = first; start < last; start += BLOCK_SIZE)
+                {
+                    // Drop the rows which aren't selected or are missing a value
+                    int end = Math.min(start + BLOCK_SIZE, last);
+                    for (int i = 0; i < end - start; i++) dropped[i] = this.selection != null && !this.selection.contains(start + i);
+                    for (Column column : this.columns)
+                    {
+                        for (int row = column.nextMissing(start); row < end; row = column.nextMissing(row + 1)) dropped[row - start] = true;
+                    }
+
+                    // Find the rows which are kept
+                    int count = 0;
+                    for (int i = 0; i < end - start; i++)
+                    {
+                        if (!dropped[i]) kept[count++] = start - first + i;
+                    }
+
+                    // Gather the values of the rows
+                    for (int v = 0; v < this.columns.length; v++) Regressor.gather(this.columns[v], segment, kept, count, block[v]);
+
+                    // And add the block
+                    this.add(block, count, means, products);
+                }
+            }
+        }
+
+        /**
+         * A function used to add a block of observations. The values are
+         * centred on their means within the block, so that their cross
+         * products don't lose precision.
+         *
+         * @param block The values of each variable, which are centred in place
+         * @param count The number of observations in the block
+         * @param means The buffer for the means of the block
+         * @param products The buffer for the cross products of the block
+         */
+        private void add(double[][] block, int count, double[] means, double[][] products)
+        {
+            // Check whether the block has any observations
+            if (count == 0) return;
+
+            // Centre each variable on its mean
+            NumericKernels kernels = NumericKernels.getInstance();
+            for (int v = 0; v < block.length; v++)
+            {
+                double[] values = block[v];
+                double mean = kernels.sum(values, 0, count) / count;
+                for (int i = 0; i < count; i++) values[i] -= mean;
+                means[v] = mean;
+            }
+
+            // Find the cross products of the centred values
+            for (int u = 0; u < block.length; u++)
+            {
+                for (int v = u; v < block.length; v++) products[u][v] = kernels.dot(block[u], block[v], 0, count);
+            }
+
+            // And merge them into the moments
+            this.merge(count, means, products);
+        }
+
+        /**
+         * A function used to merge the moments of another range of rows into
+         * these ones. The means and cross products are combined with the
+         * parallel update of Chan et al., which keeps them stable.
+         *
+         * @param count The number of observations in the other range
+         * @param means The means of the other range
+         * @param products The cross products of the other range
+         */
+        private void merge(long count, double[] means, double[][] products)
+        {
+            // Check whether the other range has any observations
+            if (count == 0) return;
+
+            // Find the differences between the means
+            long total = this.count + count;
+            double weight = (double) this.count * count / total;
+            double[] deltas = new double[means.length];
+            for (int v = 0; v < means.length; v++) deltas[v] = means[v] - this.means[v];
+
+            // Combine the cross products
+            for (int u = 0; u < means.length; u++)
+            {
+                for (int v = u; v < means.length; v++) this.products[u][v] += products[u][v] + weight * deltas[u] * deltas[v];
+            }
+
+            // And combine the means
+            for (int v = 0; v < means.length; v++) this.means[v] += deltas[v] * count / total;
+            this.count = total;
+        }
+
+        /**
+         * A function used to merge the moments of another range of rows into
+         * these ones.
+         *
+         * @param other The moments to merge
+         */
+        public void merge(Moments other)
+        {
+            this.merge(other.count, other.means, other.products);
+        }
+    }
+
+    /**
+     * The regression task class. This finds the moments of a range of the
+     * segments of a table, splitting the range in half until it is small
+     * enough to read on a single thread.
+     */
+    @SuppressWarnings("serial")
+    private static class RegressionTask extends RecursiveTask<Moments>
+    {
+        /** The columns of the variables. */
+        private final Column[] columns;
+
+        /** The rows to use, or null for every row. */
+        private final Selection selection;
+
+        /** The number of rows in the table. */
+        private final int rows;
+
+        /** The first segment and the end of the range of segments. */
+        private final int from, to;
+
+        /** The largest number of segments to read on a single thread. */
+        private final int grain;
+
+        /**
+         * The default constructor. This creates a task to find the moments
+         * of a range of segments.
+         *
+         * @param columns The columns of the variables
+         * @param selection The rows to use, or null for every row
+         * @param rows The number of rows in the table
+         * @param from The first segment
+         * @param to The end of the range of segments
+         * @param grain The largest number of segments to read on a single thread
+         */
+        public RegressionTask(Column[] columns, Selection selection, int rows, int from, int to, int grain)
+        {
+            this.columns = columns;
+            this.selection = selection;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        /**
+         * The compute function. This finds the moments of the range of
+         * segments.
+         *
+         * @return The moments of the range
+         */
+        @Override
+        protected Moments compute()
+        {
+            // Read a small range directly
+            if (this.to - this.from <= this.grain)
+            {
+                Moments moments = new Moments(this.columns, this.selection, this.rows);
+                moments.add(this.from, this.to);
+                return moments;
+            }
+
+            // Otherwise, split the range in half
+            int middle = (this.from + this.to) >>> 1;
+            RegressionTask left = new RegressionTask(this.columns, this.selection, this.rows, this.from, middle, this.grain);
+            RegressionTask right = new RegressionTask(this.columns, this.selection, this.rows, middle, this.to, this.grain);
+            left.fork();
+
+            // And merge the moments
+            Moments moments = right.compute();
+            Moments other = left.join();
+            other.merge(moments);
+            return other;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.stata.analysis;
+
+/**
+ * The scalar kernels class. This implements the numeric kernels with plain
+ * loops, one value at a time, and is used wherever the vector kernels aren't
+ * available.
+ *
+ * @author Dan Jenkins
+ */
+final class ScalarKernels extends NumericKernels
+{
+    /**
+     * A simple function which returns the name of the kernels, for display.
+     *
+     * @return The name of the kernels
+     */
+    @Override
+    public String getName()
+    {
+        return "scalar";
+    }
+
+    /**
+     * A function used to sum a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The sum of the values
+     */
+    @Override
+    public double sum(double[] values, int from, int to)
+    {
+        double sum = 0;
+        for (int i = from; i < to; i++) sum += values[i];
+        return sum;
+    }
+
+    /**
+     * A function used to sum the squared differences of a range of values from
+     * a centre, such as their mean.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     * @param centre The value to find the differences from
+     *
+     * @return The sum of the squared differences
+     */
+    @Override
+    public double squares(double[] values, int from, int to, double centre)
+    {
+        double squares = 0;
+        for (int i = from; i < to; i++)
+        {
+            double difference = values[i] - centre;
+            squares += difference * difference;
+        }
+        return squares;
+    }
+
+    /**
+     * A function used to sum the products of two ranges of values, which is
+     * their dot product.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The sum of the products
+     */
+    @Override
+    public double dot(double[] a, double[] b, int from, int to)
+    {
+        double sum = 0;
+        for (int i = from; i < to; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    /**
+     * A function used to find the smallest of a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The smallest value, or positive infinity if the range is empty
+     */
+    @Override
+    public double min(double[] values, int from, int to)
+    {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) min = Math.min(min, values[i]);
+        return min;
+    }
+
+    /**
+     * A function used to find the largest of a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The largest value, or negative infinity if the range is empty
+     */
+    @Override
+    public double max(double[] values, int from, int to)
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) max = Math.max(max, values[i]);
+        return max;
+    }
+
+    /**
+     * A function used to add two ranges of values elementwise.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param result The array to store the sums in, which may be either input
+     * @param from The first index of the range
+     * @param to The end of the range
+     */
+    @Override
+    public void add(double[] a, double[] b, double[] result, int from, int to)
+    {
+        for (int i = from; i < to; i++) result[i] = a[i] + b[i];
+    }
+
+    /**
+     * A function used to multiply two ranges of values elementwise.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param result The array to store the products in, which may be either input
+     * @param from The first index of the range
+     * @param to The end of the range
+     */
+    @Override
+    public void multiply(double[] a, double[] b, double[] result, int from, int to)
+    {
+        for (int i = from; i < to; i++) result[i] = a[i] * b[i];
+    }
+
+    /**
+     * A function used to compare up to 64 values with a range, producing a
+     * mask with a bit set for each value within the range.
+     *
+     * @param values The values
+     * @param from The index of the first value
+     * @param count The number of values, at most 64
+     * @param low The smallest value within the range
+     * @param high The largest value within the range
+     *
+     * @return The mask, with the first value in the lowest bit
+     */
+    @Override
+    public long range(double[] values, int from, int count, double low, double high)
+    {
+        long word = 0;
+        for (int b = 0; b < count; b++)
+        {
+            double value = values[from + b];
+            if (value >= low & value <= high) word |= 1L << b;
+        }
+        return word;
+    }
+}
@@ -0,0 +1,551 @@
+package com.stata.analysis;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.StringColumn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * The Sorter class. This static class sorts the rows of a table by one or
+ * more columns, like the sort command. Rather than moving the rows, the sort
+ * produces a permutation which lists the rows in sorted order. Missing values
+ * sort after every other value, and rows which tie keep their order, so the
+ * sort is stable. Like the gsort command, each column can be sorted in
+ * descending order, which still leaves its missing values last.
+ *
+ * The rows are sorted by each column in turn, from the last to the first.
+ * Integers, booleans and the ranks of text are sorted with a parallel radix
+ * sort, and numbers with a parallel merge sort, both on the common fork-join
+ * pool.
+ *
+ * @author Dan Jenkins
+ */
+public class Sorter
+{
+    /** The number of bits in each digit of the radix sort. */
+    private static final int RADIX_BITS = 8;
+
+    /** The number of distinct digits in the radix sort. */
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /** The largest range which is sorted by insertion. */
+    private static final int INSERTION_THRESHOLD = 32;
+
+    /** The largest range which is sorted or merged on a single thread. */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    /**
+     * The sort function. This finds the order of the rows of a table when
+     * sorted by one or more columns.
+     *
+     * @param table The table to sort
+     * @param by The names of the columns to sort by
+     *
+     * @return The rows of the table in sorted order
+     */
+    public static int[] sort(Datatable table, List<String> by)
+    {
+        return Sorter.sort(table, by, new boolean[by.size()]);
+    }
+
+    /**
+     * The sort function. This finds the order of the rows of a table when
+     * sorted by one or more columns, each in its own direction.
+     *
+     * @param table The table to sort
+     * @param by The names of the columns to sort by
+     * @param descending Whether each column is sorted in descending order
+     *
+     * @return The rows of the table in sorted order
+     */
+    public static int[] sort(Datatable table, List<String> by, boolean[] descending)
+    {
+        // Check that there is a direction for each column
+        if (descending.length != by.size()) throw new IllegalArgumentException("expected a direction for each of the " + by.size() + " variables");
+
+        // Find the columns to sort by
+        Column[] columns = new Column[by.size()];
+        for (int c = 0; c < columns.length; c++)
+        {
+            columns[c] = table.getColumn(by.get(c));
+            if (columns[c] == null) throw new IllegalArgumentException("variable " + by.get(c) + " not found");
+        }
+
+        // Start with the rows in their current order
+        int[] order = new int[table.getRowCount()];
+        Arrays.parallelSetAll(order, row -> row);
+
+        // And sort by each column from the last to the first, so that rows
+        // which tie on a column stay sorted by the columns after it
+        for (int c = columns.length - 1; c >= 0; c--) order = Sorter.sort(columns[c], descending[c], order);
+        return order;
+    }
+
+    /**
+     * A function used to stably sort rows by the values of a column. Rows
+     * are sorted in descending order by sorting their keys reversed, so that
+     * rows which tie still keep their order.
+     *
+     * @param column The column to sort by
+     * @param descending Whether to sort in descending order
+     * @param order The rows to sort
+     *
+     * @return The rows in sorted order
+     */
+    private static int[] sort(Column column, boolean descending, int[] order)
+    {
+        // Move the missing rows to the end, keeping their order
+        int present = order.length - column.getMissingCount();
+        int[] sorted = new int[order.length];
+        for (int i = 0, p = 0, m = present; i < order.length; i++)
+        {
+            if (column.isMissing(order[i])) sorted[m++] = order[i];
+            else                            sorted[p++] = order[i];
+        }
+        if (present == 0) return sorted;
+
+        // Sort the present rows by their values
+        int[] rows = Arrays.copyOf(sorted, present);
+        if (column instanceof NumberColumn)
+        {
+            // Gather the values of the rows
+            double[] values = Sorter.numbers((NumberColumn) column);
+            double[] keys = new double[present];
+            if (descending) Arrays.parallelSetAll(keys, i -> -values[rows[i]]);
+            else            Arrays.parallelSetAll(keys, i -> values[rows[i]]);
+
+            // And merge sort them
+            ForkJoinPool.commonPool().invoke(new SortTask(keys.clone(), keys, rows.clone(), rows, 0, present));
+        }
+        else
+        {
+            // Gather the values of the rows, relative to the smallest value or
+            // below the largest value when descending
+            long[] values = Sorter.encode(column);
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int row : rows)
+            {
+                min = Math.min(min, values[row]);
+                max = Math.max(max, values[row]);
+            }
+            long smallest = min, largest = max;
+            long[] keys = new long[present];
+            if (descending) Arrays.parallelSetAll(keys, i -> largest - values[rows[i]]);
+            else            Arrays.parallelSetAll(keys, i -> values[rows[i]] - smallest);
+
+            // And radix sort them
+            System.arraycopy(Sorter.radix(keys, rows, max - min), 0, rows, 0, present);
+        }
+
+        // And put the sorted rows before the missing rows
+        System.arraycopy(rows, 0, sorted, 0, present);
+        return sorted;
+    }
+
+    /**
+     * A function used to copy the values of a number column into one array
+     * indexed by row.
+     *
+     * @param column The column to copy
+     *
+     * @return The values of the column
+     */
+    private static double[] numbers(NumberColumn column)
+    {
+        double[] values = new double[column.size()];
+        for (int start = 0, segment = 0; start < values.length; start += Column.SEGMENT_SIZE, segment++)
+        {
+            System.arraycopy(column.getSegment(segment), 0, values, start, Math.min(Column.SEGMENT_SIZE, values.length - start));
+        }
+        return values;
+    }
+
+    /**
+     * A function used to encode the values of a column as longs in one array
+     * indexed by row, in the same order as the values. Booleans are encoded
+     * as zero or one, and text as the rank of its value in the sorted
+     * dictionary.
+     *
+     * @param column The column to encode
+     *
+     * @return The encoded values of the column
+     */
+    private static long[] encode(Column column)
+    {
+        long[] values = new long[column.size()];
+        if (column instanceof IntegerColumn)
+        {
+            // Copy the values of each segment
+            IntegerColumn integers = (IntegerColumn) column;
+            for (int start = 0, segment = 0; start < values.length; start += Column.SEGMENT_SIZE, segment++)
+            {
+                System.arraycopy(integers.getSegment(segment), 0, values, start, Math.min(Column.SEGMENT_SIZE, values.length - start));
+            }
+        }
+        else if (column instanceof BooleanColumn)
+        {
+            // Read the bits of the column
+            BitSet bits = ((BooleanColumn) column).getValues();
+            for (int row = bits.nextSetBit(0); row >= 0 && row < values.length; row = bits.nextSetBit(row + 1)) values[row] = 1;
+        }
+        else if (column instanceof StringColumn)
+        {
+            // Rank each of the distinct values
+            StringColumn strings = (StringColumn) column;
+            List<String> dictionary = strings.getDictionary();
+            Integer[] codes = new Integer[dictionary.size()];
+            for (int code = 0; code < codes.length; code++) codes[code] = code;
+            Arrays.sort(codes, (a, b) -> dictionary.get(a).compareTo(dictionary.get(b)));
+            int[] ranks = new int[codes.length];
+            for (int rank = 0; rank < codes.length; rank++) ranks[codes[rank]] = rank;
+
+            // And rank the code of each row, leaving the missing rows alone
+            for (int start = 0, segment = 0; start < values.length; start += Column.SEGMENT_SIZE, segment++)
+            {
+                int[] segmentCodes = strings.getSegment(segment);
+                for (int i = 0, count = Math.min(Column.SEGMENT_SIZE, values.length - start); i < count; i++)
+                {
+                    values[start + i] = segmentCodes[i] < ranks.length ? ranks[segmentCodes[i]] : 0;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * A function used to stably sort rows by non-negative keys with a least
+     * significant digit radix sort. Only the digits needed by the range of the
+     * keys are sorted. The rows are split into chunks, and on each pass every
+     * chunk counts its digits and then moves its rows in parallel, each chunk
+     * writing to its own positions.
+     *
+     * @param keys The keys of the rows
+     * @param rows The rows to sort
+     * @param range The largest key
+     *
+     * @return The rows in sorted order
+     */
+    private static int[] radix(long[] keys, int[] rows, long range)
+    {
+        // Find the number of passes and chunks
+        int length = keys.length;
+        int passes = (Long.SIZE - Long.numberOfLeadingZeros(range) + RADIX_BITS - 1) / RADIX_BITS;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, length >>> Column.SEGMENT_SHIFT));
+        int size = (length + chunks - 1) / chunks;
+
+        // Sort by each digit in turn, moving the rows between two buffers
+        long[] sourceKeys = keys, targetKeys = new long[length];
+        int[] sourceRows = rows, targetRows = new int[length];
+        for (int pass = 0; pass < passes; pass++)
+        {
+            int shift = pass * RADIX_BITS;
+            long[] fromKeys = sourceKeys, toKeys = targetKeys;
+            int[] fromRows = sourceRows, toRows = targetRows;
+
+            // Count the digits of each chunk
+            int[][] offsets = new int[chunks][RADIX];
+            Sorter.forEachChunk(chunks, chunk ->
+            {
+                int[] counts = offsets[chunk];
+                for (int i = chunk * size, end = Math.min(i + size, length); i < end; i++)
+                {
+                    counts[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+                }
+            });
+
+            // Find where each chunk writes the rows with each digit
+            for (int digit = 0, total = 0; digit < RADIX; digit++)
+            {
+                for (int chunk = 0; chunk < chunks; chunk++)
+                {
+                    int count = offsets[chunk][digit];
+                    offsets[chunk][digit] = total;
+                    total += count;
+                }
+            }
+
+            // And move the rows of each chunk
+            Sorter.forEachChunk(chunks, chunk ->
+            {
+                int[] positions = offsets[chunk];
+                for (int i = chunk * size, end = Math.min(i + size, length); i < end; i++)
+                {
+                    int position = positions[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+                    toKeys[position] = fromKeys[i];
+                    toRows[position] = fromRows[i];
+                }
+            });
+
+            // Swap the buffers
+            sourceKeys = toKeys;
+            targetKeys = fromKeys;
+            sourceRows = toRows;
+            targetRows = fromRows;
+        }
+
+        // And return the buffer holding the sorted rows
+        return sourceRows;
+    }
+
+    /**
+     * A function used to run a function for each chunk of a range in
+     * parallel, waiting for every chunk to finish.
+     *
+     * @param chunks The number of chunks
+     * @param function The function to run for each chunk
+     */
+    private static void forEachChunk(int chunks, IntConsumer function)
+    {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++)
+        {
+            int chunk = c;
+            tasks.add(ForkJoinTask.adapt(() -> function.accept(chunk)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * The sort task class. This stably merge sorts a range of keys and their
+     * rows into the target arrays, using the source arrays as scratch space.
+     * Both pairs of arrays must hold the same keys and rows to begin with.
+     * The halves of large ranges are sorted and merged in parallel.
+     */
+    @SuppressWarnings("serial")
+    private static class SortTask extends RecursiveAction
+    {
+        /** The arrays of keys used as scratch space and to hold the result. */
+        private final double[] sourceKeys, targetKeys;
+
+        /** The arrays of rows used as scratch space and to hold the result. */
+        private final int[] sourceRows, targetRows;
+
+        /** The start and end of the range. */
+        private final int from, to;
+
+        /**
+         * The default constructor. This creates a task to sort a range.
+         *
+         * @param sourceKeys The keys used as scratch space
+         * @param targetKeys The keys to sort
+         * @param sourceRows The rows used as scratch space
+         * @param targetRows The rows to sort
+         * @param from The start of the range
+         * @param to The end of the range
+         */
+        public SortTask(double[] sourceKeys, double[] targetKeys, int[] sourceRows, int[] targetRows, int from, int to)
+        {
+            this.sourceKeys = sourceKeys;
+            this.targetKeys = targetKeys;
+            this.sourceRows = sourceRows;
+            this.targetRows = targetRows;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * The compute function. This sorts the range.
+         */
+        @Override
+        protected void compute()
+        {
+            // Sort small ranges by insertion
+            if (this.to - this.from <= INSERTION_THRESHOLD)
+            {
+                this.insertionSort();
+                return;
+            }
+
+            // Sort each half into the source arrays, in parallel if the range
+            // is large
+            int middle = (this.from + this.to) >>> 1;
+            SortTask left = new SortTask(this.targetKeys, this.sourceKeys, this.targetRows, this.sourceRows, this.from, middle);
+            SortTask right = new SortTask(this.targetKeys, this.sourceKeys, this.targetRows, this.sourceRows, middle, this.to);
+            if (this.to - this.from > PARALLEL_THRESHOLD) ForkJoinTask.invokeAll(left, right);
+            else
+            {
+                left.compute();
+                right.compute();
+            }
+
+            // Check whether the halves are already in order, such as when the
+            // rows were sorted before
+            if (this.sourceKeys[middle - 1] <= this.sourceKeys[middle])
+            {
+                System.arraycopy(this.sourceKeys, this.from, this.targetKeys, this.from, this.to - this.from);
+                System.arraycopy(this.sourceRows, this.from, this.targetRows, this.from, this.to - this.from);
+                return;
+            }
+
+            // And merge the halves into the target arrays
+            new MergeTask(this.sourceKeys, this.targetKeys, this.sourceRows, this.targetRows, this.from, middle, middle, this.to, this.from).compute();
+        }
+
+        /**
+         * A function used to sort the range of the target arrays by
+         * insertion, keeping rows with equal keys in order.
+         */
+        private void insertionSort()
+        {
+            for (int i = this.from + 1; i < this.to; i++)
+            {
+                double key = this.targetKeys[i];
+                int row = this.targetRows[i];
+                int j = i - 1;
+                for (; j >= this.from && this.targetKeys[j] > key; j--)
+                {
+                    this.targetKeys[j + 1] = this.targetKeys[j];
+                    this.targetRows[j + 1] = this.targetRows[j];
+                }
+                this.targetKeys[j + 1] = key;
+                this.targetRows[j + 1] = row;
+            }
+        }
+    }
+
+    /**
+     * The merge task class. This stably merges two sorted ranges of the
+     * source arrays into the target arrays. Large merges are split in two
+     * around the middle of the longer range, and the halves are merged in
+     * parallel.
+     */
+    @SuppressWarnings("serial")
+    private static class MergeTask extends RecursiveAction
+    {
+        /** The arrays of keys to merge from and into. */
+        private final double[] sourceKeys, targetKeys;
+
+        /** The arrays of rows to merge from and into. */
+        private final int[] sourceRows, targetRows;
+
+        /** The start and end of the left and right ranges. */
+        private final int leftFrom, leftTo, rightFrom, rightTo;
+
+        /** The position in the target arrays at which to merge. */
+        private final int position;
+
+        /**
+         * The default constructor. This creates a task to merge two ranges.
+         *
+         * @param sourceKeys The keys to merge from
+         * @param targetKeys The keys to merge into
+         * @param sourceRows The rows to merge from
+         * @param targetRows The rows to merge into
+         * @param leftFrom The start of the left range
+         * @param leftTo The end of the left range
+         * @param rightFrom The start of the right range
+         * @param rightTo The end of the right range
+         * @param position The position at which to merge
+         */
+        public MergeTask(double[] sourceKeys, double[] targetKeys, int[] sourceRows, int[] targetRows,
+                         int leftFrom, int leftTo, int rightFrom, int rightTo, int position)
+        {
+            this.sourceKeys = sourceKeys;
+            this.targetKeys = targetKeys;
+            this.sourceRows = sourceRows;
+            this.targetRows = targetRows;
+            this.leftFrom = leftFrom;
+            this.leftTo = leftTo;
+            this.rightFrom = rightFrom;
+            this.rightTo = rightTo;
+            this.position = position;
+        }
+
+        /**
+         * The compute function. This merges the ranges.
+         */
+        @Override
+        protected void compute()
+        {
+            // Merge small ranges directly
+            int leftLength = this.leftTo - this.leftFrom, rightLength = this.rightTo - this.rightFrom;
+            if (leftLength + rightLength <= PARALLEL_THRESHOLD)
+            {
+                this.merge();
+                return;
+            }
+
+            // Split the longer range at its middle, and the other range where
+            // the middle key belongs. Equal keys from the left range stay
+            // before equal keys from the right range.
+            int leftMiddle, rightMiddle;
+            if (leftLength >= rightLength)
+            {
+                leftMiddle = (this.leftFrom + this.leftTo) >>> 1;
+                rightMiddle = this.search(this.sourceKeys[leftMiddle], this.rightFrom, this.rightTo, false);
+            }
+            else
+            {
+                rightMiddle = (this.rightFrom + this.rightTo) >>> 1;
+                leftMiddle = this.search(this.sourceKeys[rightMiddle], this.leftFrom, this.leftTo, true);
+            }
+
+            // And merge each half in parallel
+            int middle = this.position + (leftMiddle - this.leftFrom) + (rightMiddle - this.rightFrom);
+            ForkJoinTask.invokeAll(
+                new MergeTask(this.sourceKeys, this.targetKeys, this.sourceRows, this.targetRows, this.leftFrom, leftMiddle, this.rightFrom, rightMiddle, this.position),
+                new MergeTask(this.sourceKeys, this.targetKeys, this.sourceRows, this.targetRows, leftMiddle, this.leftTo, rightMiddle, this.rightTo, middle));
+        }
+
+        /**
+         * A function used to merge the ranges on a single thread.
+         */
+        private void merge()
+        {
+            int i = this.leftFrom, j = this.rightFrom, k = this.position;
+            while (i < this.leftTo && j < this.rightTo)
+            {
+                if (this.sourceKeys[j] < this.sourceKeys[i])
+                {
+                    this.targetKeys[k] = this.sourceKeys[j];
+                    this.targetRows[k++] = this.sourceRows[j++];
+                }
+                else
+                {
+                    this.targetKeys[k] = this.sourceKeys[i];
+                    this.targetRows[k++] = this.sourceRows[i++];
+                }
+            }
+
+            // And copy whatever remains of either range
+            System.arraycopy(this.sourceKeys, i, this.targetKeys, k, this.leftTo - i);
+            System.arraycopy(this.sourceRows, i, this.targetRows, k, this.leftTo - i);
+            k += this.leftTo - i;
+            System.arraycopy(this.sourceKeys, j, this.targetKeys, k, this.rightTo - j);
+            System.arraycopy(this.sourceRows, j, this.targetRows, k, this.rightTo - j);
+        }
+
+        /**
+         * A function used to find where a key belongs within a sorted range
+         * of the source keys.
+         *
+         * @param key The key to find
+         * @param from The start of the range
+         * @param to The end of the range
+         * @param after Whether the key belongs after any equal keys
+         *
+         * @return The position of the key
+         */
+        private int search(double key, int from, int to, boolean after)
+        {
+            while (from < to)
+            {
+                int middle = (from + to) >>> 1;
+                if (this.sourceKeys[middle] < key || (after && this.sourceKeys[middle] == key)) from = middle + 1;
+                else                                                                           to = middle;
+            }
+            return from;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.stata.analysis;
+
+/**
+ * The statistic enum. This lists the statistics which can be computed for
+ * each group of rows when a table is collapsed.
+ *
+ * @author Dan Jenkins
+ */
+public enum Statistic
+{
+    SUM("sum"),
+    MEAN("mean"),
+    COUNT("count"),
+    MIN("min"),
+    MAX("max"),
+    FIRST("first"),
+    LAST("last");
+
+    /** The name of the statistic. */
+    private final String name;
+
+    /**
+     * The default constructor. This creates a new statistic with a name.
+     *
+     * @param name The name of the statistic
+     */
+    private Statistic(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * A simple function which returns the name of the statistic, as written
+     * in the collapse command.
+     *
+     * @return The name of the statistic
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * A simple function which returns whether the statistic can be computed
+     * for text, rather than only for numbers.
+     *
+     * @return Whether the statistic accepts text
+     */
+    public boolean acceptsText()
+    {
+        return this == COUNT || this == FIRST || this == LAST;
+    }
+
+    /**
+     * A simple function to get a Statistic from its name.
+     *
+     * @param string The name of the statistic
+     *
+     * @return The Statistic match, or null if there is no such statistic
+     */
+    public static Statistic fromString(String string)
+    {
+        // Iterate through each of our statistics
+        for (Statistic statistic : Statistic.values())
+        {
+            // Test for a match and return
+            if (statistic.getName().equals(string))
+                return statistic;
+        }
+
+        // If we haven't found anything, return null
+        return null;
+    }
+}
@@ -0,0 +1,640 @@
+package com.stata.analysis;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.StringColumn;
+import com.stata.query.Selection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Summarizer class. This static class computes summary statistics of the
+ * columns of a table, like the summarize command. Each segment of a column is
+ * summarized with tight loops over its primitive values, and the segments are
+ * split across a fork-join pool and their summaries merged.
+ *
+ * Integer, number and boolean columns are summarized, with booleans counted
+ * as zero or one. Text columns have no numeric values, so only their missing
+ * rows are counted. A selection of rows may be given, such as the rows which
+ * satisfy a query, in which case only the selected rows are summarized.
+ *
+ * Summaries may also carry sketches of their columns, which estimate the
+ * quantiles and the number of distinct values. These are built from each
+ * segment in the same pass as the rest of the summary, and merged with it,
+ * which lets tables keep them as they are imported. Text columns are only
+ * given a distinct sketch.
+ *
+ * @author Dan Jenkins
+ */
+public class Summarizer
+{
+    /**
+     * The summarize function. This summarizes each of the columns of a table.
+     *
+     * @param table The table to summarize
+     * @param detail Whether to compute the percentiles of each column
+     *
+     * @return The summary of each column
+     */
+    public static List<Summary> summarize(Datatable table, boolean detail)
+    {
+        return Summarizer.summarize(table, null, detail);
+    }
+
+    /**
+     * The summarize function. This summarizes the selected rows of each of
+     * the columns of a table.
+     *
+     * @param table The table to summarize
+     * @param selection The rows to summarize, or null for every row
+     * @param detail Whether to compute the percentiles of each column
+     *
+     * @return The summary of each column
+     */
+    public static List<Summary> summarize(Datatable table, Selection selection, boolean detail)
+    {
+        // Summarize each of the columns
+        List<Summary> summaries = new ArrayList<>();
+        for (int c = 0; c < table.getColumnCount(); c++)
+        {
+            summaries.add(Summarizer.summarize(table.getColumn(c), selection, detail));
+        }
+
+        // And return the summaries
+        return summaries;
+    }
+
+    /**
+     * The summarize function. This computes the summary statistics of a
+     * column without its percentiles.
+     *
+     * @param column The column to summarize
+     *
+     * @return The summary of the column
+     */
+    public static Summary summarize(Column column)
+    {
+        return Summarizer.summarize(column, false);
+    }
+
+    /**
+     * The summarize function. This computes the summary statistics of a
+     * column, and optionally the exact values at each of its percentiles.
+     *
+     * @param column The column to summarize
+     * @param detail Whether to compute the percentiles of the column
+     *
+     * @return The summary of the column
+     */
+    public static Summary summarize(Column column, boolean detail)
+    {
+        return Summarizer.summarize(column, null, detail);
+    }
+
+    /**
+     * The summarize function. This computes the summary statistics of the
+     * selected rows of a column, and optionally the exact values at each of
+     * its percentiles.
+     *
+     * @param column The column to summarize
+     * @param selection The rows to summarize, or null for every row
+     * @param detail Whether to compute the percentiles of the column
+     *
+     * @return The summary of the selected rows
+     */
+    public static Summary summarize(Column column, Selection selection, boolean detail)
+    {
+        return Summarizer.summarize(column, selection, detail, false);
+    }
+
+    /**
+     * The summarize function. This computes the summary statistics of the
+     * selected rows of a column, and optionally the exact values at each of
+     * its percentiles and the sketches of its values.
+     *
+     * @param column The column to summarize
+     * @param selection The rows to summarize, or null for every row
+     * @param detail Whether to compute the percentiles of the column
+     * @param sketch Whether to build the quantile and distinct sketches
+     *
+     * @return The summary of the selected rows
+     */
+    public static Summary summarize(Column column, Selection selection, boolean detail, boolean sketch)
+    {
+        // Summarize the segments of the column in parallel
+        int segments = (column.size() + Column.SEGMENT_SIZE - 1) >>> Column.SEGMENT_SHIFT;
+        Summary summary = ForkJoinPool.commonPool().invoke(new SummaryTask(column, selection, sketch, 0, segments));
+
+        // Compute the percentiles if necessary
+        if (detail && summary.getCount() > 0)
+        {
+            summary.setPercentiles(Summarizer.percentiles(Summarizer.gather(column, selection, (int) summary.getCount())));
+        }
+
+        // And return the summary
+        return summary;
+    }
+
+    /**
+     * A function used to summarize a single segment of a column, along with
+     * its sketches if they are wanted.
+     *
+     * @param column The column to summarize
+     * @param selection The rows to summarize, or null for every row
+     * @param sketch Whether to build the sketches of the segment
+     * @param segment The index of the segment
+     *
+     * @return The summary of the segment
+     */
+    private static Summary summarize(Column column, Selection selection, boolean sketch, int segment)
+    {
+        // Find the runs of present values
+        int start = segment << Column.SEGMENT_SHIFT;
+        int end = Math.min(start + Column.SEGMENT_SIZE, column.size());
+        int[] runs = Summarizer.findRuns(column, selection, start, end);
+
+        // Summarize the values
+        Summary summary = Summarizer.summarize(column, selection, segment, runs);
+
+        // And sketch them if necessary
+        if (sketch) Summarizer.sketch(column, segment, runs, summary);
+        return summary;
+    }
+
+    /**
+     * A function used to summarize a single segment of a column.
+     *
+     * @param column The column to summarize
+     * @param selection The rows to summarize, or null for every row
+     * @param segment The index of the segment
+     * @param runs The start and end of each run of present values
+     *
+     * @return The summary of the segment
+     */
+    private static Summary summarize(Column column, Selection selection, int segment, int[] runs)
+    {
+        // Find the rows of the segment
+        int start = segment << Column.SEGMENT_SHIFT;
+        int end = Math.min(start + Column.SEGMENT_SIZE, column.size());
+
+        // Count the present and missing values
+        long present = 0;
+        for (int r = 0; r < runs.length; r += 2) present += runs[r + 1] - runs[r];
+        long missing = (selection == null ? end - start : selection.count(start, end)) - present;
+
+        // Check whether the column has any values to summarize
+        if (present == 0) return new Summary(0, missing, Double.NaN, 0, Double.NaN, Double.NaN);
+
+        // And summarize the values of the column
+        if (column instanceof NumberColumn)
+        {
+            return Summarizer.summarize(((NumberColumn) column).getSegment(segment), runs, present, missing);
+        }
+        else if (column instanceof IntegerColumn)
+        {
+            return Summarizer.summarize(((IntegerColumn) column).getSegment(segment), runs, present, missing);
+        }
+        else if (column instanceof BooleanColumn)
+        {
+            return Summarizer.summarize(((BooleanColumn) column).getValues(), start, runs, present, missing);
+        }
+        return new Summary(0, missing, Double.NaN, 0, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * A function used to build the sketches of a single segment of a column.
+     * Segments without any values are given empty sketches, so that their
+     * summaries can be merged with those of any type.
+     *
+     * @param column The column to sketch
+     * @param segment The index of the segment
+     * @param runs The start and end of each run of present values
+     * @param summary The summary of the segment, which takes the sketches
+     */
+    private static void sketch(Column column, int segment, int[] runs, Summary summary)
+    {
+        // Check whether the segment holds any text
+        DistinctSketch distinct = new DistinctSketch();
+        if (column instanceof StringColumn && runs.length > 0)
+        {
+            // Add each of the pieces of text used by the segment
+            int[] codes = ((StringColumn) column).getSegment(segment);
+            BitSet used = new BitSet();
+            for (int r = 0; r < runs.length; r += 2)
+            {
+                for (int i = runs[r]; i < runs[r + 1]; i++) used.set(codes[i]);
+            }
+            List<String> dictionary = ((StringColumn) column).getDictionary();
+            for (int code = used.nextSetBit(0); code >= 0; code = used.nextSetBit(code + 1)) distinct.add(dictionary.get(code));
+
+            // And only keep the distinct sketch for text
+            summary.setSketches(null, distinct);
+            return;
+        }
+
+        // Gather the values of the segment
+        double[] values = new double[(int) summary.getCount()];
+        Summarizer.gather(column, segment, runs, values, 0);
+
+        // And sketch them
+        QuantileSketch quantiles = new QuantileSketch();
+        quantiles.addAll(values, 0, values.length);
+        for (double value : values) distinct.add(value);
+        summary.setSketches(quantiles, distinct);
+    }
+
+    /**
+     * A function used to summarize runs of values of a number segment. The
+     * mean is found first, so that the squared differences from it can be
+     * summed without losing precision.
+     *
+     * @param values The values of the segment
+     * @param runs The start and end of each run of present values
+     * @param present The number of present values
+     * @param missing The number of missing values
+     *
+     * @return The summary of the values
+     */
+    private static Summary summarize(double[] values, int[] runs, long present, long missing)
+    {
+        // Find the sum and bounds of the values
+        NumericKernels kernels = NumericKernels.getInstance();
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            sum += kernels.sum(values, runs[r], runs[r + 1]);
+            min = Math.min(min, kernels.min(values, runs[r], runs[r + 1]));
+            max = Math.max(max, kernels.max(values, runs[r], runs[r + 1]));
+        }
+
+        // Find the squared differences from the mean
+        double mean = sum / present, squares = 0;
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            squares += kernels.squares(values, runs[r], runs[r + 1], mean);
+        }
+
+        // And create the summary
+        return new Summary(present, missing, mean, squares, min, max);
+    }
+
+    /**
+     * A function used to summarize runs of values of an integer segment. The
+     * mean is found first, so that the squared differences from it can be
+     * summed without losing precision.
+     *
+     * @param values The values of the segment
+     * @param runs The start and end of each run of present values
+     * @param present The number of present values
+     * @param missing The number of missing values
+     *
+     * @return The summary of the values
+     */
+    private static Summary summarize(long[] values, int[] runs, long present, long missing)
+    {
+        // Find the sum and bounds of the values
+        double sum = 0;
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            for (int i = runs[r]; i < runs[r + 1]; i++)
+            {
+                long value = values[i];
+                sum += value;
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+        }
+
+        // Find the squared differences from the mean
+        double mean = sum / present, squares = 0;
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            for (int i = runs[r]; i < runs[r + 1]; i++)
+            {
+                double difference = values[i] - mean;
+                squares += difference * difference;
+            }
+        }
+
+        // And create the summary
+        return new Summary(present, missing, mean, squares, min, max);
+    }
+
+    /**
+     * A function used to summarize runs of values of a boolean column. The
+     * values are zero or one, so the summary follows from the number of ones.
+     *
+     * @param values The values of the column
+     * @param start The first row of the segment
+     * @param runs The start and end of each run of present values
+     * @param present The number of present values
+     * @param missing The number of missing values
+     *
+     * @return The summary of the values
+     */
+    private static Summary summarize(BitSet values, int start, int[] runs, long present, long missing)
+    {
+        // Count the ones
+        long ones = 0;
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            ones += values.get(start + runs[r], start + runs[r + 1]).cardinality();
+        }
+
+        // And create the summary
+        double mean = (double) ones / present;
+        return new Summary(present, missing, mean, present * mean * (1 - mean), ones == present ? 1 : 0, ones > 0 ? 1 : 0);
+    }
+
+    /**
+     * A function used to find the runs of present, selected values in a range
+     * of rows of a column.
+     *
+     * @param column The column to scan
+     * @param selection The selected rows, or null for every row
+     * @param start The first row of the range
+     * @param end The end of the range
+     *
+     * @return The start and end of each run, relative to the start of the range
+     */
+    private static int[] findRuns(Column column, Selection selection, int start, int end)
+    {
+        int[] runs = new int[8];
+        int count = 0;
+        for (int from = selection == null ? start : selection.nextSelected(start); from < end;)
+        {
+            // Find the end of the run of selected rows
+            int to = selection == null ? end : Math.min(selection.nextUnselected(from), end);
+
+            // Find each run between the missing rows
+            for (int row = from; row < to;)
+            {
+                int next = Math.min(column.nextMissing(row), to);
+                if (next > row)
+                {
+                    if (count == runs.length) runs = Arrays.copyOf(runs, count * 2);
+                    runs[count++] = row - start;
+                    runs[count++] = next - start;
+                }
+                row = next + 1;
+            }
+
+            // And move to the next run of selected rows
+            from = selection == null ? end : selection.nextSelected(to);
+        }
+
+        // And return the runs
+        return Arrays.copyOf(runs, count);
+    }
+
+    /**
+     * A function used to gather the present values of a column into an
+     * array.
+     *
+     * @param column The column to gather
+     * @param selection The rows to gather, or null for every row
+     * @param count The number of present values
+     *
+     * @return The values
+     */
+    private static double[] gather(Column column, Selection selection, int count)
+    {
+        // Copy the values of each segment
+        double[] values = new double[count];
+        int index = 0;
+        for (int start = 0, segment = 0; start < column.size(); start += Column.SEGMENT_SIZE, segment++)
+        {
+            // Find the runs of present values
+            int[] runs = Summarizer.findRuns(column, selection, start, Math.min(start + Column.SEGMENT_SIZE, column.size()));
+
+            // And copy the runs
+            index = Summarizer.gather(column, segment, runs, values, index);
+        }
+
+        // And return the values
+        return values;
+    }
+
+    /**
+     * A function used to copy the runs of present values of a segment of a
+     * column into an array.
+     *
+     * @param column The column to gather
+     * @param segment The index of the segment
+     * @param runs The start and end of each run of present values
+     * @param values The array to copy the values into
+     * @param index The position of the first value in the array
+     *
+     * @return The position after the last value copied
+     */
+    private static int gather(Column column, int segment, int[] runs, double[] values, int index)
+    {
+        for (int r = 0; r < runs.length; r += 2)
+        {
+            int length = runs[r + 1] - runs[r];
+            if (column instanceof NumberColumn)
+            {
+                System.arraycopy(((NumberColumn) column).getSegment(segment), runs[r], values, index, length);
+            }
+            else if (column instanceof IntegerColumn)
+            {
+                long[] segmentValues = ((IntegerColumn) column).getSegment(segment);
+                for (int i = 0; i < length; i++) values[index + i] = segmentValues[runs[r] + i];
+            }
+            else
+            {
+                BitSet bits = ((BooleanColumn) column).getValues();
+                int start = (segment << Column.SEGMENT_SHIFT) + runs[r];
+                for (int i = 0; i < length; i++) values[index + i] = bits.get(start + i) ? 1 : 0;
+            }
+            index += length;
+        }
+        return index;
+    }
+
+    /**
+     * A function used to find the value at each percentile of the values.
+     * This uses the definition of the summarize command, which averages the
+     * two middle values when a percentile falls exactly between them. Only
+     * the ranks needed by the percentiles are selected, rather than sorting
+     * every value.
+     *
+     * @param values The values, which are reordered
+     *
+     * @return The value at each of the percentiles
+     */
+    private static double[] percentiles(double[] values)
+    {
+        // Find the position of each percentile in the sorted values
+        int[] indices = new int[Summary.PERCENTILES.length];
+        boolean[] between = new boolean[Summary.PERCENTILES.length];
+        TreeSet<Integer> ranks = new TreeSet<>();
+        for (int p = 0; p < indices.length; p++)
+        {
+            double position = values.length * Summary.PERCENTILES[p] / 100;
+            indices[p] = Math.min((int) Math.floor(position), values.length - 1);
+            between[p] = position == indices[p] && indices[p] > 0;
+
+            // Note the ranks that we need
+            ranks.add(indices[p]);
+            if (between[p]) ranks.add(indices[p] - 1);
+        }
+
+        // Move each of the ranks into place
+        int[] sorted = ranks.stream().mapToInt(Integer::intValue).toArray();
+        Summarizer.select(values, 0, values.length, sorted, 0, sorted.length);
+
+        // And find the value at each percentile
+        double[] percentiles = new double[indices.length];
+        for (int p = 0; p < indices.length; p++)
+        {
+            if (between[p]) percentiles[p] = (values[indices[p] - 1] + values[indices[p]]) / 2;
+            else            percentiles[p] = values[indices[p]];
+        }
+        return percentiles;
+    }
+
+    /**
+     * A function used to move the values of several ranks into their sorted
+     * positions within a range. The middle rank is selected first, so that
+     * the ranks on either side of it only have to search the values on their
+     * side.
+     *
+     * @param values The values to reorder
+     * @param from The start of the range
+     * @param to The end of the range
+     * @param ranks The sorted positions of the ranks to select
+     * @param first The first of the ranks to select
+     * @param last The end of the ranks to select
+     */
+    private static void select(double[] values, int from, int to, int[] ranks, int first, int last)
+    {
+        // Check whether we have any ranks to select
+        if (first >= last) return;
+
+        // Select the middle rank
+        int middle = (first + last) >>> 1;
+        Summarizer.select(values, from, to, ranks[middle]);
+
+        // And select the ranks on either side of it
+        Summarizer.select(values, from, ranks[middle], ranks, first, middle);
+        Summarizer.select(values, ranks[middle] + 1, to, ranks, middle + 1, last);
+    }
+
+    /**
+     * A function used to move the value of a rank into its sorted position
+     * within a range, with smaller values before it and larger values after
+     * it. This partitions the range around the median of three values until
+     * only the rank remains.
+     *
+     * @param values The values to reorder
+     * @param from The start of the range
+     * @param to The end of the range
+     * @param rank The position of the rank to select
+     */
+    private static void select(double[] values, int from, int to, int rank)
+    {
+        int low = from, high = to - 1;
+        while (low < high)
+        {
+            // Choose the pivot
+            double first = values[low], middle = values[(low + high) >>> 1], last = values[high];
+            double pivot = Math.max(Math.min(first, middle), Math.min(Math.max(first, middle), last));
+
+            // Partition the range around the pivot
+            int i = low, j = high;
+            while (i <= j)
+            {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j)
+                {
+                    double value = values[i];
+                    values[i++] = values[j];
+                    values[j--] = value;
+                }
+            }
+
+            // And keep the side which holds the rank
+            if (rank <= j)      high = j;
+            else if (rank >= i) low = i;
+            else                return;
+        }
+    }
+
+    /**
+     * The summary task class. This summarizes a range of the segments of a
+     * column, splitting the range in half until a single segment remains.
+     */
+    @SuppressWarnings("serial")
+    private static class SummaryTask extends RecursiveTask<Summary>
+    {
+        /** The column to summarize. */
+        private final Column column;
+
+        /** The rows to summarize, or null for every row. */
+        private final Selection selection;
+
+        /** Whether to build the sketches of the column. */
+        private final boolean sketch;
+
+        /** The first segment and the end of the range of segments. */
+        private final int from, to;
+
+        /**
+         * The default constructor. This creates a task to summarize a range
+         * of segments.
+         *
+         * @param column The column to summarize
+         * @param selection The rows to summarize, or null for every row
+         * @param sketch Whether to build the sketches of the column
+         * @param from The first segment
+         * @param to The end of the range of segments
+         */
+        public SummaryTask(Column column, Selection selection, boolean sketch, int from, int to)
+        {
+            this.column = column;
+            this.selection = selection;
+            this.sketch = sketch;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * The compute function. This summarizes the range of segments.
+         *
+         * @return The summary of the range
+         */
+        @Override
+        protected Summary compute()
+        {
+            // Check whether we have anything to summarize
+            if (this.to <= this.from) return new Summary();
+
+            // Summarize a single segment directly
+            if (this.to - this.from == 1) return Summarizer.summarize(this.column, this.selection, this.sketch, this.from);
+
+            // Otherwise, split the range in half
+            int middle = (this.from + this.to) >>> 1;
+            SummaryTask left = new SummaryTask(this.column, this.selection, this.sketch, this.from, middle);
+            SummaryTask right = new SummaryTask(this.column, this.selection, this.sketch, middle, this.to);
+            left.fork();
+
+            // And merge the summaries
+            Summary summary = right.compute();
+            Summary other = left.join();
+            other.merge(summary);
+            return other;
+        }
+    }
+}
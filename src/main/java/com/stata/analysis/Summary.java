@@ -0,0 +1,355 @@
+package com.stata.analysis;
+
+import org.json.JSONObject;
+
+/**
+ * The summary class. This holds the summary statistics of a column, in the
+ * style of the summarize command. Summaries of separate ranges of a column
+ * can be merged, so that the ranges can be summarized in parallel.
+ *
+ * A summary may also carry sketches of the column, which estimate its
+ * quantiles and the number of distinct values it holds. These are small
+ * enough to be kept with the summary in a project file, and are merged along
+ * with the rest of the summary.
+ *
+ * @author Dan Jenkins
+ */
+public class Summary
+{
+    /** The percentiles reported by a detailed summary. */
+    public static final double[] PERCENTILES = { 1, 5, 10, 25, 50, 75, 90, 95, 99 };
+
+    /** The number of rows with a numeric value. */
+    private long count;
+
+    /** The number of rows which are missing a value. */
+    private long missing;
+
+    /** The mean of the values. */
+    private double mean;
+
+    /** The sum of the squared differences of the values from the mean. */
+    private double squares;
+
+    /** The smallest and largest values. */
+    private double min, max;
+
+    /** The values at each of the percentiles, if they have been computed. */
+    private double[] percentiles;
+
+    /** The sketch of the quantiles of the values, if it has been built. */
+    private QuantileSketch quantiles;
+
+    /** The sketch of the distinct values, if it has been built. */
+    private DistinctSketch distinct;
+
+    /** Whether the summary hasn't had any rows merged into it. */
+    private boolean empty;
+
+    /**
+     * The default constructor. This creates an empty summary.
+     */
+    public Summary()
+    {
+        this(0, 0, Double.NaN, 0, Double.NaN, Double.NaN);
+        this.empty = true;
+    }
+
+    /**
+     * The main constructor. This creates a summary from its components.
+     *
+     * @param count The number of rows with a numeric value
+     * @param missing The number of rows which are missing a value
+     * @param mean The mean of the values
+     * @param squares The sum of the squared differences from the mean
+     * @param min The smallest value
+     * @param max The largest value
+     */
+    Summary(long count, long missing, double mean, double squares, double min, double max)
+    {
+        this.count = count;
+        this.missing = missing;
+        this.mean = mean;
+        this.squares = squares;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * A simple function which returns the number of rows with a numeric
+     * value.
+     *
+     * @return The number of observations
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * A simple function which returns the number of rows which are missing a
+     * value.
+     *
+     * @return The number of missing rows
+     */
+    public long getMissing()
+    {
+        return this.missing;
+    }
+
+    /**
+     * A simple function which returns the mean of the values.
+     *
+     * @return The mean, or NaN if there are no values
+     */
+    public double getMean()
+    {
+        return this.mean;
+    }
+
+    /**
+     * A simple function which returns the sample variance of the values.
+     *
+     * @return The variance, or NaN if there are fewer than two values
+     */
+    public double getVariance()
+    {
+        return this.count < 2 ? Double.NaN : this.squares / (this.count - 1);
+    }
+
+    /**
+     * A simple function which returns the sample standard deviation of the
+     * values.
+     *
+     * @return The standard deviation, or NaN if there are fewer than two values
+     */
+    public double getStandardDeviation()
+    {
+        return Math.sqrt(this.getVariance());
+    }
+
+    /**
+     * A simple function which returns the smallest value.
+     *
+     * @return The minimum, or NaN if there are no values
+     */
+    public double getMin()
+    {
+        return this.min;
+    }
+
+    /**
+     * A simple function which returns the largest value.
+     *
+     * @return The maximum, or NaN if there are no values
+     */
+    public double getMax()
+    {
+        return this.max;
+    }
+
+    /**
+     * A simple function which returns the values at each of the percentiles
+     * listed in PERCENTILES.
+     *
+     * @return The percentile values, or null if they haven't been computed
+     */
+    public double[] getPercentiles()
+    {
+        return this.percentiles;
+    }
+
+    /**
+     * A simple function used to store the values at each of the percentiles.
+     *
+     * @param percentiles The percentile values
+     */
+    void setPercentiles(double[] percentiles)
+    {
+        this.percentiles = percentiles;
+    }
+
+    /**
+     * A simple function which returns the sketch of the quantiles of the
+     * values.
+     *
+     * @return The quantile sketch, or null if it hasn't been built
+     */
+    public QuantileSketch getQuantiles()
+    {
+        return this.quantiles;
+    }
+
+    /**
+     * A simple function which returns the sketch of the distinct values.
+     *
+     * @return The distinct sketch, or null if it hasn't been built
+     */
+    public DistinctSketch getDistinct()
+    {
+        return this.distinct;
+    }
+
+    /**
+     * A function used to estimate the median of the values from the quantile
+     * sketch.
+     *
+     * @return The estimated median, or NaN if there is no sketch or no values
+     */
+    public double getMedian()
+    {
+        return this.quantiles == null ? Double.NaN : this.quantiles.getQuantile(0.5);
+    }
+
+    /**
+     * A function used to estimate the number of distinct values from the
+     * distinct sketch.
+     *
+     * @return The estimated number of distinct values, or -1 if there is no sketch
+     */
+    public long getDistinctCount()
+    {
+        return this.distinct == null ? -1 : this.distinct.getEstimate();
+    }
+
+    /**
+     * A simple function used to store the sketches of the values.
+     *
+     * @param quantiles The quantile sketch, or null for none
+     * @param distinct The distinct sketch, or null for none
+     */
+    void setSketches(QuantileSketch quantiles, DistinctSketch distinct)
+    {
+        this.quantiles = quantiles;
+        this.distinct = distinct;
+    }
+
+    /**
+     * A function used to merge the summary of another range of the column
+     * into this one. The means and squared differences are combined with the
+     * parallel update of Chan et al., which keeps the variance stable.
+     *
+     * @param other The summary to merge
+     */
+    public void merge(Summary other)
+    {
+        // Merge the sketches
+        this.mergeSketches(other);
+        this.empty &= other.empty;
+
+        // Merge the missing rows
+        this.missing += other.missing;
+
+        // Check whether either summary has any values
+        if (other.count == 0) return;
+        if (this.count == 0)
+        {
+            this.count = other.count;
+            this.mean = other.mean;
+            this.squares = other.squares;
+            this.min = other.min;
+            this.max = other.max;
+            return;
+        }
+
+        // Combine the moments
+        long count = this.count + other.count;
+        double delta = other.mean - this.mean;
+        this.mean += delta * other.count / count;
+        this.squares += other.squares + delta * delta * ((double) this.count * other.count / count);
+        this.count = count;
+
+        // And combine the bounds
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * A function used to merge the sketches of another summary into this
+     * one. An empty summary takes copies of the other sketches, but the
+     * sketches are dropped if only one of two non-empty summaries has them,
+     * since they would no longer describe every value.
+     *
+     * @param other The summary to merge
+     */
+    private void mergeSketches(Summary other)
+    {
+        // Check whether either summary is empty
+        if (other.empty) return;
+        if (this.empty)
+        {
+            this.quantiles = other.quantiles == null ? null : other.quantiles.copy();
+            this.distinct = other.distinct == null ? null : other.distinct.copy();
+            return;
+        }
+
+        // And merge the sketches that both summaries have
+        if (this.quantiles != null && other.quantiles != null) this.quantiles.merge(other.quantiles);
+        else this.quantiles = null;
+        if (this.distinct != null && other.distinct != null) this.distinct.merge(other.distinct);
+        else this.distinct = null;
+    }
+
+    /**
+     * A function used to export the summary for storage in a file. The
+     * percentiles are not stored, but the sketches are.
+     *
+     * @return The summary as JSON
+     */
+    public JSONObject getJSONString()
+    {
+        // Create the JSON object
+        JSONObject object = new JSONObject();
+
+        // Store the counts
+        object.put("count", this.count);
+        object.put("missing", this.missing);
+
+        // Store the moments, which are only defined if we have values
+        if (this.count > 0)
+        {
+            object.put("mean", this.mean);
+            object.put("squares", this.squares);
+            object.put("min", this.min);
+            object.put("max", this.max);
+        }
+
+        // And store the sketches, if we have them
+        if (this.quantiles != null) object.put("quantiles", this.quantiles.getString());
+        if (this.distinct != null) object.put("distinct", this.distinct.getString());
+        return object;
+    }
+
+    /**
+     * A function used to import a summary from a file.
+     *
+     * @param object The summary as JSON
+     *
+     * @return The summary
+     */
+    public static Summary fromJSONString(JSONObject object)
+    {
+        // Read the counts and moments
+        Summary summary = new Summary(object.getLong("count"), object.getLong("missing"),
+            object.optDouble("mean", Double.NaN), object.optDouble("squares", 0),
+            object.optDouble("min", Double.NaN), object.optDouble("max", Double.NaN));
+
+        // And read the sketches, if they were stored
+        String quantiles = object.optString("quantiles", null), distinct = object.optString("distinct", null);
+        summary.setSketches(quantiles == null ? null : QuantileSketch.fromString(quantiles),
+            distinct == null ? null : DistinctSketch.fromString(distinct));
+        return summary;
+    }
+
+    /**
+     * A function used to easily print a string representation of the summary.
+     *
+     * @return The summary as a string
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("Obs %d, Missing %d, Mean %g, Std. dev. %g, Min %g, Max %g",
+            this.count, this.missing, this.mean, this.getStandardDeviation(), this.min, this.max);
+    }
+}
@@ -0,0 +1,253 @@
+package com.stata.analysis;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vector kernels class. This implements the numeric kernels with the
+ * incubating vector API, working on as many values at once as the processor
+ * allows and finishing the last few values one at a time.
+ *
+ * This class is only compiled by the vector build profile, and is loaded by
+ * name when Stata starts, so that the rest of Stata builds and runs without
+ * the jdk.incubator.vector module.
+ *
+ * @author Dan Jenkins
+ */
+final class VectorKernels extends NumericKernels
+{
+    /** The widest vector shape supported by the processor. */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * A simple function which returns the name of the kernels, for display.
+     *
+     * @return The name of the kernels
+     */
+    @Override
+    public String getName()
+    {
+        return "vector (" + SPECIES.vectorBitSize() + " bit)";
+    }
+
+    /**
+     * A function used to sum a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The sum of the values
+     */
+    @Override
+    public double sum(double[] values, int from, int to)
+    {
+        // Sum the values a vector at a time
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            sums = sums.add(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        // And add the remaining values
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) sum += values[i];
+        return sum;
+    }
+
+    /**
+     * A function used to sum the squared differences of a range of values from
+     * a centre, such as their mean.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     * @param centre The value to find the differences from
+     *
+     * @return The sum of the squared differences
+     */
+    @Override
+    public double squares(double[] values, int from, int to, double centre)
+    {
+        // Sum the squared differences a vector at a time
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            DoubleVector differences = DoubleVector.fromArray(SPECIES, values, i).sub(centre);
+            sums = sums.add(differences.mul(differences));
+        }
+
+        // And add the remaining squared differences
+        double squares = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++)
+        {
+            double difference = values[i] - centre;
+            squares += difference * difference;
+        }
+        return squares;
+    }
+
+    /**
+     * A function used to sum the products of two ranges of values, which is
+     * their dot product.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The sum of the products
+     */
+    @Override
+    public double dot(double[] a, double[] b, int from, int to)
+    {
+        // Sum the products a vector at a time
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            sums = DoubleVector.fromArray(SPECIES, a, i).fma(DoubleVector.fromArray(SPECIES, b, i), sums);
+        }
+
+        // And add the remaining products
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    /**
+     * A function used to find the smallest of a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The smallest value, or positive infinity if the range is empty
+     */
+    @Override
+    public double min(double[] values, int from, int to)
+    {
+        // Find the smallest values a vector at a time
+        DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            mins = mins.min(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        // And check the remaining values
+        double min = mins.reduceLanes(VectorOperators.MIN);
+        for (; i < to; i++) min = Math.min(min, values[i]);
+        return min;
+    }
+
+    /**
+     * A function used to find the largest of a range of values.
+     *
+     * @param values The values
+     * @param from The first index of the range
+     * @param to The end of the range
+     *
+     * @return The largest value, or negative infinity if the range is empty
+     */
+    @Override
+    public double max(double[] values, int from, int to)
+    {
+        // Find the largest values a vector at a time
+        DoubleVector maxes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            maxes = maxes.max(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        // And check the remaining values
+        double max = maxes.reduceLanes(VectorOperators.MAX);
+        for (; i < to; i++) max = Math.max(max, values[i]);
+        return max;
+    }
+
+    /**
+     * A function used to add two ranges of values elementwise.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param result The array to store the sums in, which may be either input
+     * @param from The first index of the range
+     * @param to The end of the range
+     */
+    @Override
+    public void add(double[] a, double[] b, double[] result, int from, int to)
+    {
+        // Add the values a vector at a time
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        }
+
+        // And add the remaining values
+        for (; i < to; i++) result[i] = a[i] + b[i];
+    }
+
+    /**
+     * A function used to multiply two ranges of values elementwise.
+     *
+     * @param a The first values
+     * @param b The second values
+     * @param result The array to store the products in, which may be either input
+     * @param from The first index of the range
+     * @param to The end of the range
+     */
+    @Override
+    public void multiply(double[] a, double[] b, double[] result, int from, int to)
+    {
+        // Multiply the values a vector at a time
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+        {
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        }
+
+        // And multiply the remaining values
+        for (; i < to; i++) result[i] = a[i] * b[i];
+    }
+
+    /**
+     * A function used to compare up to 64 values with a range, producing a
+     * mask with a bit set for each value within the range.
+     *
+     * @param values The values
+     * @param from The index of the first value
+     * @param count The number of values, at most 64
+     * @param low The smallest value within the range
+     * @param high The largest value within the range
+     *
+     * @return The mask, with the first value in the lowest bit
+     */
+    @Override
+    public long range(double[] values, int from, int count, double low, double high)
+    {
+        // Compare the values a vector at a time
+        long word = 0;
+        int b = 0;
+        for (int bound = SPECIES.loopBound(count); b < bound; b += SPECIES.length())
+        {
+            DoubleVector vector = DoubleVector.fromArray(SPECIES, values, from + b);
+            VectorMask<Double> mask = vector.compare(VectorOperators.GE, low).and(vector.compare(VectorOperators.LE, high));
+            word |= mask.toLong() << b;
+        }
+
+        // And compare the remaining values
+        for (; b < count; b++)
+        {
+            double value = values[from + b];
+            if (value >= low & value <= high) word |= 1L << b;
+        }
+        return word;
+    }
+}
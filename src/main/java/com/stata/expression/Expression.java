@@ -0,0 +1,741 @@
+package com.stata.expression;
+
+import com.stata.analysis.NumericKernels;
+import com.stata.project.Datatable;
+import com.stata.project.Datatype;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.query.Selection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The Expression class. This compiles expressions written like those of the
+ * generate and replace commands, such as:
+ *
+ *   cond(age >= 18, log(income) * 2, .) + _n
+ *
+ * Expressions may use columns, numbers, text in quotes, a full stop for a
+ * missing value, and _n and _N for the number of the row and the number of
+ * rows. Numbers are combined with +, -, *, / and ^, text is joined with +,
+ * and values are compared with ==, !=, ~=, <, <=, > and >=, and combined with
+ * &, | and ! or ~, giving one or zero. The functions are listed in the
+ * Functions class.
+ *
+ * Arithmetic follows Stata, so operations on missing values, and operations
+ * without a result such as dividing by zero, give missing values. Missing
+ * values are larger than any number, and count as true.
+ *
+ * An expression is parsed once against a table, and compiled into a tree of
+ * evaluators which each compute a block of rows at a time, reading the
+ * segments of the columns directly. Parts of the expression which don't
+ * depend on the rows are computed while compiling, and the segments of the
+ * table are evaluated in parallel.
+ *
+ * Numbers are computed as doubles, so integer results are exact up to 2^53,
+ * as in Stata.
+ *
+ * @author Dan Jenkins
+ */
+public class Expression
+{
+    /** The number of rows evaluated at a time. */
+    static final int BLOCK_SIZE = 4096;
+
+    /** The table which the expression reads. */
+    private final Datatable table;
+
+    /** The tokens of the expression. */
+    private final List<String> tokens;
+
+    /** The position of the next token. */
+    private int position;
+
+    /** The compiled expression. */
+    private final Term term;
+
+    /**
+     * The default constructor. This parses and compiles an expression.
+     *
+     * @param table The table which the expression reads
+     * @param text The expression
+     */
+    private Expression(Datatable table, String text)
+    {
+        // Split the expression into its tokens
+        this.table = table;
+        this.tokens = Expression.tokenize(text);
+        this.position = 0;
+
+        // Compile the expression
+        if (this.tokens.isEmpty()) throw Expression.error(null);
+        this.term = this.parseOr();
+
+        // And check that we have used every token
+        if (this.position < this.tokens.size()) throw Expression.error(this.tokens.get(this.position));
+    }
+
+    /**
+     * The compile function. This parses and compiles an expression so that it
+     * can be evaluated against a table.
+     *
+     * @param table The table which the expression reads
+     * @param text The expression
+     *
+     * @return The compiled expression
+     */
+    public static Expression compile(Datatable table, String text)
+    {
+        return new Expression(table, text);
+    }
+
+    /**
+     * A simple function which returns the type of the values of the
+     * expression.
+     *
+     * @return The type, which is INTEGER, NUMBER or STRING
+     */
+    public Datatype getType()
+    {
+        return this.term.getType();
+    }
+
+    /**
+     * The evaluate function. This evaluates the expression into a new column,
+     * like the generate command.
+     *
+     * @param selection The rows to evaluate, or null for every row, with the other rows missing
+     *
+     * @return The new column
+     */
+    public Column evaluate(Selection selection)
+    {
+        return this.evaluate(selection, null);
+    }
+
+    /**
+     * The evaluate function. This evaluates the expression into a new column
+     * which keeps the values of an existing column on the rows which aren't
+     * selected, like the replace command. The new column holds numbers if
+     * either the expression or the existing column do.
+     *
+     * @param selection The rows to evaluate, or null for every row
+     * @param existing The column whose values are kept, or null for missing values
+     *
+     * @return The new column
+     */
+    public Column evaluate(Selection selection, Column existing)
+    {
+        // Find the type of the new column
+        Term fallback = existing == null || existing.getType() == Datatype.NULL ? null : Term.column(existing);
+        Datatype type = this.term.getType();
+        if (fallback != null)
+        {
+            if (fallback.isText() != this.term.isText()) throw new IllegalArgumentException("type mismatch");
+            if (fallback.getType() == Datatype.NUMBER) type = Datatype.NUMBER;
+        }
+
+        // Evaluate each segment in parallel
+        int rows = this.table.getRowCount();
+        int segments = (rows + Column.SEGMENT_SIZE - 1) >>> Column.SEGMENT_SHIFT;
+        List<ForkJoinTask<Object>> tasks = new ArrayList<>();
+        for (int s = 0; s < segments; s++)
+        {
+            int segment = s;
+            tasks.add(ForkJoinTask.adapt(() -> this.evaluate(segment, rows, selection, fallback)).fork());
+        }
+
+        // And append the values of each segment in order
+        Column column = Column.create(type, this.table.getStorage());
+        for (ForkJoinTask<Object> task : tasks)
+        {
+            Object values = task.join();
+            if (values instanceof String[])
+            {
+                for (String value : (String[]) values) column.append(value);
+            }
+            else if (column instanceof IntegerColumn)
+            {
+                for (double value : (double[]) values)
+                {
+                    if (!Double.isFinite(value)) column.appendMissing();
+                    else                         ((IntegerColumn) column).append((long) value);
+                }
+            }
+            else
+            {
+                for (double value : (double[]) values)
+                {
+                    if (!Double.isFinite(value)) column.appendMissing();
+                    else                         ((NumberColumn) column).append(value);
+                }
+            }
+        }
+        return column;
+    }
+
+    /**
+     * A function used to evaluate the expression for a segment, a block of
+     * rows at a time.
+     *
+     * @param segment The segment
+     * @param rows The number of rows in the table
+     * @param selection The rows to evaluate, or null for every row
+     * @param fallback The values of the rows which aren't selected, or null for missing values
+     *
+     * @return The values of the segment, as doubles or text
+     */
+    private Object evaluate(int segment, int rows, Selection selection, Term fallback)
+    {
+        // Create the values of the segment
+        int first = segment << Column.SEGMENT_SHIFT;
+        int last = Math.min(first + Column.SEGMENT_SIZE, rows);
+        boolean text = this.term.isText();
+        double[] numbers = text ? null : new double[last - first];
+        String[] texts = text ? new String[last - first] : null;
+        double[] numberBlock = new double[BLOCK_SIZE], fallbackNumbers = new double[BLOCK_SIZE];
+        String[] textBlock = new String[BLOCK_SIZE], fallbackTexts = new String[BLOCK_SIZE];
+
+        for (int start = first; start < last; start += BLOCK_SIZE)
+        {
+            // Evaluate the block
+            int end = Math.min(start + BLOCK_SIZE, last);
+            if (text) this.term.texts().evaluate(segment, start, end, textBlock);
+            else      this.term.numbers().evaluate(segment, start, end, numberBlock);
+
+            // Replace the values of the rows which aren't selected
+            if (selection != null && selection.nextUnselected(start) < end)
+            {
+                if (fallback == null)
+                {
+                    for (int row = selection.nextUnselected(start); row < end; row = selection.nextUnselected(row + 1))
+                    {
+                        if (text) textBlock[row - start] = "";
+                        else      numberBlock[row - start] = Double.NaN;
+                    }
+                }
+                else
+                {
+                    if (text) fallback.texts().evaluate(segment, start, end, fallbackTexts);
+                    else      fallback.numbers().evaluate(segment, start, end, fallbackNumbers);
+                    for (int row = selection.nextUnselected(start); row < end; row = selection.nextUnselected(row + 1))
+                    {
+                        if (text) textBlock[row - start] = fallbackTexts[row - start];
+                        else      numberBlock[row - start] = fallbackNumbers[row - start];
+                    }
+                }
+            }
+
+            // And store the values of the block
+            if (text) System.arraycopy(textBlock, 0, texts, start - first, end - start);
+            else      System.arraycopy(numberBlock, 0, numbers, start - first, end - start);
+        }
+        return text ? texts : numbers;
+    }
+
+    /**
+     * A function used to parse expressions joined by the or operator.
+     *
+     * @return The compiled expression
+     */
+    private Term parseOr()
+    {
+        Term term = this.parseAnd();
+        while (this.accept("|")) term = Expression.logic(term, this.parseAnd(), false);
+        return term;
+    }
+
+    /**
+     * A function used to parse expressions joined by the and operator.
+     *
+     * @return The compiled expression
+     */
+    private Term parseAnd()
+    {
+        Term term = this.parseNot();
+        while (this.accept("&")) term = Expression.logic(term, this.parseNot(), true);
+        return term;
+    }
+
+    /**
+     * A function used to parse an expression which may be negated.
+     *
+     * @return The compiled expression
+     */
+    private Term parseNot()
+    {
+        // Check whether the expression is negated
+        if (this.accept("!") || this.accept("~")) return Expression.not(this.parseNot());
+
+        // Otherwise, parse the expression
+        return this.parseComparison();
+    }
+
+    /**
+     * A function used to parse an expression which may be compared with
+     * another.
+     *
+     * @return The compiled expression
+     */
+    private Term parseComparison()
+    {
+        // Parse the left of the comparison
+        Term term = this.parseAdditive();
+
+        // And check for a comparison
+        String operator = this.peek(0);
+        if (operator == null || !(operator.equals("==") || operator.equals("!=") || operator.equals("~=") || operator.equals("<")
+            || operator.equals("<=") || operator.equals(">") || operator.equals(">=")))
+        {
+            return term;
+        }
+        this.position++;
+        return Expression.compare(term, operator, this.parseAdditive());
+    }
+
+    /**
+     * A function used to parse expressions joined by addition and
+     * subtraction.
+     *
+     * @return The compiled expression
+     */
+    private Term parseAdditive()
+    {
+        Term term = this.parseMultiplicative();
+        while (true)
+        {
+            if (this.accept("+"))      term = Expression.arithmetic(term, '+', this.parseMultiplicative());
+            else if (this.accept("-")) term = Expression.arithmetic(term, '-', this.parseMultiplicative());
+            else                       return term;
+        }
+    }
+
+    /**
+     * A function used to parse expressions joined by multiplication and
+     * division.
+     *
+     * @return The compiled expression
+     */
+    private Term parseMultiplicative()
+    {
+        Term term = this.parseNegation();
+        while (true)
+        {
+            if (this.accept("*"))      term = Expression.arithmetic(term, '*', this.parseNegation());
+            else if (this.accept("/")) term = Expression.arithmetic(term, '/', this.parseNegation());
+            else                       return term;
+        }
+    }
+
+    /**
+     * A function used to parse an expression which may be negated
+     * arithmetically.
+     *
+     * @return The compiled expression
+     */
+    private Term parseNegation()
+    {
+        // Check whether the expression is negated
+        if (this.accept("-")) return Expression.arithmetic(Term.constant(0, Datatype.INTEGER), '-', this.parseNegation());
+
+        // Otherwise, parse the expression
+        return this.parsePower();
+    }
+
+    /**
+     * A function used to parse an expression which may be raised to powers.
+     * Powers bind more tightly than negation, so -2^2 is -4.
+     *
+     * @return The compiled expression
+     */
+    private Term parsePower()
+    {
+        Term term = this.parsePrimary();
+        while (this.accept("^")) term = Expression.arithmetic(term, '^', this.parseExponent());
+        return term;
+    }
+
+    /**
+     * A function used to parse the exponent of a power, which may be negated.
+     *
+     * @return The compiled expression
+     */
+    private Term parseExponent()
+    {
+        // Check whether the exponent is negated
+        if (this.accept("-")) return Expression.arithmetic(Term.constant(0, Datatype.INTEGER), '-', this.parseExponent());
+
+        // Otherwise, parse the exponent
+        return this.parsePrimary();
+    }
+
+    /**
+     * A function used to parse an expression in parentheses, a function, a
+     * column, or a value.
+     *
+     * @return The compiled expression
+     */
+    private Term parsePrimary()
+    {
+        // Get the token
+        String token = this.next();
+        if (token == null) throw Expression.error(null);
+
+        // Check for an expression in parentheses
+        if (token.equals("("))
+        {
+            Term term = this.parseOr();
+            this.expect(")");
+            return term;
+        }
+
+        // Check for a function
+        if (Expression.isName(token) && "(".equals(this.peek(0)))
+        {
+            this.position++;
+            List<Term> arguments = new ArrayList<>();
+            if (!this.accept(")"))
+            {
+                do arguments.add(this.parseOr()); while (this.accept(","));
+                this.expect(")");
+            }
+            return Functions.call(token, arguments);
+        }
+
+        // Check for the row number and count
+        if (token.equals("_n")) return Term.number(Datatype.INTEGER, (segment, start, end, values) ->
+        {
+            for (int i = 0; i < end - start; i++) values[i] = start + i + 1;
+        }, false);
+        if (token.equals("_N")) return Term.constant(this.table.getRowCount(), Datatype.INTEGER);
+
+        // And check what kind of value we have
+        if (token.equals("."))           return Term.constant(Double.NaN, Datatype.NUMBER);
+        else if (token.startsWith("\"")) return Term.constant(token.substring(1, token.length() - 1));
+        else if (token.equals("true"))   return Term.constant(1, Datatype.INTEGER);
+        else if (token.equals("false"))  return Term.constant(0, Datatype.INTEGER);
+        else if (Expression.isName(token))
+        {
+            Column column = this.table.getColumn(token);
+            if (column == null) throw new IllegalArgumentException("variable " + token + " not found");
+            return Term.column(column);
+        }
+        else if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '.')
+        {
+            boolean integral = token.chars().allMatch(Character::isDigit) && token.length() <= 15;
+            return Term.constant(Double.parseDouble(token), integral ? Datatype.INTEGER : Datatype.NUMBER);
+        }
+        throw Expression.error(token);
+    }
+
+    /**
+     * A function used to compile an arithmetic operation. Text may only be
+     * joined with +.
+     *
+     * @param left The compiled left operand
+     * @param operator The operator
+     * @param right The compiled right operand
+     *
+     * @return The compiled operation
+     */
+    private static Term arithmetic(Term left, char operator, Term right)
+    {
+        boolean constant = left.isConstant() && right.isConstant();
+
+        // Check for text being joined
+        if (left.isText() || right.isText())
+        {
+            if (operator != '+') throw new IllegalArgumentException("type mismatch");
+            TextEvaluator first = left.texts(), second = right.texts();
+            ThreadLocal<String[]> buffer = Term.textBuffer();
+            return Term.text((segment, start, end, values) ->
+            {
+                String[] others = buffer.get();
+                first.evaluate(segment, start, end, values);
+                second.evaluate(segment, start, end, others);
+                for (int i = 0; i < end - start; i++) values[i] = values[i].concat(others[i]);
+            }, constant);
+        }
+
+        // Find the type of the result
+        NumberEvaluator first = left.numbers(), second = right.numbers();
+        boolean integral = left.getType() == Datatype.INTEGER && right.getType() == Datatype.INTEGER && operator != '/' && operator != '^';
+        Datatype type = integral ? Datatype.INTEGER : Datatype.NUMBER;
+
+        // And combine the numbers, using the numeric kernels where we can
+        NumericKernels kernels = NumericKernels.getInstance();
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        return Term.number(type, (segment, start, end, values) ->
+        {
+            double[] others = buffer.get();
+            int count = end - start;
+            first.evaluate(segment, start, end, values);
+            second.evaluate(segment, start, end, others);
+            switch (operator)
+            {
+                case '+': kernels.add(values, others, values, 0, count); break;
+                case '*': kernels.multiply(values, others, values, 0, count); break;
+                case '-': for (int i = 0; i < count; i++) values[i] -= others[i]; break;
+                case '/': for (int i = 0; i < count; i++) values[i] = Functions.normalize(values[i] / others[i]); break;
+                default:  for (int i = 0; i < count; i++) values[i] = Functions.normalize(Math.pow(values[i], others[i])); break;
+            }
+        }, constant);
+    }
+
+    /**
+     * A function used to compile a comparison, which is one where it holds
+     * and zero otherwise. Missing numbers are larger than any other number
+     * and equal to each other.
+     *
+     * @param left The compiled left operand
+     * @param operator The comparison operator
+     * @param right The compiled right operand
+     *
+     * @return The compiled comparison
+     */
+    private static Term compare(Term left, String operator, Term right)
+    {
+        // Check that the operands can be compared
+        if (left.isText() != right.isText()) throw new IllegalArgumentException("type mismatch");
+        boolean constant = left.isConstant() && right.isConstant();
+
+        // Compare text
+        if (left.isText())
+        {
+            TextEvaluator first = left.texts(), second = right.texts();
+            ThreadLocal<String[]> firsts = Term.textBuffer(), seconds = Term.textBuffer();
+            return Term.number(Datatype.INTEGER, (segment, start, end, values) ->
+            {
+                String[] a = firsts.get(), b = seconds.get();
+                first.evaluate(segment, start, end, a);
+                second.evaluate(segment, start, end, b);
+                for (int i = 0; i < end - start; i++) values[i] = Expression.holds(operator, a[i].compareTo(b[i])) ? 1 : 0;
+            }, constant);
+        }
+
+        // And compare numbers
+        NumberEvaluator first = left.numbers(), second = right.numbers();
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        return Term.number(Datatype.INTEGER, (segment, start, end, values) ->
+        {
+            double[] others = buffer.get();
+            first.evaluate(segment, start, end, values);
+            second.evaluate(segment, start, end, others);
+            for (int i = 0; i < end - start; i++)
+            {
+                double a = values[i], b = others[i];
+                boolean missingA = Double.isNaN(a), missingB = Double.isNaN(b);
+                int comparison = missingA || missingB ? Boolean.compare(missingA, missingB) : a < b ? -1 : a > b ? 1 : 0;
+                values[i] = Expression.holds(operator, comparison) ? 1 : 0;
+            }
+        }, constant);
+    }
+
+    /**
+     * A simple function which returns whether a comparison operator holds
+     * for the result of comparing two values.
+     *
+     * @param operator The comparison operator
+     * @param comparison The result of comparing the values
+     *
+     * @return Whether the operator holds
+     */
+    private static boolean holds(String operator, int comparison)
+    {
+        switch (operator)
+        {
+            case "==": return comparison == 0;
+            case "<":  return comparison < 0;
+            case "<=": return comparison <= 0;
+            case ">":  return comparison > 0;
+            case ">=": return comparison >= 0;
+            default:   return comparison != 0;
+        }
+    }
+
+    /**
+     * A function used to compile the and or the or of two numbers, which is
+     * one where it holds and zero otherwise. Any number other than zero,
+     * including a missing value, is true.
+     *
+     * @param left The compiled left operand
+     * @param right The compiled right operand
+     * @param and Whether both operands must be true, rather than either
+     *
+     * @return The compiled operation
+     */
+    private static Term logic(Term left, Term right, boolean and)
+    {
+        NumberEvaluator first = left.numbers(), second = right.numbers();
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        return Term.number(Datatype.INTEGER, (segment, start, end, values) ->
+        {
+            double[] others = buffer.get();
+            first.evaluate(segment, start, end, values);
+            second.evaluate(segment, start, end, others);
+            for (int i = 0; i < end - start; i++)
+            {
+                boolean a = values[i] != 0, b = others[i] != 0;
+                values[i] = (and ? a && b : a || b) ? 1 : 0;
+            }
+        }, left.isConstant() && right.isConstant());
+    }
+
+    /**
+     * A function used to compile the negation of a number, which is one where
+     * the number is zero and zero otherwise.
+     *
+     * @param term The compiled operand
+     *
+     * @return The compiled negation
+     */
+    private static Term not(Term term)
+    {
+        NumberEvaluator operand = term.numbers();
+        return Term.number(Datatype.INTEGER, (segment, start, end, values) ->
+        {
+            operand.evaluate(segment, start, end, values);
+            for (int i = 0; i < end - start; i++) values[i] = values[i] == 0 ? 1 : 0;
+        }, term.isConstant());
+    }
+
+    /**
+     * A function used to split an expression into its tokens.
+     *
+     * @param text The expression
+     *
+     * @return The tokens
+     */
+    private static List<String> tokenize(String text)
+    {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < text.length();)
+        {
+            // Skip whitespace
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                i++;
+                continue;
+            }
+
+            // Find the end of the token
+            int end = i + 1;
+            if (c == '"')
+            {
+                end = text.indexOf('"', i + 1) + 1;
+                if (end == 0) throw new IllegalArgumentException("unmatched quote");
+            }
+            else if (Character.isDigit(c) || (c == '.' && i + 1 < text.length() && Character.isDigit(text.charAt(i + 1))))
+            {
+                while (end < text.length() && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '.')) end++;
+                if (end < text.length() && (text.charAt(end) == 'e' || text.charAt(end) == 'E'))
+                {
+                    int exponent = end + 1;
+                    if (exponent < text.length() && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) exponent++;
+                    if (exponent < text.length() && Character.isDigit(text.charAt(exponent)))
+                    {
+                        end = exponent;
+                        while (end < text.length() && Character.isDigit(text.charAt(end))) end++;
+                    }
+                }
+            }
+            else if (Character.isLetter(c) || c == '_')
+            {
+                while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) end++;
+            }
+            else if ("=!~<>".indexOf(c) >= 0 && end < text.length() && text.charAt(end) == '=')
+            {
+                end++;
+            }
+            else if (c == '=')
+            {
+                throw new IllegalArgumentException("= invalid, use == to compare values");
+            }
+
+            // And store the token
+            tokens.add(text.substring(i, end));
+            i = end;
+        }
+        return tokens;
+    }
+
+    /**
+     * A simple function which returns whether a token is a name, such as the
+     * name of a column or function.
+     *
+     * @param token The token
+     *
+     * @return Whether the token is a name
+     */
+    private static boolean isName(String token)
+    {
+        return token != null && (Character.isLetter(token.charAt(0)) || token.charAt(0) == '_')
+            && !token.equals("true") && !token.equals("false");
+    }
+
+    /**
+     * A simple function which returns a token ahead of the current position
+     * without moving past it.
+     *
+     * @param offset The offset of the token
+     *
+     * @return The token, or null at the end of the expression
+     */
+    private String peek(int offset)
+    {
+        int index = this.position + offset;
+        return index < this.tokens.size() ? this.tokens.get(index) : null;
+    }
+
+    /**
+     * A simple function which returns the next token and moves past it.
+     *
+     * @return The token, or null at the end of the expression
+     */
+    private String next()
+    {
+        String token = this.peek(0);
+        if (token != null) this.position++;
+        return token;
+    }
+
+    /**
+     * A function used to move past the next token if it matches.
+     *
+     * @param token The token to match
+     *
+     * @return Whether the token matched
+     */
+    private boolean accept(String token)
+    {
+        if (!token.equals(this.peek(0))) return false;
+        this.position++;
+        return true;
+    }
+
+    /**
+     * A function used to move past the next token, which must match.
+     *
+     * @param token The token to match
+     */
+    private void expect(String token)
+    {
+        if (!this.accept(token)) throw Expression.error(this.peek(0));
+    }
+
+    /**
+     * A function used to create the error thrown for an unexpected token.
+     *
+     * @param token The unexpected token, or null at the end of the expression
+     *
+     * @return The error
+     */
+    private static IllegalArgumentException error(String token)
+    {
+        return new IllegalArgumentException(token == null ? "unexpected end of expression" : "invalid syntax near " + token);
+    }
+}
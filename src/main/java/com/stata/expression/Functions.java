@@ -0,0 +1,463 @@
+package com.stata.expression;
+
+import com.stata.project.Datatype;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The Functions class. This static class compiles calls to the functions of
+ * the expression language:
+ *
+ *   abs, exp, log, ln, log10, sqrt, floor, ceil, int, round, mod, min, max,
+ *   cond, missing, real, strlen, string, upper, lower, trim and substr
+ *
+ * Each function takes missing values to missing, except for min and max,
+ * which ignore missing values, and missing, which tests for them.
+ *
+ * @author Dan Jenkins
+ */
+final class Functions
+{
+    /**
+     * The call function. This compiles a call to a function.
+     *
+     * @param name The name of the function
+     * @param arguments The compiled arguments
+     *
+     * @return The compiled call
+     */
+    static Term call(String name, List<Term> arguments)
+    {
+        switch (name)
+        {
+            case "abs":     return Functions.unary(arguments, name, Functions.integral(arguments), Math::abs);
+            case "exp":     return Functions.unary(arguments, name, Datatype.NUMBER, Math::exp);
+            case "ln":
+            case "log":     return Functions.unary(arguments, name, Datatype.NUMBER, Math::log);
+            case "log10":   return Functions.unary(arguments, name, Datatype.NUMBER, Math::log10);
+            case "sqrt":    return Functions.unary(arguments, name, Datatype.NUMBER, Math::sqrt);
+            case "floor":   return Functions.unary(arguments, name, Datatype.NUMBER, Math::floor);
+            case "ceil":    return Functions.unary(arguments, name, Datatype.NUMBER, Math::ceil);
+            case "int":     return Functions.unary(arguments, name, Datatype.NUMBER, value -> value < 0 ? Math.ceil(value) : Math.floor(value));
+            case "round":   return Functions.round(arguments);
+            case "mod":     return Functions.binary(arguments, name, Functions.integral(arguments), (x, y) -> y == 0 ? Double.NaN : x - y * Math.floor(x / y));
+            case "min":     return Functions.bound(arguments, name, true);
+            case "max":     return Functions.bound(arguments, name, false);
+            case "cond":    return Functions.cond(arguments);
+            case "missing": return Functions.missing(arguments);
+            case "real":    return Functions.measure(arguments, name, Datatype.NUMBER, Functions::real);
+            case "strlen":  return Functions.measure(arguments, name, Datatype.INTEGER, String::length);
+            case "string":  return Functions.string(arguments);
+            case "upper":   return Functions.transform(arguments, name, String::toUpperCase);
+            case "lower":   return Functions.transform(arguments, name, String::toLowerCase);
+            case "trim":    return Functions.transform(arguments, name, String::trim);
+            case "substr":  return Functions.substr(arguments);
+            default:        throw new IllegalArgumentException("unknown function " + name + "()");
+        }
+    }
+
+    /**
+     * A function used to compile a function of one number.
+     *
+     * @param arguments The compiled arguments
+     * @param name The name of the function
+     * @param type The type of the result
+     * @param operator The function to apply to each value
+     *
+     * @return The compiled call
+     */
+    private static Term unary(List<Term> arguments, String name, Datatype type, DoubleUnaryOperator operator)
+    {
+        // Check the arguments
+        Functions.count(arguments, name, 1, 1);
+        NumberEvaluator argument = arguments.get(0).numbers();
+
+        // And apply the function to each value
+        return Term.number(type, (segment, start, end, values) ->
+        {
+            argument.evaluate(segment, start, end, values);
+            for (int i = 0; i < end - start; i++) values[i] = Functions.normalize(operator.applyAsDouble(values[i]));
+        }, arguments.get(0).isConstant());
+    }
+
+    /**
+     * A function used to compile a function of two numbers.
+     *
+     * @param arguments The compiled arguments
+     * @param name The name of the function
+     * @param type The type of the result
+     * @param operator The function to apply to each pair of values
+     *
+     * @return The compiled call
+     */
+    private static Term binary(List<Term> arguments, String name, Datatype type, DoubleBinaryOperator operator)
+    {
+        // Check the arguments
+        Functions.count(arguments, name, 2, 2);
+        NumberEvaluator left = arguments.get(0).numbers();
+        NumberEvaluator right = arguments.get(1).numbers();
+
+        // And apply the function to each pair of values
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        return Term.number(type, (segment, start, end, values) ->
+        {
+            double[] others = buffer.get();
+            left.evaluate(segment, start, end, values);
+            right.evaluate(segment, start, end, others);
+            for (int i = 0; i < end - start; i++) values[i] = Functions.normalize(operator.applyAsDouble(values[i], others[i]));
+        }, Functions.isConstant(arguments));
+    }
+
+    /**
+     * A function used to compile the round function, which rounds halves
+     * away from zero, to a whole number or to a multiple of its second
+     * argument.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return The compiled call
+     */
+    private static Term round(List<Term> arguments)
+    {
+        // Check for a multiple to round to
+        Functions.count(arguments, "round", 1, 2);
+        DoubleUnaryOperator round = value -> Math.signum(value) * Math.floor(Math.abs(value) + 0.5);
+        if (arguments.size() == 1) return Functions.unary(arguments, "round", Datatype.NUMBER, round);
+
+        // And round to the multiple
+        return Functions.binary(arguments, "round", Datatype.NUMBER, (x, y) -> y * round.applyAsDouble(x / y));
+    }
+
+    /**
+     * A function used to compile the min and max functions, which find the
+     * smallest or largest value of their arguments which isn't missing.
+     *
+     * @param arguments The compiled arguments
+     * @param name The name of the function
+     * @param min Whether to find the smallest value
+     *
+     * @return The compiled call
+     */
+    private static Term bound(List<Term> arguments, String name, boolean min)
+    {
+        // Check the arguments
+        Functions.count(arguments, name, 1, Integer.MAX_VALUE);
+        NumberEvaluator[] evaluators = new NumberEvaluator[arguments.size()];
+        for (int a = 0; a < evaluators.length; a++) evaluators[a] = arguments.get(a).numbers();
+
+        // And compare the values of each argument in turn
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        return Term.number(Functions.integral(arguments), (segment, start, end, values) ->
+        {
+            double[] others = buffer.get();
+            evaluators[0].evaluate(segment, start, end, values);
+            for (int a = 1; a < evaluators.length; a++)
+            {
+                evaluators[a].evaluate(segment, start, end, others);
+                for (int i = 0; i < end - start; i++)
+                {
+                    double value = values[i], other = others[i];
+                    if (Double.isNaN(value) || (min ? other < value : other > value)) values[i] = other;
+                }
+            }
+        }, Functions.isConstant(arguments));
+    }
+
+    /**
+     * A function used to compile the cond function, which takes its second
+     * argument where its first isn't zero, and its third argument otherwise.
+     * Missing values aren't zero, so they take the second argument.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return The compiled call
+     */
+    private static Term cond(List<Term> arguments)
+    {
+        // Check the arguments
+        Functions.count(arguments, "cond", 3, 3);
+        NumberEvaluator test = arguments.get(0).numbers();
+        Term yes = arguments.get(1), no = arguments.get(2);
+        if (yes.isText() != no.isText()) throw new IllegalArgumentException("type mismatch");
+        boolean constant = Functions.isConstant(arguments);
+
+        // Choose between the values of text
+        ThreadLocal<double[]> tests = Term.numberBuffer();
+        if (yes.isText())
+        {
+            ThreadLocal<String[]> buffer = Term.textBuffer();
+            return Term.text((segment, start, end, values) ->
+            {
+                double[] conditions = tests.get();
+                String[] others = buffer.get();
+                test.evaluate(segment, start, end, conditions);
+                yes.texts().evaluate(segment, start, end, values);
+                no.texts().evaluate(segment, start, end, others);
+                for (int i = 0; i < end - start; i++) if (conditions[i] == 0) values[i] = others[i];
+            }, constant);
+        }
+
+        // And choose between the values of numbers
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        Datatype type = yes.getType() == Datatype.INTEGER && no.getType() == Datatype.INTEGER ? Datatype.INTEGER : Datatype.NUMBER;
+        return Term.number(type, (segment, start, end, values) ->
+        {
+            double[] conditions = tests.get();
+            double[] others = buffer.get();
+            test.evaluate(segment, start, end, conditions);
+            yes.numbers().evaluate(segment, start, end, values);
+            no.numbers().evaluate(segment, start, end, others);
+            for (int i = 0; i < end - start; i++) if (conditions[i] == 0) values[i] = others[i];
+        }, constant);
+    }
+
+    /**
+     * A function used to compile the missing function, which is one where any
+     * of its arguments are missing, and zero otherwise.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return The compiled call
+     */
+    private static Term missing(List<Term> arguments)
+    {
+        // Check the arguments
+        Functions.count(arguments, "missing", 1, Integer.MAX_VALUE);
+
+        // And test each argument in turn
+        ThreadLocal<double[]> numbers = Term.numberBuffer();
+        ThreadLocal<String[]> texts = Term.textBuffer();
+        return Term.number(Datatype.INTEGER, (segment, start, end, values) ->
+        {
+            Arrays.fill(values, 0, end - start, 0);
+            for (Term argument : arguments)
+            {
+                if (argument.isText())
+                {
+                    String[] others = texts.get();
+                    argument.texts().evaluate(segment, start, end, others);
+                    for (int i = 0; i < end - start; i++) if (others[i].isEmpty()) values[i] = 1;
+                }
+                else
+                {
+                    double[] others = numbers.get();
+                    argument.numbers().evaluate(segment, start, end, others);
+                    for (int i = 0; i < end - start; i++) if (Double.isNaN(others[i])) values[i] = 1;
+                }
+            }
+        }, Functions.isConstant(arguments));
+    }
+
+    /**
+     * A function used to compile a function which measures text as a number.
+     *
+     * @param arguments The compiled arguments
+     * @param name The name of the function
+     * @param type The type of the result
+     * @param measure The function to apply to each piece of text
+     *
+     * @return The compiled call
+     */
+    private static Term measure(List<Term> arguments, String name, Datatype type, ToDoubleFunction<String> measure)
+    {
+        // Check the arguments
+        Functions.count(arguments, name, 1, 1);
+        TextEvaluator argument = arguments.get(0).texts();
+
+        // And measure each piece of text
+        ThreadLocal<String[]> buffer = Term.textBuffer();
+        return Term.number(type, (segment, start, end, values) ->
+        {
+            String[] texts = buffer.get();
+            argument.evaluate(segment, start, end, texts);
+            for (int i = 0; i < end - start; i++) values[i] = measure.applyAsDouble(texts[i]);
+        }, arguments.get(0).isConstant());
+    }
+
+    /**
+     * A function used to compile a function which transforms text.
+     *
+     * @param arguments The compiled arguments
+     * @param name The name of the function
+     * @param transform The function to apply to each piece of text
+     *
+     * @return The compiled call
+     */
+    private static Term transform(List<Term> arguments, String name, Function<String, String> transform)
+    {
+        // Check the arguments
+        Functions.count(arguments, name, 1, 1);
+        TextEvaluator argument = arguments.get(0).texts();
+
+        // And transform each piece of text
+        return Term.text((segment, start, end, values) ->
+        {
+            argument.evaluate(segment, start, end, values);
+            for (int i = 0; i < end - start; i++) values[i] = transform.apply(values[i]);
+        }, arguments.get(0).isConstant());
+    }
+
+    /**
+     * A function used to compile the string function, which formats a number
+     * as text. Missing values are formatted as a full stop.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return The compiled call
+     */
+    private static Term string(List<Term> arguments)
+    {
+        // Check the arguments
+        Functions.count(arguments, "string", 1, 1);
+        NumberEvaluator argument = arguments.get(0).numbers();
+        boolean integral = arguments.get(0).getType() == Datatype.INTEGER;
+
+        // And format each value
+        ThreadLocal<double[]> buffer = Term.numberBuffer();
+        return Term.text((segment, start, end, values) ->
+        {
+            double[] numbers = buffer.get();
+            argument.evaluate(segment, start, end, numbers);
+            for (int i = 0; i < end - start; i++)
+            {
+                double value = numbers[i];
+                if (Double.isNaN(value)) values[i] = ".";
+                else if (integral)       values[i] = IntegerColumn.format((long) value);
+                else                     values[i] = NumberColumn.format(value);
+            }
+        }, arguments.get(0).isConstant());
+    }
+
+    /**
+     * A function used to compile the substr function, which takes part of a
+     * piece of text from a position counted from one, or from the end if it
+     * is negative, for a length, or to the end if the length is missing.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return The compiled call
+     */
+    private static Term substr(List<Term> arguments)
+    {
+        // Check the arguments
+        Functions.count(arguments, "substr", 3, 3);
+        TextEvaluator text = arguments.get(0).texts();
+        NumberEvaluator position = arguments.get(1).numbers();
+        NumberEvaluator length = arguments.get(2).numbers();
+
+        // And take part of each piece of text
+        ThreadLocal<double[]> positions = Term.numberBuffer();
+        ThreadLocal<double[]> lengths = Term.numberBuffer();
+        return Term.text((segment, start, end, values) ->
+        {
+            double[] from = positions.get(), count = lengths.get();
+            text.evaluate(segment, start, end, values);
+            position.evaluate(segment, start, end, from);
+            length.evaluate(segment, start, end, count);
+            for (int i = 0; i < end - start; i++) values[i] = Functions.substr(values[i], from[i], count[i]);
+        }, Functions.isConstant(arguments));
+    }
+
+    /**
+     * A function used to take part of a piece of text.
+     *
+     * @param text The text
+     * @param position The position of the first character, counted from one, or from the end if negative
+     * @param length The number of characters, or NaN to take the rest of the text
+     *
+     * @return The part of the text, which is empty if the position is outside the text
+     */
+    private static String substr(String text, double position, double length)
+    {
+        // Find the first character
+        if (Double.isNaN(position) || (long) position == 0) return "";
+        long first = position > 0 ? (long) position - 1 : text.length() + (long) position;
+        if (first < 0 || first >= text.length()) return "";
+
+        // And take the characters
+        long last = Double.isNaN(length) ? text.length() : Math.min(text.length(), first + Math.max(0, (long) length));
+        return text.substring((int) first, (int) last);
+    }
+
+    /**
+     * A function used to parse text as a number, giving a missing value if it
+     * isn't a number.
+     *
+     * @param text The text to parse
+     *
+     * @return The number, or NaN
+     */
+    private static double real(String text)
+    {
+        try
+        {
+            return text.isBlank() ? Double.NaN : Functions.normalize(NumberColumn.parse(text.trim()));
+        }
+        catch (NumberFormatException exception)
+        {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * A function used to check the number of arguments to a function.
+     *
+     * @param arguments The compiled arguments
+     * @param name The name of the function
+     * @param min The smallest number of arguments
+     * @param max The largest number of arguments
+     */
+    private static void count(List<Term> arguments, String name, int min, int max)
+    {
+        if (arguments.size() < min) throw new IllegalArgumentException("too few arguments to " + name + "()");
+        if (arguments.size() > max) throw new IllegalArgumentException("too many arguments to " + name + "()");
+    }
+
+    /**
+     * A simple function which returns the type of a result which is integral
+     * when all of the arguments are.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return INTEGER if every argument is an integer, and NUMBER otherwise
+     */
+    private static Datatype integral(List<Term> arguments)
+    {
+        for (Term argument : arguments) if (argument.getType() != Datatype.INTEGER) return Datatype.NUMBER;
+        return Datatype.INTEGER;
+    }
+
+    /**
+     * A simple function which returns whether all of the arguments are the
+     * same for every row.
+     *
+     * @param arguments The compiled arguments
+     *
+     * @return Whether the arguments are constant
+     */
+    private static boolean isConstant(List<Term> arguments)
+    {
+        for (Term argument : arguments) if (!argument.isConstant()) return false;
+        return true;
+    }
+
+    /**
+     * A simple function which turns values which aren't finite, such as the
+     * result of dividing by zero, into missing values.
+     *
+     * @param value The value
+     *
+     * @return The value, or NaN if it isn't finite
+     */
+    static double normalize(double value)
+    {
+        return Double.isFinite(value) ? value : Double.NaN;
+    }
+}
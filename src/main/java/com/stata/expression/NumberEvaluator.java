@@ -0,0 +1,24 @@
+package com.stata.expression;
+
+/**
+ * The number evaluator interface. This evaluates a numeric expression for a
+ * range of rows within one segment of a table, writing a value for each row
+ * into a buffer. Missing values are written as NaN, so that they carry
+ * through arithmetic without being checked row by row.
+ *
+ * @author Dan Jenkins
+ */
+@FunctionalInterface
+interface NumberEvaluator
+{
+    /**
+     * The evaluate function. This evaluates the expression for a range of
+     * rows.
+     *
+     * @param segment The segment holding the rows
+     * @param start The first row
+     * @param end The end of the range of rows
+     * @param values The buffer to write the value of each row into, from index zero
+     */
+    public void evaluate(int segment, int start, int end, double[] values);
+}
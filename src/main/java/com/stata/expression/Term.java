@@ -0,0 +1,264 @@
+package com.stata.expression;
+
+import com.stata.project.Datatype;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.StringColumn;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The term class. This is a compiled part of an expression, holding the type
+ * of its values and the evaluator which computes them. Terms whose values
+ * don't depend on the rows of the table are folded into constants as they
+ * are compiled, so that they are computed only once.
+ *
+ * @author Dan Jenkins
+ */
+final class Term
+{
+    /** The type of the values, which is INTEGER, NUMBER or STRING. */
+    private final Datatype type;
+
+    /** The evaluator of numeric values, or null for text. */
+    private final NumberEvaluator numbers;
+
+    /** The evaluator of text values, or null for numbers. */
+    private final TextEvaluator texts;
+
+    /** Whether the value is the same for every row. */
+    private final boolean constant;
+
+    /**
+     * The default constructor. This creates a new term.
+     *
+     * @param type The type of the values
+     * @param numbers The evaluator of numeric values, or null for text
+     * @param texts The evaluator of text values, or null for numbers
+     * @param constant Whether the value is the same for every row
+     */
+    private Term(Datatype type, NumberEvaluator numbers, TextEvaluator texts, boolean constant)
+    {
+        this.type = type;
+        this.numbers = numbers;
+        this.texts = texts;
+        this.constant = constant;
+    }
+
+    /**
+     * A function used to create a numeric term, folding it into a constant if
+     * its value is the same for every row.
+     *
+     * @param type The type of the values, which is INTEGER or NUMBER
+     * @param evaluator The evaluator of the values
+     * @param constant Whether the value is the same for every row
+     *
+     * @return The term
+     */
+    static Term number(Datatype type, NumberEvaluator evaluator, boolean constant)
+    {
+        // Check whether the term can be folded
+        if (!constant) return new Term(type, evaluator, null, false);
+
+        // And compute the value once
+        double[] value = new double[1];
+        evaluator.evaluate(0, 0, 1, value);
+        return Term.constant(value[0], type);
+    }
+
+    /**
+     * A function used to create a text term, folding it into a constant if
+     * its value is the same for every row.
+     *
+     * @param evaluator The evaluator of the values
+     * @param constant Whether the value is the same for every row
+     *
+     * @return The term
+     */
+    static Term text(TextEvaluator evaluator, boolean constant)
+    {
+        // Check whether the term can be folded
+        if (!constant) return new Term(Datatype.STRING, null, evaluator, false);
+
+        // And compute the value once
+        String[] value = new String[1];
+        evaluator.evaluate(0, 0, 1, value);
+        return Term.constant(value[0]);
+    }
+
+    /**
+     * A function used to create a constant numeric term.
+     *
+     * @param value The value, or NaN for missing
+     * @param type The type of the value, which is INTEGER or NUMBER
+     *
+     * @return The term
+     */
+    static Term constant(double value, Datatype type)
+    {
+        double normal = Double.isFinite(value) ? value : Double.NaN;
+        return new Term(type, (segment, start, end, values) -> Arrays.fill(values, 0, end - start, normal), null, true);
+    }
+
+    /**
+     * A function used to create a constant text term.
+     *
+     * @param value The value
+     *
+     * @return The term
+     */
+    static Term constant(String value)
+    {
+        return new Term(Datatype.STRING, null, (segment, start, end, values) -> Arrays.fill(values, 0, end - start, value), true);
+    }
+
+    /**
+     * A function used to create a term reading the values of a column. Text
+     * columns which are entirely missing are read as missing numbers.
+     *
+     * @param column The column
+     *
+     * @return The term
+     */
+    static Term column(Column column)
+    {
+        if (column instanceof NumberColumn)
+        {
+            NumberColumn numbers = (NumberColumn) column;
+            return new Term(Datatype.NUMBER, (segment, start, end, values) ->
+            {
+                System.arraycopy(numbers.getSegment(segment), start - (segment << Column.SEGMENT_SHIFT), values, 0, end - start);
+                Term.fillMissing(column, start, end, values);
+            }, null, false);
+        }
+        else if (column instanceof IntegerColumn)
+        {
+            IntegerColumn integers = (IntegerColumn) column;
+            return new Term(Datatype.INTEGER, (segment, start, end, values) ->
+            {
+                long[] segmentValues = integers.getSegment(segment);
+                for (int i = 0, offset = start - (segment << Column.SEGMENT_SHIFT); i < end - start; i++) values[i] = segmentValues[offset + i];
+                Term.fillMissing(column, start, end, values);
+            }, null, false);
+        }
+        else if (column instanceof BooleanColumn)
+        {
+            BitSet bits = ((BooleanColumn) column).getValues();
+            return new Term(Datatype.INTEGER, (segment, start, end, values) ->
+            {
+                for (int i = 0; i < end - start; i++) values[i] = bits.get(start + i) ? 1 : 0;
+                Term.fillMissing(column, start, end, values);
+            }, null, false);
+        }
+        else if (column.getType() == Datatype.STRING)
+        {
+            StringColumn strings = (StringColumn) column;
+            List<String> dictionary = strings.getDictionary();
+            return new Term(Datatype.STRING, null, (segment, start, end, values) ->
+            {
+                int[] codes = strings.getSegment(segment);
+                for (int i = 0, offset = start - (segment << Column.SEGMENT_SHIFT); i < end - start; i++) values[i] = dictionary.get(codes[offset + i]);
+                for (int row = column.nextMissing(start); row < end; row = column.nextMissing(row + 1)) values[row - start] = "";
+            }, false);
+        }
+
+        // And read a column without any values as missing numbers
+        return Term.constant(Double.NaN, Datatype.NUMBER);
+    }
+
+    /**
+     * A function used to mark the missing rows of a column in a buffer.
+     *
+     * @param column The column
+     * @param start The first row
+     * @param end The end of the range of rows
+     * @param values The buffer holding the value of each row
+     */
+    private static void fillMissing(Column column, int start, int end, double[] values)
+    {
+        for (int row = column.nextMissing(start); row < end; row = column.nextMissing(row + 1)) values[row - start] = Double.NaN;
+    }
+
+    /**
+     * A simple function which returns the type of the values.
+     *
+     * @return The type, which is INTEGER, NUMBER or STRING
+     */
+    Datatype getType()
+    {
+        return this.type;
+    }
+
+    /**
+     * A simple function which returns whether the values are text.
+     *
+     * @return Whether the term is text
+     */
+    boolean isText()
+    {
+        return this.type == Datatype.STRING;
+    }
+
+    /**
+     * A simple function which returns whether the value is the same for every
+     * row.
+     *
+     * @return Whether the term is constant
+     */
+    boolean isConstant()
+    {
+        return this.constant;
+    }
+
+    /**
+     * A function used to return the evaluator of numeric values, checking
+     * that the term holds numbers.
+     *
+     * @return The evaluator
+     */
+    NumberEvaluator numbers()
+    {
+        if (this.numbers == null) throw new IllegalArgumentException("type mismatch");
+        return this.numbers;
+    }
+
+    /**
+     * A function used to return the evaluator of text values, checking that
+     * the term holds text.
+     *
+     * @return The evaluator
+     */
+    TextEvaluator texts()
+    {
+        if (this.texts == null) throw new IllegalArgumentException("type mismatch");
+        return this.texts;
+    }
+
+    /**
+     * A function used to create a buffer for the values of a block of rows on
+     * each thread, so that terms can evaluate their operands without
+     * allocating.
+     *
+     * @return The buffers
+     */
+    static ThreadLocal<double[]> numberBuffer()
+    {
+        return ThreadLocal.withInitial(() -> new double[Expression.BLOCK_SIZE]);
+    }
+
+    /**
+     * A function used to create a buffer for the text of a block of rows on
+     * each thread, so that terms can evaluate their operands without
+     * allocating.
+     *
+     * @return The buffers
+     */
+    static ThreadLocal<String[]> textBuffer()
+    {
+        return ThreadLocal.withInitial(() -> new String[Expression.BLOCK_SIZE]);
+    }
+}
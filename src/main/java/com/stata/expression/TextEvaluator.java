@@ -0,0 +1,23 @@
+package com.stata.expression;
+
+/**
+ * The text evaluator interface. This evaluates a text expression for a range
+ * of rows within one segment of a table, writing a value for each row into a
+ * buffer. Missing values are written as empty text.
+ *
+ * @author Dan Jenkins
+ */
+@FunctionalInterface
+interface TextEvaluator
+{
+    /**
+     * The evaluate function. This evaluates the expression for a range of
+     * rows.
+     *
+     * @param segment The segment holding the rows
+     * @param start The first row
+     * @param end The end of the range of rows
+     * @param values The buffer to write the value of each row into, from index zero
+     */
+    public void evaluate(int segment, int start, int end, String[] values);
+}
@@ -1,19 +1,30 @@
 package com.stata.io;
 
+import com.stata.Stata;
 import com.stata.project.Datatable;
 import com.stata.project.Project;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.ColumnCodec;
+import com.stata.project.columns.Storage;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.json.JSONObject;
 /**
  * The IOManager class. This static class is responsible for reading and
@@ -21,12 +32,34 @@ import org.json.JSONObject;
  * zip archive with the following structure:
  * 
  * Zip archive
- *   - Metadata
+ *   - metadata
+ *   - datatables
+ *       - [uuid]
+ *           - headers
+ *           - columns
+ *               - [index]
+ * 
+ * Each column is stored in the binary format of the ColumnCodec. Projects
+ * written by earlier versions store the data of each table as a CSV data
+ * entry instead, which can still be loaded.
+ * 
+ * When io_parallel is set, each table is compressed into a part file of its
+ * own in a temporary directory on a worker thread, and the compressed entries
+ * are then copied into the project file in order without being compressed
+ * again. The columns of a table are also decoded on worker threads when it is
+ * loaded, and tables which are prefetched are loaded side by side.
+ * 
+ * Tables which haven't been modified since the project was last loaded or
+ * saved are copied from the previous project file without being compressed
+ * again.
  * 
  *  @author Dan Jenkins
  */
 public class IOManager
 {
+    /** The size of the buffer used when reading entries. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
     /**
      * The save function. This saves a project state to the disk so that it can
      * be exported or loaded again elsewhere.
@@ -38,45 +71,237 @@ public class IOManager
      */
     public static void save(File file, Project project) throws IOException
     {
-        // Create the path to write the file to
-        Path path = file.toPath();
+        IOManager.save(file, project, Progress.NONE);
+    }
+
+    /**
+     * The save function. This saves a project state to the disk as above,
+     * telling a progress how many of the tables have been written. If the
+     * progress is cancelled, the original file is left as it was.
+     * 
+     * @param file The file to save the project as
+     * @param project The project state to save
+     * @param progress The progress of the save, which may cancel it
+     * 
+     * @throws IOException
+     */
+    public static void save(File file, Project project, Progress progress) throws IOException
+    {
+        // Create the path to write the file to, writing to a temporary file
+        // first so that tables which have not been loaded yet can still be
+        // read from the original file
+        Path path = file.toPath().toAbsolutePath();
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+        // Get the previous project file, from which unchanged tables are copied
+        File source = project.getSource();
 
         // Create an output stream for writing a file
-        ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        try (ZipArchiveOutputStream output = new ZipArchiveOutputStream(temporary);
+             ZipFile previous = source != null && source.isFile() ? ZipFile.builder().setFile(source).get() : null)
+        {
+            // Write the metadata
+            IOManager.writeString(output, "metadata", project.getMetadata().getJSONString().toString());
 
-        // Create the file contents
-        Map<String, String> contents = new HashMap<>();
-        contents.put("metadata", project.getMetadata().getJSONString().toString());
+            // Copy each of the datatables which haven't changed, counting
+            // each table once it has been copied or written
+            List<Datatable> tables = new ArrayList<>();
+            int total = project.getDatatables().size();
+            int done = 0;
+            for (Datatable table : project.getDatatables().values())
+            {
+                progress.check();
+                if (!IOManager.copyTable(output, previous, table)) tables.add(table);
+                else progress.update(++done, total);
+            }
 
-        // Add the datatables
-        for (Datatable table : project.getDatatables().values())
+            // And write each of the other datatables
+            if (IOManager.isParallel())
+            {
+                IOManager.writeTables(output, tables, progress, done, total);
+            }
+            else
+            {
+                for (Datatable table : tables)
+                {
+                    progress.check();
+                    IOManager.writeTable(output, table);
+                    progress.update(++done, total);
+                }
+            }
+        }
+        catch (IOException | RuntimeException exception)
         {
-            contents.put("datatables" + File.separator
-                + table.getUUID().toString() + File.separator + "data", table.exportData());
-            contents.put("datatables" + File.separator
-                + table.getUUID().toString() + File.separator + "headers", table.exportHeaders().toString());
+            // Remove the incomplete file
+            Files.deleteIfExists(temporary);
+            throw exception;
         }
 
-        // And iterate through the contents of the zip and write them
-        for (var entry : contents.entrySet())
+        // And replace the original file
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The function used to copy an unchanged table from the previous project
+     * file. The headers are written again, and the compressed columns are
+     * copied byte for byte without being decoded.
+     * 
+     * @param output The zip to write to
+     * @param previous The previous project file, or null if there isn't one
+     * @param table The table to copy
+     * 
+     * @return Whether the table was copied
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static boolean copyTable(ZipArchiveOutputStream output, ZipFile previous, Datatable table) throws IOException
+    {
+        // Check whether the table has changed
+        if (previous == null || table.isModified()) return false;
+
+        // Find each of the columns in the previous file
+        String directory = IOManager.getDirectory(table);
+        List<ZipArchiveEntry> entries = new ArrayList<>();
+        for (int c = 0; c < table.getColumnCount(); c++)
         {
-            // Add the entry
-            output.putNextEntry(new ZipEntry(entry.getKey()));
+            ZipArchiveEntry entry = previous.getEntry(directory + "columns" + File.separator + c);
+            if (entry == null) return false;
+            entries.add(entry);
+        }
 
-            // Write the entry
-            output.write(entry.getValue().getBytes());
+        // Write the headers, which may have changed
+        IOManager.writeString(output, directory + "headers", table.exportHeaders().toString());
 
-            // And close the entry
-            output.closeEntry();            
+        // And copy each of the columns
+        for (ZipArchiveEntry entry : entries)
+        {
+            try (InputStream input = previous.getRawInputStream(entry))
+            {
+                output.addRawArchiveEntry(entry, input);
+            }
         }
+        return true;
+    }
 
-        // Finally, close the output stream
-        output.close();
+    /**
+     * The function used to write tables in parallel. Each table is written to
+     * a part file in a temporary directory on a worker thread, and the
+     * compressed entries of the parts are then copied into the output in
+     * order. The directory is deleted once the parts have been copied, or
+     * once the remaining tables have finished if the save fails.
+     * 
+     * @param output The zip to write to
+     * @param tables The tables to write
+     * @param progress The progress of the save, which may cancel it
+     * @param done The number of tables already copied
+     * @param total The number of tables in the project, including those copied
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static void writeTables(ZipArchiveOutputStream output, List<Datatable> tables, Progress progress, int done,
+        int total) throws IOException
+    {
+        // Create the directory holding the part files
+        Path directory = Files.createTempDirectory("stata");
+
+        // Write each of the tables to a part file
+        List<ForkJoinTask<Path>> tasks = new ArrayList<>();
+        for (Datatable table : tables)
+        {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> IOManager.writePart(table, directory)));
+        }
+
+        try
+        {
+            // And copy the parts into the output in order, deleting each once it is copied
+            for (ForkJoinTask<Path> task : tasks)
+            {
+                Path part = IOManager.join(task);
+                try (ZipFile zip = ZipFile.builder().setPath(part).get())
+                {
+                    zip.copyRawEntries(output, entry -> true);
+                }
+                finally
+                {
+                    Files.deleteIfExists(part);
+                }
+                progress.update(++done, total);
+                progress.check();
+            }
+        }
+        finally
+        {
+            // Wait for the tables still being written, and delete the directory with any parts left
+            for (ForkJoinTask<Path> task : tasks) task.quietlyJoin();
+            try (DirectoryStream<Path> parts = Files.newDirectoryStream(directory))
+            {
+                for (Path part : parts) Files.deleteIfExists(part);
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * The function used to write a table to a part file of its own.
+     * 
+     * @param table The table to write
+     * @param directory The directory in which to create the part file
+     * 
+     * @return The part file
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static Path writePart(Datatable table, Path directory) throws IOException
+    {
+        // Create the part file
+        Path part = Files.createTempFile(directory, "table", ".part");
+
+        // And write the table to it
+        try (ZipArchiveOutputStream output = new ZipArchiveOutputStream(part))
+        {
+            IOManager.writeTable(output, table);
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            Files.deleteIfExists(part);
+            throw exception;
+        }
+        return part;
+    }
+
+    /**
+     * The function used to write the headers and columns of a table.
+     * 
+     * @param output The zip to write to
+     * @param table The table to write
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static void writeTable(ZipArchiveOutputStream output, Datatable table) throws IOException
+    {
+        // Get the table directory
+        String directory = IOManager.getDirectory(table);
+
+        // Load the data, so that the headers count its rows and summarize it
+        table.load();
+
+        // Write the headers
+        IOManager.writeString(output, directory + "headers", table.exportHeaders().toString());
+
+        // And stream each column straight into the zip
+        for (int c = 0; c < table.getColumnCount(); c++)
+        {
+            output.putArchiveEntry(new ZipArchiveEntry(directory + "columns" + File.separator + c));
+            table.exportColumn(c, output);
+            output.closeArchiveEntry();
+        }
     }
 
     /**
      * The load function. This loads a project from the disk so that it can be
-     * used within Stata.
+     * used within Stata. Only the metadata and the headers of each table are
+     * read straight away, and the data of each table is loaded from the file
+     * when it is first needed.
      * 
      * @param file The file to load
      * 
@@ -86,57 +311,230 @@ public class IOManager
      */
     public static Project load(File file) throws IOException
     {
-        // Get the input file
-        ZipFile zip = new ZipFile(file);
+        return IOManager.load(file, Progress.NONE);
+    }
 
+    /**
+     * The load function. This loads a project from the disk as above, telling
+     * a progress how many of the entries of the file have been read.
+     * 
+     * @param file The file to load
+     * @param progress The progress of the load, which may cancel it
+     * 
+     * @return The new project to be imported
+     * 
+     * @throws IOException
+     */
+    public static Project load(File file, Progress progress) throws IOException
+    {
         // Create the project to populate
         Project project = new Project();
 
-        // Iterate through each item in the zip file
-        zip.entries().asIterator().forEachRemaining(entry -> {
-            try 
+        try
+        {
+            // Get the input file
+            try (ZipFile zip = ZipFile.builder().setFile(file).get())
             {
-                // Read the file
-                String contents = new String(zip.getInputStream(entry).readAllBytes());
-
-                // Check which file we're dealing with
-                if (entry.getName().equals("metadata"))
-                {
-                    // Load the metadata from the file
-                    project.getMetadata().fromJSONString(new JSONObject(contents));
-                }
-                else if (entry.getName().startsWith("datatables"))
+                // Iterate through each item in the zip file
+                List<ZipArchiveEntry> entries = Collections.list(zip.getEntries());
+                for (int e = 0; e < entries.size(); e++)
                 {
-                    // Get the path separator
-                    String separator = File.separator;
-                    if (separator.equals("\\")) separator += "\\";
-
-                    // Store the table uuid
-                    String uuid = entry.getName().split(separator)[1];
+                    // Check whether the load has been cancelled
+                    ZipArchiveEntry entry = entries.get(e);
+                    progress.update(e, entries.size());
+                    progress.check();
 
-                    // Check whether we have the datatable header or data
-                    if (entry.getName().endsWith("headers"))
+                    // Check which file we're dealing with
+                    if (entry.getName().equals("metadata"))
                     {
-                        // Load the headers of the table
-                        project.loadTable(uuid, contents, "");
+                        // Load the metadata from the file
+                        project.getMetadata().fromJSONString(new JSONObject(IOManager.readString(zip, entry)));
                     }
-                    else if (entry.getName().endsWith("data"))
+                    else if (entry.getName().startsWith("datatables") && entry.getName().endsWith("headers"))
                     {
-                        // Load the data into the table
-                        project.loadTable(uuid, "", contents);
+                        // Get the path separator
+                        String separator = File.separator;
+                        if (separator.equals("\\")) separator += "\\";
+
+                        // Store the table uuid
+                        String uuid = entry.getName().split(separator)[1];
+
+                        // And load the headers of the table
+                        project.loadTable(uuid, IOManager.readString(zip, entry), "");
                     }
                 }
             }
-            catch (IOException exception)
-            {
-                exception.printStackTrace();
-            }
-        });
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            // Delete anything the project created before it failed
+            project.close();
+            throw exception;
+        }
 
-        // Close the file
-        zip.close();
+        // Defer loading the data of each table
+        for (Datatable table : project.getDatatables().values())
+        {
+            table.setLoader(loaded -> IOManager.loadData(file, loaded));
+        }
 
         // And return the new project object
         return project;
     }
+
+    /**
+     * The function used to load the data of a table from a project file. This
+     * reads the binary columns of the table, or the CSV data written by
+     * earlier versions.
+     * 
+     * @param file The project file
+     * @param table The table to load
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static void loadData(File file, Datatable table) throws IOException
+    {
+        try (ZipFile zip = ZipFile.builder().setFile(file).get())
+        {
+            // Get the table directory
+            String directory = IOManager.getDirectory(table);
+
+            // Find each of the binary columns
+            List<ZipArchiveEntry> entries = new ArrayList<>();
+            for (int c = 0; c < table.getColumnCount(); c++)
+            {
+                entries.add(zip.getEntry(directory + "columns" + File.separator + c));
+            }
+
+            // Decode the columns, on worker threads if enabled
+            List<ForkJoinTask<Column>> tasks = new ArrayList<>();
+            for (ZipArchiveEntry entry : entries)
+            {
+                ForkJoinTask<Column> task = ForkJoinTask.adapt(() -> IOManager.readColumn(zip, entry, table.getStorage()));
+                tasks.add(IOManager.isParallel() ? ForkJoinPool.commonPool().submit(task) : task);
+            }
+
+            // Store each of the columns
+            for (int c = 0; c < tasks.size(); c++)
+            {
+                ForkJoinTask<Column> task = tasks.get(c);
+                if (!IOManager.isParallel()) task.quietlyInvoke();
+
+                Column column = IOManager.join(task);
+                if (column != null) table.setColumn(c, column);
+            }
+
+            // And load the CSV data, as written by earlier versions
+            ZipArchiveEntry entry = zip.getEntry(directory + "data");
+            if (entry != null) table.importData(IOManager.readString(zip, entry));
+        }
+    }
+
+    /**
+     * The function used to decode a binary column entry.
+     * 
+     * @param zip The project file
+     * @param entry The entry to decode, or null if there isn't one
+     * @param storage The storage in which to create the column
+     * 
+     * @return The column, or null if there isn't an entry
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static Column readColumn(ZipFile zip, ZipArchiveEntry entry, Storage storage) throws IOException
+    {
+        // Check that we have something to read
+        if (entry == null) return null;
+
+        // And decode the column
+        try (InputStream input = new BufferedInputStream(zip.getInputStream(entry), BUFFER_SIZE))
+        {
+            return ColumnCodec.read(input, storage);
+        }
+    }
+
+    /**
+     * A simple function which returns whether projects are read and written
+     * in parallel.
+     * 
+     * @return Whether to use worker threads
+     */
+    private static boolean isParallel()
+    {
+        return Stata.getInstance().getRuntime().getRuntimeValue("io_parallel", Boolean.class);
+    }
+
+    /**
+     * A function used to wait for a worker task, rethrowing any IOException
+     * thrown by the task.
+     * 
+     * @param task The task to wait for
+     * 
+     * @return The result of the task
+     * 
+     * @throws IOException If the task failed to read or write
+     */
+    private static <T> T join(ForkJoinTask<T> task) throws IOException
+    {
+        try
+        {
+            return task.join();
+        }
+        catch (RuntimeException exception)
+        {
+            // Look for an underlying IOException
+            for (Throwable cause = exception; cause != null; cause = cause.getCause())
+            {
+                if (cause instanceof IOException) throw (IOException) cause;
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * A simple function which returns the directory of a table within a
+     * project file.
+     * 
+     * @param table The table
+     * 
+     * @return The directory of the table
+     */
+    private static String getDirectory(Datatable table)
+    {
+        return "datatables" + File.separator + table.getUUID().toString() + File.separator;
+    }
+
+    /**
+     * A simple function used to write a text entry.
+     * 
+     * @param output The zip to write to
+     * @param name The name of the entry
+     * @param text The text of the entry
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static void writeString(ZipArchiveOutputStream output, String name, String text) throws IOException
+    {
+        output.putArchiveEntry(new ZipArchiveEntry(name));
+        output.write(text.getBytes(Charset.defaultCharset()));
+        output.closeArchiveEntry();
+    }
+
+    /**
+     * A simple function used to read the whole of a text entry.
+     * 
+     * @param zip The project file
+     * @param entry The entry to read
+     * 
+     * @return The text of the entry
+     * 
+     * @throws IOException If something goes wrong
+     */
+    private static String readString(ZipFile zip, ZipArchiveEntry entry) throws IOException
+    {
+        try (InputStream input = zip.getInputStream(entry))
+        {
+            return new String(input.readAllBytes(), Charset.defaultCharset());
+        }
+    }
 }
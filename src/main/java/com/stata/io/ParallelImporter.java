@@ -0,0 +1,455 @@
+package com.stata.io;
+
+import com.stata.project.Datatable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * The ParallelImporter class. This static class imports CSV files by memory
+ * mapping them and parsing chunks of records on a fork-join pool. The file is
+ * split into byte ranges which always start at the beginning of a record:
+ *
+ * 1. The quotes in each provisional range are counted in parallel, so that
+ *    we know whether each range starts inside a quoted field.
+ * 2. Each range start is moved forward to the first line break which is not
+ *    inside a quoted field.
+ * 3. Each range is parsed and summarized into a table of its own, and the
+ *    tables are then appended to the imported table in order, merging their
+ *    summaries. Only a small window of ranges is parsed ahead of the table,
+ *    and each table is released once it has been appended.
+ *
+ * Line breaks are found on the raw bytes, so the file must use a character
+ * set in which a line break is always a single byte, such as UTF-8.
+ *
+ * @author Dan Jenkins
+ */
+public class ParallelImporter
+{
+    /** The smallest range of the file that is parsed in parallel. */
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    /** The largest range of the file that is parsed in parallel. */
+    private static final long MAX_CHUNK_SIZE = 1L << 26;
+
+    /** The number of ranges to create for each available thread. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** The number of ranges parsed ahead of the table for each available thread. */
+    private static final int WINDOW_PER_THREAD = 2;
+
+    /**
+     * The import function. This reads a CSV file into a table, using the
+     * first record as the headers of the table.
+     *
+     * @param table The table to import into
+     * @param file The file to import
+     *
+     * @throws IOException If something goes wrong
+     */
+    public static void importTable(Datatable table, File file) throws IOException
+    {
+        ParallelImporter.importTable(table, file, Progress.NONE);
+    }
+
+    /**
+     * The import function. This reads a CSV file into a table as above,
+     * telling a progress how many bytes of the file have been appended to the
+     * table. If the progress is cancelled, the ranges which haven't been
+     * parsed yet are abandoned.
+     *
+     * @param table The table to import into
+     * @param file The file to import
+     * @param progress The progress of the import, which may cancel it
+     *
+     * @throws IOException If something goes wrong
+     */
+    public static void importTable(Datatable table, File file, Progress progress) throws IOException
+    {
+        // Append each range of records to the table
+        ParallelImporter.importTable(table, file, progress, 0, table::append);
+    }
+
+    /**
+     * The preview import function. This reads the headers of a CSV file into
+     * a table, and hands each range of parsed records to a sink in order
+     * rather than appending them itself, so that the caller decides where and
+     * when they are appended. The first few records are parsed as a range of
+     * their own, which is finished long before the rest, so that they can be
+     * shown straight away. Their types are only provisional: the types of the
+     * later ranges are widened into them as they are appended.
+     *
+     * @param table The table to import the headers into
+     * @param file The file to import
+     * @param progress The progress of the import, which may cancel it
+     * @param preview The number of records to parse on their own, or zero
+     * @param sink The function which appends each range of records
+     *
+     * @throws IOException If something goes wrong
+     */
+    public static void importTable(Datatable table, File file, Progress progress, int preview, Consumer<Datatable> sink)
+        throws IOException
+    {
+        // Get the thread pool
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            // Find the end of the headers
+            long size = channel.size();
+            long start = ParallelImporter.findRecordEnd(channel, 0, size, false);
+
+            // Check that we have something to import
+            if (start == 0) return;
+
+            // Import the headers
+            MappedByteBuffer headers = channel.map(FileChannel.MapMode.READ_ONLY, 0, start);
+            table.importHeaders(Charset.defaultCharset().decode(headers).toString(), Datatable.INPUT_CSV);
+
+            // Parse the records to preview, before the rest of the file is scanned
+            long first = preview > 0 ? ParallelImporter.findRecordEnd(channel, start, size, false, preview) : start;
+            if (first > start)
+            {
+                ParallelImporter.accept(sink, new ChunkTask(table, channel, start, first).invoke());
+                progress.update(first, size);
+            }
+
+            // Split the rest of the file into ranges
+            long[] bounds = ParallelImporter.split(channel, pool, first, size);
+
+            // Parse the ranges, keeping only a window of them in flight so that
+            // the parsed tables never pile up faster than they are appended
+            int window = WINDOW_PER_THREAD * pool.getParallelism();
+            Deque<ChunkTask> tasks = new ArrayDeque<>();
+            int next = 0;
+            try
+            {
+                while (next < bounds.length - 1 || !tasks.isEmpty())
+                {
+                    // Start parsing ranges until the window is full
+                    while (next < bounds.length - 1 && tasks.size() < window)
+                    {
+                        if (bounds[next] < bounds[next + 1])
+                        {
+                            ChunkTask task = new ChunkTask(table, channel, bounds[next], bounds[next + 1]);
+                            pool.execute(task);
+                            tasks.add(task);
+                        }
+                        next++;
+                    }
+                    if (tasks.isEmpty()) continue;
+
+                    // And stitch the oldest range onto the table
+                    ChunkTask task = tasks.poll();
+                    progress.check();
+                    ParallelImporter.accept(sink, task.join());
+                    progress.update(task.to, size);
+                }
+            }
+            catch (RuntimeException exception)
+            {
+                // Abandon the ranges which haven't been appended, releasing any already parsed
+                for (ChunkTask task : tasks)
+                {
+                    task.cancel(false);
+                    if (task.isCompletedNormally()) task.getRawResult().release();
+                }
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * A function used to hand a parsed range to the sink, releasing the
+     * storage of the range once the sink has appended its records.
+     *
+     * @param sink The function which appends each range of records
+     * @param chunk The table of parsed records
+     */
+    private static void accept(Consumer<Datatable> sink, Datatable chunk)
+    {
+        try
+        {
+            sink.accept(chunk);
+        }
+        finally
+        {
+            chunk.release();
+        }
+    }
+
+    /**
+     * A function used to split a range of a file into ranges which start at
+     * the beginning of a record.
+     *
+     * @param channel The file to split
+     * @param pool The pool on which to scan the file
+     * @param start The start of the range to split
+     * @param end The end of the range to split
+     *
+     * @return The bounds of the ranges, including the start and end
+     */
+    private static long[] split(FileChannel channel, ForkJoinPool pool, long start, long end)
+    {
+        // Work out the size of each provisional range
+        long target = (end - start) / (pool.getParallelism() * CHUNKS_PER_THREAD);
+        long chunk = Math.min(Math.max(target, MIN_CHUNK_SIZE), MAX_CHUNK_SIZE);
+        int count = (int) Math.max(1, (end - start + chunk - 1) / chunk);
+
+        // Count the quotes in each provisional range
+        List<ForkJoinTask<Long>> counts = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            long from = start + i * chunk;
+            long to = Math.min(end, from + chunk);
+            counts.add(pool.submit(() -> ParallelImporter.countQuotes(channel, from, to)));
+        }
+
+        // Work out whether each range starts inside a quoted field
+        boolean[] quoted = new boolean[count];
+        long quotes = 0;
+        for (int i = 0; i < count; i++)
+        {
+            quoted[i] = (quotes & 1) == 1;
+            quotes += counts.get(i).join();
+        }
+
+        // Move each range start to the beginning of the next record
+        List<ForkJoinTask<Long>> starts = new ArrayList<>();
+        for (int i = 1; i < count; i++)
+        {
+            long from = start + i * chunk;
+            boolean inside = quoted[i];
+            starts.add(pool.submit(() -> ParallelImporter.findRecordEnd(channel, from, end, inside)));
+        }
+
+        // And collect the bounds
+        long[] bounds = new long[count + 1];
+        bounds[0] = start;
+        for (int i = 1; i < count; i++) bounds[i] = Math.max(bounds[i - 1], starts.get(i - 1).join());
+        bounds[count] = end;
+        return bounds;
+    }
+
+    /**
+     * A function used to count the quotes in a range of a file.
+     *
+     * @param channel The file to scan
+     * @param from The start of the range
+     * @param to The end of the range
+     *
+     * @return The number of quotes in the range
+     */
+    private static long countQuotes(FileChannel channel, long from, long to)
+    {
+        try
+        {
+            // Map the range
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+
+            // And count the quotes
+            long quotes = 0;
+            for (int i = 0; i < buffer.limit(); i++)
+            {
+                if (buffer.get(i) == '"') quotes++;
+            }
+            return quotes;
+        }
+        catch (IOException exception)
+        {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * A function used to find the first position after a line break which is
+     * not inside a quoted field. Escaped quotes are written as two quotes, so
+     * they leave the quoted state unchanged.
+     *
+     * @param channel The file to scan
+     * @param from The position from which to scan
+     * @param end The end of the file
+     * @param quoted Whether the position is inside a quoted field
+     *
+     * @return The start of the next record, or the end of the file
+     */
+    private static long findRecordEnd(FileChannel channel, long from, long end, boolean quoted)
+    {
+        return ParallelImporter.findRecordEnd(channel, from, end, quoted, 1);
+    }
+
+    /**
+     * A function used to find the end of a number of records, skipping that
+     * many line breaks which are not inside quoted fields.
+     *
+     * @param channel The file to scan
+     * @param from The position from which to scan
+     * @param end The end of the file
+     * @param quoted Whether the position is inside a quoted field
+     * @param records The number of records to skip
+     *
+     * @return The start of the record after them, or the end of the file
+     */
+    private static long findRecordEnd(FileChannel channel, long from, long end, boolean quoted, int records)
+    {
+        try
+        {
+            // Scan the file one window at a time
+            for (long position = from; position < end; position += MAX_CHUNK_SIZE)
+            {
+                // Map the window
+                long length = Math.min(MAX_CHUNK_SIZE, end - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                // And look for a line break outside of quotes
+                for (int i = 0; i < buffer.limit(); i++)
+                {
+                    byte value = buffer.get(i);
+                    if (value == '"')                quoted = !quoted;
+                    else if (value == '\n' && !quoted && --records == 0) return position + i + 1;
+                }
+            }
+
+            // If there are no more records, return the end
+            return end;
+        }
+        catch (IOException exception)
+        {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * The chunk task class. This parses a range of a file into a table of its
+     * own, inferring the types of its columns.
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<Datatable>
+    {
+        /** The table being imported into. */
+        private final Datatable target;
+
+        /** The file being imported. */
+        private final FileChannel channel;
+
+        /** The start and end of the range to parse. */
+        private final long from, to;
+
+        /**
+         * The default constructor. This creates a task to parse a range.
+         *
+         * @param target The table being imported into
+         * @param channel The file being imported
+         * @param from The start of the range
+         * @param to The end of the range
+         */
+        public ChunkTask(Datatable target, FileChannel channel, long from, long to)
+        {
+            this.target = target;
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * The compute function. This maps the range and parses it.
+         *
+         * @return The table of parsed records
+         */
+        @Override
+        protected Datatable compute()
+        {
+            try
+            {
+                // Map the range
+                MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.from, this.to - this.from);
+
+                // Parse it into a table in the storage of the target, keeping
+                // the text of the values if the target does
+                Datatable table = new Datatable();
+                table.setStorage(this.target.getStorage());
+                table.setVerbatim(this.target.isVerbatim());
+                try (Reader reader = new InputStreamReader(new BufferInputStream(buffer), Charset.defaultCharset()))
+                {
+                    table.importData(reader, true);
+                }
+
+                // And summarize the table, so that the summaries can be merged
+                table.summarize();
+                return table;
+            }
+            catch (IOException exception)
+            {
+                throw new IllegalStateException(exception);
+            }
+        }
+    }
+
+    /**
+     * The buffer input stream class. This reads the bytes of a buffer as a
+     * stream.
+     */
+    private static class BufferInputStream extends InputStream
+    {
+        /** The buffer to read. */
+        private final ByteBuffer buffer;
+
+        /**
+         * The default constructor. This creates a stream over a buffer.
+         *
+         * @param buffer The buffer to read
+         */
+        public BufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * The function used to read a single byte from the buffer.
+         *
+         * @return The byte, or -1 at the end of the buffer
+         */
+        @Override
+        public int read()
+        {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        /**
+         * The function used to read bytes from the buffer into an array.
+         *
+         * @param bytes The array to fill
+         * @param offset The offset at which to start filling
+         * @param length The maximum number of bytes to read
+         *
+         * @return The number of bytes read, or -1 at the end of the buffer
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            // Check whether we have anything to read
+            if (!this.buffer.hasRemaining()) return -1;
+
+            // And copy the bytes
+            length = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.stata.io;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * The progress interface. This is told how far a long running operation,
+ * such as an import or a save, has got, and is asked whether the operation
+ * should stop. Operations check between units of work, and stop by throwing a
+ * CancellationException.
+ *
+ * @author Dan Jenkins
+ */
+@FunctionalInterface
+public interface Progress
+{
+    /** The progress of an operation which nobody is watching. */
+    public static final Progress NONE = (done, total) -> { };
+
+    /**
+     * The update function. This notes how much of the operation is done.
+     *
+     * @param done The amount of work done
+     * @param total The total amount of work
+     */
+    public void update(long done, long total);
+
+    /**
+     * A simple function which returns whether the operation should stop.
+     *
+     * @return Whether the operation has been cancelled
+     */
+    public default boolean isCancelled()
+    {
+        return false;
+    }
+
+    /**
+     * A function used to stop the operation if it has been cancelled.
+     *
+     * @throws CancellationException If the operation has been cancelled
+     */
+    public default void check()
+    {
+        if (this.isCancelled()) throw new CancellationException();
+    }
+}
@@ -0,0 +1,100 @@
+package com.stata.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The progress input stream class. This counts the bytes read from another
+ * stream, telling a progress how far through the stream it is, and stops the
+ * read if the progress has been cancelled. This lets an import which reads a
+ * file as a stream report its progress without knowing about it.
+ *
+ * @author Dan Jenkins
+ */
+public class ProgressInputStream extends FilterInputStream
+{
+    /** The number of bytes read between updates of the progress. */
+    private static final long INTERVAL = 1 << 20;
+
+    /** The progress to update. */
+    private final Progress progress;
+
+    /** The total number of bytes in the stream. */
+    private final long total;
+
+    /** The number of bytes read so far. */
+    private long done;
+
+    /** The number of bytes read when the progress was last updated. */
+    private long reported;
+
+    /**
+     * The default constructor. This creates a stream which counts the bytes
+     * read from another stream.
+     *
+     * @param input The stream to read
+     * @param total The total number of bytes in the stream
+     * @param progress The progress to update
+     */
+    public ProgressInputStream(InputStream input, long total, Progress progress)
+    {
+        super(input);
+        this.total = total;
+        this.progress = progress;
+    }
+
+    /**
+     * The function used to read a single byte from the stream.
+     *
+     * @return The byte, or -1 at the end of the stream
+     *
+     * @throws IOException If something goes wrong
+     */
+    @Override
+    public int read() throws IOException
+    {
+        int value = super.read();
+        if (value >= 0) this.count(1);
+        return value;
+    }
+
+    /**
+     * The function used to read bytes from the stream into an array.
+     *
+     * @param bytes The array to fill
+     * @param offset The offset at which to start filling
+     * @param length The maximum number of bytes to read
+     *
+     * @return The number of bytes read, or -1 at the end of the stream
+     *
+     * @throws IOException If something goes wrong
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException
+    {
+        int read = super.read(bytes, offset, length);
+        if (read > 0) this.count(read);
+        return read;
+    }
+
+    /**
+     * A function used to count the bytes read, updating the progress every
+     * so often and checking whether it has been cancelled.
+     *
+     * @param bytes The number of bytes read
+     */
+    private void count(long bytes)
+    {
+        // Count the bytes
+        this.done += bytes;
+
+        // And update the progress if enough have been read
+        if (this.done - this.reported >= INTERVAL)
+        {
+            this.reported = this.done;
+            this.progress.update(this.done, this.total);
+            this.progress.check();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.stata.project;
+
+/**
+ * The change enum. This lists the kinds of change which a project or a data
+ * table tells its listeners about, so that each part of the interface only
+ * redraws itself when something it shows has changed.
+ *
+ * @author Dan Jenkins
+ */
+public enum Change
+{
+    /** The name of the project or table has changed. */
+    NAME,
+
+    /** Tables have been added to or removed from the project, or renamed. */
+    TABLES,
+
+    /** The rows or columns of a table have changed. */
+    DATA,
+
+    /** The project has been modified or saved. */
+    MODIFIED
+}
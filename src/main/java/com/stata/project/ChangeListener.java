@@ -0,0 +1,21 @@
+package com.stata.project;
+
+/**
+ * The change listener interface. This is told about the changes made to a
+ * project or a data table. Changes may be made on any thread, such as while a
+ * table is imported in the background, so listeners must not assume that they
+ * are called on the JavaFX thread.
+ *
+ * @author Dan Jenkins
+ */
+@FunctionalInterface
+public interface ChangeListener
+{
+    /**
+     * The changed function. This is called whenever something changes.
+     *
+     * @param source The project or table which changed
+     * @param change The kind of change
+     */
+    public void changed(Object source, Change change);
+}
@@ -1,16 +1,49 @@
 package com.stata.project;
 
+import com.stata.analysis.Aggregation;
+import com.stata.analysis.Collapser;
+import com.stata.analysis.MergeType;
+import com.stata.analysis.Merger;
+import com.stata.analysis.Regression;
+import com.stata.analysis.Regressor;
+import com.stata.analysis.Sorter;
+import com.stata.analysis.Summarizer;
+import com.stata.analysis.Summary;
+import com.stata.expression.Expression;
+import com.stata.io.Progress;
+import com.stata.io.ProgressInputStream;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.ColumnCodec;
+import com.stata.project.columns.Storage;
+import com.stata.project.columns.StringColumn;
+import com.stata.query.Selection;
+
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringReader;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -29,24 +62,60 @@ public class Datatable
     /** The constant indicating that we are importing headers from a JSON file. */
     public static final int INPUT_JSON = 1;
 
+    /** The format used when exporting data for storage in a file. */
+    private static final CSVFormat EXPORT_FORMAT = CSVFormat.DEFAULT.builder().setRecordSeparator('\n').build();
+
+    /** The size of the buffer used when streaming files from the disk. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
     /** The name of the data table. */
     private String name;
 
     /** The uuid of the data table. */
     private UUID uuid;
 
+    /** The listeners told about changes to the table. */
+    private final List<ChangeListener> listeners;
+
     /** The headers of the data file. */
     private List<String> headers;
 
-    /** A list of the data types to which this table conforms. */
-    private List<Datatype> types;
+    /** The typed columns of data stored in this data table. */
+    private List<Column> data;
 
-    /** The data stored in this data table */
-    private List<List<String>> data;
+    /** The types of the columns as listed in the headers of a project file. */
+    private List<Datatype> types;
 
     /** The number of rows and columns in the data table. */
     private int rows, columns;
 
+    /** The storage in which the columns of the data table live. */
+    private Storage storage;
+
+    /** The loader for data which has not been loaded yet, if any. */
+    private volatile Loader loader;
+
+    /** Whether the loader is running, which is only used while holding the table. */
+    private boolean loading;
+
+    /** The number of times the table has been modified. */
+    private volatile long version;
+
+    /** The columns replaced since the last view was taken, which views may still use, if any. */
+    private List<Column> replaced;
+
+    /** Whether the columns keep the original text of their values, so that they are exported verbatim. */
+    private boolean verbatim;
+
+    /** A variable storing whether the data has changed since it was saved. */
+    private boolean modified;
+
+    /** The cached summaries of the columns, indexed by column. */
+    private final Map<Integer, CachedSummary> summaries;
+
+    /** The cached sort orders of the rows, indexed by the columns sorted by and their directions. */
+    private final Map<List<String>, CachedOrder> orders;
+
     /**
      * The default constructor. This creates a new data table to be read and
      * manipulated elsewhere in the application.
@@ -57,13 +126,23 @@ public class Datatable
         this.name = "New data table";
         this.uuid = UUID.randomUUID();
 
-        // Create the header and data types lists
+        // Create the header and column lists
         this.headers = new ArrayList<>();
+        this.data = new ArrayList<>();
         this.types = new ArrayList<>();
+        this.summaries = new HashMap<>();
+        this.orders = new HashMap<>();
+        this.storage = Storage.HEAP;
+
+        // Create the list of listeners, which may be told about changes on any thread
+        this.listeners = new CopyOnWriteArrayList<>();
 
-        // And note that we have no idea
+        // Note that we have no idea
         this.rows = 0;
         this.columns = 0;
+
+        // And note that the table has never been saved
+        this.modified = true;
     }
 
     /**
@@ -84,6 +163,353 @@ public class Datatable
         return this.uuid;
     }
 
+    /**
+     * A simple function which returns the headers of the data table.
+     * 
+     * @return The column headers
+     */
+    public List<String> getHeaders()
+    {
+        return this.headers;
+    }
+
+    /**
+     * A simple function which returns the number of rows in the data table.
+     * 
+     * @return The number of rows
+     */
+    public int getRowCount()
+    {
+        return this.rows;
+    }
+
+    /**
+     * A simple function which returns the number of columns in the data table.
+     * 
+     * @return The number of columns
+     */
+    public int getColumnCount()
+    {
+        return this.columns;
+    }
+
+    /**
+     * A simple function which returns a column of the data table.
+     * 
+     * @param index The index of the column
+     * 
+     * @return The column
+     */
+    public Column getColumn(int index)
+    {
+        // Make sure that the data is loaded
+        this.load();
+
+        // And return the column
+        return this.data.get(index);
+    }
+
+    /**
+     * A simple function which returns a column of the data table by its
+     * header, or null if there is no such column.
+     * 
+     * @param header The header of the column
+     * 
+     * @return The column
+     */
+    public Column getColumn(String header)
+    {
+        // Make sure that the data is loaded
+        this.load();
+
+        // And find the column
+        int index = this.headers.indexOf(header);
+        return index < 0 ? null : this.data.get(index);
+    }
+
+    /**
+     * A simple function which returns the storage in which the columns of the
+     * data table live.
+     * 
+     * @return The column storage
+     */
+    public Storage getStorage()
+    {
+        return this.storage;
+    }
+
+    /**
+     * A function used to return the summary statistics of a column, along
+     * with the sketches of its quantiles and distinct values. These are
+     * cached until the column changes, and are kept up to date as tables are
+     * appended.
+     * 
+     * @param index The index of the column
+     * 
+     * @return The summary of the column
+     */
+    public synchronized Summary getSummary(int index)
+    {
+        // Check whether the summary is cached
+        Summary summary = this.getCachedSummary(index);
+        if (summary != null) return summary;
+
+        // Otherwise, summarize the column
+        Column column = this.getColumn(index);
+        summary = Summarizer.summarize(column, null, false, true);
+
+        // And cache the summary
+        this.summaries.put(index, new CachedSummary(column, summary));
+        return summary;
+    }
+
+    /**
+     * A function used to summarize every column of the table ahead of time,
+     * such as on the thread which imported it.
+     */
+    public synchronized void summarize()
+    {
+        for (int c = 0; c < this.data.size(); c++) this.getSummary(c);
+    }
+
+    /**
+     * A function used to return the cached summary statistics of a column
+     * without computing them. Summaries read from a project file are returned
+     * before the data of the table is loaded.
+     * 
+     * @param index The index of the column
+     * 
+     * @return The summary of the column, or null if it isn't cached
+     */
+    public synchronized Summary getCachedSummary(int index)
+    {
+        // Check whether we have a summary
+        CachedSummary cached = this.summaries.get(index);
+        if (cached == null) return null;
+
+        // Summaries read from a project file describe the data in the file
+        if (cached.column == null) return this.isLoaded() ? null : cached.summary;
+
+        // And check that the column hasn't changed since it was summarized
+        Column column = index < this.data.size() ? this.data.get(index) : null;
+        return column == cached.column && column.getVersion() == cached.version ? cached.summary : null;
+    }
+
+    /**
+     * A function used to tie the summaries read from a project file to the
+     * columns once they have been loaded.
+     */
+    private void bindSummaries()
+    {
+        for (Map.Entry<Integer, CachedSummary> entry : this.summaries.entrySet())
+        {
+            int index = entry.getKey();
+            if (entry.getValue().column == null && index < this.data.size())
+            {
+                entry.setValue(new CachedSummary(this.data.get(index), entry.getValue().summary));
+            }
+        }
+    }
+
+    /**
+     * A function used to return the order of the rows when sorted by one or
+     * more columns. Rather than moving the rows, the order lists the rows in
+     * sorted order, and is cached until any of the columns change.
+     * 
+     * @param by The names of the columns to sort by
+     * 
+     * @return The rows in sorted order, which must not be modified
+     */
+    public int[] getSortOrder(List<String> by)
+    {
+        return this.getSortOrder(by, new boolean[by.size()]);
+    }
+
+    /**
+     * A function used to return the order of the rows when sorted by one or
+     * more columns, each in its own direction. The order is cached by the
+     * columns and their directions, like the arguments of the gsort command.
+     * 
+     * @param by The names of the columns to sort by
+     * @param descending Whether each column is sorted in descending order
+     * 
+     * @return The rows in sorted order, which must not be modified
+     */
+    public int[] getSortOrder(List<String> by, boolean[] descending)
+    {
+        // Make sure that the data is loaded before holding the table
+        this.load();
+
+        // Name the order by each column and its direction
+        List<String> key = new ArrayList<>();
+        for (int c = 0; c < by.size(); c++) key.add((c < descending.length && descending[c] ? "-" : "+") + by.get(c));
+
+        synchronized (this)
+        {
+            // Check whether the order is cached and still current
+            CachedOrder cached = this.orders.get(key);
+            if (cached != null && cached.isCurrent(this)) return cached.order;
+
+            // Otherwise, sort the rows
+            int[] order = Sorter.sort(this, by, descending);
+
+            // And cache the order
+            this.orders.put(key, new CachedOrder(this, by, order));
+            return order;
+        }
+    }
+
+    /**
+     * A simple function used to update the storage in which new columns of
+     * the data table live. Columns which already exist are left where they
+     * are.
+     * 
+     * @param storage The new column storage
+     */
+    public void setStorage(Storage storage)
+    {
+        this.storage = storage;
+    }
+
+    /**
+     * A simple function used to choose whether the columns imported into the
+     * table keep the original text of their values, such as 1.50 rather than
+     * 1.5, so that the table is exported exactly as it was imported. This
+     * costs a text column alongside each typed column, so it is off unless it
+     * is asked for, and it only applies to rows imported afterwards.
+     * 
+     * @param verbatim Whether to keep the original text of the values
+     */
+    public void setVerbatim(boolean verbatim)
+    {
+        this.verbatim = verbatim;
+    }
+
+    /**
+     * A simple function which returns whether the columns imported into the
+     * table keep the original text of their values.
+     * 
+     * @return Whether the table is exported verbatim
+     */
+    public boolean isVerbatim()
+    {
+        return this.verbatim;
+    }
+
+    /**
+     * A simple function used to defer loading the data of the table until it
+     * is first needed. The headers of the table must already be loaded.
+     * 
+     * @param loader The loader for the data of the table
+     */
+    public void setLoader(Loader loader)
+    {
+        this.loader = loader;
+    }
+
+    /**
+     * A simple function which returns whether the data of the table has been
+     * loaded.
+     * 
+     * @return Whether the data is loaded
+     */
+    public boolean isLoaded()
+    {
+        return this.loader == null;
+    }
+
+    /**
+     * A function used to load the data of the table if it has been deferred.
+     * This is called before the data is first accessed, and may also be
+     * called ahead of time to prefetch the data. Concurrent callers wait for
+     * the data to be loaded once. The load holds the table, so accessors
+     * which already hold it load the data too, while the calls made by the
+     * loader itself, which are the only calls made while loading, return
+     * straight away.
+     */
+    public void load()
+    {
+        // Check whether the data is still waiting to be loaded
+        if (this.loader == null) return;
+
+        synchronized (this)
+        {
+            // Check that nobody has loaded the data in the meantime, and
+            // ignore the calls made by the loader itself
+            Loader loader = this.loader;
+            if (loader == null || this.loading) return;
+
+            this.loading = true;
+            boolean modified = this.modified;
+            try
+            {
+                // Load the data
+                loader.load(this);
+
+                // Tie the summaries read with the headers to the columns
+                this.bindSummaries();
+
+                // And note that the data has been loaded, and still matches
+                // the file if it did before, as loading data written by
+                // earlier versions goes through the functions which modify it
+                this.loader = null;
+                this.modified = modified;
+            }
+            catch (IOException exception)
+            {
+                throw new UncheckedIOException(exception);
+            }
+            finally
+            {
+                this.loading = false;
+            }
+        }
+    }
+
+    /**
+     * A simple function to mark the data of the table as modified, so that it
+     * is written again when the project is next saved.
+     */
+    public void modify()
+    {
+        this.modified = true;
+        this.version++;
+        this.fire(Change.DATA);
+    }
+
+    /**
+     * A simple function which returns the version of the data of the table,
+     * which changes whenever the table is modified. This lets a save tell
+     * whether a table changed while it was being written.
+     * 
+     * @return The version of the data
+     */
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * A simple function to return whether or not the data of the table has
+     * been modified since it was last saved or loaded. The headers of a table
+     * are always written again, so renaming a table doesn't modify its data.
+     * 
+     * @return Whether the data has been modified
+     */
+    public boolean isModified()
+    {
+        return this.modified;
+    }
+
+    /**
+     * A simple function to note that the data of the table matches the copy
+     * in the project file.
+     */
+    void markSaved()
+    {
+        this.modified = false;
+    }
+
     /**
      * A simple function used to update the name of the data table.
      * 
@@ -92,6 +518,38 @@ public class Datatable
     public void setName(String name)
     {
         this.name = name;
+        this.fire(Change.NAME);
+    }
+
+    /**
+     * A function used to add a listener which is told about changes to the
+     * table.
+     * 
+     * @param listener The listener to add
+     */
+    public void addListener(ChangeListener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * A function used to remove a listener from the table.
+     * 
+     * @param listener The listener to remove
+     */
+    public void removeListener(ChangeListener listener)
+    {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * A function used to tell the listeners about a change to the table.
+     * 
+     * @param change The kind of change
+     */
+    private void fire(Change change)
+    {
+        for (ChangeListener listener : this.listeners) listener.changed(this, change);
     }
 
     /**
@@ -105,30 +563,46 @@ public class Datatable
     }
 
     /**
-     * The import data function. This reads CSV data from a file and imports it
-     * into the current data tables object.
+     * The import data function. This streams CSV data from a file and imports
+     * it into the current data tables object. Records are parsed straight from
+     * a buffered channel, so the raw text of the file is never held in memory
+     * as a whole, and the type of each column is inferred as the rows arrive.
      * 
      * @param file The file to import
      */
     public void importTable(File file) throws FileNotFoundException, IOException
     {
-        // Get the contents of the file
-        String contents = new String(Files.readAllBytes(file.toPath()));
+        this.importTable(file, Progress.NONE);
+    }
 
-        // Split the file into headers and data
-        String headers = contents.substring(0, contents.indexOf("\n"));
-        String data = contents.substring(contents.indexOf("\n"));
+    /**
+     * The import data function. This streams CSV data from a file as above,
+     * telling a progress how many bytes of the file have been read.
+     * 
+     * @param file The file to import
+     * @param progress The progress of the import, which may cancel it
+     */
+    public void importTable(File file, Progress progress) throws FileNotFoundException, IOException
+    {
+        // Open a buffered reader over the file channel, counting the bytes read
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             Reader reader = new BufferedReader(new InputStreamReader(
+                new ProgressInputStream(Channels.newInputStream(channel), channel.size(), progress), Charset.defaultCharset()),
+                BUFFER_SIZE))
+        {
+            // Get the record iterator
+            Iterator<CSVRecord> records = CSVFormat.DEFAULT.parse(reader).iterator();
 
-        // Import the headers and the data
-        this.importHeaders(headers, INPUT_CSV);
-        this.importData(data);
+            // Get the data headers from the first record
+            if (records.hasNext()) this.headers = new ArrayList<>(Arrays.asList(records.next().values()));
+            this.columns = this.headers.size();
 
-        // And calculate the types
-        for(int c = 0; c <= this.columns; c++)
-        {
-            // Store the type
-            this.types.add(Datatype.parse(this.data.get(c)));
+            // And push the remaining records into the columns
+            this.importRecords(records, true);
         }
+
+        // Note that the data has changed
+        this.modify();
     }
 
     /**
@@ -149,13 +623,18 @@ public class Datatable
             JSONObject field = new JSONObject();
 
             field.put("name", this.headers.get(h));
-            field.put("type", this.types.get(h).getName());
+            field.put("type", this.getType(h).getName());
+
+            // Store the summary, if we have one
+            Summary summary = this.isLoaded() ? this.getSummary(h) : this.getCachedSummary(h);
+            if (summary != null) field.put("summary", summary.getJSONString());
 
             fields.put(field);
         }
 
         // Store the parameters
         object.put("name", this.name);
+        object.put("rows", this.rows);
         object.put("uuid", this.uuid.toString());   
         object.put("fields", fields);     
 
@@ -165,23 +644,211 @@ public class Datatable
 
     /**
      * A function used to export the data in CSV format for storage in a file.
+     * Rows are written to the output one cell at a time, so the table is never
+     * held in memory as text.
      * 
-     * @return The CSV representation of the file
+     * @param output The writer to export the data into
+     * 
+     * @throws IOException If something goes wrong
      */
-    public String exportData()
+    public void exportData(Writer output) throws IOException
     {
-        // Create the string for the output
-        String output = new String();
+        this.exportData(output, null);
+    }
 
-        // Print the data
-        for(int r = 0; r < this.rows; r++)
+    /**
+     * A function used to export the selected rows of the data in CSV format,
+     * such as the rows which satisfy a query.
+     * 
+     * @param output The writer to export the data into
+     * @param selection The rows to export, or null for every row
+     * 
+     * @throws IOException If something goes wrong
+     */
+    public void exportData(Writer output, Selection selection) throws IOException
+    {
+        // Make sure that the data is loaded
+        this.load();
+
+        // Create the CSV printer, leaving the output open for the caller
+        CSVPrinter printer = new CSVPrinter(output, EXPORT_FORMAT);
+
+        // Print the selected data
+        Selection selected = selection == null ? Selection.all(this.rows) : selection;
+        for (int r = selected.nextSelected(0); r < this.rows; r = selected.nextSelected(r + 1))
         {
-            for(int c = 0; c < this.columns - 1; c++) output += this.data.get(c).get(r) + ",";
-            output += this.data.get(this.data.size() - 1).get(r) + "\n";
+            for (int c = 0; c < this.columns; c++) printer.print(this.data.get(c).getText(r));
+            printer.println();
         }
 
-        // And return the data
-        return output;
+        // And flush the data to the output
+        printer.flush();
+    }
+
+    /**
+     * A function used to export a column in the binary column format for
+     * storage in a file.
+     * 
+     * @param index The index of the column
+     * @param output The stream to export the column into
+     * 
+     * @throws IOException If something goes wrong
+     */
+    public void exportColumn(int index, OutputStream output) throws IOException
+    {
+        // Make sure that the data is loaded
+        this.load();
+
+        // And write the column
+        ColumnCodec.write(this.data.get(index), output);
+    }
+
+    /**
+     * A function used to import a column in the binary column format into the
+     * table, replacing any column already at its index.
+     * 
+     * @param index The index of the column
+     * @param input The stream to import the column from
+     * 
+     * @throws IOException If something goes wrong
+     */
+    public void importColumn(int index, InputStream input) throws IOException
+    {
+        this.setColumn(index, ColumnCodec.read(input, this.storage));
+    }
+
+    /**
+     * A function used to replace a column of the table with a column which
+     * has already been read, such as one decoded on another thread.
+     * 
+     * @param index The index of the column
+     * @param column The new column
+     */
+    public void setColumn(int index, Column column)
+    {
+        // Make room for the column
+        while (this.data.size() <= index) this.data.add(new StringColumn(this.storage));
+
+        // Store the column
+        this.data.get(index).release();
+        this.data.set(index, column);
+
+        // And note the number of rows
+        this.rows = column.size();
+    }
+
+    /**
+     * A function used to add a new column to the end of the table.
+     * 
+     * @param header The header of the column
+     * @param column The column to add
+     */
+    public void addColumn(String header, Column column)
+    {
+        // Make sure that the data is loaded
+        this.load();
+
+        // Check that the column fits the table
+        if (this.headers.contains(header)) throw new IllegalArgumentException("variable " + header + " already defined");
+        if (this.columns > 0 && column.size() != this.rows)
+        {
+            throw new IllegalArgumentException("column " + header + " has " + column.size() + " rows, expected " + this.rows);
+        }
+
+        // Add the column
+        this.headers.add(header);
+        this.data.add(column);
+        this.columns = this.headers.size();
+        this.rows = column.size();
+
+        // And note that the data has changed
+        this.modify();
+    }
+
+    /**
+     * A function used to collapse the table into a new table holding the
+     * statistics of each group of rows.
+     * 
+     * @param aggregations The statistics to compute for each group
+     * @param by The names of the columns to group the rows by
+     * @param selection The rows to collapse, or null for every row
+     * 
+     * @return The collapsed table
+     */
+    public Datatable collapse(List<Aggregation> aggregations, List<String> by, Selection selection)
+    {
+        return Collapser.collapse(this, aggregations, by, selection);
+    }
+
+    /**
+     * A function used to merge another table into this one, matching their
+     * rows on the values of one or more key columns.
+     * 
+     * @param using The table to merge into this one
+     * @param type The type of merge, stating which tables have unique keys
+     * @param keys The names of the key columns
+     * 
+     * @return The merged table
+     */
+    public Datatable merge(Datatable using, MergeType type, List<String> keys)
+    {
+        return Merger.merge(this, using, type, keys);
+    }
+
+    /**
+     * A function used to fit a linear regression of one column on others,
+     * like the regress command.
+     * 
+     * @param dependent The name of the dependent variable
+     * @param independents The names of the independent variables
+     * @param selection The rows to use, or null for every row
+     * 
+     * @return The results of the regression
+     */
+    public Regression regress(String dependent, List<String> independents, Selection selection)
+    {
+        return Regressor.regress(this, dependent, independents, selection);
+    }
+
+    /**
+     * A function used to add a new column computed from an expression, like
+     * the generate command.
+     * 
+     * @param header The header of the new column
+     * @param expression The expression to compute
+     * @param selection The rows to compute, or null for every row, with the other rows missing
+     */
+    public void generate(String header, String expression, Selection selection)
+    {
+        // Make sure that the data is loaded
+        this.load();
+
+        // Check that the column doesn't exist
+        if (this.headers.contains(header)) throw new IllegalArgumentException("variable " + header + " already defined");
+
+        // And add the computed column
+        this.addColumn(header, Expression.compile(this, expression).evaluate(selection));
+    }
+
+    /**
+     * A function used to replace the values of a column with those computed
+     * from an expression, like the replace command.
+     * 
+     * @param header The header of the column
+     * @param expression The expression to compute
+     * @param selection The rows to replace, or null for every row
+     */
+    public void replace(String header, String expression, Selection selection)
+    {
+        // Find the column
+        Column column = this.getColumn(header);
+        if (column == null) throw new IllegalArgumentException("variable " + header + " not found");
+
+        // Replace the column with the computed column
+        this.setColumn(this.headers.indexOf(header), Expression.compile(this, expression).evaluate(selection, column));
+
+        // And note that the data has changed
+        this.modify();
     }
 
     /**
@@ -203,7 +870,10 @@ public class Datatable
 
             // Get the data headers
             CSVRecord record = records.iterator().next();
-            this.headers = Arrays.asList(record.values());
+            this.headers = new ArrayList<>(Arrays.asList(record.values()));
+
+            // And note that the data has changed
+            this.modify();
         }
         else if (type == INPUT_JSON)
         {
@@ -212,6 +882,7 @@ public class Datatable
 
             // Extract the table properties
             this.name = data.getString("name");
+            this.rows = data.optInt("rows", this.rows);
             JSONArray fields = data.getJSONArray("fields");
 
             // And store the fields
@@ -219,15 +890,25 @@ public class Datatable
             {
                 // Get the field
                 JSONObject field = fields.getJSONObject(i);
+                Datatype datatype = Datatype.fromString(field.getString("type"));
 
-                // And extract the field properties
+                // Extract the field properties
                 this.headers.add(field.getString("name"));
-                this.types.add(Datatype.fromString(field.getString("type")));
+                this.types.add(datatype);
+
+                // Store the summary of the column in the file
+                JSONObject summary = field.optJSONObject("summary");
+                if (summary != null) this.summaries.put(i, new CachedSummary(null, Summary.fromJSONString(summary)));
+
+                // And store the column as its type, converting any data that
+                // has already been loaded
+                if (i >= this.data.size())                       this.data.add(Column.create(datatype, this.storage));
+                else if (this.data.get(i).getType() != datatype) this.convert(i, datatype);
             }
         }
 
         // And set the number of columns
-        this.columns = this.headers.size() - 1;
+        this.columns = this.headers.size();
     }
 
     /**
@@ -235,37 +916,308 @@ public class Datatable
      * 
      * @param data A string with the CSV data
      * 
-     * @param IOException If something goes wrong
+     * @throws IOException If something goes wrong
      */
     public void importData(String data) throws IOException
     {
+        // Import each of the records into the existing columns
+        this.importData(new StringReader(data), false);
+    }
+
+    /**
+     * A function used to stream data from CSV format into the table.
+     * 
+     * @param data A reader over the CSV data
+     * @param infer Whether to infer the types of the columns
+     * 
+     * @throws IOException If something goes wrong
+     */
+    public void importData(Reader data, boolean infer) throws IOException
+    {
+        // Make sure that any existing data is loaded first
+        this.load();
+
         // Get the record iterator
-        Iterable<CSVRecord> records = CSVFormat.DEFAULT.parse(new StringReader(data));
+        Iterator<CSVRecord> records = CSVFormat.DEFAULT.parse(data).iterator();
 
-        // Iterate through each record
-        for (CSVRecord record : records)
+        // Import each of the records
+        this.importRecords(records, infer);
+
+        // And note that the data has changed
+        this.modify();
+    }
+
+    /**
+     * A function used to append the rows of another table to the end of this
+     * one. Columns are matched by position and widened to a type which holds
+     * the values of both tables.
+     * 
+     * @param other The table to append
+     */
+    public void append(Datatable other)
+    {
+        // Make sure that the data of both tables is loaded
+        this.load();
+        other.load();
+
+        // Iterate through each of the columns of either table
+        int count = Math.max(this.data.size(), other.data.size());
+        for (int c = 0; c < count; c++)
         {
-            // Check that our data variable exists
-            if (this.data == null)
+            // Create the column if this table does not have it yet
+            if (c == this.data.size())
             {
-                // Create the data array
-                this.data = new ArrayList<List<String>>(record.size());
+                Column column = new StringColumn(this.storage);
+                for (int r = 0; r < this.rows; r++) column.appendMissing();
+                this.data.add(column);
+            }
+
+            // Get the columns
+            Column column = this.data.get(c);
+            Column source = c < other.data.size() ? other.data.get(c) : null;
 
-                // Create each column of the data table
-                for (int i = 0; i < record.size(); i++) this.data.add(new ArrayList<>());
+            // Check whether the other table has the column
+            if (source == null)
+            {
+                for (int r = 0; r < other.rows; r++) column.appendMissing();
+                continue;
+            }
+
+            // Get the summaries of the columns, so that they can be merged
+            Summary summary = column.size() == 0 ? new Summary() : this.getCachedSummary(c);
+            Summary added = other.getCachedSummary(c);
+            Datatype before = column.getType();
+
+            // Widen the columns to a common type
+            Datatype type = Datatype.widen(column.getType(), source.getType());
+            if (type != column.getType()) column = this.convert(c, type);
+            if (type != source.getType()) source = source.convert(type, this.verbatim || source.keepsText());
+
+            // Append the rows
+            column.appendAll(source);
+            if (source != other.data.get(c)) source.release();
+
+            // And merge the summaries if the conversions kept their values
+            if (summary != null && added != null && Datatable.keepsSummary(before, type) && Datatable.keepsSummary(other.getType(c), type))
+            {
+                Summary merged = new Summary();
+                merged.merge(summary);
+                merged.merge(added);
+                this.summaries.put(c, new CachedSummary(column, merged));
+            }
+        }
+
+        // And note the rows that we've added
+        this.rows += other.rows;
+        this.modify();
+    }
+
+    /**
+     * A function used to release the storage held by the columns of the table
+     * once it is no longer used, such as when it is removed from the project
+     * or its import is abandoned. The table is left without any rows.
+     */
+    public void release()
+    {
+        synchronized (this)
+        {
+            // Release each of the columns
+            for (Column column : this.data) column.release();
+
+            // And empty the table
+            this.data = new ArrayList<>();
+            this.rows = 0;
+            this.summaries.clear();
+            this.orders.clear();
+        }
+
+        // Tell the listeners that the rows have gone
+        this.fire(Change.DATA);
+    }
+
+    /**
+     * A function used to take a view of the table as it stands, so that it
+     * can be published to another table while more rows are appended to this
+     * one on another thread. The view holds a snapshot of each column, which
+     * shares the full segments of the column and copies everything else, so
+     * the rows appended afterwards never touch anything the view reads. It
+     * must be taken on the thread which appends to the table, and it holds on
+     * to the columns replaced since the last view so that they are only
+     * released once it is published.
+     * 
+     * @return The view of the table
+     */
+    public synchronized Datatable view()
+    {
+        // Copy the structure of the table, with a snapshot of each column
+        Datatable view = new Datatable();
+        view.headers = new ArrayList<>(this.headers);
+        view.data = new ArrayList<>();
+        for (Column column : this.data) view.data.add(column.snapshot());
+        view.types = new ArrayList<>(this.types);
+        view.rows = this.rows;
+        view.columns = this.columns;
+
+        // Carry over the summaries of the columns which haven't changed since
+        for (int c = 0; c < this.data.size(); c++)
+        {
+            Summary summary = this.getCachedSummary(c);
+            if (summary != null) view.summaries.put(c, new CachedSummary(view.data.get(c), summary));
+        }
+
+        // And hand over the columns replaced since the last view
+        view.replaced = this.replaced == null ? new ArrayList<>() : this.replaced;
+        this.replaced = new ArrayList<>();
+        return view;
+    }
+
+    /**
+     * A function used to publish a view of another table as the data of this
+     * table. This only swaps in the columns and row count of the view, so it
+     * is cheap enough to run on the JavaFX thread, and the columns that the
+     * view replaced are released as nothing reads them any more. The columns
+     * of the view are snapshots holding exactly the rows of the view, so any
+     * summaries or orders worked out from them cover only the published rows.
+     * 
+     * @param view The view to publish
+     */
+    public void publish(Datatable view)
+    {
+        synchronized (this)
+        {
+            // Swap in the structure of the view
+            this.headers = view.headers;
+            this.data = view.data;
+            this.types = view.types;
+            this.rows = view.rows;
+            this.columns = view.columns;
+
+            // Take the summaries of the view, dropping any orders of the old rows
+            this.summaries.clear();
+            this.summaries.putAll(view.summaries);
+            this.orders.clear();
+        }
+
+        // Release the columns that the view replaced
+        for (Column column : view.replaced) column.release();
+
+        // And note that the data has changed
+        this.modify();
+    }
+
+    /**
+     * A function used to push parsed CSV records into the columns of the table
+     * as they arrive. This creates the columns from the headers if they have
+     * not been created yet, so that a table without rows still has columns.
+     * When inferring types, each column is widened to the narrowest type that
+     * holds every value seen so far.
+     * 
+     * @param records The records to import
+     * @param infer Whether to infer the types of the columns
+     */
+    private void importRecords(Iterator<CSVRecord> records, boolean infer)
+    {
+        // Create each column of the data table
+        while (this.data.size() < this.headers.size()) this.data.add(new StringColumn(this.storage));
+
+        // Iterate through each record
+        while (records.hasNext())
+        {
+            // Get the values of the record
+            String[] values = records.next().values();
+
+            // Create any columns that the headers did not account for
+            while (this.data.size() < values.length)
+            {
+                Column column = new StringColumn(this.storage);
+                for (int r = 0; r < this.rows; r++) column.appendMissing();
+                this.data.add(column);
             }
 
             // Process each record component
-            for (int i = 0; i < record.values().length; i++)
+            for (int i = 0; i < this.data.size(); i++)
             {
-                this.data.get(i).add(record.values()[i]);
+                // Get the column
+                Column column = this.data.get(i);
+
+                // Check whether the record has a value for the column
+                if (i >= values.length)
+                {
+                    column.appendMissing();
+                    continue;
+                }
+
+                // Widen the column if the value does not fit its type
+                if (infer && column.getType() != Datatype.STRING)
+                {
+                    Datatype type = Datatype.widen(column.getType(), Datatype.parse(values[i]));
+                    if (type != column.getType()) column = this.convert(i, type);
+                }
+
+                // And store the value
+                column.append(values[i]);
             }
 
-            // And note that we've added a column
+            // And note that we've added a row
             this.rows++;
         }
     }
 
+    /**
+     * A function used to convert a column of the table into another type,
+     * releasing the storage of the original column.
+     * 
+     * @param index The index of the column
+     * @param type The datatype to convert into
+     * 
+     * @return The converted column
+     */
+    private Column convert(int index, Datatype type)
+    {
+        // Convert the column, keeping the text of its values for a verbatim export
+        Column column = this.data.get(index);
+        Column converted = column.convert(type, this.verbatim || column.keepsText());
+
+        // Replace the original column
+        this.data.set(index, converted);
+
+        // And release the original column, unless a view may still use it
+        if (this.replaced != null) this.replaced.add(column);
+        else                       column.release();
+        return converted;
+    }
+
+    /**
+     * A function used to check whether the summary of a column still holds
+     * once the column is converted into another type. Integers keep their
+     * values as numbers, and columns without a type only hold missing rows.
+     * 
+     * @param from The type of the column
+     * @param to The type that the column is converted into
+     * 
+     * @return Whether the summary still holds
+     */
+    private static boolean keepsSummary(Datatype from, Datatype to)
+    {
+        return from == to || from == Datatype.NULL || (from == Datatype.INTEGER && to == Datatype.NUMBER);
+    }
+
+    /**
+     * A simple function which returns the datatype of a column.
+     * 
+     * @param index The index of the column
+     * 
+     * @return The datatype of the column
+     */
+    public Datatype getType(int index)
+    {
+        // Use the types listed in the headers until the data is loaded
+        if (!this.isLoaded()) return index < this.types.size() ? this.types.get(index) : Datatype.NULL;
+
+        // Otherwise, use the type of the column
+        return index < this.data.size() ? this.data.get(index).getType() : Datatype.NULL;
+    }
+
     /**
      * A function used to easily print a string representation of the current
      * data table.
@@ -282,6 +1234,10 @@ public class Datatable
         String output = new String();
         String format = "%" + width + "." + width + "s";
 
+        // Check that we have something to print
+        if (this.columns == 0) return output;
+        this.load();
+
         // Add the headers
         output += String.format(" " + format, this.headers.get(0));
         for(int c = 1; c < this.columns; c++) output += String.format(" | " + format, this.headers.get(c));
@@ -303,4 +1259,115 @@ public class Datatable
         // And return the data
         return output;
     }
+
+    /**
+     * The cached summary class. This holds the summary of a column along with
+     * the version of the column that it describes.
+     */
+    private static class CachedSummary
+    {
+        /** The summarized column, or null for a summary read from a file. */
+        private final Column column;
+
+        /** The version of the column when it was summarized. */
+        private final long version;
+
+        /** The summary of the column. */
+        private final Summary summary;
+
+        /**
+         * The default constructor. This creates a cached summary of the
+         * current version of a column.
+         * 
+         * @param column The summarized column
+         * @param summary The summary of the column
+         */
+        public CachedSummary(Column column, Summary summary)
+        {
+            this.column = column;
+            this.version = column == null ? 0 : column.getVersion();
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * The cached order class. This holds the sorted order of the rows along
+     * with the versions of the columns that it was sorted by.
+     */
+    private static class CachedOrder
+    {
+        /** The names of the columns sorted by. */
+        private final List<String> by;
+
+        /** The columns sorted by. */
+        private final Column[] columns;
+
+        /** The versions of the columns when they were sorted. */
+        private final long[] versions;
+
+        /** The rows in sorted order. */
+        private final int[] order;
+
+        /**
+         * The default constructor. This creates a cached order of the current
+         * versions of the columns of a table.
+         * 
+         * @param table The sorted table
+         * @param by The names of the columns sorted by
+         * @param order The rows in sorted order
+         */
+        public CachedOrder(Datatable table, List<String> by, int[] order)
+        {
+            // Store the details
+            this.by = new ArrayList<>(by);
+            this.order = order;
+
+            // And note the version of each column
+            this.columns = new Column[by.size()];
+            this.versions = new long[by.size()];
+            for (int c = 0; c < this.columns.length; c++)
+            {
+                this.columns[c] = table.getColumn(by.get(c));
+                this.versions[c] = this.columns[c].getVersion();
+            }
+        }
+
+        /**
+         * A function used to check that none of the columns sorted by have
+         * changed or been replaced since they were sorted.
+         * 
+         * @param table The sorted table
+         * 
+         * @return Whether the order is current
+         */
+        public boolean isCurrent(Datatable table)
+        {
+            // Check that the number of rows hasn't changed
+            if (table.getRowCount() != this.order.length) return false;
+
+            // And check each of the columns
+            for (int c = 0; c < this.columns.length; c++)
+            {
+                Column column = table.getColumn(this.by.get(c));
+                if (column != this.columns[c] || column.getVersion() != this.versions[c]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The loader interface. This loads the data of a table whose loading has
+     * been deferred.
+     */
+    public interface Loader
+    {
+        /**
+         * The load function. This loads the data into the table.
+         * 
+         * @param table The table to load the data into
+         * 
+         * @throws IOException If something goes wrong
+         */
+        public void load(Datatable table) throws IOException;
+    }
 }
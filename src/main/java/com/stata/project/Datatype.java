@@ -1,7 +1,6 @@
 package com.stata.project;
 
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * The datatypes class. This stores a list of datatypes supported by Stata.
@@ -10,35 +9,27 @@ import java.util.regex.Pattern;
  */
 public enum Datatype
 {
-    NUMBER("Number", "^(([0-9]+)|([0-9]*(\\.|,)[0-9]+))$"),
-    BOOLEAN("Boolean", "^((t(rue)?)|(f(alse)?))|([01]^abc)$"),
-    STRING("Text", ".*"),
-    NULL("NULL", "");
+    INTEGER("Integer"),
+    NUMBER("Number"),
+    BOOLEAN("Boolean"),
+    STRING("Text"),
+    NULL("NULL");
+
+    /** The longest run of digits that is always guaranteed to fit a long. */
+    private static final int MAX_INTEGER_DIGITS = 18;
 
     /** The name of the class type. */
     private String name;
 
-    /** The regular expression to test for this datatype. */
-    private String regex;
-
-    /** The regex pattern for use in matching. */
-    private Pattern pattern;
-    
     /**
-     * The default constructor. This creates a new datatype with a Java class
-     * type.
+     * The default constructor. This creates a new datatype with a name.
      * 
-     * @param type The Java class of this type
      * @param name The name of the class type
      */
-    private Datatype(String name, String regex)
+    private Datatype(String name)
     {
         // Store the details
         this.name = name;
-        this.regex = regex;
-
-        // Create the regular expression pattern
-        this.pattern = Pattern.compile(this.regex, Pattern.CASE_INSENSITIVE);
     }
 
     /**
@@ -52,52 +43,87 @@ public enum Datatype
     }
 
     /**
-     * A simple function which returns the regex criteria for matching a type.
-     * @return
-     */
-    public String getRegex()
-    {
-        return this.regex;
-    }
-
-    /**
-     * A simple function which returns the regex pattern used when testing this
-     * type.
+     * A simple function which returns whether this datatype is numeric.
      * 
-     * @return The regex pattern
+     * @return Whether this datatype is numeric
      */
-    public Pattern getPattern()
+    public boolean isNumeric()
     {
-        return this.pattern;
+        return this == INTEGER || this == NUMBER;
     }
 
     /**
      * A simple function which determines what datatype we are dealing with.
-     * This takes a single datum and tries to parse it as various types to
-     * see what it is.
+     * This scans a single datum once, character by character, to see what it
+     * is. Empty data are missing and so have no type.
      * 
      * @param datum The datum to parse
      * 
      * @return The datatype
      */
-    public static Datatype parse(String datum)
+    public static Datatype parse(CharSequence datum)
     {
-        // Try each of the regexes in turn
-        for (Datatype type : Datatype.values())
+        // Check whether we have anything to parse
+        int length = datum.length();
+        if (length == 0) return NULL;
+
+        // Check for booleans
+        if (Datatype.isBoolean(datum)) return BOOLEAN;
+
+        // Skip the sign of a number
+        int i = datum.charAt(0) == '-' ? 1 : 0;
+
+        // Scan the integer digits
+        int start = i;
+        while (i < length && Datatype.isDigit(datum.charAt(i))) i++;
+        int digits = i - start;
+
+        // Leading zeros mark identifiers, such as post codes, rather than
+        // numbers, so they are kept as text
+        if (digits > 1 && datum.charAt(start) == '0') return STRING;
+
+        // Check whether the datum is a whole number. Longer runs of digits,
+        // such as account numbers, would lose digits as numbers, so they are
+        // kept as text
+        if (i == length)
         {
-            // Test for a match and return
-            if (type.getPattern().matcher(datum).matches())
-                return type;
+            if (digits == 0 || digits > MAX_INTEGER_DIGITS) return STRING;
+            return INTEGER;
         }
 
-        // If there are no matches, parse as unknown
-        return NULL;
+        // Otherwise, scan the decimal point and the fraction digits. Commas
+        // are not accepted, as 1,234 is as likely to be a thousand as a
+        // fraction
+        if (datum.charAt(i) == '.')
+        {
+            int fraction = ++i;
+            while (i < length && Datatype.isDigit(datum.charAt(i))) i++;
+            if (i == fraction) return STRING;
+        }
+        else if (digits == 0)
+        {
+            return STRING;
+        }
+
+        // Scan the exponent, such as the E-5 of 1.2E-5, which is how large
+        // and small numbers are formatted
+        if (i < length && (datum.charAt(i) == 'e' || datum.charAt(i) == 'E'))
+        {
+            i++;
+            if (i < length && (datum.charAt(i) == '+' || datum.charAt(i) == '-')) i++;
+            int exponent = i;
+            while (i < length && Datatype.isDigit(datum.charAt(i))) i++;
+            if (i == exponent) return STRING;
+        }
+
+        // And check that there is nothing left over
+        return i == length ? NUMBER : STRING;
     }
 
     /**
      * A function which determines the datatype for an array of data. This
-     * calculates the datatype for each value and compares them to see if they
-     * match, moving to the next as appropriate.
+     * widens the datatype one value at a time, stopping as soon as the data
+     * can only be text.
      * 
      * @param data The data to parse
      * 
@@ -105,27 +131,46 @@ public enum Datatype
      */
     public static Datatype parse(List<String> data)
     {
-        // Check that we have items
-        if (data.isEmpty()) return Datatype.NULL;
-
-        // Store the type of the first item
-        Datatype type = Datatype.parse(data.get(0));
+        // Start with no type
+        Datatype type = Datatype.NULL;
 
         // Iterate through each value
         for (String datum : data)
         {
-            // Check that our types are equal
-            if (Datatype.parse(datum) != type)
-            {
-                // Default back to string
-                type = Datatype.STRING;
-            }
+            // Widen the type to fit the value
+            type = Datatype.widen(type, Datatype.parse(datum));
+
+            // And stop once the type cannot get any wider
+            if (type == Datatype.STRING) break;
         }
 
         // And return our final type
         return type;
     }
 
+    /**
+     * A function which finds the narrowest datatype able to hold the values
+     * of two datatypes. Missing values fit every type, integers fit numbers,
+     * and everything fits text.
+     * 
+     * @param current The current datatype
+     * @param next The datatype of the next value
+     * 
+     * @return The widened datatype
+     */
+    public static Datatype widen(Datatype current, Datatype next)
+    {
+        // Check whether either type is missing or the types are equal
+        if (next == NULL || next == current) return current;
+        if (current == NULL)                 return next;
+
+        // Check whether both types are numeric
+        if (current.isNumeric() && next.isNumeric()) return NUMBER;
+
+        // Otherwise, fall back to text
+        return STRING;
+    }
+
     /**
      * A simple function to get a Datatype from a string. This tables a string
      * and iterates through each Datatype until we have a match.
@@ -147,4 +192,43 @@ public enum Datatype
         // If we haven't found anything, return null
         return NULL;
     }
+
+    /**
+     * A simple function which checks whether a character is a decimal digit.
+     * 
+     * @param character The character to check
+     * 
+     * @return Whether the character is a digit
+     */
+    private static boolean isDigit(char character)
+    {
+        return character >= '0' && character <= '9';
+    }
+
+    /**
+     * A simple function which checks whether a datum is a boolean. This
+     * accepts t, true, f and false in any case.
+     * 
+     * @param datum The datum to check
+     * 
+     * @return Whether the datum is a boolean
+     */
+    private static boolean isBoolean(CharSequence datum)
+    {
+        // Check the first character
+        char first = Character.toLowerCase(datum.charAt(0));
+        if (first != 't' && first != 'f') return false;
+
+        // Check the single character forms
+        if (datum.length() == 1) return true;
+
+        // And check the full words
+        String word = first == 't' ? "true" : "false";
+        if (datum.length() != word.length()) return false;
+        for (int i = 1; i < word.length(); i++)
+        {
+            if (Character.toLowerCase(datum.charAt(i)) != word.charAt(i)) return false;
+        }
+        return true;
+    }
 }
@@ -53,14 +53,15 @@ public class Metadata
      */
     public void setName(String name)
     {
-        // Note that the project is updated
-        if (!this.name.equals(name))
-        {
-            this.project.modify();
-        }
+        // Check whether the name has changed
+        if (this.name.equals(name)) return;
 
-        // And store the new name
+        // Store the new name
         this.name = name;
+
+        // And note that the project is updated
+        this.project.fire(Change.NAME);
+        this.project.modify();
     }
 
     /**
@@ -2,11 +2,26 @@ package com.stata.project;
 
 import com.stata.Stata;
 import com.stata.io.IOManager;
+import com.stata.io.ParallelImporter;
+import com.stata.io.Progress;
+import com.stata.project.columns.MappedStorage;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * The main project class. This represents an open project in Stata, and stores
@@ -16,6 +31,9 @@ import java.util.HashMap;
  */
 public class Project
 {
+    /** The number of records parsed and shown first when importing with a preview. */
+    private static final int PREVIEW_ROWS = 5000;
+
     /** The metadata of the project storing project information. */
     private Metadata metadata;
 
@@ -25,6 +43,21 @@ public class Project
     /** A variable storing whether or not the project has been modified. */
     private boolean modified;
 
+    /** The storage for columns kept off the heap, created when first used. */
+    private MappedStorage storage;
+
+    /** The project file which was last loaded or saved, if any. */
+    private File source;
+
+    /** The listeners told about changes to the project. */
+    private final List<ChangeListener> listeners;
+
+    /** The number of times the project has been modified. */
+    private volatile long version;
+
+    /** The versions of the tables when this project was taken as a snapshot, if it was. */
+    private Map<Datatable, Long> versions;
+
     /**
      * The default constructor. This creates the project prototype and creates
      * the relevant data variables.
@@ -39,6 +72,9 @@ public class Project
 
         // Note that the project hasn't been modified
         this.modified = false;
+
+        // And create the list of listeners, which may be told about changes on any thread
+        this.listeners = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -56,7 +92,15 @@ public class Project
      */
     public void modify()
     {
-        this.modified = true;
+        // Count the modification
+        this.version++;
+
+        // And tell the listeners if the project was unmodified
+        if (!this.modified)
+        {
+            this.modified = true;
+            this.fire(Change.MODIFIED);
+        }
     }
 
     /**
@@ -70,6 +114,18 @@ public class Project
         return this.modified;
     }
 
+    /**
+     * A simple function to return the project file which was last loaded or
+     * saved. Tables which haven't been modified since are copied from this
+     * file when the project is saved.
+     * 
+     * @return The project file, or null if there isn't one
+     */
+    public File getSource()
+    {
+        return this.source;
+    }
+
     /**
      * A simple function used to return all of the data tables associated with
      * this project.
@@ -81,6 +137,51 @@ public class Project
         return this.datatables;
     }
 
+    /**
+     * A function used to return the storage for columns kept off the heap.
+     * This creates a scratch directory for the project the first time it is
+     * used, which is deleted when the project is replaced by another one, or
+     * when the application exits.
+     * 
+     * @return The off-heap column storage
+     * 
+     * @throws IOException If the scratch directory cannot be created
+     */
+    public synchronized MappedStorage getStorage() throws IOException
+    {
+        // Create the storage if necessary
+        if (this.storage == null)
+        {
+            this.storage = new MappedStorage(Files.createTempDirectory("stata"));
+        }
+
+        // And return the storage
+        return this.storage;
+    }
+
+    /**
+     * A function used to create a new data table for the project. The columns
+     * of the table are kept off the heap if enabled in the runtime.
+     * 
+     * @return The new data table
+     * 
+     * @throws IOException If the off-heap storage cannot be created
+     */
+    private Datatable createTable() throws IOException
+    {
+        // Create the table
+        Datatable table = new Datatable();
+
+        // Keep the columns off the heap if enabled
+        if (Stata.getInstance().getRuntime().getRuntimeValue("storage_offheap", Boolean.class))
+        {
+            table.setStorage(this.getStorage());
+        }
+
+        // And return the table
+        return table;
+    }
+
     /**
      * The function used to write the project state to a file. This takes a
      * filename and passes the project along with the name to the IOManager to
@@ -93,11 +194,7 @@ public class Project
         // Write the project to a file
         try
         {
-            // Save the file
-            IOManager.save(file, this);
-
-            // And note that the file has not been modified
-            this.modified = false;
+            this.save(file, Progress.NONE);
         }
         catch (IOException exception)
         {
@@ -105,6 +202,77 @@ public class Project
         }
     }
 
+    /**
+     * The function used to write the project state to a file, telling a
+     * progress how many of the tables have been written.
+     * 
+     * @param file The file to save the project as
+     * @param progress The progress of the save, which may cancel it
+     * 
+     * @throws IOException If something goes wrong
+     */
+    public void save(File file, Progress progress) throws IOException
+    {
+        // Take a snapshot of the project
+        Project snapshot = this.snapshot();
+
+        // Save the snapshot
+        IOManager.save(file, snapshot, progress);
+
+        // And note that the project matches the file
+        this.markSaved(snapshot, file);
+    }
+
+    /**
+     * A function used to take a snapshot of the project to save, such as on
+     * a background thread. The snapshot has its own metadata and list of
+     * tables, so the project can change while the snapshot is written, and
+     * it notes the version of each table so that tables which change in the
+     * meantime are not thought to match the file.
+     * 
+     * @return The snapshot
+     */
+    public Project snapshot()
+    {
+        // Copy the metadata and the list of tables
+        Project snapshot = new Project();
+        snapshot.metadata.fromJSONString(this.metadata.getJSONString());
+        snapshot.datatables = new HashMap<>(this.datatables);
+        snapshot.source = this.source;
+
+        // And note the versions of the project and its tables
+        snapshot.version = this.version;
+        snapshot.versions = new HashMap<>();
+        for (Datatable table : this.datatables.values()) snapshot.versions.put(table, table.getVersion());
+        return snapshot;
+    }
+
+    /**
+     * The function used to note that the project matches a file, once a
+     * snapshot of it has been saved. Only the tables which haven't changed
+     * since the snapshot was taken match the file, and the project is only
+     * unmodified if nothing has changed since.
+     * 
+     * @param snapshot The snapshot which was saved
+     * @param file The file the snapshot was saved as
+     */
+    public void markSaved(Project snapshot, File file)
+    {
+        // Note that the unchanged tables match the file
+        for (Map.Entry<Datatable, Long> entry : snapshot.versions.entrySet())
+        {
+            if (entry.getKey().getVersion() == entry.getValue()) entry.getKey().markSaved();
+        }
+        this.source = file;
+
+        // And note that the file has not been modified, unless it has since
+        if (this.version == snapshot.version)
+        {
+            this.modified = false;
+            this.fire(Change.MODIFIED);
+        }
+    }
+
     /**
      * The function used to read a project state from a file. This takes a
      * filename and sets all of the project variables to match those in the
@@ -116,15 +284,7 @@ public class Project
     {
         try
         {
-            // Load a project from a file
-            Project project = IOManager.load(file);
-
-            // Store the project artefacts
-            this.metadata = project.getMetadata();
-            this.datatables = project.getDatatables();
-
-            // And set the file as an environment variable
-            Stata.getInstance().getRuntime().setRuntimeValue("project_file", file);
+            this.open(IOManager.load(file), file);
         }
         catch (IOException exception)
         {
@@ -132,6 +292,107 @@ public class Project
         }
     }
 
+    /**
+     * The function used to take on the state of a project which has been
+     * read from a file, such as on a background thread. The tables of the
+     * project are released, and the project takes over the storage of the
+     * tables which were read.
+     * 
+     * @param project The project which was read
+     * @param file The file the project was read from
+     */
+    public void open(Project project, File file)
+    {
+        // Release the tables of the project being replaced, along with their storage
+        for (Datatable table : this.datatables.values()) table.release();
+        synchronized (this)
+        {
+            if (this.storage != null && this.storage != project.storage) this.storage.close();
+            this.storage = project.storage;
+        }
+
+        // Store the project artefacts, with the metadata belonging to this project
+        this.metadata = new Metadata(this);
+        this.metadata.fromJSONString(project.getMetadata().getJSONString());
+        this.datatables = project.getDatatables();
+        this.source = file;
+
+        // Load the data of the tables in the background if enabled
+        if (Stata.getInstance().getRuntime().getRuntimeValue("load_prefetch", Boolean.class))
+        {
+            this.prefetch();
+        }
+
+        // Set the file as an environment variable
+        Stata.getInstance().getRuntime().setRuntimeValue("project_file", file);
+
+        // And tell the listeners that everything has changed
+        this.modified = false;
+        this.fire(Change.NAME);
+        this.fire(Change.TABLES);
+        this.fire(Change.MODIFIED);
+    }
+
+    /**
+     * The function used to close a project which is no longer used, such as
+     * one which failed to load. This releases its tables and deletes its
+     * scratch directory.
+     */
+    public void close()
+    {
+        // Release the tables
+        for (Datatable table : this.datatables.values()) table.release();
+
+        // And close the storage
+        synchronized (this)
+        {
+            if (this.storage != null) this.storage.close();
+            this.storage = null;
+        }
+    }
+
+    /**
+     * The function used to load the data of every table in the background.
+     * Tables are loaded side by side on worker threads if enabled, and tables
+     * which are accessed before the background thread reaches them are
+     * loaded on demand as usual.
+     */
+    public void prefetch()
+    {
+        // Take a copy of the tables to load
+        List<Datatable> tables = new ArrayList<>(this.datatables.values());
+        boolean parallel = Stata.getInstance().getRuntime().getRuntimeValue("io_parallel", Boolean.class);
+
+        // Create the background thread
+        Thread thread = new Thread(() -> {
+            // Start loading each of the tables
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Datatable table : tables)
+            {
+                ForkJoinTask<?> task = ForkJoinTask.adapt(table::load);
+                tasks.add(parallel ? ForkJoinPool.commonPool().submit(task) : task);
+            }
+
+            // And wait for each of them, reporting any failures
+            for (ForkJoinTask<?> task : tasks)
+            {
+                try
+                {
+                    if (parallel) task.join();
+                    else          task.invoke();
+                }
+                catch (UncheckedIOException exception)
+                {
+                    exception.printStackTrace();
+                }
+            }
+        }, "prefetch");
+
+        // And start loading
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * The function used to import data from a file. This takes a filename and
      * imports the data into the current project.
@@ -139,20 +400,232 @@ public class Project
      * @param file The file from which to import data.
      */
     public void importTable(File file) throws FileNotFoundException, IOException
+    {
+        this.addTable(this.readTable(file, Progress.NONE));
+    }
+
+    /**
+     * The function used to read a data table from a file without adding it to
+     * the project, so that it can be imported on a background thread and
+     * added once it is complete.
+     * 
+     * @param file The file from which to import data
+     * @param progress The progress of the import, which may cancel it
+     * 
+     * @return The imported table
+     */
+    public Datatable readTable(File file, Progress progress) throws FileNotFoundException, IOException
     {
         // Create the new data table
-        Datatable table = new Datatable();
+        Datatable table = this.createTable();
 
-        // Import the data
-        table.importTable(file);
+        try
+        {
+            // Import the data, in parallel if enabled
+            if (Stata.getInstance().getRuntime().getRuntimeValue("import_parallel", Boolean.class))
+            {
+                ParallelImporter.importTable(table, file, progress);
+            }
+            else
+            {
+                table.importTable(file, progress);
+            }
+            return table;
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            // And release the incomplete table
+            table.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * The function used to import data from a file while it is being shown.
+     * The first records are parsed and the table is added to the project
+     * straight away, with the types of its columns guessed from those
+     * records, and the rest of the file is appended as it is parsed, which
+     * settles the types by the time the import finishes. The records are
+     * appended to a staging table on the importing thread, and only a view of
+     * the staging table is published to the shown table through the given
+     * executor, such as the JavaFX thread, so that the shown table never
+     * changes while the interface is reading it. If the import is cancelled
+     * or fails, the table is removed again.
+     * 
+     * @param file The file from which to import data
+     * @param progress The progress of the import, which may cancel it
+     * @param executor The executor which changes the table
+     * @param shown The function told about the table once it has been added
+     * 
+     * @return The imported table
+     */
+    public Datatable streamTable(File file, Progress progress, Executor executor, Consumer<Datatable> shown)
+        throws FileNotFoundException, IOException
+    {
+        // Create the new data table, and the table which the records are appended to
+        Datatable table = this.createTable();
+        Datatable staging = this.createTable();
+
+        // Create the function which publishes the staging table, adding the table once unless it was cancelled
+        AtomicBoolean added = new AtomicBoolean();
+        Runnable publish = () ->
+        {
+            Datatable view = staging.view();
+            executor.execute(() ->
+            {
+                table.publish(view);
+                if (progress.isCancelled() || !added.compareAndSet(false, true)) return;
+                this.addTable(table);
+                shown.accept(table);
+            });
+        };
+
+        try
+        {
+            // Append each range of records, publishing the table once it has its first records
+            ParallelImporter.importTable(staging, file, progress, PREVIEW_ROWS, chunk ->
+            {
+                staging.append(chunk);
+                publish.run();
+            });
+
+            // And publish the table even if it has no records
+            publish.run();
+            return table;
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            // Remove the incomplete table, with the columns that it hasn't shown yet
+            Datatable view = staging.view();
+            executor.execute(() ->
+            {
+                table.publish(view);
+                this.removeTable(table);
+                table.release();
+            });
+            throw exception;
+        }
+    }
+
+    /**
+     * A function used to add a data table to the project. Tables are filed by
+     * name, so a table which has the name of another table is given a name of
+     * its own.
+     * 
+     * @param table The table to add
+     */
+    public void addTable(Datatable table)
+    {
+        // Make sure that the table doesn't replace another table
+        if (this.datatables.get(table.getName()) != table) table.setName(this.uniqueName(table.getName()));
 
         // Add the data table to the current project
-        if (!this.datatables.containsKey(table.getName())) this.datatables.put(table.getName(), table);
+        this.datatables.put(table.getName(), table);
+        this.fire(Change.TABLES);
 
         // And note that the project has been modified
         this.modify();
     }
 
+    /**
+     * A function used to find a name for a table which no other table has,
+     * numbering the name if it is already taken.
+     * 
+     * @param name The name of the table
+     * 
+     * @return The unique name
+     */
+    private String uniqueName(String name)
+    {
+        String unique = name;
+        for (int i = 2; this.datatables.containsKey(unique); i++) unique = name + " " + i;
+        return unique;
+    }
+
+    /**
+     * A function used to remove a data table from the project, releasing
+     * the storage held by its columns.
+     * 
+     * @param table The table to remove
+     */
+    public void removeTable(Datatable table)
+    {
+        // Remove the data table from the current project
+        if (!this.datatables.values().remove(table)) return;
+        this.fire(Change.TABLES);
+
+        // Release the storage of its columns
+        table.release();
+
+        // And note that the project has been modified
+        this.modify();
+    }
+
+    /**
+     * A function used to rename a data table, filing it under its new name.
+     * Tables are filed by name, so a table cannot take the name of another
+     * table.
+     * 
+     * @param table The table to rename
+     * @param name The new name of the table
+     * 
+     * @return Whether the table was renamed
+     */
+    public boolean renameTable(Datatable table, String name)
+    {
+        // Check that no other table has the name, telling the listeners so
+        // that anything showing the new name shows the old one again
+        Datatable other = this.datatables.get(name);
+        if (other != null && other != table)
+        {
+            this.fire(Change.TABLES);
+            return false;
+        }
+
+        // Rename the table
+        this.datatables.values().remove(table);
+        table.setName(name);
+        this.datatables.put(table.getName(), table);
+
+        // Tell the listeners
+        this.fire(Change.TABLES);
+
+        // And note that the project has been modified
+        this.modify();
+        return true;
+    }
+
+    /**
+     * A function used to add a listener which is told about changes to the
+     * project, such as tables being added or the project being saved.
+     * 
+     * @param listener The listener to add
+     */
+    public void addListener(ChangeListener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * A function used to remove a listener from the project.
+     * 
+     * @param listener The listener to remove
+     */
+    public void removeListener(ChangeListener listener)
+    {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * A function used to tell the listeners about a change to the project.
+     * 
+     * @param change The kind of change
+     */
+    void fire(Change change)
+    {
+        for (ChangeListener listener : this.listeners) listener.changed(this, change);
+    }
+
     /**
      * A function used to load contents and headers from a project file into a
      * datatable. This first checks whether a table with the uuid exists and
@@ -163,30 +636,70 @@ public class Project
      * @param data The data of the table
      */
     public void loadTable(String uuid, String headers, String data) throws IOException
+    {
+        // Find the table with the uuid
+        Datatable table = this.findTable(uuid);
+
+        // Load the headers and contents
+        if (!headers.isEmpty()) this.loadHeaders(table, headers);
+        if (!data.isEmpty())    table.importData(data);
+    }
+
+    /**
+     * A function used to load a binary column from a project file into a
+     * datatable. This first checks whether a table with the uuid exists and
+     * creates one if necessary, then loads the column.
+     * 
+     * @param uuid The uuid of the table
+     * @param index The index of the column
+     * @param input The stream holding the column
+     */
+    public void loadColumn(String uuid, int index, InputStream input) throws IOException
+    {
+        this.findTable(uuid).importColumn(index, input);
+    }
+
+    /**
+     * A function used to find the table with a uuid while loading a project.
+     * Tables which don't exist yet are created, and are filed under their
+     * uuid until their headers are loaded.
+     * 
+     * @param uuid The uuid of the table
+     * 
+     * @return The table
+     */
+    private Datatable findTable(String uuid) throws IOException
     {
         // Check if the datatables list has a table with the uuid
         for (Datatable table : this.datatables.values())
         {
-            // If we have a match, import the headers
-            if (table.getUUID().toString().equals(uuid))
-            {
-                if (!headers.isEmpty()) table.importHeaders(headers, Datatable.INPUT_JSON);
-                if (!data.isEmpty())    table.importData(data);
-                return;
-            }
+            if (table.getUUID().toString().equals(uuid)) return table;
         }
 
         // If there is no match, create the table
-        Datatable table = new Datatable();
-
-        // Set the properties
+        Datatable table = this.createTable();
         table.setUUID(uuid);
 
-        // Load the headers and contents
-        if (!headers.isEmpty())  table.importHeaders(headers, Datatable.INPUT_JSON);
-        if (!data.isEmpty())     table.importData(data);
-
         // And add the table
-        if (!this.datatables.containsKey(table.getName())) this.datatables.put(table.getName(), table);
+        this.datatables.put(uuid, table);
+        return table;
+    }
+
+    /**
+     * A function used to load the headers of a table, and file the table
+     * under its name.
+     * 
+     * @param table The table to load the headers into
+     * @param headers The headers of the table
+     */
+    private void loadHeaders(Datatable table, String headers) throws IOException
+    {
+        // Load the headers, noting that the table matches the file
+        table.importHeaders(headers, Datatable.INPUT_JSON);
+        table.markSaved();
+
+        // And file the table under its name
+        this.datatables.values().remove(table);
+        this.datatables.putIfAbsent(table.getName(), table);
     }
 }
@@ -0,0 +1,185 @@
+package com.stata.project.columns;
+
+import com.stata.project.Datatype;
+
+import java.util.BitSet;
+
+/**
+ * The boolean column class. This stores boolean values as a bitmap.
+ *
+ * @author Dan Jenkins
+ */
+public class BooleanColumn extends Column
+{
+    /** The bitmap holding the values of the column. */
+    private final BitSet values;
+
+    /**
+     * The default constructor. This creates a new empty boolean column.
+     */
+    public BooleanColumn()
+    {
+        this(Storage.HEAP);
+    }
+
+    /**
+     * The storage constructor. This creates a new empty boolean column. The
+     * values take a single bit per row, so they are always kept on the heap.
+     *
+     * @param storage The storage of the table holding the column
+     */
+    public BooleanColumn(Storage storage)
+    {
+        // Create the column
+        super(storage);
+
+        // And create the bitmap
+        this.values = new BitSet();
+    }
+
+    /**
+     * The snapshot constructor. This creates a column holding the rows of
+     * another column as they stand.
+     *
+     * @param original The column to take a snapshot of
+     */
+    private BooleanColumn(BooleanColumn original)
+    {
+        // Copy the column
+        super(original);
+
+        // And copy the bitmap
+        this.values = (BitSet) original.values.clone();
+    }
+
+    /**
+     * A simple function which returns the datatype stored in this column.
+     *
+     * @return The datatype of the column
+     */
+    @Override
+    public Datatype getType()
+    {
+        return Datatype.BOOLEAN;
+    }
+
+    /**
+     * A simple function which returns the value of a row.
+     *
+     * @param row The row to fetch
+     *
+     * @return The value of the row
+     */
+    public boolean getBoolean(int row)
+    {
+        return this.values.get(row);
+    }
+
+    /**
+     * A simple function which returns the bitmap of values in the column.
+     *
+     * @return The bitmap of values
+     */
+    public BitSet getValues()
+    {
+        return this.values;
+    }
+
+    /**
+     * A function used to append a value to the column.
+     *
+     * @param value The value to append
+     */
+    public void append(boolean value)
+    {
+        // Store the value
+        this.values.set(this.size, value);
+
+        // And note that we've added a row
+        this.size++;
+    }
+
+    /**
+     * A function used to take a snapshot of the column as it stands.
+     *
+     * @return The snapshot of the column
+     */
+    @Override
+    public Column snapshot()
+    {
+        return new BooleanColumn(this);
+    }
+
+    /**
+     * A function used to append every row of another column to the end of
+     * this column. Columns of the same type are copied value by value.
+     *
+     * @param other The column to append
+     */
+    @Override
+    public void appendAll(Column other)
+    {
+        // Check whether the columns share a type, and whether this column
+        // keeps the text of its values, which is only appended with the text
+        if (!(other instanceof BooleanColumn) || this.keepsText())
+        {
+            super.appendAll(other);
+            return;
+        }
+
+        // And copy each of the rows
+        BooleanColumn column = (BooleanColumn) other;
+        for (int r = 0; r < column.size; r++)
+        {
+            if (column.missing.get(r)) this.appendMissing();
+            else                       this.append(column.getBoolean(r));
+        }
+    }
+
+    /**
+     * A function used to parse a non-empty value and append it to the column.
+     *
+     * @param value The value to append
+     */
+    @Override
+    protected void appendValue(String value)
+    {
+        this.append(BooleanColumn.parse(value));
+    }
+
+    /**
+     * A function used to append the default placeholder value for a missing
+     * row to the column.
+     */
+    @Override
+    protected void appendDefault()
+    {
+        this.append(false);
+    }
+
+    /**
+     * A function used to format a present value as a string.
+     *
+     * @param row The row to format
+     *
+     * @return The formatted value
+     */
+    @Override
+    protected String format(int row)
+    {
+        return Boolean.toString(this.getBoolean(row));
+    }
+
+    /**
+     * A function used to parse a boolean. This accepts the values accepted by
+     * the boolean datatype, such as t, true, f and false.
+     *
+     * @param value The value to parse
+     *
+     * @return The parsed boolean
+     */
+    public static boolean parse(String value)
+    {
+        return Character.toLowerCase(value.charAt(0)) == 't';
+    }
+}
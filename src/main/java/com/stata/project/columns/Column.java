@@ -0,0 +1,388 @@
+package com.stata.project.columns;
+
+import com.stata.project.Datatype;
+
+import java.util.BitSet;
+
+/**
+ * The column class. This represents a single typed column of a data table.
+ * Values are stored in primitive segments of a fixed maximum size, with a
+ * bitmap recording which rows are missing a value. Rows are only ever
+ * appended, so a row never changes once it has been appended.
+ *
+ * @author Dan Jenkins
+ */
+public abstract class Column
+{
+    /** The number of bits used to address a row within a segment. */
+    public static final int SEGMENT_SHIFT = 16;
+
+    /** The maximum number of rows stored in a single segment. */
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    /** The mask used to find the position of a row within its segment. */
+    public static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** The initial capacity of a new segment. */
+    protected static final int INITIAL_CAPACITY = 16;
+
+    /** The number of rows stored in this column. */
+    protected int size;
+
+    /** The rows in this column which are missing a value. */
+    protected final BitSet missing;
+
+    /** The storage in which the segments of the column live. */
+    protected final Storage storage;
+
+    /** The original text of each row, kept only for columns which are exported verbatim. */
+    private StringColumn texts;
+
+    /**
+     * The default constructor. This creates a new empty column.
+     *
+     * @param storage The storage in which the segments live
+     */
+    protected Column(Storage storage)
+    {
+        // Store the storage
+        this.storage = storage;
+
+        // Create the missing value bitmap
+        this.missing = new BitSet();
+
+        // And note that we have no rows
+        this.size = 0;
+    }
+
+    /**
+     * The snapshot constructor. This creates a column holding the rows of
+     * another column as they stand, which more rows may be appended to
+     * without changing the snapshot. It must be called on the thread which
+     * appends to the other column.
+     *
+     * @param original The column to take a snapshot of
+     */
+    protected Column(Column original)
+    {
+        // Store the storage
+        this.storage = original.storage;
+
+        // Copy the missing value bitmap
+        this.missing = (BitSet) original.missing.clone();
+
+        // And note the rows of the snapshot, along with their text
+        this.size = original.size;
+        this.texts = original.texts == null ? null : (StringColumn) original.texts.snapshot();
+    }
+
+    /**
+     * A function used to create a new empty column which stores values of a
+     * specific datatype on the heap.
+     *
+     * @param type The datatype of the column
+     *
+     * @return The new column
+     */
+    public static Column create(Datatype type)
+    {
+        return Column.create(type, Storage.HEAP);
+    }
+
+    /**
+     * A function used to create a new empty column which stores values of a
+     * specific datatype.
+     *
+     * @param type The datatype of the column
+     * @param storage The storage in which the segments live
+     *
+     * @return The new column
+     */
+    public static Column create(Datatype type, Storage storage)
+    {
+        // Create the column matching the type
+        switch (type)
+        {
+            case INTEGER:
+                return new IntegerColumn(storage);
+
+            case NUMBER:
+                return new NumberColumn(storage);
+
+            case BOOLEAN:
+                return new BooleanColumn(storage);
+
+            default:
+                return new StringColumn(storage);
+        }
+    }
+
+    /**
+     * A simple function which returns the storage in which the segments of
+     * the column live.
+     *
+     * @return The storage of the column
+     */
+    public Storage getStorage()
+    {
+        return this.storage;
+    }
+
+    /**
+     * A simple function which returns the datatype stored in this column.
+     *
+     * @return The datatype of the column
+     */
+    public abstract Datatype getType();
+
+    /**
+     * A simple function which returns the number of rows in the column.
+     *
+     * @return The number of rows
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * A simple function which returns the version of the column. Rows are
+     * only ever appended, never edited in place, so the version is the
+     * number of rows. Anything which changes existing values, such as a
+     * conversion or a replace, creates a new column instead, so caches keyed
+     * by a column must check both the column and its version.
+     *
+     * @return The version of the column
+     */
+    public long getVersion()
+    {
+        return this.size;
+    }
+
+    /**
+     * A simple function which returns whether a row is missing a value.
+     *
+     * @param row The row to check
+     *
+     * @return Whether the row is missing
+     */
+    public boolean isMissing(int row)
+    {
+        return this.missing.get(row);
+    }
+
+    /**
+     * A simple function which returns the first missing row at or after a
+     * row, so that runs of present values can be scanned without checking
+     * each row.
+     *
+     * @param row The row from which to search
+     *
+     * @return The next missing row, or the size of the column if there is none
+     */
+    public int nextMissing(int row)
+    {
+        int next = this.missing.nextSetBit(row);
+        return next < 0 || next > this.size ? this.size : next;
+    }
+
+    /**
+     * A simple function which returns the number of missing values in the
+     * column.
+     *
+     * @return The number of missing values
+     */
+    public int getMissingCount()
+    {
+        return this.missing.cardinality();
+    }
+
+    /**
+     * A function used to append a value to the column. Empty values are
+     * stored as missing, and all other values are parsed into the type of the
+     * column.
+     *
+     * @param value The value to append
+     */
+    public void append(String value)
+    {
+        // Check whether the value is missing
+        if (value == null || value.isEmpty()) this.appendMissing();
+        else                                  this.appendValue(value);
+
+        // And keep the original text of the value if necessary
+        if (this.texts != null) this.keepText(value);
+    }
+
+    /**
+     * A function used to append a missing value to the column.
+     */
+    public void appendMissing()
+    {
+        // Note that the row is missing
+        this.missing.set(this.size);
+
+        // And store a placeholder for the row
+        this.appendDefault();
+    }
+
+    /**
+     * A function used to return the string representation of a row. Missing
+     * rows are represented by an empty string.
+     *
+     * @param row The row to fetch
+     *
+     * @return The value of the row as a string
+     */
+    public String get(int row)
+    {
+        return this.missing.get(row) ? "" : this.format(row);
+    }
+
+    /**
+     * A function used to return the original text of a row, which is the
+     * text that the value was appended as if the column keeps its text, and
+     * the string representation of the row otherwise.
+     *
+     * @param row The row to fetch
+     *
+     * @return The original text of the row
+     */
+    public String getText(int row)
+    {
+        return this.texts != null && row < this.texts.size() ? this.texts.get(row) : this.get(row);
+    }
+
+    /**
+     * A function used to make the column keep the original text of the values
+     * appended to it, such as 1.50 rather than 1.5, so that they can be
+     * exported verbatim. The text is held in a text column alongside the
+     * values, so this is only done when it is asked for. Text columns already
+     * hold their original text.
+     */
+    public void keepText()
+    {
+        if (this.texts == null && !(this instanceof StringColumn)) this.texts = new StringColumn(this.storage);
+    }
+
+    /**
+     * A simple function which returns whether the column keeps the original
+     * text of its values.
+     *
+     * @return Whether the column keeps its text
+     */
+    public boolean keepsText()
+    {
+        return this.texts != null;
+    }
+
+    /**
+     * A function used to keep the original text of the last row appended,
+     * first filling in the formatted text of any rows appended without text.
+     *
+     * @param text The original text of the row
+     */
+    private void keepText(String text)
+    {
+        while (this.texts.size() < this.size - 1) this.texts.append(this.get(this.texts.size()));
+        this.texts.append(text);
+    }
+
+    /**
+     * A function used to convert this column into a column of another type.
+     * Each value is parsed again from its original text into the new column,
+     * which uses the same storage as this one, and which keeps the text of its
+     * values if this column does.
+     *
+     * @param type The datatype to convert into
+     *
+     * @return The converted column
+     */
+    public Column convert(Datatype type)
+    {
+        return this.convert(type, this.texts != null);
+    }
+
+    /**
+     * A function used to convert this column into a column of another type as
+     * above, choosing whether the new column keeps the text of its values.
+     *
+     * @param type The datatype to convert into
+     * @param text Whether the new column keeps the text of its values
+     *
+     * @return The converted column
+     */
+    public Column convert(Datatype type, boolean text)
+    {
+        // Create the new column, keeping the text if necessary
+        Column column = Column.create(type, this.storage);
+        if (text) column.keepText();
+
+        // Copy each of the rows
+        for (int r = 0; r < this.size; r++)
+        {
+            column.append(this.getText(r));
+        }
+
+        // And return the column
+        return column;
+    }
+
+    /**
+     * A function used to release the storage held by the column once it is
+     * no longer used, such as after it has been converted.
+     */
+    public void release()
+    {
+        if (this.texts != null) this.texts.release();
+    }
+
+    /**
+     * A function used to take a snapshot of the column as it stands, such as
+     * to hand to another thread while more rows are appended to this column.
+     * The snapshot shares the full segments of the column, which never change,
+     * and copies everything which changes as rows are appended, so neither
+     * column sees the rows appended to the other. Only one of the two may be
+     * released, as they share their storage.
+     *
+     * @return The snapshot of the column
+     */
+    public abstract Column snapshot();
+
+    /**
+     * A function used to append every row of another column to the end of
+     * this column. Each value is parsed again from its original text into
+     * this column.
+     *
+     * @param other The column to append
+     */
+    public void appendAll(Column other)
+    {
+        for (int r = 0; r < other.size; r++)
+        {
+            this.append(other.getText(r));
+        }
+    }
+
+    /**
+     * A function used to parse a non-empty value and append it to the column.
+     *
+     * @param value The value to append
+     */
+    protected abstract void appendValue(String value);
+
+    /**
+     * A function used to append the default placeholder value for a missing
+     * row to the column.
+     */
+    protected abstract void appendDefault();
+
+    /**
+     * A function used to format a present value as a string.
+     *
+     * @param row The row to format
+     *
+     * @return The formatted value
+     */
+    protected abstract String format(int row);
+}
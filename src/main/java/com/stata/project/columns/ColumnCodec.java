@@ -0,0 +1,310 @@
+package com.stata.project.columns;
+
+import com.stata.project.Datatype;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The column codec class. This static class writes columns to and reads them
+ * from a versioned binary format. All values are little-endian:
+ *
+ * Column
+ *   - Magic number (int)
+ *   - Format version (int)
+ *   - Datatype tag (byte)
+ *   - Number of rows (int)
+ *   - Missing value bitmap (int word count, then long words)
+ *   - Values, depending on the datatype:
+ *       Integer: one long per row
+ *       Number:  one double per row
+ *       Boolean: a bitmap (int word count, then long words)
+ *       Text:    a dictionary (int count, then each value as an int byte
+ *                length and UTF-8 bytes), then one int code per row
+ *
+ * Values are copied one segment at a time, so reading a column never parses
+ * any text other than its dictionary.
+ *
+ * @author Dan Jenkins
+ */
+public class ColumnCodec
+{
+    /** The magic number at the start of each column. */
+    private static final int MAGIC = 0x4C435453;
+
+    /** The current version of the format. */
+    public static final int VERSION = 1;
+
+    /** The size of the block used to copy values. */
+    private static final int BLOCK_SIZE = Column.SEGMENT_SIZE * Long.BYTES;
+
+    /**
+     * The write function. This writes a column to a stream.
+     *
+     * @param column The column to write
+     * @param output The stream to write to
+     *
+     * @throws IOException If something goes wrong
+     */
+    public static void write(Column column, OutputStream output) throws IOException
+    {
+        // Create the block for copying values
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Write the header
+        block.putInt(MAGIC);
+        block.putInt(VERSION);
+        block.put((byte) column.getType().ordinal());
+        block.putInt(column.size);
+        ColumnCodec.writeBitmap(column.missing, block, output);
+
+        // And write the values
+        if (column instanceof IntegerColumn)
+        {
+            IntegerColumn integers = (IntegerColumn) column;
+            for (int s = 0; s < integers.getSegmentCount(); s++)
+            {
+                int length = ColumnCodec.getSegmentLength(column, s);
+                ColumnCodec.flush(block, output);
+                block.asLongBuffer().put(integers.getSegment(s), 0, length);
+                block.position(length * Long.BYTES);
+            }
+        }
+        else if (column instanceof NumberColumn)
+        {
+            NumberColumn numbers = (NumberColumn) column;
+            for (int s = 0; s < numbers.getSegmentCount(); s++)
+            {
+                int length = ColumnCodec.getSegmentLength(column, s);
+                ColumnCodec.flush(block, output);
+                block.asDoubleBuffer().put(numbers.getSegment(s), 0, length);
+                block.position(length * Double.BYTES);
+            }
+        }
+        else if (column instanceof BooleanColumn)
+        {
+            ColumnCodec.writeBitmap(((BooleanColumn) column).getValues(), block, output);
+        }
+        else if (column instanceof StringColumn)
+        {
+            // Write the dictionary
+            StringColumn strings = (StringColumn) column;
+            List<String> dictionary = strings.getDictionary();
+            ColumnCodec.ensure(block, output, Integer.BYTES);
+            block.putInt(dictionary.size());
+            for (String value : dictionary)
+            {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                ColumnCodec.ensure(block, output, Integer.BYTES);
+                block.putInt(bytes.length);
+                ColumnCodec.flush(block, output);
+                output.write(bytes);
+            }
+
+            // And write the codes
+            for (int s = 0; s < strings.getSegmentCount(); s++)
+            {
+                int length = ColumnCodec.getSegmentLength(column, s);
+                ColumnCodec.flush(block, output);
+                block.asIntBuffer().put(strings.getSegment(s), 0, length);
+                block.position(length * Integer.BYTES);
+            }
+        }
+
+        // Finally, flush the remaining bytes
+        ColumnCodec.flush(block, output);
+    }
+
+    /**
+     * The read function. This reads a column from a stream.
+     *
+     * @param input The stream to read from
+     * @param storage The storage in which the segments of the column live
+     *
+     * @return The column
+     *
+     * @throws IOException If the stream does not hold a supported column
+     */
+    public static Column read(InputStream input, Storage storage) throws IOException
+    {
+        // Create the block for copying values
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Read the header
+        ColumnCodec.fill(block, input, 2 * Integer.BYTES + 1 + Integer.BYTES);
+        if (block.getInt() != MAGIC) throw new IOException("Not a column");
+        int version = block.getInt();
+        if (version != VERSION) throw new IOException("Unsupported column format version " + version);
+        int tag = block.get();
+        int rows = block.getInt();
+        if (tag < 0 || tag >= Datatype.values().length) throw new IOException("Unknown column datatype " + tag);
+
+        // Create the column
+        Column column = Column.create(Datatype.values()[tag], storage);
+        BitSet missing = ColumnCodec.readBitmap(block, input);
+
+        // And read the values
+        if (column instanceof IntegerColumn)
+        {
+            long[] values = new long[Column.SEGMENT_SIZE];
+            for (int r = 0; r < rows; r += Column.SEGMENT_SIZE)
+            {
+                int length = Math.min(Column.SEGMENT_SIZE, rows - r);
+                ColumnCodec.fill(block, input, length * Long.BYTES);
+                block.asLongBuffer().get(values, 0, length);
+                ((IntegerColumn) column).appendBlock(values, length);
+            }
+        }
+        else if (column instanceof NumberColumn)
+        {
+            double[] values = new double[Column.SEGMENT_SIZE];
+            for (int r = 0; r < rows; r += Column.SEGMENT_SIZE)
+            {
+                int length = Math.min(Column.SEGMENT_SIZE, rows - r);
+                ColumnCodec.fill(block, input, length * Double.BYTES);
+                block.asDoubleBuffer().get(values, 0, length);
+                ((NumberColumn) column).appendBlock(values, length);
+            }
+        }
+        else if (column instanceof BooleanColumn)
+        {
+            ((BooleanColumn) column).getValues().or(ColumnCodec.readBitmap(block, input));
+            column.size = rows;
+        }
+        else if (column instanceof StringColumn)
+        {
+            // Read the dictionary
+            StringColumn strings = (StringColumn) column;
+            ColumnCodec.fill(block, input, Integer.BYTES);
+            int count = block.getInt();
+            for (int i = 0; i < count; i++)
+            {
+                ColumnCodec.fill(block, input, Integer.BYTES);
+                byte[] bytes = input.readNBytes(block.getInt());
+                strings.encode(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            // And read the codes
+            int[] values = new int[Column.SEGMENT_SIZE];
+            for (int r = 0; r < rows; r += Column.SEGMENT_SIZE)
+            {
+                int length = Math.min(Column.SEGMENT_SIZE, rows - r);
+                ColumnCodec.fill(block, input, length * Integer.BYTES);
+                block.asIntBuffer().get(values, 0, length);
+                strings.appendBlock(values, length);
+            }
+        }
+
+        // Finally, mark the missing rows
+        column.missing.or(missing);
+        return column;
+    }
+
+    /**
+     * A function used to find the number of rows in use in a segment.
+     *
+     * @param column The column holding the segment
+     * @param segment The index of the segment
+     *
+     * @return The number of rows in the segment
+     */
+    private static int getSegmentLength(Column column, int segment)
+    {
+        return Math.min(Column.SEGMENT_SIZE, column.size - segment * Column.SEGMENT_SIZE);
+    }
+
+    /**
+     * A function used to write a bitmap to a stream.
+     *
+     * @param bitmap The bitmap to write
+     * @param block The block holding bytes still to be written
+     * @param output The stream to write to
+     *
+     * @throws IOException If something goes wrong
+     */
+    private static void writeBitmap(BitSet bitmap, ByteBuffer block, OutputStream output) throws IOException
+    {
+        long[] words = bitmap.toLongArray();
+        ColumnCodec.ensure(block, output, Integer.BYTES);
+        block.putInt(words.length);
+        for (long word : words)
+        {
+            ColumnCodec.ensure(block, output, Long.BYTES);
+            block.putLong(word);
+        }
+    }
+
+    /**
+     * A function used to read a bitmap from a stream.
+     *
+     * @param block The block used to read bytes
+     * @param input The stream to read from
+     *
+     * @return The bitmap
+     *
+     * @throws IOException If something goes wrong
+     */
+    private static BitSet readBitmap(ByteBuffer block, InputStream input) throws IOException
+    {
+        ColumnCodec.fill(block, input, Integer.BYTES);
+        long[] words = new long[block.getInt()];
+        for (int w = 0; w < words.length; w += Column.SEGMENT_SIZE)
+        {
+            int length = Math.min(Column.SEGMENT_SIZE, words.length - w);
+            ColumnCodec.fill(block, input, length * Long.BYTES);
+            block.asLongBuffer().get(words, w, length);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * A function used to make room in the block for a number of bytes.
+     *
+     * @param block The block holding bytes still to be written
+     * @param output The stream to write to
+     * @param bytes The number of bytes needed
+     *
+     * @throws IOException If something goes wrong
+     */
+    private static void ensure(ByteBuffer block, OutputStream output, int bytes) throws IOException
+    {
+        if (block.remaining() < bytes) ColumnCodec.flush(block, output);
+    }
+
+    /**
+     * A function used to write the bytes in the block to a stream.
+     *
+     * @param block The block holding bytes still to be written
+     * @param output The stream to write to
+     *
+     * @throws IOException If something goes wrong
+     */
+    private static void flush(ByteBuffer block, OutputStream output) throws IOException
+    {
+        output.write(block.array(), 0, block.position());
+        block.clear();
+    }
+
+    /**
+     * A function used to read a number of bytes from a stream into the block.
+     *
+     * @param block The block to read into
+     * @param input The stream to read from
+     * @param bytes The number of bytes to read
+     *
+     * @throws IOException If the stream ends early
+     */
+    private static void fill(ByteBuffer block, InputStream input, int bytes) throws IOException
+    {
+        block.clear();
+        if (input.readNBytes(block.array(), 0, bytes) != bytes) throw new EOFException("Column is truncated");
+        block.limit(bytes);
+    }
+}
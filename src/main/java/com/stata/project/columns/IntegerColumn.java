@@ -0,0 +1,302 @@
+package com.stata.project.columns;
+
+import com.stata.project.Datatype;
+
+import java.util.Arrays;
+
+/**
+ * The integer column class. This stores whole numbers as primitive longs.
+ *
+ * @author Dan Jenkins
+ */
+public class IntegerColumn extends Column
+{
+    /** The segments holding the values of the column. */
+    private final Segments<long[]> segments;
+
+    /**
+     * The default constructor. This creates a new empty integer column on the
+     * heap.
+     */
+    public IntegerColumn()
+    {
+        this(Storage.HEAP);
+    }
+
+    /**
+     * The storage constructor. This creates a new empty integer column whose
+     * segments live in a specific storage.
+     *
+     * @param storage The storage in which the segments live
+     */
+    public IntegerColumn(Storage storage)
+    {
+        // Create the column
+        super(storage);
+
+        // And create the list of segments
+        this.segments = storage.create(SegmentCodec.LONGS);
+    }
+
+    /**
+     * The snapshot constructor. This creates a column holding the rows of
+     * another column as they stand.
+     *
+     * @param original The column to take a snapshot of
+     */
+    private IntegerColumn(IntegerColumn original)
+    {
+        // Copy the column
+        super(original);
+
+        // And share the full segments
+        this.segments = original.segments.snapshot(long[]::clone);
+    }
+
+    /**
+     * A simple function which returns the datatype stored in this column.
+     *
+     * @return The datatype of the column
+     */
+    @Override
+    public Datatype getType()
+    {
+        return Datatype.INTEGER;
+    }
+
+    /**
+     * A simple function which returns the value of a row.
+     *
+     * @param row The row to fetch
+     *
+     * @return The value of the row
+     */
+    public long getLong(int row)
+    {
+        return this.segments.get(row >>> SEGMENT_SHIFT)[row & SEGMENT_MASK];
+    }
+
+    /**
+     * A simple function which returns the number of segments in the column.
+     *
+     * @return The number of segments
+     */
+    public int getSegmentCount()
+    {
+        return this.segments.size();
+    }
+
+    /**
+     * A simple function which returns a segment of the column. Only the first
+     * rows of the final segment are in use.
+     *
+     * @param index The index of the segment
+     *
+     * @return The segment values
+     */
+    public long[] getSegment(int index)
+    {
+        return this.segments.get(index);
+    }
+
+    /**
+     * A function used to append a value to the column.
+     *
+     * @param value The value to append
+     */
+    public void append(long value)
+    {
+        // Find the position of the new row
+        int segment = this.size >>> SEGMENT_SHIFT;
+        int offset = this.size & SEGMENT_MASK;
+
+        // Create a new segment if necessary
+        if (segment == this.segments.size())
+        {
+            this.segments.add(new long[INITIAL_CAPACITY]);
+        }
+
+        // Grow the segment if necessary
+        long[] values = this.segments.get(segment);
+        if (offset == values.length)
+        {
+            values = Arrays.copyOf(values, Math.min(values.length * 2, SEGMENT_SIZE));
+            this.segments.set(segment, values);
+        }
+
+        // And store the value
+        values[offset] = value;
+        this.size++;
+    }
+
+    /**
+     * A function used to append a block of values to the column, copying
+     * them into the segments in bulk.
+     *
+     * @param values The values to append
+     * @param length The number of values to append
+     */
+    void appendBlock(long[] values, int length)
+    {
+        // Copy the values one segment at a time
+        for (int copied = 0; copied < length;)
+        {
+            // Find the position of the next row
+            int segment = this.size >>> SEGMENT_SHIFT;
+            int offset = this.size & SEGMENT_MASK;
+            int count = Math.min(length - copied, SEGMENT_SIZE - offset);
+
+            // Create or grow the segment to fit the values
+            long[] target = segment == this.segments.size() ? new long[0] : this.segments.get(segment);
+            if (target.length < offset + count)
+            {
+                target = Arrays.copyOf(target, Math.min(SEGMENT_SIZE, Math.max(offset + count, target.length * 2)));
+            }
+
+            // Copy the values
+            System.arraycopy(values, copied, target, offset, count);
+            if (segment == this.segments.size()) this.segments.add(target);
+            else                                 this.segments.set(segment, target);
+
+            // And note the rows that we've added
+            this.size += count;
+            copied += count;
+        }
+    }
+
+    /**
+     * A function used to release the storage held by the column once it is
+     * no longer used.
+     */
+    @Override
+    public void release()
+    {
+        super.release();
+        this.segments.release();
+    }
+
+    /**
+     * A function used to take a snapshot of the column as it stands.
+     *
+     * @return The snapshot of the column
+     */
+    @Override
+    public Column snapshot()
+    {
+        return new IntegerColumn(this);
+    }
+
+    /**
+     * A function used to append every row of another column to the end of
+     * this column. Columns of the same type are copied value by value.
+     *
+     * @param other The column to append
+     */
+    @Override
+    public void appendAll(Column other)
+    {
+        // Check whether the columns share a type, and whether this column
+        // keeps the text of its values, which is only appended with the text
+        if (!(other instanceof IntegerColumn) || this.keepsText())
+        {
+            super.appendAll(other);
+            return;
+        }
+
+        // And copy each of the rows
+        IntegerColumn column = (IntegerColumn) other;
+        for (int r = 0; r < column.size; r++)
+        {
+            if (column.missing.get(r)) this.appendMissing();
+            else                       this.append(column.getLong(r));
+        }
+    }
+
+    /**
+     * A function used to parse a non-empty value and append it to the column.
+     *
+     * @param value The value to append
+     */
+    @Override
+    protected void appendValue(String value)
+    {
+        this.append(IntegerColumn.parse(value));
+    }
+
+    /**
+     * A function used to append the default placeholder value for a missing
+     * row to the column.
+     */
+    @Override
+    protected void appendDefault()
+    {
+        this.append(0L);
+    }
+
+    /**
+     * A function used to format a present value as a string.
+     *
+     * @param row The row to format
+     *
+     * @return The formatted value
+     */
+    @Override
+    protected String format(int row)
+    {
+        return IntegerColumn.format(this.getLong(row));
+    }
+
+    /**
+     * A function used to convert this column into a column of another type.
+     * Integers are widened into numbers directly rather than being formatted
+     * and parsed again, unless the text of the values is kept.
+     *
+     * @param type The datatype to convert into
+     * @param text Whether the new column keeps the text of its values
+     *
+     * @return The converted column
+     */
+    @Override
+    public Column convert(Datatype type, boolean text)
+    {
+        // Check whether we are widening into numbers
+        if (type != Datatype.NUMBER || text || this.keepsText()) return super.convert(type, text);
+
+        // Create the new column
+        NumberColumn column = new NumberColumn(this.storage);
+
+        // Copy each of the rows
+        for (int r = 0; r < this.size; r++)
+        {
+            if (this.missing.get(r)) column.appendMissing();
+            else                     column.append((double) this.getLong(r));
+        }
+
+        // And return the column
+        return column;
+    }
+
+    /**
+     * A function used to parse a whole number.
+     *
+     * @param value The value to parse
+     *
+     * @return The parsed number
+     */
+    public static long parse(String value)
+    {
+        return Long.parseLong(value);
+    }
+
+    /**
+     * A function used to format a whole number.
+     *
+     * @param value The value to format
+     *
+     * @return The formatted number
+     */
+    public static String format(long value)
+    {
+        return Long.toString(value);
+    }
+}
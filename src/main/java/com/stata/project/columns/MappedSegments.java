@@ -0,0 +1,168 @@
+package com.stata.project.columns;
+
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * The mapped segments class. This stores the segments of a column in regions
+ * of the file of a mapped storage. The final segment stays on the heap while
+ * it is being filled, and each full segment is written to a region of the
+ * file as soon as the next one is added. Each region is mapped once, and full
+ * segments are paged back in from their mapping on demand, through the cache
+ * shared by every storage.
+ *
+ * @param <T> The primitive array type of each segment
+ *
+ * @author Dan Jenkins
+ */
+public class MappedSegments<T> extends Segments<T>
+{
+    /** The storage holding the file of the segments. */
+    private final MappedStorage storage;
+
+    /** The codec used to write the segments. */
+    private final SegmentCodec<T> codec;
+
+    /** The number of bytes used by each segment in the file. */
+    private final long width;
+
+    /** The offset of the region of each full segment in the file. */
+    private final List<Long> offsets;
+
+    /** The mapping of the region of each full segment. */
+    private final List<MappedByteBuffer> mappings;
+
+    /**
+     * The default constructor. This creates a new store in a storage.
+     *
+     * @param storage The storage holding the file of the segments
+     * @param codec The codec used to write the segments
+     */
+    public MappedSegments(MappedStorage storage, SegmentCodec<T> codec)
+    {
+        // Create the store
+        super();
+
+        // Store the storage details
+        this.storage = storage;
+        this.codec = codec;
+        this.width = (long) Column.SEGMENT_SIZE * codec.getWidth();
+
+        // And create the lists of regions and their mappings
+        this.offsets = new ArrayList<>();
+        this.mappings = new ArrayList<>();
+    }
+
+    /**
+     * A function used to fetch a segment from the store, paging it in from
+     * the file if it is not on the heap.
+     *
+     * @param index The index of the segment
+     *
+     * @return The segment
+     */
+    @Override
+    public synchronized T get(int index)
+    {
+        // Check whether the segment is still being filled
+        T segment = this.segments.get(index);
+        if (segment != null) return segment;
+
+        // Check whether the segment has been paged in
+        long offset = this.offsets.get(index);
+        segment = MappedStorage.cached(this.storage, offset);
+        if (segment != null) return segment;
+
+        // Otherwise, page the segment in
+        segment = this.codec.read(this.mappings.get(index), Column.SEGMENT_SIZE);
+        MappedStorage.cache(this.storage, offset, segment, this.width);
+        return segment;
+    }
+
+    /**
+     * A function used to replace a segment in the store, writing it through
+     * to the file if the segment is full.
+     *
+     * @param index The index of the segment
+     * @param segment The new segment
+     */
+    @Override
+    public synchronized void set(int index, T segment)
+    {
+        // Check whether the segment is still being filled
+        if (this.segments.get(index) != null)
+        {
+            this.segments.set(index, segment);
+            return;
+        }
+
+        // Otherwise, write the segment to the file
+        this.codec.write(this.mappings.get(index), segment);
+        MappedStorage.cache(this.storage, this.offsets.get(index), segment, this.width);
+    }
+
+    /**
+     * A function used to add a new segment to the end of the store. The
+     * previous segment is full, so it is written to a region of the file.
+     *
+     * @param segment The segment to add
+     */
+    @Override
+    public synchronized void add(T segment)
+    {
+        // Write the previous segment to the file
+        int last = this.segments.size() - 1;
+        if (last >= 0)
+        {
+            long offset = this.storage.allocate(this.width);
+            MappedByteBuffer mapping = this.storage.map(offset, this.width);
+            this.codec.write(mapping, this.segments.get(last));
+            this.offsets.add(offset);
+            this.mappings.add(mapping);
+            this.segments.set(last, null);
+        }
+
+        // And add the new segment
+        this.segments.add(segment);
+    }
+
+    /**
+     * A function used to take a snapshot of the store, which shares the
+     * regions of the full segments and holds a copy of the final segment.
+     *
+     * @param copy The function which copies a segment
+     *
+     * @return The snapshot of the store
+     */
+    @Override
+    public synchronized Segments<T> snapshot(UnaryOperator<T> copy)
+    {
+        MappedSegments<T> snapshot = new MappedSegments<>(this.storage, this.codec);
+        this.copyInto(snapshot, copy);
+        snapshot.offsets.addAll(this.offsets);
+        snapshot.mappings.addAll(this.mappings);
+        return snapshot;
+    }
+
+    /**
+     * A function used to release the resources held by the store. This frees
+     * the regions of the file holding the segments, so that they can be
+     * reused by other columns.
+     */
+    @Override
+    public synchronized void release()
+    {
+        // Free the regions of the full segments, unless the storage has already gone
+        if (!this.storage.isClosed())
+        {
+            for (long offset : this.offsets) this.storage.free(offset, this.width);
+        }
+
+        // And drop the segments on the heap and their mappings
+        super.release();
+        this.offsets.clear();
+        this.mappings.clear();
+    }
+}
@@ -0,0 +1,457 @@
+package com.stata.project.columns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The mapped storage class. This keeps the full segments of new columns in a
+ * single memory-mapped file inside a scratch directory, so that tables can
+ * grow beyond the size of the heap. Each segment is written to a region of
+ * the file, and the regions of released columns are reused by later ones.
+ * Segments paged back in from the file are kept on the heap in a cache which
+ * is shared by every storage, within a single budget. The directory is
+ * deleted when the storage is closed, or when the application exits if it is
+ * still open.
+ *
+ * @author Dan Jenkins
+ */
+public class MappedStorage extends Storage implements Closeable
+{
+    /** The number of bytes of paged in segments kept on the heap by every storage together. */
+    private static final long CACHE_BUDGET = Runtime.getRuntime().maxMemory() / 8;
+
+    /** The segments paged in from every storage, in order of use. */
+    private static final Map<Page, Paged> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The number of bytes of segments held in the cache. */
+    private static long cached;
+
+    /** The storages which are still open, which are closed when the application exits. */
+    private static final Set<MappedStorage> OPEN = new LinkedHashSet<>();
+
+    /** The single hook which closes the open storages when the application exits, if registered. */
+    private static Thread hook;
+
+    /** The scratch directory holding the segment file. */
+    private final Path directory;
+
+    /** The file holding the segments, once it has been opened. */
+    private FileChannel channel;
+
+    /** The number of bytes of the file allocated to regions. */
+    private long length;
+
+    /** The number of bytes of the file in regions which are still in use. */
+    private long used;
+
+    /** The regions of the file which have been freed, indexed by their width. */
+    private final Map<Long, Deque<Long>> free;
+
+    /** Whether the storage has been closed. */
+    private boolean closed;
+
+    /**
+     * The default constructor. This creates a new storage which writes its
+     * segments into a file inside a scratch directory.
+     *
+     * @param directory The scratch directory
+     */
+    public MappedStorage(Path directory)
+    {
+        // Store the directory
+        this.directory = directory;
+        this.free = new HashMap<>();
+
+        // And close the storage when the application exits, unless it is closed first
+        MappedStorage.register(this);
+    }
+
+    /**
+     * A simple function which returns the scratch directory of the storage.
+     *
+     * @return The scratch directory
+     */
+    public Path getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * A function used to create a new store for the segments of a column.
+     * Every store shares the file of the storage.
+     *
+     * @param <T> The primitive array type of each segment
+     * @param codec The codec used to write the segments
+     *
+     * @return The new store
+     */
+    @Override
+    public <T> Segments<T> create(SegmentCodec<T> codec)
+    {
+        return new MappedSegments<>(this, codec);
+    }
+
+    /**
+     * A simple function which returns the number of bytes of the file held
+     * by the segments of columns which haven't been released.
+     *
+     * @return The number of bytes in use
+     */
+    public synchronized long getUsed()
+    {
+        return this.used;
+    }
+
+    /**
+     * A function used to allocate a region of the file, reusing a freed
+     * region of the same width if there is one.
+     *
+     * @param width The number of bytes in the region
+     *
+     * @return The offset of the region in the file
+     */
+    synchronized long allocate(long width)
+    {
+        // Check whether a region of the same width has been freed
+        this.used += width;
+        Deque<Long> regions = this.free.get(width);
+        if (regions != null && !regions.isEmpty()) return regions.pop();
+
+        // Otherwise, add the region to the end of the file
+        long offset = this.length;
+        this.length += width;
+        return offset;
+    }
+
+    /**
+     * A function used to free a region of the file, so that it can be reused
+     * by later segments, dropping the segment paged in from it.
+     *
+     * @param offset The offset of the region in the file
+     * @param width The number of bytes in the region
+     */
+    synchronized void free(long offset, long width)
+    {
+        MappedStorage.uncache(new Page(this, offset));
+        this.used -= width;
+        this.free.computeIfAbsent(width, key -> new ArrayDeque<>()).push(offset);
+    }
+
+    /**
+     * A function used to map a region of the file, opening the file the first
+     * time that it is used. The mapping uses the native byte order for bulk
+     * copies.
+     *
+     * @param offset The offset of the region in the file
+     * @param width The number of bytes in the region
+     *
+     * @return The mapped region
+     */
+    synchronized MappedByteBuffer map(long offset, long width)
+    {
+        // Check that the storage is still open
+        if (this.closed) throw new IllegalStateException("The storage has been closed");
+
+        try
+        {
+            // Open the file if necessary
+            if (this.channel == null)
+            {
+                Path file = Files.createTempFile(this.directory, "storage", ".segments");
+                this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+
+            // And map the region
+            MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, offset, width);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * A function used to close the storage once none of its columns are used
+     * any more, such as when its project is replaced. This drops its paged in
+     * segments, and deletes its file and scratch directory.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            // Check that the storage hasn't already been closed
+            if (this.closed) return;
+            this.closed = true;
+
+            // Drop the segments paged in from the file
+            MappedStorage.uncache(this);
+
+            try
+            {
+                // Close the file
+                if (this.channel != null) this.channel.close();
+
+                // Delete the files left in the directory
+                if (Files.isDirectory(this.directory))
+                {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory))
+                    {
+                        for (Path file : files) Files.deleteIfExists(file);
+                    }
+                }
+
+                // And delete the directory
+                Files.deleteIfExists(this.directory);
+            }
+            catch (IOException exception)
+            {
+                exception.printStackTrace();
+            }
+        }
+
+        // And note that the storage no longer needs closing when the application exits
+        MappedStorage.unregister(this);
+    }
+
+    /**
+     * A simple function which returns whether the storage has been closed.
+     *
+     * @return Whether the storage is closed
+     */
+    public synchronized boolean isClosed()
+    {
+        return this.closed;
+    }
+
+    /**
+     * A function used to fetch a segment paged in from a region of a storage,
+     * if it is still in the cache.
+     *
+     * @param <T> The primitive array type of the segment
+     * @param storage The storage holding the segment
+     * @param offset The offset of the region in the file
+     *
+     * @return The segment, or null if it is not in the cache
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T cached(MappedStorage storage, long offset)
+    {
+        synchronized (CACHE)
+        {
+            Paged paged = CACHE.get(new Page(storage, offset));
+            return paged == null ? null : (T) paged.segment;
+        }
+    }
+
+    /**
+     * A function used to keep a segment paged in from a region of a storage
+     * in the cache, dropping the least recently used segments of any storage
+     * while the cache is over its budget.
+     *
+     * @param storage The storage holding the segment
+     * @param offset The offset of the region in the file
+     * @param segment The segment
+     * @param bytes The number of bytes held by the segment
+     */
+    static void cache(MappedStorage storage, long offset, Object segment, long bytes)
+    {
+        synchronized (CACHE)
+        {
+            // Add the segment, replacing any older copy
+            Page page = new Page(storage, offset);
+            MappedStorage.uncache(page);
+            CACHE.put(page, new Paged(segment, bytes));
+            cached += bytes;
+
+            // And drop the least recently used segments, always keeping the newest
+            Iterator<Paged> pages = CACHE.values().iterator();
+            while (cached > CACHE_BUDGET && CACHE.size() > 1)
+            {
+                cached -= pages.next().bytes;
+                pages.remove();
+            }
+        }
+    }
+
+    /**
+     * A function used to drop a segment from the cache.
+     *
+     * @param page The page of the segment
+     */
+    private static void uncache(Page page)
+    {
+        synchronized (CACHE)
+        {
+            Paged paged = CACHE.remove(page);
+            if (paged != null) cached -= paged.bytes;
+        }
+    }
+
+    /**
+     * A function used to drop every segment of a storage from the cache.
+     *
+     * @param storage The storage
+     */
+    private static void uncache(MappedStorage storage)
+    {
+        synchronized (CACHE)
+        {
+            for (Iterator<Map.Entry<Page, Paged>> pages = CACHE.entrySet().iterator(); pages.hasNext();)
+            {
+                Map.Entry<Page, Paged> page = pages.next();
+                if (page.getKey().storage != storage) continue;
+                cached -= page.getValue().bytes;
+                pages.remove();
+            }
+        }
+    }
+
+    /**
+     * A function used to note that a storage is open, registering the hook
+     * which closes the open storages when the application exits if it isn't
+     * registered already.
+     *
+     * @param storage The storage
+     */
+    private static synchronized void register(MappedStorage storage)
+    {
+        // Note the storage
+        OPEN.add(storage);
+
+        // And register the hook if necessary
+        if (hook == null)
+        {
+            hook = new Thread(MappedStorage::closeAll, "storage");
+            Runtime.getRuntime().addShutdownHook(hook);
+        }
+    }
+
+    /**
+     * A function used to note that a storage has been closed, removing the
+     * hook once no storage is open.
+     *
+     * @param storage The storage
+     */
+    private static synchronized void unregister(MappedStorage storage)
+    {
+        // Forget the storage
+        OPEN.remove(storage);
+
+        // And remove the hook if it isn't needed, unless the application is already exiting
+        if (OPEN.isEmpty() && hook != null && hook != Thread.currentThread())
+        {
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(hook);
+                hook = null;
+            }
+            catch (IllegalStateException exception)
+            {
+                // The application is exiting, so the hook is already running
+            }
+        }
+    }
+
+    /**
+     * A function used to close every storage which is still open when the
+     * application exits.
+     */
+    private static void closeAll()
+    {
+        // Take a copy of the open storages
+        List<MappedStorage> storages;
+        synchronized (MappedStorage.class)
+        {
+            storages = new ArrayList<>(OPEN);
+        }
+
+        // And close each of them
+        for (MappedStorage storage : storages) storage.close();
+    }
+
+    /**
+     * The page class. This identifies a segment in the cache by the storage
+     * and the region of the file that it was paged in from.
+     */
+    private static class Page
+    {
+        /** The storage holding the segment. */
+        private final MappedStorage storage;
+
+        /** The offset of the region in the file. */
+        private final long offset;
+
+        /**
+         * The default constructor. This creates a page of a region.
+         *
+         * @param storage The storage holding the segment
+         * @param offset The offset of the region in the file
+         */
+        public Page(MappedStorage storage, long offset)
+        {
+            this.storage = storage;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof Page)) return false;
+            Page page = (Page) object;
+            return page.storage == this.storage && page.offset == this.offset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(System.identityHashCode(this.storage), this.offset);
+        }
+    }
+
+    /**
+     * The paged class. This holds a segment in the cache along with the
+     * number of bytes that it holds.
+     */
+    private static class Paged
+    {
+        /** The segment. */
+        private final Object segment;
+
+        /** The number of bytes held by the segment. */
+        private final long bytes;
+
+        /**
+         * The default constructor. This creates a cached segment.
+         *
+         * @param segment The segment
+         * @param bytes The number of bytes held by the segment
+         */
+        public Paged(Object segment, long bytes)
+        {
+            this.segment = segment;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.stata.project.columns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The segment codec interface. This copies the values of a primitive segment
+ * to and from a byte buffer in bulk.
+ *
+ * @param <T> The primitive array type of each segment
+ *
+ * @author Dan Jenkins
+ */
+public interface SegmentCodec<T>
+{
+    /** The codec for segments of doubles. */
+    public static final SegmentCodec<double[]> DOUBLES = new SegmentCodec<>()
+    {
+        @Override
+        public int getWidth()
+        {
+            return Double.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, double[] segment)
+        {
+            buffer.asDoubleBuffer().put(segment);
+        }
+
+        @Override
+        public double[] read(ByteBuffer buffer, int length)
+        {
+            double[] segment = new double[length];
+            buffer.asDoubleBuffer().get(segment);
+            return segment;
+        }
+    };
+
+    /** The codec for segments of longs. */
+    public static final SegmentCodec<long[]> LONGS = new SegmentCodec<>()
+    {
+        @Override
+        public int getWidth()
+        {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, long[] segment)
+        {
+            buffer.asLongBuffer().put(segment);
+        }
+
+        @Override
+        public long[] read(ByteBuffer buffer, int length)
+        {
+            long[] segment = new long[length];
+            buffer.asLongBuffer().get(segment);
+            return segment;
+        }
+    };
+
+    /** The codec for segments of ints. */
+    public static final SegmentCodec<int[]> INTS = new SegmentCodec<>()
+    {
+        @Override
+        public int getWidth()
+        {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int[] segment)
+        {
+            buffer.asIntBuffer().put(segment);
+        }
+
+        @Override
+        public int[] read(ByteBuffer buffer, int length)
+        {
+            int[] segment = new int[length];
+            buffer.asIntBuffer().get(segment);
+            return segment;
+        }
+    };
+
+    /**
+     * A simple function which returns the number of bytes in each value.
+     *
+     * @return The width of a value in bytes
+     */
+    public int getWidth();
+
+    /**
+     * A function used to write a segment into a buffer.
+     *
+     * @param buffer The buffer to write into
+     * @param segment The segment to write
+     */
+    public void write(ByteBuffer buffer, T segment);
+
+    /**
+     * A function used to read a segment from a buffer.
+     *
+     * @param buffer The buffer to read from
+     * @param length The number of values to read
+     *
+     * @return The segment
+     */
+    public T read(ByteBuffer buffer, int length);
+}
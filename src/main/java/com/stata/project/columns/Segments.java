@@ -0,0 +1,111 @@
+package com.stata.project.columns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * The segments class. This stores the primitive segments of a column on the
+ * heap. Segments fetched from the store may be copies, so a segment which is
+ * modified in place must be stored again with set.
+ *
+ * @param <T> The primitive array type of each segment
+ *
+ * @author Dan Jenkins
+ */
+public class Segments<T>
+{
+    /** The segments held on the heap. */
+    protected final List<T> segments;
+
+    /**
+     * The default constructor. This creates a new empty store.
+     */
+    public Segments()
+    {
+        this.segments = new ArrayList<>();
+    }
+
+    /**
+     * A simple function which returns the number of segments in the store.
+     *
+     * @return The number of segments
+     */
+    public int size()
+    {
+        return this.segments.size();
+    }
+
+    /**
+     * A function used to fetch a segment from the store.
+     *
+     * @param index The index of the segment
+     *
+     * @return The segment
+     */
+    public T get(int index)
+    {
+        return this.segments.get(index);
+    }
+
+    /**
+     * A function used to replace a segment in the store.
+     *
+     * @param index The index of the segment
+     * @param segment The new segment
+     */
+    public void set(int index, T segment)
+    {
+        this.segments.set(index, segment);
+    }
+
+    /**
+     * A function used to add a new segment to the end of the store. Only the
+     * final segment of a store may be smaller than the segment size.
+     *
+     * @param segment The segment to add
+     */
+    public void add(T segment)
+    {
+        this.segments.add(segment);
+    }
+
+    /**
+     * A function used to take a snapshot of the store, which shares the full
+     * segments and holds a copy of the final segment, as that one is still
+     * being filled.
+     *
+     * @param copy The function which copies a segment
+     *
+     * @return The snapshot of the store
+     */
+    public Segments<T> snapshot(UnaryOperator<T> copy)
+    {
+        Segments<T> snapshot = new Segments<>();
+        this.copyInto(snapshot, copy);
+        return snapshot;
+    }
+
+    /**
+     * A function used to copy the list of segments into a snapshot, copying
+     * the final segment.
+     *
+     * @param snapshot The snapshot of the store
+     * @param copy The function which copies a segment
+     */
+    protected void copyInto(Segments<T> snapshot, UnaryOperator<T> copy)
+    {
+        snapshot.segments.addAll(this.segments);
+        int last = this.segments.size() - 1;
+        if (last >= 0) snapshot.segments.set(last, copy.apply(this.segments.get(last)));
+    }
+
+    /**
+     * A function used to release the resources held by the store once the
+     * column it belongs to is no longer used.
+     */
+    public void release()
+    {
+        this.segments.clear();
+    }
+}
@@ -0,0 +1,26 @@
+package com.stata.project.columns;
+
+/**
+ * The storage class. This decides where the segments of new columns live. The
+ * default storage keeps every segment on the heap.
+ *
+ * @author Dan Jenkins
+ */
+public class Storage
+{
+    /** The storage which keeps segments on the heap. */
+    public static final Storage HEAP = new Storage();
+
+    /**
+     * A function used to create a new store for the segments of a column.
+     *
+     * @param <T> The primitive array type of each segment
+     * @param codec The codec used to write the segments
+     *
+     * @return The new store
+     */
+    public <T> Segments<T> create(SegmentCodec<T> codec)
+    {
+        return new Segments<>();
+    }
+}
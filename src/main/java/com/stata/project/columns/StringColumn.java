@@ -0,0 +1,318 @@
+package com.stata.project.columns;
+
+import com.stata.project.Datatype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The string column class. This stores text values as codes into a dictionary
+ * of the distinct values in the column.
+ *
+ * @author Dan Jenkins
+ */
+public class StringColumn extends Column
+{
+    /** The distinct values in the column, indexed by their code. */
+    private final List<String> dictionary;
+
+    /** The codes of each of the distinct values in the column, once they are needed. */
+    private Map<String, Integer> codes;
+
+    /** The segments holding the codes of the column. */
+    private final Segments<int[]> segments;
+
+    /**
+     * The default constructor. This creates a new empty string column on the
+     * heap.
+     */
+    public StringColumn()
+    {
+        this(Storage.HEAP);
+    }
+
+    /**
+     * The storage constructor. This creates a new empty string column whose
+     * segments live in a specific storage.
+     *
+     * @param storage The storage in which the segments live
+     */
+    public StringColumn(Storage storage)
+    {
+        // Create the column
+        super(storage);
+
+        // Create the dictionary
+        this.dictionary = new ArrayList<>();
+        this.codes = new HashMap<>();
+
+        // And create the list of segments
+        this.segments = storage.create(SegmentCodec.INTS);
+    }
+
+    /**
+     * The snapshot constructor. This creates a column holding the rows of
+     * another column as they stand, with its own copy of the dictionary.
+     *
+     * @param original The column to take a snapshot of
+     */
+    private StringColumn(StringColumn original)
+    {
+        // Copy the column
+        super(original);
+
+        // Copy the dictionary, leaving the codes to be found if they are needed
+        this.dictionary = new ArrayList<>(original.dictionary);
+        this.codes = null;
+
+        // And share the full segments
+        this.segments = original.segments.snapshot(int[]::clone);
+    }
+
+    /**
+     * A simple function which returns the datatype stored in this column. A
+     * column without any values has no type.
+     *
+     * @return The datatype of the column
+     */
+    @Override
+    public Datatype getType()
+    {
+        return this.dictionary.isEmpty() ? Datatype.NULL : Datatype.STRING;
+    }
+
+    /**
+     * A simple function which returns the dictionary code of a row.
+     *
+     * @param row The row to fetch
+     *
+     * @return The code of the row
+     */
+    public int getCode(int row)
+    {
+        return this.segments.get(row >>> SEGMENT_SHIFT)[row & SEGMENT_MASK];
+    }
+
+    /**
+     * A simple function which returns the distinct values in the column,
+     * indexed by their code.
+     *
+     * @return The dictionary of the column
+     */
+    public List<String> getDictionary()
+    {
+        return this.dictionary;
+    }
+
+    /**
+     * A simple function which returns the number of segments in the column.
+     *
+     * @return The number of segments
+     */
+    public int getSegmentCount()
+    {
+        return this.segments.size();
+    }
+
+    /**
+     * A simple function which returns a segment of codes in the column. Only
+     * the first rows of the final segment are in use.
+     *
+     * @param index The index of the segment
+     *
+     * @return The segment codes
+     */
+    public int[] getSegment(int index)
+    {
+        return this.segments.get(index);
+    }
+
+    /**
+     * A function used to append a dictionary code to the column.
+     *
+     * @param code The code to append
+     */
+    public void appendCode(int code)
+    {
+        // Find the position of the new row
+        int segment = this.size >>> SEGMENT_SHIFT;
+        int offset = this.size & SEGMENT_MASK;
+
+        // Create a new segment if necessary
+        if (segment == this.segments.size())
+        {
+            this.segments.add(new int[INITIAL_CAPACITY]);
+        }
+
+        // Grow the segment if necessary
+        int[] values = this.segments.get(segment);
+        if (offset == values.length)
+        {
+            values = Arrays.copyOf(values, Math.min(values.length * 2, SEGMENT_SIZE));
+            this.segments.set(segment, values);
+        }
+
+        // And store the code
+        values[offset] = code;
+        this.size++;
+    }
+
+    /**
+     * A function used to append a block of values to the column, copying
+     * them into the segments in bulk.
+     *
+     * @param values The values to append
+     * @param length The number of values to append
+     */
+    void appendBlock(int[] values, int length)
+    {
+        // Copy the values one segment at a time
+        for (int copied = 0; copied < length;)
+        {
+            // Find the position of the next row
+            int segment = this.size >>> SEGMENT_SHIFT;
+            int offset = this.size & SEGMENT_MASK;
+            int count = Math.min(length - copied, SEGMENT_SIZE - offset);
+
+            // Create or grow the segment to fit the values
+            int[] target = segment == this.segments.size() ? new int[0] : this.segments.get(segment);
+            if (target.length < offset + count)
+            {
+                target = Arrays.copyOf(target, Math.min(SEGMENT_SIZE, Math.max(offset + count, target.length * 2)));
+            }
+
+            // Copy the values
+            System.arraycopy(values, copied, target, offset, count);
+            if (segment == this.segments.size()) this.segments.add(target);
+            else                                 this.segments.set(segment, target);
+
+            // And note the rows that we've added
+            this.size += count;
+            copied += count;
+        }
+    }
+
+    /**
+     * A function used to release the storage held by the column once it is
+     * no longer used.
+     */
+    @Override
+    public void release()
+    {
+        super.release();
+        this.segments.release();
+    }
+
+    /**
+     * A function used to take a snapshot of the column as it stands.
+     *
+     * @return The snapshot of the column
+     */
+    @Override
+    public Column snapshot()
+    {
+        return new StringColumn(this);
+    }
+
+    /**
+     * A function used to append every row of another column to the end of
+     * this column. The dictionary of a string column is merged into this one
+     * once, and its codes are then translated row by row.
+     *
+     * @param other The column to append
+     */
+    @Override
+    public void appendAll(Column other)
+    {
+        // Check whether the columns share a type
+        if (!(other instanceof StringColumn))
+        {
+            super.appendAll(other);
+            return;
+        }
+
+        // Translate the dictionary of the other column
+        StringColumn column = (StringColumn) other;
+        int[] mapping = new int[column.dictionary.size()];
+        for (int i = 0; i < mapping.length; i++)
+        {
+            mapping[i] = this.encode(column.dictionary.get(i));
+        }
+
+        // And copy each of the rows
+        for (int r = 0; r < column.size; r++)
+        {
+            if (column.missing.get(r)) this.appendMissing();
+            else                       this.appendCode(mapping[column.getCode(r)]);
+        }
+    }
+
+    /**
+     * A function used to parse a non-empty value and append it to the column.
+     *
+     * @param value The value to append
+     */
+    @Override
+    protected void appendValue(String value)
+    {
+        this.appendCode(this.encode(value));
+    }
+
+    /**
+     * A function used to find the dictionary code of a value, adding the value
+     * to the dictionary if we haven't seen it.
+     *
+     * @param value The value to encode
+     *
+     * @return The code of the value
+     */
+    int encode(String value)
+    {
+        // Find the codes of the dictionary if necessary, such as in a snapshot
+        if (this.codes == null)
+        {
+            this.codes = new HashMap<>();
+            for (int i = 0; i < this.dictionary.size(); i++) this.codes.put(this.dictionary.get(i), i);
+        }
+
+        // Find the code of the value
+        Integer code = this.codes.get(value);
+
+        // Add the value to the dictionary if we haven't seen it
+        if (code == null)
+        {
+            code = this.dictionary.size();
+            this.dictionary.add(value);
+            this.codes.put(value, code);
+        }
+
+        // And return the code
+        return code;
+    }
+
+    /**
+     * A function used to append the default placeholder value for a missing
+     * row to the column.
+     */
+    @Override
+    protected void appendDefault()
+    {
+        this.appendCode(0);
+    }
+
+    /**
+     * A function used to format a present value as a string.
+     *
+     * @param row The row to format
+     *
+     * @return The formatted value
+     */
+    @Override
+    protected String format(int row)
+    {
+        return this.dictionary.get(this.getCode(row));
+    }
+}
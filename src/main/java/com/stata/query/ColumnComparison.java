@@ -0,0 +1,80 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+/**
+ * The column comparison class. This is a condition which compares the values
+ * of two columns row by row, such as income > spending. Both columns must
+ * hold numbers, or both must hold text.
+ *
+ * @author Dan Jenkins
+ */
+public class ColumnComparison implements Condition
+{
+    /** The names of the columns to compare. */
+    private final String left, right;
+
+    /** The operator used to compare the values. */
+    private final Operator operator;
+
+    /**
+     * The default constructor. This creates a comparison of two columns.
+     *
+     * @param left The name of the column on the left of the operator
+     * @param operator The operator used to compare the values
+     * @param right The name of the column on the right of the operator
+     */
+    public ColumnComparison(String left, Operator operator, String right)
+    {
+        this.left = left;
+        this.operator = operator;
+        this.right = right;
+    }
+
+    /**
+     * The select function. This evaluates the comparison against each row of
+     * the columns.
+     *
+     * @param table The table to evaluate
+     *
+     * @return The rows which satisfy the comparison
+     */
+    @Override
+    public Selection select(Datatable table)
+    {
+        // Find the columns
+        Column left = Scan.column(table, this.left);
+        Column right = Scan.column(table, this.right);
+
+        // Check that the columns hold the same kind of values
+        boolean numeric = Scan.isNumeric(left);
+        if (numeric != Scan.isNumeric(right)) throw new IllegalArgumentException("type mismatch");
+
+        // And compare each of the rows
+        return Scan.scan(left.size(), (segment, start, end, words) ->
+        {
+            for (int row = start; row < end; row++)
+            {
+                int comparison = numeric ? ColumnComparison.compare(Scan.getValue(left, row), Scan.getValue(right, row))
+                                         : left.get(row).compareTo(right.get(row));
+                if (this.operator.test(comparison)) words[row >>> 6] |= 1L << row;
+            }
+        });
+    }
+
+    /**
+     * A function used to compare two numbers by their values, so that zero
+     * and negative zero are equal.
+     *
+     * @param left The number on the left of the comparison
+     * @param right The number on the right of the comparison
+     *
+     * @return A negative number, zero, or a positive number as the left is
+     *         smaller than, equal to, or larger than the right
+     */
+    private static int compare(double left, double right)
+    {
+        return left < right ? -1 : left > right ? 1 : 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+/**
+ * The comparison class. This is a condition which compares the values of a
+ * column with a number or a piece of text, such as age >= 18.
+ *
+ * Numeric comparisons are evaluated as ranges of values. Missing numbers are
+ * larger than any other number, so they satisfy comparisons such as x > 5, as
+ * in Stata.
+ *
+ * @author Dan Jenkins
+ */
+public class Comparison implements Condition
+{
+    /** The name of the column to compare. */
+    private final String name;
+
+    /** The operator used to compare the values. */
+    private final Operator operator;
+
+    /** The number or text to compare the values with. */
+    private final Object value;
+
+    /**
+     * The numeric constructor. This creates a comparison with a number.
+     *
+     * @param name The name of the column to compare
+     * @param operator The operator used to compare the values
+     * @param value The number to compare the values with
+     */
+    public Comparison(String name, Operator operator, double value)
+    {
+        this.name = name;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    /**
+     * The text constructor. This creates a comparison with a piece of text.
+     *
+     * @param name The name of the column to compare
+     * @param operator The operator used to compare the values
+     * @param value The text to compare the values with
+     */
+    public Comparison(String name, Operator operator, String value)
+    {
+        this.name = name;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    /**
+     * The select function. This evaluates the comparison against the column.
+     *
+     * @param table The table to evaluate
+     *
+     * @return The rows which satisfy the comparison
+     */
+    @Override
+    public Selection select(Datatable table)
+    {
+        // Find the column
+        Column column = Scan.column(table, this.name);
+
+        // Compare text with each distinct value
+        if (this.value instanceof String)
+        {
+            String text = (String) this.value;
+            return Scan.match(column, value -> this.operator.test(value.compareTo(text)));
+        }
+
+        // Otherwise, select the range of numbers which satisfy the operator
+        double number = (Double) this.value;
+        switch (this.operator)
+        {
+            case EQUAL:         return Scan.range(column, number, number, false);
+            case NOT_EQUAL:     return Scan.range(column, number, number, false).not();
+            case LESS:          return Scan.range(column, Double.NEGATIVE_INFINITY, Math.nextDown(number), false);
+            case LESS_EQUAL:    return Scan.range(column, Double.NEGATIVE_INFINITY, number, false);
+            case GREATER:       return Scan.range(column, Math.nextUp(number), Double.POSITIVE_INFINITY, true);
+            default:            return Scan.range(column, number, Double.POSITIVE_INFINITY, true);
+        }
+    }
+}
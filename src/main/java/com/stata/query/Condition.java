@@ -0,0 +1,59 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+
+/**
+ * The condition interface. This represents a condition on the rows of a
+ * table, like the if qualifier of a command.
+ *
+ * @author Dan Jenkins
+ */
+public interface Condition
+{
+    /**
+     * The select function. This evaluates the condition against the columns
+     * of a table.
+     *
+     * @param table The table to evaluate
+     *
+     * @return The rows which satisfy the condition
+     */
+    public Selection select(Datatable table);
+
+    /**
+     * A function used to create a condition which holds when both this
+     * condition and another hold.
+     *
+     * @param other The other condition
+     *
+     * @return The combined condition
+     */
+    public default Condition and(Condition other)
+    {
+        return table -> this.select(table).and(other.select(table));
+    }
+
+    /**
+     * A function used to create a condition which holds when either this
+     * condition or another holds.
+     *
+     * @param other The other condition
+     *
+     * @return The combined condition
+     */
+    public default Condition or(Condition other)
+    {
+        return table -> this.select(table).or(other.select(table));
+    }
+
+    /**
+     * A function used to create a condition which holds when this condition
+     * doesn't.
+     *
+     * @return The inverted condition
+     */
+    public default Condition not()
+    {
+        return table -> this.select(table).not();
+    }
+}
@@ -0,0 +1,77 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The in list class. This is a condition which holds when the values of a
+ * column are one of a list of values, like the inlist function.
+ *
+ * @author Dan Jenkins
+ */
+public class InList implements Condition
+{
+    /** The name of the column to check. */
+    private final String name;
+
+    /** The sorted list of numbers, if the values are numbers. */
+    private final double[] numbers;
+
+    /** The set of text values, if the values are text. */
+    private final Set<String> texts;
+
+    /**
+     * The numeric constructor. This creates a list of numbers.
+     *
+     * @param name The name of the column to check
+     * @param values The numbers in the list
+     */
+    public InList(String name, double... values)
+    {
+        // Store the column name
+        this.name = name;
+
+        // And sort the numbers, so that they can be searched
+        this.numbers = values.clone();
+        this.texts = null;
+        Arrays.sort(this.numbers);
+    }
+
+    /**
+     * The text constructor. This creates a list of text values.
+     *
+     * @param name The name of the column to check
+     * @param values The text values in the list
+     */
+    public InList(String name, List<String> values)
+    {
+        this.name = name;
+        this.numbers = null;
+        this.texts = new HashSet<>(values);
+    }
+
+    /**
+     * The select function. This evaluates the list against the column.
+     *
+     * @param table The table to evaluate
+     *
+     * @return The rows whose values are in the list
+     */
+    @Override
+    public Selection select(Datatable table)
+    {
+        // Find the column
+        Column column = Scan.column(table, this.name);
+
+        // Check whether we have a list of text
+        if (this.texts != null) return Scan.match(column, this.texts::contains);
+
+        // Otherwise, search the numbers for each value
+        return Scan.test(column, value -> Arrays.binarySearch(this.numbers, value) >= 0, false);
+    }
+}
@@ -0,0 +1,72 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+/**
+ * The in range class. This is a condition which holds when the values of a
+ * column lie between two bounds, including the bounds, like the inrange
+ * function. Missing values are never in range.
+ *
+ * @author Dan Jenkins
+ */
+public class InRange implements Condition
+{
+    /** The name of the column to check. */
+    private final String name;
+
+    /** The bounds of the range, as numbers or text. */
+    private final Object low, high;
+
+    /**
+     * The numeric constructor. This creates a range of numbers.
+     *
+     * @param name The name of the column to check
+     * @param low The smallest value in the range
+     * @param high The largest value in the range
+     */
+    public InRange(String name, double low, double high)
+    {
+        this.name = name;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * The text constructor. This creates a range of text.
+     *
+     * @param name The name of the column to check
+     * @param low The first value in the range
+     * @param high The last value in the range
+     */
+    public InRange(String name, String low, String high)
+    {
+        this.name = name;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * The select function. This evaluates the range against the column.
+     *
+     * @param table The table to evaluate
+     *
+     * @return The rows which lie in the range
+     */
+    @Override
+    public Selection select(Datatable table)
+    {
+        // Find the column
+        Column column = Scan.column(table, this.name);
+
+        // Check whether we have a range of text
+        if (this.low instanceof String)
+        {
+            String low = (String) this.low, high = (String) this.high;
+            return Scan.match(column, value -> !value.isEmpty() && value.compareTo(low) >= 0 && value.compareTo(high) <= 0);
+        }
+
+        // Otherwise, select the range of numbers
+        return Scan.range(column, (Double) this.low, (Double) this.high, false);
+    }
+}
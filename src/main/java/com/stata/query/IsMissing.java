@@ -0,0 +1,38 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+
+/**
+ * The is missing class. This is a condition which holds when a column is
+ * missing a value, like the missing function.
+ *
+ * @author Dan Jenkins
+ */
+public class IsMissing implements Condition
+{
+    /** The name of the column to check. */
+    private final String name;
+
+    /**
+     * The default constructor. This creates a check for missing values.
+     *
+     * @param name The name of the column to check
+     */
+    public IsMissing(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * The select function. This selects the missing rows of the column.
+     *
+     * @param table The table to evaluate
+     *
+     * @return The missing rows
+     */
+    @Override
+    public Selection select(Datatable table)
+    {
+        return Scan.missing(Scan.column(table, this.name));
+    }
+}
@@ -0,0 +1,100 @@
+package com.stata.query;
+
+/**
+ * The operator enum. This lists the relational operators which can be used to
+ * compare values in a condition.
+ *
+ * @author Dan Jenkins
+ */
+public enum Operator
+{
+    EQUAL("=="),
+    NOT_EQUAL("!="),
+    LESS("<"),
+    LESS_EQUAL("<="),
+    GREATER(">"),
+    GREATER_EQUAL(">=");
+
+    /** The symbol of the operator. */
+    private final String symbol;
+
+    /**
+     * The default constructor. This creates an operator with its symbol.
+     *
+     * @param symbol The symbol of the operator
+     */
+    private Operator(String symbol)
+    {
+        this.symbol = symbol;
+    }
+
+    /**
+     * A simple function which returns the symbol of the operator.
+     *
+     * @return The symbol
+     */
+    public String getSymbol()
+    {
+        return this.symbol;
+    }
+
+    /**
+     * A function used to check the result of comparing two values against the
+     * operator.
+     *
+     * @param comparison The result of the comparison, as returned by compareTo
+     *
+     * @return Whether the operator holds
+     */
+    public boolean test(int comparison)
+    {
+        switch (this)
+        {
+            case EQUAL:         return comparison == 0;
+            case NOT_EQUAL:     return comparison != 0;
+            case LESS:          return comparison < 0;
+            case LESS_EQUAL:    return comparison <= 0;
+            case GREATER:       return comparison > 0;
+            default:            return comparison >= 0;
+        }
+    }
+
+    /**
+     * A function used to find the operator which holds when the values being
+     * compared are swapped, so that 5 < x can be evaluated as x > 5.
+     *
+     * @return The reversed operator
+     */
+    public Operator reverse()
+    {
+        switch (this)
+        {
+            case LESS:          return GREATER;
+            case LESS_EQUAL:    return GREATER_EQUAL;
+            case GREATER:       return LESS;
+            case GREATER_EQUAL: return LESS_EQUAL;
+            default:            return this;
+        }
+    }
+
+    /**
+     * A function used to find the operator with a symbol. The not equal
+     * operator may also be written as ~=.
+     *
+     * @param symbol The symbol of the operator
+     *
+     * @return The operator, or null if there is no such operator
+     */
+    public static Operator fromSymbol(String symbol)
+    {
+        // Check for the alternative spelling
+        if (symbol.equals("~=")) return NOT_EQUAL;
+
+        // And find the operator
+        for (Operator operator : Operator.values())
+        {
+            if (operator.symbol.equals(symbol)) return operator;
+        }
+        return null;
+    }
+}
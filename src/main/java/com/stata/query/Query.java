@@ -0,0 +1,466 @@
+package com.stata.query;
+
+import com.stata.project.Datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Query class. This parses conditions written like the if qualifier of a
+ * Stata command, such as:
+ *
+ *   age >= 18 & (sex == "female" | !missing(income))
+ *
+ * Conditions may compare columns with numbers, text or other columns using
+ * ==, !=, ~=, <, <=, > and >=, combine conditions with &, | and ! or ~, and
+ * use the missing, inrange and inlist functions. A column on its own holds
+ * when it isn't zero, and a full stop stands for a missing value, so that
+ * x < . selects the rows where x isn't missing.
+ *
+ * @author Dan Jenkins
+ */
+public class Query
+{
+    /** The tokens of the condition. */
+    private final List<String> tokens;
+
+    /** The position of the next token. */
+    private int position;
+
+    /**
+     * The default constructor. This splits a condition into its tokens.
+     *
+     * @param text The condition to parse
+     */
+    private Query(String text)
+    {
+        this.tokens = Query.tokenize(text);
+        this.position = 0;
+    }
+
+    /**
+     * The parse function. This parses a condition so that it can be evaluated
+     * against tables.
+     *
+     * @param text The condition to parse
+     *
+     * @return The condition
+     */
+    public static Condition parse(String text)
+    {
+        // Parse the condition
+        Query query = new Query(text);
+        Condition condition = query.parseOr();
+
+        // And check that we have used every token
+        if (query.position < query.tokens.size()) throw Query.error(query.tokens.get(query.position));
+        return condition;
+    }
+
+    /**
+     * The select function. This parses a condition and evaluates it against a
+     * table.
+     *
+     * @param table The table to evaluate
+     * @param text The condition to parse
+     *
+     * @return The rows which satisfy the condition
+     */
+    public static Selection select(Datatable table, String text)
+    {
+        return Query.parse(text).select(table);
+    }
+
+    /**
+     * A function used to parse conditions joined by the or operator.
+     *
+     * @return The condition
+     */
+    private Condition parseOr()
+    {
+        Condition condition = this.parseAnd();
+        while (this.accept("|")) condition = condition.or(this.parseAnd());
+        return condition;
+    }
+
+    /**
+     * A function used to parse conditions joined by the and operator.
+     *
+     * @return The condition
+     */
+    private Condition parseAnd()
+    {
+        Condition condition = this.parseNot();
+        while (this.accept("&")) condition = condition.and(this.parseNot());
+        return condition;
+    }
+
+    /**
+     * A function used to parse a condition which may be negated.
+     *
+     * @return The condition
+     */
+    private Condition parseNot()
+    {
+        // Check whether the condition is negated
+        if (this.accept("!") || this.accept("~")) return this.parseNot().not();
+
+        // Otherwise, parse the condition
+        return this.parsePrimary();
+    }
+
+    /**
+     * A function used to parse a condition in parentheses, a function, or a
+     * comparison.
+     *
+     * @return The condition
+     */
+    private Condition parsePrimary()
+    {
+        // Check for a condition in parentheses
+        if (this.accept("("))
+        {
+            Condition condition = this.parseOr();
+            this.expect(")");
+            return condition;
+        }
+
+        // Check for a function
+        if (this.isName(this.peek(0)) && "(".equals(this.peek(1)))
+        {
+            return this.parseFunction();
+        }
+
+        // Otherwise, parse the left of the comparison
+        Object left = this.parseOperand();
+        Operator operator = this.peek(0) == null ? null : Operator.fromSymbol(this.peek(0));
+
+        // Check for a column on its own, which holds when it isn't zero
+        if (operator == null)
+        {
+            if (left instanceof Name) return new Comparison(((Name) left).name, Operator.NOT_EQUAL, 0);
+            throw Query.error(this.peek(0));
+        }
+
+        // And parse the right of the comparison
+        this.position++;
+        Object right = this.parseOperand();
+        return Query.compare(left, operator, right);
+    }
+
+    /**
+     * A function used to parse a call to the missing, inrange or inlist
+     * functions.
+     *
+     * @return The condition
+     */
+    private Condition parseFunction()
+    {
+        // Get the function and its column
+        String function = this.next();
+        this.expect("(");
+        String name = this.parseName();
+
+        // Parse the function
+        Condition condition;
+        if (function.equals("missing"))
+        {
+            // Check whether any of the columns are missing
+            condition = new IsMissing(name);
+            while (this.accept(",")) condition = condition.or(new IsMissing(this.parseName()));
+        }
+        else if (function.equals("inrange"))
+        {
+            // Get the bounds of the range
+            this.expect(",");
+            Object low = this.parseOperand();
+            this.expect(",");
+            Object high = this.parseOperand();
+
+            // And create the range
+            if (low instanceof Double && high instanceof Double)      condition = new InRange(name, (Double) low, (Double) high);
+            else if (low instanceof String && high instanceof String) condition = new InRange(name, (String) low, (String) high);
+            else throw new IllegalArgumentException("type mismatch");
+        }
+        else if (function.equals("inlist"))
+        {
+            // Get the values of the list
+            List<Object> values = new ArrayList<>();
+            while (this.accept(",")) values.add(this.parseOperand());
+
+            // And create the list
+            condition = Query.list(name, values);
+        }
+        else
+        {
+            throw new IllegalArgumentException("unknown function " + function + "()");
+        }
+
+        // And close the call
+        this.expect(")");
+        return condition;
+    }
+
+    /**
+     * A function used to parse a column, number, piece of text, or missing
+     * value.
+     *
+     * @return The operand, as a Name, Double, String, or null for missing
+     */
+    private Object parseOperand()
+    {
+        // Get the operand
+        String token = this.next();
+        if (token == null) throw Query.error(null);
+
+        // Check for a negative number
+        if (token.equals("-") && this.peek(0) != null && Character.isDigit(this.peek(0).charAt(this.peek(0).length() - 1)))
+        {
+            return -Double.parseDouble(this.next());
+        }
+
+        // And check what kind of operand we have
+        if (token.equals("."))                          return null;
+        else if (token.startsWith("\""))                return token.substring(1, token.length() - 1);
+        else if (token.equals("true"))                  return 1.0;
+        else if (token.equals("false"))                 return 0.0;
+        else if (this.isName(token))                    return new Name(token);
+        else if (Character.isDigit(token.charAt(token.length() - 1))) return Double.parseDouble(token);
+        throw Query.error(token);
+    }
+
+    /**
+     * A function used to parse the name of a column.
+     *
+     * @return The name
+     */
+    private String parseName()
+    {
+        String token = this.next();
+        if (!this.isName(token)) throw Query.error(token);
+        return token;
+    }
+
+    /**
+     * A function used to create a comparison between two operands.
+     *
+     * @param left The operand on the left of the operator
+     * @param operator The operator
+     * @param right The operand on the right of the operator
+     *
+     * @return The comparison
+     */
+    private static Condition compare(Object left, Operator operator, Object right)
+    {
+        // Put the column on the left
+        if (!(left instanceof Name))
+        {
+            if (!(right instanceof Name)) throw new IllegalArgumentException("no variables in comparison");
+            return Query.compare(right, operator.reverse(), left);
+        }
+        String name = ((Name) left).name;
+
+        // And check what we are comparing with
+        if (right instanceof Name)   return new ColumnComparison(name, operator, ((Name) right).name);
+        if (right instanceof Double) return new Comparison(name, operator, (Double) right);
+        if (right instanceof String) return new Comparison(name, operator, (String) right);
+
+        // Otherwise, compare with a missing value, which is larger than any
+        // other number
+        Condition missing = new IsMissing(name);
+        switch (operator)
+        {
+            case EQUAL:
+            case GREATER_EQUAL: return missing;
+            case NOT_EQUAL:
+            case LESS:          return missing.not();
+            case LESS_EQUAL:    return missing.or(missing.not());
+            default:            return missing.and(missing.not());
+        }
+    }
+
+    /**
+     * A function used to create a list of values.
+     *
+     * @param name The name of the column
+     * @param values The values in the list
+     *
+     * @return The list
+     */
+    private static Condition list(String name, List<Object> values)
+    {
+        // Check whether we have a list of text
+        if (!values.isEmpty() && values.get(0) instanceof String)
+        {
+            List<String> texts = new ArrayList<>();
+            for (Object value : values)
+            {
+                if (!(value instanceof String)) throw new IllegalArgumentException("type mismatch");
+                texts.add((String) value);
+            }
+            return new InList(name, texts);
+        }
+
+        // Otherwise, create a list of numbers, checking for missing values
+        double[] numbers = new double[values.size()];
+        boolean missing = false;
+        int count = 0;
+        for (Object value : values)
+        {
+            if (value == null)                  missing = true;
+            else if (value instanceof Double) numbers[count++] = (Double) value;
+            else throw new IllegalArgumentException("type mismatch");
+        }
+
+        // And create the list
+        Condition list = new InList(name, Arrays.copyOf(numbers, count));
+        return missing ? list.or(new IsMissing(name)) : list;
+    }
+
+    /**
+     * A function used to split a condition into its tokens.
+     *
+     * @param text The condition
+     *
+     * @return The tokens
+     */
+    private static List<String> tokenize(String text)
+    {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < text.length();)
+        {
+            // Skip whitespace
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                i++;
+                continue;
+            }
+
+            // Find the end of the token
+            int end = i + 1;
+            if (c == '"')
+            {
+                end = text.indexOf('"', i + 1) + 1;
+                if (end == 0) throw new IllegalArgumentException("unmatched quote");
+            }
+            else if (Character.isDigit(c) || (c == '.' && i + 1 < text.length() && Character.isDigit(text.charAt(i + 1))))
+            {
+                while (end < text.length() && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '.')) end++;
+            }
+            else if (Character.isLetter(c) || c == '_')
+            {
+                while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) end++;
+            }
+            else if ("=!~<>".indexOf(c) >= 0 && end < text.length() && text.charAt(end) == '=')
+            {
+                end++;
+            }
+            else if (c == '=')
+            {
+                throw new IllegalArgumentException("= invalid, use == to compare values");
+            }
+
+            // And store the token
+            tokens.add(text.substring(i, end));
+            i = end;
+        }
+        return tokens;
+    }
+
+    /**
+     * A simple function which returns whether a token is the name of a
+     * column.
+     *
+     * @param token The token
+     *
+     * @return Whether the token is a name
+     */
+    private boolean isName(String token)
+    {
+        return token != null && (Character.isLetter(token.charAt(0)) || token.charAt(0) == '_')
+            && !token.equals("true") && !token.equals("false");
+    }
+
+    /**
+     * A simple function which returns a token ahead of the current position
+     * without moving past it.
+     *
+     * @param offset The offset of the token
+     *
+     * @return The token, or null at the end of the condition
+     */
+    private String peek(int offset)
+    {
+        int index = this.position + offset;
+        return index < this.tokens.size() ? this.tokens.get(index) : null;
+    }
+
+    /**
+     * A simple function which returns the next token and moves past it.
+     *
+     * @return The token, or null at the end of the condition
+     */
+    private String next()
+    {
+        String token = this.peek(0);
+        if (token != null) this.position++;
+        return token;
+    }
+
+    /**
+     * A function used to move past the next token if it matches.
+     *
+     * @param token The token to match
+     *
+     * @return Whether the token matched
+     */
+    private boolean accept(String token)
+    {
+        if (!token.equals(this.peek(0))) return false;
+        this.position++;
+        return true;
+    }
+
+    /**
+     * A function used to move past the next token, which must match.
+     *
+     * @param token The token to match
+     */
+    private void expect(String token)
+    {
+        if (!this.accept(token)) throw Query.error(this.peek(0));
+    }
+
+    /**
+     * A function used to create the error thrown for an unexpected token.
+     *
+     * @param token The unexpected token, or null at the end of the condition
+     *
+     * @return The error
+     */
+    private static IllegalArgumentException error(String token)
+    {
+        return new IllegalArgumentException(token == null ? "unexpected end of condition" : "invalid syntax near " + token);
+    }
+
+    /**
+     * The name class. This marks an operand as the name of a column.
+     */
+    private static class Name
+    {
+        /** The name of the column. */
+        private final String name;
+
+        /**
+         * The default constructor. This creates a column name operand.
+         *
+         * @param name The name of the column
+         */
+        public Name(String name)
+        {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.stata.query;
+
+import com.stata.analysis.NumericKernels;
+import com.stata.project.Datatable;
+import com.stata.project.Datatype;
+import com.stata.project.columns.BooleanColumn;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.IntegerColumn;
+import com.stata.project.columns.NumberColumn;
+import com.stata.project.columns.StringColumn;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+/**
+ * The Scan class. This static class holds the column-at-a-time kernels used
+ * to evaluate conditions. Each kernel fills the words of a bitmap for one
+ * segment of a column at a time, and the segments are split across a
+ * fork-join pool. Segments hold a whole number of words, so no two segments
+ * write to the same word.
+ *
+ * Missing numbers are treated as larger than any other number, and missing
+ * text as an empty string, as in Stata.
+ *
+ * @author Dan Jenkins
+ */
+final class Scan
+{
+    /**
+     * The kernel interface. This fills the words of a bitmap for one segment
+     * of a column.
+     */
+    interface Kernel
+    {
+        /**
+         * The scan function. This fills the words covering a range of rows.
+         *
+         * @param segment The index of the segment
+         * @param start The first row of the segment
+         * @param end The end of the segment
+         * @param words The words of the bitmap
+         */
+        public void scan(int segment, int start, int end, long[] words);
+    }
+
+    /**
+     * A function used to find a column of a table by its name.
+     *
+     * @param table The table holding the column
+     * @param name The name of the column
+     *
+     * @return The column
+     */
+    static Column column(Datatable table, String name)
+    {
+        // Find the column
+        Column column = table.getColumn(name);
+
+        // And check that it exists
+        if (column == null) throw new IllegalArgumentException("variable " + name + " not found");
+        return column;
+    }
+
+    /**
+     * A function used to check whether a column holds numbers. Booleans are
+     * treated as zero or one, and a column without a type only holds missing
+     * values.
+     *
+     * @param column The column to check
+     *
+     * @return Whether the column is numeric
+     */
+    static boolean isNumeric(Column column)
+    {
+        return column.getType() != Datatype.STRING;
+    }
+
+    /**
+     * A function used to run a kernel over every segment of a column.
+     *
+     * @param rows The number of rows in the column
+     * @param kernel The kernel to run
+     *
+     * @return The rows selected by the kernel
+     */
+    static Selection scan(int rows, Kernel kernel)
+    {
+        // Create the bitmap
+        long[] words = new long[(rows + 63) >>> 6];
+
+        // Run the kernel over each segment
+        int segments = (rows + Column.SEGMENT_SIZE - 1) >>> Column.SEGMENT_SHIFT;
+        ForkJoinPool.commonPool().invoke(new ScanTask(kernel, rows, words, 0, segments));
+
+        // And create the selection
+        return new Selection(BitSet.valueOf(words), rows);
+    }
+
+    /**
+     * A function used to select the rows of a numeric column whose values lie
+     * within a range.
+     *
+     * @param column The column to scan
+     * @param low The smallest value to select
+     * @param high The largest value to select
+     * @param missing Whether to select the missing rows
+     *
+     * @return The selected rows
+     */
+    static Selection range(Column column, double low, double high, boolean missing)
+    {
+        // Check that the column holds numbers
+        if (!Scan.isNumeric(column)) throw new IllegalArgumentException("type mismatch");
+
+        // Create the kernel for the type of the column
+        Kernel kernel;
+        if (column instanceof NumberColumn)
+        {
+            NumberColumn numbers = (NumberColumn) column;
+            NumericKernels kernels = NumericKernels.getInstance();
+            kernel = (segment, start, end, words) ->
+            {
+                double[] values = numbers.getSegment(segment);
+                for (int i = 0, w = start >>> 6, count = end - start; i < count; i += 64, w++)
+                {
+                    words[w] = kernels.range(values, i, Math.min(64, count - i), low, high);
+                }
+                Scan.fillMissing(column, start, end, words, missing);
+            };
+        }
+        else if (column instanceof IntegerColumn)
+        {
+            IntegerColumn integers = (IntegerColumn) column;
+            kernel = (segment, start, end, words) ->
+            {
+                long[] values = integers.getSegment(segment);
+                for (int i = 0, w = start >>> 6, count = end - start; i < count; w++)
+                {
+                    long word = 0;
+                    for (int b = 0, limit = Math.min(i + 64, count); i < limit; i++, b++)
+                    {
+                        double value = values[i];
+                        if (value >= low & value <= high) word |= 1L << b;
+                    }
+                    words[w] = word;
+                }
+                Scan.fillMissing(column, start, end, words, missing);
+            };
+        }
+        else
+        {
+            return Scan.test(column, value -> value >= low && value <= high, missing);
+        }
+
+        // And run the kernel
+        return Scan.scan(column.size(), kernel);
+    }
+
+    /**
+     * A function used to select the rows of a numeric column whose values
+     * pass a test. This reads each row through its value, so it is used for
+     * booleans, columns without a type, and tests which aren't ranges.
+     *
+     * @param column The column to scan
+     * @param test The test of each value
+     * @param missing Whether to select the missing rows
+     *
+     * @return The selected rows
+     */
+    static Selection test(Column column, DoublePredicate test, boolean missing)
+    {
+        // Check that the column holds numbers
+        if (!Scan.isNumeric(column)) throw new IllegalArgumentException("type mismatch");
+
+        // And test each of the rows
+        return Scan.scan(column.size(), (segment, start, end, words) ->
+        {
+            for (int row = start; row < end; row++)
+            {
+                if (!column.isMissing(row) && test.test(Scan.getValue(column, row))) words[row >>> 6] |= 1L << row;
+            }
+            Scan.fillMissing(column, start, end, words, missing);
+        });
+    }
+
+    /**
+     * A function used to select the rows of a text column whose values pass a
+     * test. Each distinct value is tested once, and the rows are then matched
+     * by their dictionary codes.
+     *
+     * @param column The column to scan
+     * @param test The test of each value
+     *
+     * @return The selected rows
+     */
+    static Selection match(Column column, Predicate<String> test)
+    {
+        // Check that the column holds text
+        if (!(column instanceof StringColumn)) throw new IllegalArgumentException("type mismatch");
+        StringColumn strings = (StringColumn) column;
+
+        // Test each of the distinct values, leaving room for the placeholder
+        // code of the missing rows
+        List<String> dictionary = strings.getDictionary();
+        boolean[] matches = new boolean[Math.max(dictionary.size(), 1)];
+        for (int i = 0; i < dictionary.size(); i++) matches[i] = test.test(dictionary.get(i));
+
+        // Test the value of the missing rows
+        boolean missing = test.test("");
+
+        // And match each of the rows
+        return Scan.scan(column.size(), (segment, start, end, words) ->
+        {
+            int[] codes = strings.getSegment(segment);
+            for (int i = 0, w = start >>> 6, count = end - start; i < count; w++)
+            {
+                long word = 0;
+                for (int b = 0, limit = Math.min(i + 64, count); i < limit; i++, b++)
+                {
+                    if (matches[codes[i]]) word |= 1L << b;
+                }
+                words[w] = word;
+            }
+            Scan.fillMissing(column, start, end, words, missing);
+        });
+    }
+
+    /**
+     * A function used to select the missing rows of a column.
+     *
+     * @param column The column to scan
+     *
+     * @return The missing rows
+     */
+    static Selection missing(Column column)
+    {
+        return Scan.scan(column.size(), (segment, start, end, words) -> Scan.fillMissing(column, start, end, words, true));
+    }
+
+    /**
+     * A function used to return the value of a row of a numeric column.
+     * Missing values are larger than any other number.
+     *
+     * @param column The column to read
+     * @param row The row to read
+     *
+     * @return The value of the row
+     */
+    static double getValue(Column column, int row)
+    {
+        if (column.isMissing(row))               return Double.POSITIVE_INFINITY;
+        else if (column instanceof NumberColumn)  return ((NumberColumn) column).getDouble(row);
+        else if (column instanceof IntegerColumn) return ((IntegerColumn) column).getLong(row);
+        else if (column instanceof BooleanColumn) return ((BooleanColumn) column).getBoolean(row) ? 1 : 0;
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * A function used to set or clear the bits of the missing rows within a
+     * segment.
+     *
+     * @param column The column being scanned
+     * @param start The first row of the segment
+     * @param end The end of the segment
+     * @param words The words of the bitmap
+     * @param missing Whether to select the missing rows
+     */
+    private static void fillMissing(Column column, int start, int end, long[] words, boolean missing)
+    {
+        for (int row = column.nextMissing(start); row < end; row = column.nextMissing(row + 1))
+        {
+            if (missing) words[row >>> 6] |= 1L << row;
+            else         words[row >>> 6] &= ~(1L << row);
+        }
+    }
+
+    /**
+     * The scan task class. This runs a kernel over a range of the segments
+     * of a column, splitting the range in half until a single segment
+     * remains.
+     */
+    @SuppressWarnings("serial")
+    private static class ScanTask extends RecursiveAction
+    {
+        /** The kernel to run. */
+        private final Kernel kernel;
+
+        /** The number of rows in the column. */
+        private final int rows;
+
+        /** The words of the bitmap. */
+        private final long[] words;
+
+        /** The first segment and the end of the range of segments. */
+        private final int from, to;
+
+        /**
+         * The default constructor. This creates a task to scan a range of
+         * segments.
+         *
+         * @param kernel The kernel to run
+         * @param rows The number of rows in the column
+         * @param words The words of the bitmap
+         * @param from The first segment
+         * @param to The end of the range of segments
+         */
+        public ScanTask(Kernel kernel, int rows, long[] words, int from, int to)
+        {
+            this.kernel = kernel;
+            this.rows = rows;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * The compute function. This scans the range of segments.
+         */
+        @Override
+        protected void compute()
+        {
+            // Check whether we have anything to scan
+            if (this.to <= this.from) return;
+
+            // Scan a single segment directly
+            if (this.to - this.from == 1)
+            {
+                int start = this.from << Column.SEGMENT_SHIFT;
+                this.kernel.scan(this.from, start, Math.min(start + Column.SEGMENT_SIZE, this.rows), this.words);
+                return;
+            }
+
+            // Otherwise, split the range in half
+            int middle = (this.from + this.to) >>> 1;
+            ForkJoinTask.invokeAll(new ScanTask(this.kernel, this.rows, this.words, this.from, middle),
+                                   new ScanTask(this.kernel, this.rows, this.words, middle, this.to));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.stata.query;
+
+import java.util.BitSet;
+
+/**
+ * The selection class. This records which rows of a table satisfy a
+ * condition as a bitmap, so that later operations can run over the selected
+ * rows without the rows being copied.
+ *
+ * @author Dan Jenkins
+ */
+public class Selection
+{
+    /** The selected rows. */
+    private final BitSet rows;
+
+    /** The number of rows in the table. */
+    private final int size;
+
+    /**
+     * The default constructor. This creates a selection from a bitmap of
+     * rows.
+     *
+     * @param rows The selected rows
+     * @param size The number of rows in the table
+     */
+    public Selection(BitSet rows, int size)
+    {
+        this.rows = rows;
+        this.size = size;
+    }
+
+    /**
+     * A function used to create a selection of every row of a table.
+     *
+     * @param size The number of rows in the table
+     *
+     * @return The selection
+     */
+    public static Selection all(int size)
+    {
+        // Select each of the rows
+        BitSet rows = new BitSet(size);
+        rows.set(0, size);
+
+        // And create the selection
+        return new Selection(rows, size);
+    }
+
+    /**
+     * A simple function which returns the number of rows in the table.
+     *
+     * @return The number of rows
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * A simple function which returns the number of selected rows.
+     *
+     * @return The number of selected rows
+     */
+    public int count()
+    {
+        return this.rows.cardinality();
+    }
+
+    /**
+     * A simple function which returns the number of selected rows within a
+     * range of rows.
+     *
+     * @param from The first row of the range
+     * @param to The end of the range
+     *
+     * @return The number of selected rows
+     */
+    public int count(int from, int to)
+    {
+        return this.rows.get(from, to).cardinality();
+    }
+
+    /**
+     * A simple function which returns whether a row is selected.
+     *
+     * @param row The row to check
+     *
+     * @return Whether the row is selected
+     */
+    public boolean contains(int row)
+    {
+        return this.rows.get(row);
+    }
+
+    /**
+     * A simple function which returns the first selected row at or after a
+     * row.
+     *
+     * @param row The row from which to search
+     *
+     * @return The next selected row, or the size if there is none
+     */
+    public int nextSelected(int row)
+    {
+        int next = this.rows.nextSetBit(row);
+        return next < 0 || next > this.size ? this.size : next;
+    }
+
+    /**
+     * A simple function which returns the first row at or after a row which
+     * isn't selected.
+     *
+     * @param row The row from which to search
+     *
+     * @return The next row which isn't selected, or the size if there is none
+     */
+    public int nextUnselected(int row)
+    {
+        return Math.min(this.rows.nextClearBit(row), this.size);
+    }
+
+    /**
+     * A function used to return the selected rows in order, as a selection
+     * vector.
+     *
+     * @return The selected rows
+     */
+    public int[] toArray()
+    {
+        return this.rows.stream().toArray();
+    }
+
+    /**
+     * A function used to select the rows which are in both this selection and
+     * another.
+     *
+     * @param other The other selection
+     *
+     * @return The combined selection
+     */
+    public Selection and(Selection other)
+    {
+        BitSet rows = (BitSet) this.rows.clone();
+        rows.and(other.rows);
+        return new Selection(rows, this.size);
+    }
+
+    /**
+     * A function used to select the rows which are in either this selection
+     * or another.
+     *
+     * @param other The other selection
+     *
+     * @return The combined selection
+     */
+    public Selection or(Selection other)
+    {
+        BitSet rows = (BitSet) this.rows.clone();
+        rows.or(other.rows);
+        return new Selection(rows, this.size);
+    }
+
+    /**
+     * A function used to select the rows which aren't in this selection.
+     *
+     * @return The inverted selection
+     */
+    public Selection not()
+    {
+        BitSet rows = (BitSet) this.rows.clone();
+        rows.flip(0, this.size);
+        return new Selection(rows, this.size);
+    }
+}
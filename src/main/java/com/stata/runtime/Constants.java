@@ -15,6 +15,12 @@ public final class Constants
     public static Map<String, Object> constants = Map.ofEntries
     (
         entry("gui", true),
+        entry("import_parallel", true),
+        entry("import_preview", true),
+        entry("io_parallel", true),
+        entry("kernels_vector", true),
+        entry("load_prefetch", false),
+        entry("storage_offheap", false),
         entry("window_height", 800),
         entry("window_title", new String("Stata")),
         entry("window_width", 1024)
@@ -0,0 +1,100 @@
+package com.stata.ui;
+
+import com.stata.io.Progress;
+
+import java.util.function.LongFunction;
+
+import javafx.concurrent.Task;
+
+/**
+ * The background task class. This runs a long operation, such as importing a
+ * file or saving the project, away from the JavaFX thread, so that the window
+ * keeps responding while it runs. The operation is given the task as its
+ * progress, so its progress is shown in the status bar, and it stops when
+ * the user cancels the task.
+ *
+ * @author Dan Jenkins
+ */
+public class BackgroundTask<T> extends Task<T> implements Progress
+{
+    /** The format of progress counted in bytes. */
+    public static final LongFunction<String> BYTES = bytes -> String.format("%.1f MB", bytes / (double) (1 << 20));
+
+    /** The format of progress counted in items, such as tables. */
+    public static final LongFunction<String> ITEMS = Long::toString;
+
+    /** The title of the task, shown in the status bar. */
+    private final String title;
+
+    /** The format of the amounts of work. */
+    private final LongFunction<String> format;
+
+    /** The operation to run. */
+    private final Operation<T> operation;
+
+    /**
+     * The default constructor. This creates a task to run an operation.
+     *
+     * @param title The title of the task
+     * @param format The format of the amounts of work
+     * @param operation The operation to run
+     */
+    public BackgroundTask(String title, LongFunction<String> format, Operation<T> operation)
+    {
+        this.title = title;
+        this.format = format;
+        this.operation = operation;
+    }
+
+    /**
+     * The call function. This is called on the background thread, and runs
+     * the operation.
+     *
+     * @return The result of the operation
+     *
+     * @throws Exception If the operation fails
+     */
+    @Override
+    protected T call() throws Exception
+    {
+        // Show the title until the operation reports its progress
+        this.updateMessage(this.title);
+
+        // And run the operation
+        return this.operation.run(this);
+    }
+
+    /**
+     * The update function. This shows how much of the operation is done.
+     * Updates are coalesced by the task, so they can be made as often as the
+     * operation likes.
+     *
+     * @param done The amount of work done
+     * @param total The total amount of work
+     */
+    @Override
+    public void update(long done, long total)
+    {
+        this.updateProgress(done, total);
+        this.updateMessage(String.format("%s (%s of %s)", this.title, this.format.apply(done), this.format.apply(total)));
+    }
+
+    /**
+     * The operation interface. This is the work done by a background task,
+     * which is told the progress to update.
+     */
+    @FunctionalInterface
+    public interface Operation<T>
+    {
+        /**
+         * The run function. This does the work of the operation.
+         *
+         * @param progress The progress of the operation, which may cancel it
+         *
+         * @return The result of the operation
+         *
+         * @throws Exception If the operation fails
+         */
+        public T run(Progress progress) throws Exception;
+    }
+}
@@ -0,0 +1,47 @@
+package com.stata.ui;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+/**
+ * The images class. This static class loads each of the image resources used
+ * by the interface once, and shares the loaded images between the components
+ * which show them. Each component still needs a view of its own, since a node
+ * can only appear in one place, but views of a loaded image are cheap.
+ *
+ * @author Dan Jenkins
+ */
+public class Images
+{
+    /** The images which have been loaded, by their resource path. */
+    private static final Map<String, Image> IMAGES = new ConcurrentHashMap<>();
+
+    /**
+     * A function used to get an image resource, loading it the first time it
+     * is needed.
+     *
+     * @param path The path of the image resource
+     *
+     * @return The image
+     */
+    public static Image get(String path)
+    {
+        return IMAGES.computeIfAbsent(path, Image::new);
+    }
+
+    /**
+     * A function used to create a view of an image resource, such as for the
+     * graphic of a menu item.
+     *
+     * @param path The path of the image resource
+     *
+     * @return A new view of the image
+     */
+    public static ImageView view(String path)
+    {
+        return new ImageView(Images.get(path));
+    }
+}
@@ -0,0 +1,147 @@
+package com.stata.ui;
+
+import com.stata.project.Change;
+import com.stata.project.ChangeListener;
+import com.stata.project.Datatable;
+import com.stata.project.Project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+
+/**
+ * The refresher class. This collects the changes made to the project and its
+ * tables, and redraws the parts of the interface which subscribed to the
+ * objects that changed. Changes may arrive on any thread and as often as they
+ * like: they are gathered until the next JavaFX pulse, and each subscriber is
+ * then refreshed at most once per pulse with every kind of change made to
+ * its object since the last.
+ *
+ * @author Dan Jenkins
+ */
+public class Refresher implements ChangeListener
+{
+    /** The subscribers of each object, which are only used on the JavaFX thread. */
+    private final Map<Object, List<Consumer<Set<Change>>>> subscribers;
+
+    /** The changes which haven't been shown yet, by the object that changed. */
+    private Map<Object, Set<Change>> pending;
+
+    /**
+     * The default constructor. This creates a refresher with no subscribers.
+     */
+    public Refresher()
+    {
+        this.subscribers = new IdentityHashMap<>();
+        this.pending = new IdentityHashMap<>();
+    }
+
+    /**
+     * A function used to subscribe to the changes made to the project.
+     *
+     * @param project The project
+     * @param subscriber The function which refreshes the subscriber
+     */
+    public void subscribe(Project project, Consumer<Set<Change>> subscriber)
+    {
+        if (this.add(project, subscriber)) project.addListener(this);
+    }
+
+    /**
+     * A function used to subscribe to the changes made to a table.
+     *
+     * @param table The table
+     * @param subscriber The function which refreshes the subscriber
+     */
+    public void subscribe(Datatable table, Consumer<Set<Change>> subscriber)
+    {
+        if (this.add(table, subscriber)) table.addListener(this);
+    }
+
+    /**
+     * A function used to stop following the changes made to a table, such as
+     * when a tab showing it is closed.
+     *
+     * @param table The table
+     * @param subscriber The function which refreshes the subscriber
+     */
+    public void unsubscribe(Datatable table, Consumer<Set<Change>> subscriber)
+    {
+        // Remove the subscriber
+        List<Consumer<Set<Change>>> list = this.subscribers.get(table);
+        if (list == null || !list.remove(subscriber)) return;
+
+        // And stop listening to the table if nobody is subscribed to it
+        if (list.isEmpty())
+        {
+            this.subscribers.remove(table);
+            table.removeListener(this);
+        }
+    }
+
+    /**
+     * A function used to add a subscriber to an object.
+     *
+     * @param source The object
+     * @param subscriber The function which refreshes the subscriber
+     *
+     * @return Whether this is the first subscriber to the object
+     */
+    private boolean add(Object source, Consumer<Set<Change>> subscriber)
+    {
+        boolean first = !this.subscribers.containsKey(source);
+        this.subscribers.computeIfAbsent(source, key -> new ArrayList<>()).add(subscriber);
+        return first;
+    }
+
+    /**
+     * The changed function. This notes a change, and asks for a pulse if it
+     * is the first change since the last one.
+     *
+     * @param source The project or table which changed
+     * @param change The kind of change
+     */
+    @Override
+    public synchronized void changed(Object source, Change change)
+    {
+        // Note the change
+        boolean idle = this.pending.isEmpty();
+        this.pending.computeIfAbsent(source, key -> EnumSet.noneOf(Change.class)).add(change);
+
+        // And make sure that it is shown
+        if (idle) Platform.requestNextPulse();
+    }
+
+    /**
+     * The refresh function. This is called on the JavaFX thread once per
+     * pulse, and refreshes the subscribers of each object that has changed.
+     */
+    public void refresh()
+    {
+        // Take the changes made since the last pulse
+        Map<Object, Set<Change>> changes;
+        synchronized (this)
+        {
+            if (this.pending.isEmpty()) return;
+            changes = this.pending;
+            this.pending = new IdentityHashMap<>();
+        }
+
+        // And refresh the subscribers of each object
+        for (Map.Entry<Object, Set<Change>> entry : changes.entrySet())
+        {
+            List<Consumer<Set<Change>>> list = this.subscribers.get(entry.getKey());
+            if (list == null) continue;
+
+            Set<Change> kinds = Collections.unmodifiableSet(entry.getValue());
+            for (Consumer<Set<Change>> subscriber : new ArrayList<>(list)) subscriber.accept(kinds);
+        }
+    }
+}
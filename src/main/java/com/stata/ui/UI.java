@@ -6,8 +6,14 @@ import com.stata.ui.components.ContentPane;
 import com.stata.ui.components.ContentTab;
 import com.stata.ui.scenes.MainScene;
 
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
 import javafx.application.Application;
-import javafx.scene.image.Image;
+import javafx.scene.control.Alert;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 
@@ -31,6 +37,15 @@ public class UI extends Application
     /** The current scene in the application. */
     private MainScene scene;
 
+    /** The thread on which background tasks are run, one at a time. */
+    private final ExecutorService executor;
+
+    /** The background task which is running, if any. */
+    private BackgroundTask<?> task;
+
+    /** The refresher which redraws the interface when the project changes. */
+    private final Refresher refresher;
+
     /**
      * The default constructor. This creates a new UI system in which to run
      * Stata.
@@ -43,12 +58,23 @@ public class UI extends Application
         // Store the root node
         this.root = new BorderPane();
 
+        // Create the thread for background tasks
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "background");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         // Create the default scene
         this.scene = new MainScene(
             root,
             this.stata.getRuntime().getRuntimeValue("window_width", Integer.class), 
             this.stata.getRuntime().getRuntimeValue("window_height", Integer.class)
         );
+
+        // Redraw the parts of the interface which have changed once per pulse
+        this.refresher = new Refresher();
+        this.scene.addPreLayoutPulseListener(this.refresher::refresh);
     }
 
     /**
@@ -62,6 +88,14 @@ public class UI extends Application
         // Store the stage
         this.stage = stage;
 
+        // Set the icon of the window
+        this.stage.getIcons().setAll(Images.get("/resources/stata.png"));
+
+        // Follow the changes made to the project
+        Project project = this.stata.getProject();
+        this.refresher.subscribe(project, changes -> this.stage.setTitle(this.createTitle(project)));
+        this.scene.subscribe(this, project);
+
         // Make sure that all child components are updated
         this.update();
 
@@ -76,22 +110,140 @@ public class UI extends Application
     }
 
     /**
-     * The update function. This is used to trigger UI updates whenever the
-     * project state changes.
+     * The update function. This redraws the whole of the interface, such as
+     * when it is first shown. Later changes to the project are shown by the
+     * refresher, which only redraws the components that they affect.
      */
     public void update()
     {
         // Get the updated project
         Project project = Stata.getInstance().getProject();
 
-        // Update the title and icon of the window
+        // Update the title of the window
         this.stage.setTitle(this.createTitle(project));
-        this.stage.getIcons().add(new Image("/resources/stata.png"));
 
         // Update the main scene
         this.scene.update(this, project);
     }
 
+    /**
+     * The function used to run a long operation in the background, such as
+     * importing a file, while its progress is shown in the status bar. The
+     * result of the task is applied on the JavaFX thread once it succeeds,
+     * and the changes it makes are shown by the refresher.
+     * 
+     * @param task The task to run
+     * @param result The function which applies the result of the task
+     */
+    public <T> void run(BackgroundTask<T> task, Consumer<T> result)
+    {
+        this.run(task, result, () -> { });
+    }
+
+    /**
+     * The function used to run a long operation in the background as above,
+     * undoing anything that it has already shown if it is cancelled or fails.
+     * 
+     * @param task The task to run
+     * @param result The function which applies the result of the task
+     * @param abandon The function which undoes the task if it doesn't succeed
+     */
+    public <T> void run(BackgroundTask<T> task, Consumer<T> result, Runnable abandon)
+    {
+        // Show the progress of the task
+        this.task = task;
+        this.scene.getStatusBar().show(task);
+
+        // Apply the result, or report the failure, once the task finishes
+        task.setOnSucceeded(event ->
+        {
+            result.accept(task.getValue());
+            this.finish();
+        });
+        task.setOnFailed(event ->
+        {
+            this.showError("The task could not finish", task.getException());
+            abandon.run();
+            this.finish();
+        });
+        task.setOnCancelled(event ->
+        {
+            abandon.run();
+            this.finish();
+        });
+
+        // Start the task
+        this.executor.execute(task);
+
+        // And disable the components which change the project
+        this.scene.updateBusy(this, this.stata.getProject());
+    }
+
+    /**
+     * The function used to tell the user that something failed, such as a
+     * background task which threw an exception. This must be called on the
+     * JavaFX thread.
+     * 
+     * @param heading The heading describing what failed
+     * @param exception The exception which caused the failure
+     */
+    public void showError(String heading, Throwable exception)
+    {
+        // Unwrap the exceptions thrown by other threads
+        Throwable cause = exception;
+        while (cause.getCause() != null && (cause instanceof CompletionException || cause instanceof UncheckedIOException))
+        {
+            cause = cause.getCause();
+        }
+
+        // Keep the details for debugging
+        exception.printStackTrace();
+
+        // And show the failure in a dialog
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.initOwner(this.stage);
+        alert.setHeaderText(heading);
+        alert.setContentText(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+        alert.show();
+    }
+
+    /**
+     * The function called on the JavaFX thread once a background task has
+     * finished, which hides the status bar and enables the components which
+     * change the project again. The rest of the interface is refreshed by the
+     * changes the task made.
+     */
+    private void finish()
+    {
+        // Hide the progress of the task
+        this.task = null;
+        this.scene.getStatusBar().hide();
+
+        // And enable the components which change the project
+        this.scene.updateBusy(this, this.stata.getProject());
+    }
+
+    /**
+     * A simple function which returns the refresher, to which components
+     * subscribe to be redrawn when the objects they show change.
+     * 
+     * @return The refresher
+     */
+    public Refresher getRefresher()
+    {
+        return this.refresher;
+    }
+
+    /**
+     * A simple function which returns whether a background task is running.
+     * 
+     * @return Whether a task is running
+     */
+    public boolean isBusy()
+    {
+        return this.task != null;
+    }
+
     /**
      * A simple function used to craft a title for the application. This takes
      * the title of the application, appends the project information, and notes
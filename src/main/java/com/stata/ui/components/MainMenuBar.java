@@ -1,19 +1,25 @@
 package com.stata.ui.components;
 
 import com.stata.Stata;
+import com.stata.io.IOManager;
+import com.stata.project.Change;
 import com.stata.project.Project;
+import com.stata.ui.BackgroundTask;
+import com.stata.ui.Images;
 import com.stata.ui.UI;
+import com.stata.ui.components.tabs.DataTab;
 
-import java.io.IOException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
-import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCombination;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
@@ -99,7 +105,7 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
         // Create the file menu items
         this.newMenuItem  = new MenuItem("New");
         this.openMenuItem = new MenuItem("Open");
-        this.saveMenuItem = new MenuItem("Save", new ImageView("resources/save.png"));
+        this.saveMenuItem = new MenuItem("Save", Images.view("resources/save.png"));
         this.saveAsMenuItem = new MenuItem("Save as...");
         this.exitMenuItem = new MenuItem("Exit");
 
@@ -141,7 +147,7 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
         this.dataMenu = new Menu("Data");
 
         // Create the data menu items
-        this.importMenuItem = new MenuItem("Import", new ImageView("resources/import.png"));
+        this.importMenuItem = new MenuItem("Import", Images.view("resources/import.png"));
 
         // Create the keyboard shortcuts
         this.importMenuItem.setAccelerator(KeyCombination.keyCombination("CTRL+I"));
@@ -190,11 +196,11 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
             // And handle the input
             if (this.file != null)
             {
-                // Load the file
-                this.project.load(this.file);
-
-                // And update the interface
-                this.ui.update();
+                // Read the file in the background, and open it once it is read
+                File file = this.file;
+                this.ui.run(new BackgroundTask<>("Opening " + file.getName(), BackgroundTask.ITEMS,
+                    progress -> IOManager.load(file, progress)),
+                    loaded -> this.project.open(loaded, file));
             }
         }
         else if (event.getSource() == this.saveMenuItem)
@@ -205,11 +211,8 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
             // Check if the file is valid
             if (this.file != null)
             {
-                // Save the file
-                this.project.save(this.file);
-
-                // And update the interface
-                this.ui.update();
+                // Save the file in the background
+                this.save(this.file);
             }
             else 
             {
@@ -236,11 +239,8 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
             // And handle the input
             if (this.file != null)
             {
-                // Save the file
-                this.project.save(this.file);
-
-                // And update the interface
-                this.ui.update();
+                // Save the file in the background
+                this.save(this.file);
             }
         }
         else if (event.getSource() == this.exitMenuItem)
@@ -264,24 +264,49 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
             this.file = this.chooser.showOpenDialog(this.stage);
 
             // And handle the input
-            if (this.file != null)
+            if (this.file != null && Stata.getInstance().getRuntime().getRuntimeValue("import_preview", Boolean.class))
+            {
+                // Import the data in the background, showing the first rows as soon as they are parsed
+                File file = this.file;
+                List<DataTab> tabs = new ArrayList<>();
+                this.ui.run(new BackgroundTask<>("Importing " + file.getName(), BackgroundTask.BYTES,
+                    progress -> this.project.streamTable(file, progress, Platform::runLater, table ->
+                    {
+                        tabs.add(new DataTab(this.ui, table));
+                        this.ui.addTab(tabs.get(0));
+                    })),
+                    table -> { },
+                    () -> tabs.forEach(this.ui.getContentPane()::removeTab));
+            }
+            else if (this.file != null)
             {
-                try{
-                    // Import the data
-                    this.project.importTable(file);
-
-                    // And update the interface
-                    this.ui.update();
-                }
-                catch (IOException ex)
-                {
-                    // Print the error
-                    ex.printStackTrace();
-                }
+                // Import the data in the background, and add it once it is complete
+                File file = this.file;
+                this.ui.run(new BackgroundTask<>("Importing " + file.getName(), BackgroundTask.BYTES,
+                    progress -> this.project.readTable(file, progress)),
+                    this.project::addTable);
             }
         }
     }
 
+    /**
+     * The function used to save the project in the background.
+     * 
+     * @param file The file to save the project as
+     */
+    private void save(File file)
+    {
+        // Take a snapshot of the project, so that it can change while it is written
+        Project snapshot = this.project.snapshot();
+
+        // And write the snapshot in the background, noting which tables it saved
+        this.ui.run(new BackgroundTask<>("Saving " + file.getName(), BackgroundTask.ITEMS, progress ->
+        {
+            IOManager.save(file, snapshot, progress);
+            return snapshot;
+        }), saved -> this.project.markSaved(saved, file));
+    }
+
     /**
      * The function used to set the stage that is active. This is used to
      * provide subcomponents a place to display.
@@ -293,6 +318,21 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
         this.stage = stage;
     }
 
+    /**
+     * The function used to subscribe to the changes made to the project. The
+     * menu items depend on whether the project has been saved.
+     * 
+     * @param ui The application UI
+     * @param project The project to follow
+     */
+    public void subscribe(UI ui, Project project)
+    {
+        ui.getRefresher().subscribe(project, changes ->
+        {
+            if (changes.contains(Change.MODIFIED)) this.update(ui, project);
+        });
+    }
+
     /**
      * The update function. This takes a specified project and ensures that the
      * tree reflects the active project state.
@@ -306,7 +346,11 @@ public class MainMenuBar extends MenuBar implements EventHandler<ActionEvent>
         this.ui = ui;
         this.project = project;
 
-        // Enable/disable menu items accordingly
-        this.saveMenuItem.setDisable(Stata.getInstance().getRuntime().getRuntimeValue("project_file", File.class) == null);
+        // Enable/disable menu items accordingly, while no task is running
+        boolean busy = ui.isBusy();
+        this.openMenuItem.setDisable(busy);
+        this.saveMenuItem.setDisable(busy || Stata.getInstance().getRuntime().getRuntimeValue("project_file", File.class) == null);
+        this.saveAsMenuItem.setDisable(busy);
+        this.importMenuItem.setDisable(busy);
     }
 }
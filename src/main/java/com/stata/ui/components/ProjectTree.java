@@ -1,26 +1,36 @@
 package com.stata.ui.components;
 
+import com.stata.project.Change;
 import com.stata.project.Datatable;
 import com.stata.project.Project;
+import com.stata.ui.Images;
 import com.stata.ui.UI;
 import com.stata.ui.components.tabs.DataTab;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.scene.control.cell.TextFieldTreeCell;
-import javafx.scene.image.ImageView;
 import javafx.util.Callback;
 
 /**
  * The ProjectTree class. This is displayed on the side of the main display and
  * shows the user the components of the project.
  * 
+ * The tree is updated in place: each table keeps the same item, found by the
+ * uuid of the table, so updating the tree only renames, adds or removes the
+ * items of the tables which have changed.
+ * 
  * @author Dan Jenkins
  */
 public class ProjectTree extends TreeView<String> implements EventHandler<TreeItem.TreeModificationEvent<String>>
@@ -43,6 +53,12 @@ public class ProjectTree extends TreeView<String> implements EventHandler<TreeIt
     /** A list of cell names corresponding to table names, for renaming tables. */
     private HashMap<TreeItem<String>, String> tableNames;
 
+    /** The item of each table, by the uuid of the table. */
+    private HashMap<UUID, TreeItem<String>> tableItems;
+
+    /** Whether the tree is being updated, rather than edited by the user. */
+    private boolean updating;
+
     /**
      * The default constructor. This creates a new ProjectTree based off of a
      * provided project.
@@ -53,10 +69,11 @@ public class ProjectTree extends TreeView<String> implements EventHandler<TreeIt
         this.root = new TreeItem<>();
         this.datatable = new TreeItem<>("Data tables");
         this.tableNames = new HashMap<>();
+        this.tableItems = new HashMap<>();
 
         // Add the graphics
-        this.root.setGraphic(new ImageView("resources/project.png"));
-        this.datatable.setGraphic(new ImageView("resources/datatable.png"));
+        this.root.setGraphic(Images.view("resources/project.png"));
+        this.datatable.setGraphic(Images.view("resources/datatable.png"));
 
         // Add the listeners
         this.root.addEventHandler(TreeItem.valueChangedEvent(), this);
@@ -86,7 +103,7 @@ public class ProjectTree extends TreeView<String> implements EventHandler<TreeIt
                     @SuppressWarnings("unchecked")
                     String text = ((TextFieldTreeCell<String>) event.getSource()).getText();
                     if (text != null) 
-                        ui.addTab(new DataTab(ui.getContentPane(), text));
+                        ui.addTab(new DataTab(ui, text));
                 });
                 return cell;
             }
@@ -99,6 +116,21 @@ public class ProjectTree extends TreeView<String> implements EventHandler<TreeIt
         this.setRoot(this.root);
     }
 
+    /**
+     * The function used to subscribe to the changes made to the project. The
+     * tree shows the name of the project and the names of its tables.
+     * 
+     * @param ui The application UI
+     * @param project The project to follow
+     */
+    public void subscribe(UI ui, Project project)
+    {
+        ui.getRefresher().subscribe(project, changes ->
+        {
+            if (changes.contains(Change.NAME) || changes.contains(Change.TABLES)) this.update(ui, project);
+        });
+    }
+
     /**
      * The update function. This takes a specified project and ensures that the
      * tree reflects the active project state.
@@ -112,20 +144,70 @@ public class ProjectTree extends TreeView<String> implements EventHandler<TreeIt
         this.ui = ui;
         this.project = project;
 
-        // Configure the main items
-        this.root.setExpanded(true);
-        this.root.setValue(this.project.getMetadata().getName());
-        this.datatable.setExpanded(true);
+        // Only allow renaming while no task is running
+        this.setEditable(!ui.isBusy());
+
+        // Configure the main items, without treating the changes as edits
+        this.updating = true;
+        try
+        {
+            this.root.setExpanded(true);
+            if (!this.project.getMetadata().getName().equals(this.root.getValue()))
+            {
+                this.root.setValue(this.project.getMetadata().getName());
+            }
+            this.datatable.setExpanded(true);
+
+            // And configure the datatables list
+            this.updateTables();
+        }
+        finally
+        {
+            this.updating = false;
+        }
+    }
 
-        // Configure the datatables list
-        this.datatable.getChildren().clear();
+    /**
+     * The function used to bring the items of the tables up to date. Items
+     * are kept for the tables that still exist, in the same order, and are
+     * only renamed if the name of their table has changed.
+     */
+    private void updateTables()
+    {
+        // Find the item of each table, creating items for new tables
+        Set<UUID> current = new HashSet<>();
+        List<TreeItem<String>> added = new ArrayList<>();
         for (Datatable table : this.project.getDatatables().values())
         {
-            TreeItem<String> treeItem = new TreeItem<String>(table.getName());
-            treeItem.setGraphic(new ImageView("resources/dot.png"));
+            current.add(table.getUUID());
+            TreeItem<String> treeItem = this.tableItems.get(table.getUUID());
+            if (treeItem == null)
+            {
+                treeItem = new TreeItem<String>(table.getName());
+                treeItem.setGraphic(Images.view("resources/dot.png"));
+                this.tableItems.put(table.getUUID(), treeItem);
+                added.add(treeItem);
+            }
+            else if (!table.getName().equals(treeItem.getValue()))
+            {
+                treeItem.setValue(table.getName());
+            }
             this.tableNames.put(treeItem, table.getName());
-            this.datatable.getChildren().add(treeItem);
         }
+
+        // Remove the items of tables which no longer exist
+        List<TreeItem<String>> removed = new ArrayList<>();
+        this.tableItems.entrySet().removeIf(entry ->
+        {
+            if (current.contains(entry.getKey())) return false;
+            removed.add(entry.getValue());
+            return true;
+        });
+        this.tableNames.keySet().removeAll(removed);
+
+        // And change the list of items only if we need to
+        if (!removed.isEmpty()) this.datatable.getChildren().removeAll(removed);
+        if (!added.isEmpty())   this.datatable.getChildren().addAll(added);
     }
 
     /**
@@ -136,36 +218,33 @@ public class ProjectTree extends TreeView<String> implements EventHandler<TreeIt
     @Override
     public void handle(TreeItem.TreeModificationEvent<String> event)
     {
+        // Ignore the changes made by updating the tree
+        if (this.updating) return;
+
+        // Refuse edits finished while a task is running, restoring the names
+        if (this.ui.isBusy())
+        {
+            Platform.runLater(() -> this.update(this.ui, this.project));
+            return;
+        }
+
         // Check the source of the event
         if (event.getSource() == this.root)
         {
-            // Update the project name
+            // And update the project name, which marks the project as modified
             this.project.getMetadata().setName(event.getNewValue());
-
-            // Mark the project as modified
-            this.project.modify();
-
-            // And update the project
-            this.ui.update();
         }
         else
         {
-            // Update the table name
+            // Rename the table, which marks the project as modified, or is
+            // refused if another table has the name, restoring the item
             String tableName = this.tableNames.get(event.getSource());
             Datatable table = this.project.getDatatables().get(tableName);
-            table.setName(event.getNewValue());
+            this.project.renameTable(table, event.getNewValue());
 
-            // Update the name in the tables list
+            // And update the name in the tables list
             this.tableNames.replace(event.getSource(), table.getName());
-            this.project.getDatatables().remove(tableName);
-            this.project.getDatatables().put(table.getName(), table);
-
-            // Note that the project has been modified
-            this.project.modify();
-
-            // And update the project
-            this.ui.update();
-        }     
+        }
     }
 
     /**
@@ -0,0 +1,88 @@
+package com.stata.ui.components;
+
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+
+/**
+ * The status bar. This is shown at the bottom of the window while a task runs
+ * in the background, showing its progress and letting the user cancel it.
+ *
+ * @author Dan Jenkins
+ */
+public class StatusBar extends HBox
+{
+    /** The spacing between the controls of the bar. */
+    private static final double SPACING = 8;
+
+    /** The label describing the task. */
+    private final Label label;
+
+    /** The bar showing the progress of the task. */
+    private final ProgressBar bar;
+
+    /** The button used to cancel the task. */
+    private final Button cancel;
+
+    /**
+     * The default constructor. This creates the status bar, which is hidden
+     * until a task is shown.
+     */
+    public StatusBar()
+    {
+        // Create the bar
+        super(SPACING);
+        this.setPadding(new Insets(4, SPACING, 4, SPACING));
+        this.setAlignment(Pos.CENTER_LEFT);
+
+        // Create the controls
+        this.label = new Label();
+        this.bar = new ProgressBar();
+        this.cancel = new Button("Cancel");
+        HBox.setHgrow(this.label, Priority.ALWAYS);
+        this.label.setMaxWidth(Double.MAX_VALUE);
+
+        // Add the controls
+        this.getChildren().addAll(this.label, this.bar, this.cancel);
+
+        // And hide the bar until it is needed
+        this.hide();
+    }
+
+    /**
+     * The function used to show the progress of a task.
+     *
+     * @param task The task to show
+     */
+    public void show(Task<?> task)
+    {
+        // Follow the progress of the task
+        this.label.textProperty().bind(task.messageProperty());
+        this.bar.progressProperty().bind(task.progressProperty());
+        this.cancel.setOnAction(event -> task.cancel());
+
+        // And show the bar
+        this.setVisible(true);
+        this.setManaged(true);
+    }
+
+    /**
+     * The function used to hide the bar once a task has finished.
+     */
+    public void hide()
+    {
+        // Stop following the task
+        this.label.textProperty().unbind();
+        this.bar.progressProperty().unbind();
+        this.cancel.setOnAction(null);
+
+        // And hide the bar
+        this.setVisible(false);
+        this.setManaged(false);
+    }
+}
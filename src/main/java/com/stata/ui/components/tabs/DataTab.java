@@ -1,59 +1,575 @@
 package com.stata.ui.components.tabs;
 
 import com.stata.ui.UI;
-import com.stata.ui.components.ContentPane;
 import com.stata.ui.components.ContentTab;
 import com.stata.Stata;
+import com.stata.project.Change;
 import com.stata.project.Datatable;
+import com.stata.project.Datatype;
 import com.stata.project.Project;
+import com.stata.project.columns.Column;
+import com.stata.query.Query;
+import com.stata.query.Selection;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.BorderPane;
 
 /**
  * The contant tab representing a data table. This displays the data in a table
  * to the user so that they can inspect or modify it later.
- * 
+ *
+ * The table is virtual: its rows are only the indices of the rows of the data
+ * table, and each visible cell reads its value straight from the column when
+ * it is shown, so no objects are created for the rows that are scrolled past.
+ * Opening a tab only reads the headers and the number of rows, and data which
+ * hasn't been loaded from the project file yet is loaded in the background.
+ *
+ * Sorting by the headers and filtering with a condition don't move any rows
+ * either: the list of indices is mapped through the cached sort order of the
+ * table and the rows selected by the condition, which are found in the
+ * background.
+ *
  * @author Dan Jenkins
  */
 public class DataTab extends ContentTab
 {
+    /** The height of each row of the table, in pixels. */
+    private static final double ROW_HEIGHT = 24;
+
+    /** The text shown for missing numbers. */
+    private static final String MISSING = ".";
+
+    /** The application UI. */
+    private final UI ui;
+
     /** The data that this table presents. */
     private Datatable data;
 
     /** The table that forms this tab. */
-    private TableView table;
+    private TableView<Integer> table;
+
+    /** The indices of the rows of the table. */
+    private RowList rows;
+
+    /** The headers shown by the table. */
+    private List<String> headers;
+
+    /** The types of the columns shown by the table. */
+    private List<Datatype> types;
+
+    /** The field holding the condition which the rows shown must satisfy. */
+    private TextField filter;
+
+    /** The headers that the rows are sorted by, in order. */
+    private List<String> sortBy;
+
+    /** Whether each of the headers is sorted in descending order. */
+    private boolean[] descending;
+
+    /** The condition which the rows shown must satisfy, if any. */
+    private String condition;
+
+    /** The version of the data that the rows were arranged for. */
+    private long arranged;
+
+    /** The number of times the rows have been arranged, so that stale arrangements are dropped. */
+    private int arrangements;
 
     /**
      * The default constructor. This creates a new data tab with a table of
-     * data to display to the user.
-     * 
-     * @param parent The parent pane
+     * data to display to the user, which is redrawn whenever the data changes.
+     *
+     * @param ui The application UI
      * @param data The table for the tab to represent
      */
-    public DataTab(ContentPane parent, String data)
+    public DataTab(UI ui, String data)
+    {
+        this(ui, Stata.getInstance().getProject().getDatatables().get(data));
+    }
+
+    /**
+     * The main constructor. This creates a new data tab for a table, such as
+     * a table which is still being imported.
+     *
+     * @param ui The application UI
+     * @param data The table for the tab to represent
+     */
+    public DataTab(UI ui, Datatable data)
     {
         // Create the content tab
-        super(parent);
+        super(ui.getContentPane());
 
         // Store the underlying data
-        this.data = Stata.getInstance().getProject().getDatatables().get(data);
+        this.ui = ui;
+        this.data = data;
 
         // Set the title
         this.setText(this.data.getName());
 
-        // Create the table
-        this.table = new TableView();
+        // Create the table over the indices of the rows, in their original order
+        this.rows = new RowList(this.data.getRowCount());
+        this.table = new TableView<>(this.rows);
+        this.table.setFixedCellSize(ROW_HEIGHT);
+        this.table.setEditable(false);
+        this.sortBy = new ArrayList<>();
+        this.descending = new boolean[0];
+        this.arranged = this.data.getVersion();
+
+        // Sort the rows through the sort order of the table, rather than moving them
+        this.table.setSortPolicy(view ->
+        {
+            this.sort();
+            return true;
+        });
+
+        // Create the field which filters the rows
+        this.filter = new TextField();
+        this.filter.setPromptText("Show the rows where a condition holds, such as price > 100 & !missing(rep78)");
+        this.filter.setOnAction(event -> this.filter());
+
+        // Create the columns
+        this.createColumns();
+        BorderPane content = new BorderPane(this.table);
+        content.setTop(this.filter);
+        this.setContent(content);
+
+        // Redraw the tab when the data changes, until the tab is closed
+        Consumer<Set<Change>> subscriber = changes -> this.update(ui, Stata.getInstance().getProject());
+        ui.getRefresher().subscribe(this.data, subscriber);
+        this.setOnClosed(event -> ui.getRefresher().unsubscribe(this.data, subscriber));
+
+        // And load the data in the background if necessary, telling the user if it fails
+        if (!this.data.isLoaded())
+        {
+            CompletableFuture.runAsync(this.data::load).whenComplete((result, exception) -> Platform.runLater(() ->
+            {
+                if (exception != null) ui.showError("The table could not be loaded", exception);
+                else                   this.table.refresh();
+            }));
+        }
+    }
+
+    /**
+     * The function used to create the columns of the table, starting with
+     * the number of each row.
+     */
+    private void createColumns()
+    {
+        // Store the headers and types that we show
+        this.headers = new ArrayList<>(this.data.getHeaders());
+        this.types = this.getTypes();
+
+        // Create the column of row numbers
+        List<TableColumn<Integer, String>> columns = new ArrayList<>();
+        TableColumn<Integer, String> numbers = new TableColumn<>();
+        numbers.setCellFactory(view -> new DataCell(-1));
+        numbers.setSortable(false);
+        numbers.setReorderable(false);
+        columns.add(numbers);
+
+        // And create a column for each header
+        for (int c = 0; c < this.headers.size(); c++)
+        {
+            int index = c;
+            TableColumn<Integer, String> column = new TableColumn<>(this.headers.get(c));
+            column.setCellFactory(view -> new DataCell(index));
+            column.setUserData(this.headers.get(c));
+            if (this.types.get(c).isNumeric()) column.setStyle("-fx-alignment: CENTER-RIGHT;");
+            columns.add(column);
+        }
+        this.table.getColumns().setAll(columns);
     }
 
      /**
      * The update function. This takes a specified project and ensures that the
      * tab reflects the active project state.
-     * 
+     *
      * @param ui The application UI
      * @param project The project to display
      */
     public void update(UI ui, Project project)
     {
+        // Update the title
         this.setText(this.data.getName());
+
+        // Recreate the columns if the headers or types have changed, such as
+        // while a table is still being imported
+        boolean changed = !this.headers.equals(this.data.getHeaders()) || !this.types.equals(this.getTypes());
+        if (changed) this.createColumns();
+
+        // Arrange the rows again if the data has changed
+        if (this.arranged != this.data.getVersion())
+        {
+            this.arrange();
+            changed = true;
+        }
+
+        // And redraw the visible cells if the data has changed
+        if (changed) this.table.refresh();
+    }
+
+    /**
+     * The function called by the table when the columns that it is sorted by
+     * change. The rows are sorted by each column in turn, in the direction
+     * chosen for that column.
+     */
+    private void sort()
+    {
+        // Find the headers that the table is sorted by
+        List<String> by = new ArrayList<>();
+        List<TableColumn.SortType> types = new ArrayList<>();
+        for (TableColumn<Integer, ?> column : this.table.getSortOrder())
+        {
+            if (!(column.getUserData() instanceof String)) continue;
+            by.add((String) column.getUserData());
+            types.add(column.getSortType());
+        }
+
+        // Find the direction of each of them
+        boolean[] descending = new boolean[by.size()];
+        for (int c = 0; c < descending.length; c++) descending[c] = types.get(c) == TableColumn.SortType.DESCENDING;
+
+        // Check whether the order has changed
+        if (by.equals(this.sortBy) && Arrays.equals(descending, this.descending)) return;
+
+        // And arrange the rows in the new order
+        this.sortBy = by;
+        this.descending = descending;
+        this.arrange();
+    }
+
+    /**
+     * The function called when the user enters a condition to filter the
+     * rows by. The condition is checked before it is used, so that a mistake
+     * leaves the rows as they were, and an empty condition shows every row.
+     */
+    private void filter()
+    {
+        // Check the condition
+        String text = this.filter.getText().trim();
+        try
+        {
+            if (!text.isEmpty()) Query.parse(text);
+        }
+        catch (IllegalArgumentException exception)
+        {
+            this.ui.showError("The condition could not be read", exception);
+            return;
+        }
+
+        // And arrange the rows which satisfy it
+        this.condition = text.isEmpty() ? null : text;
+        this.arrange();
+    }
+
+    /**
+     * The function used to arrange the rows shown by the table. Rows which
+     * are neither sorted nor filtered are shown straight away, and otherwise
+     * the order of the rows is found in the background, dropping it if the
+     * rows are arranged again before it is found.
+     */
+    private void arrange()
+    {
+        // Note the version of the data that the rows are arranged for
+        int arrangement = ++this.arrangements;
+        this.arranged = this.data.getVersion();
+
+        // Show every row in its original order if possible
+        if (this.sortBy.isEmpty() && this.condition == null)
+        {
+            this.rows.arrange(null, this.data.getRowCount());
+            return;
+        }
+
+        // Otherwise, find the rows to show in the background
+        List<String> by = this.sortBy;
+        boolean[] descending = this.descending;
+        String condition = this.condition;
+        CompletableFuture.supplyAsync(() -> DataTab.arrange(this.data, by, descending, condition))
+            .whenComplete((rows, exception) -> Platform.runLater(() ->
+            {
+                // Drop the rows if they have been arranged again since
+                if (arrangement != this.arrangements) return;
+
+                // And show the rows, or tell the user why they can't be shown
+                if (exception != null) this.ui.showError("The rows could not be arranged", exception);
+                else                   this.rows.arrange(rows, rows.length);
+                this.table.refresh();
+            }));
+    }
+
+    /**
+     * A function used to find the rows of a table to show, in the order that
+     * they are shown in.
+     *
+     * @param data The table
+     * @param by The headers that the rows are sorted by, which may be empty
+     * @param descending Whether each of the headers is sorted in descending order
+     * @param condition The condition which the rows must satisfy, or null
+     *
+     * @return The indices of the rows to show
+     */
+    private static int[] arrange(Datatable data, List<String> by, boolean[] descending, String condition)
+    {
+        // Sort and filter the rows
+        data.load();
+        int[] order = by.isEmpty() ? null : data.getSortOrder(by, descending);
+        Selection selection = condition == null ? null : Query.select(data, condition);
+
+        // And list the rows which are selected, in order
+        int count = order != null ? order.length : data.getRowCount();
+        int[] rows = new int[count];
+        int shown = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int row = order != null ? order[i] : i;
+            if (selection == null || selection.contains(row)) rows[shown++] = row;
+        }
+        return shown == count ? rows : Arrays.copyOf(rows, shown);
+    }
+
+    /**
+     * A function used to find the types of the columns of the table.
+     *
+     * @return The type of each column
+     */
+    private List<Datatype> getTypes()
+    {
+        List<Datatype> types = new ArrayList<>();
+        for (int c = 0; c < this.data.getHeaders().size(); c++) types.add(this.data.getType(c));
+        return types;
+    }
+
+    /**
+     * The row list class. This is a virtual list of the indices of the rows
+     * of a table, which holds nothing but its size while the rows are shown
+     * in their original order, and the indices of the rows shown otherwise.
+     */
+    private static class RowList extends ObservableListBase<Integer>
+    {
+        /** The indices of the rows shown, or null if every row is shown in order. */
+        private int[] rows;
+
+        /** The number of rows. */
+        private int size;
+
+        /**
+         * The default constructor. This creates a list of row indices.
+         *
+         * @param size The number of rows
+         */
+        public RowList(int size)
+        {
+            this.size = size;
+        }
+
+        /**
+         * A simple function which returns the index of a row.
+         *
+         * @param index The position of the row
+         *
+         * @return The index of the row
+         */
+        @Override
+        public Integer get(int index)
+        {
+            if (index < 0 || index >= this.size) throw new IndexOutOfBoundsException(index);
+            return this.rows != null ? this.rows[index] : index;
+        }
+
+        /**
+         * A simple function which returns the number of rows.
+         *
+         * @return The number of rows
+         */
+        @Override
+        public int size()
+        {
+            return this.size;
+        }
+
+        /**
+         * A function used to change the rows which are shown, notifying the
+         * table of the rows which were added or removed. Rows shown in their
+         * original order are only added to or removed from the end, such as
+         * when rows are added to the table.
+         *
+         * @param rows The indices of the rows to show, or null to show every row in order
+         * @param size The new number of rows
+         */
+        public void arrange(int[] rows, int size)
+        {
+            // Check whether the rows have changed
+            int previous = this.size;
+            if (rows == null && this.rows == null && size == previous) return;
+
+            // Change the rows
+            Rows removed = new Rows(this.rows, 0, previous);
+            boolean ordered = rows == null && this.rows == null;
+            this.rows = rows;
+            this.size = size;
+
+            // And notify the listeners
+            this.beginChange();
+            if (!ordered)
+            {
+                if (previous > 0) this.nextRemove(0, removed);
+                if (size > 0)     this.nextAdd(0, size);
+            }
+            else if (size > previous)
+            {
+                this.nextAdd(previous, size);
+            }
+            else
+            {
+                this.nextRemove(size, new Rows(null, size, previous));
+            }
+            this.endChange();
+        }
+    }
+
+    /**
+     * The rows class. This is a virtual list of the indices of a range of the
+     * rows which were shown, such as the rows removed from a row list.
+     */
+    private static class Rows extends AbstractList<Integer>
+    {
+        /** The indices of the rows shown, or null if the rows were shown in order. */
+        private final int[] rows;
+
+        /** The first position and the end of the range. */
+        private final int from, to;
+
+        /**
+         * The default constructor. This creates a list of rows.
+         *
+         * @param rows The indices of the rows shown, or null if the rows were shown in order
+         * @param from The first position of the range
+         * @param to The end of the range
+         */
+        public Rows(int[] rows, int from, int to)
+        {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * A simple function which returns the index of a row in the range.
+         *
+         * @param index The position of the row within the range
+         *
+         * @return The index of the row
+         */
+        @Override
+        public Integer get(int index)
+        {
+            return this.rows != null ? this.rows[this.from + index] : this.from + index;
+        }
+
+        /**
+         * A simple function which returns the number of rows in the range.
+         *
+         * @return The number of rows
+         */
+        @Override
+        public int size()
+        {
+            return this.to - this.from;
+        }
+    }
+
+    /**
+     * The data cell class. This shows the value of a column at the row that
+     * the cell is currently showing, reading it from the column when the cell
+     * is moved to another row, rather than through a property for each cell.
+     */
+    private class DataCell extends TableCell<Integer, String>
+    {
+        /** The index of the column, or -1 for the row numbers. */
+        private final int column;
+
+        /**
+         * The default constructor. This creates a cell for a column.
+         *
+         * @param column The index of the column, or -1 for the row numbers
+         */
+        public DataCell(int column)
+        {
+            this.column = column;
+        }
+
+        /**
+         * The update item function. This is called whenever the cell is
+         * moved to another row, and shows the value at that row.
+         *
+         * @param item The value given by the table, which is unused
+         * @param empty Whether the cell is beyond the last row
+         */
+        @Override
+        protected void updateItem(String item, boolean empty)
+        {
+            super.updateItem(item, empty);
+
+            // Check whether the cell shows a row
+            int index = this.getIndex();
+            if (empty || index < 0 || index >= DataTab.this.rows.size())
+            {
+                this.setText(null);
+                return;
+            }
+
+            // Find the row of the table that the cell shows
+            int row = DataTab.this.rows.get(index);
+            if (row >= DataTab.this.data.getRowCount())
+            {
+                this.setText(null);
+                return;
+            }
+
+            // Show the number of the row in the table
+            if (this.column < 0)
+            {
+                this.setText(Integer.toString(row + 1));
+                return;
+            }
+
+            // And show the value, once the data has been loaded
+            this.setText(DataTab.this.data.isLoaded() ? DataTab.this.format(this.column, row) : null);
+        }
+    }
+
+    /**
+     * A function used to format a value of the table for display. Missing
+     * numbers are shown as a dot.
+     *
+     * @param index The index of the column
+     * @param row The row
+     *
+     * @return The value as text
+     */
+    private String format(int index, int row)
+    {
+        // Check that the column still exists
+        if (index >= this.data.getColumnCount()) return null;
+
+        // And format the value
+        Column column = this.data.getColumn(index);
+        if (row >= column.size()) return null;
+        if (column.isMissing(row)) return column.getType().isNumeric() ? MISSING : "";
+        return column.get(row);
     }
 }
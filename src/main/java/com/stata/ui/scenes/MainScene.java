@@ -6,6 +6,7 @@ import com.stata.ui.components.ContentPane;
 import com.stata.ui.components.ContentTab;
 import com.stata.ui.components.MainMenuBar;
 import com.stata.ui.components.ProjectTree;
+import com.stata.ui.components.StatusBar;
 
 import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
@@ -31,6 +32,9 @@ public class MainScene extends Scene
     /** The tabbed content pane. */
     private ContentPane content;
 
+    /** The status bar showing the progress of background tasks. */
+    private StatusBar status;
+
     /**
      * The default constructor. This creates the scene with a specific parent
      * as well as a width and height, and adds all of the requisite components.
@@ -48,11 +52,13 @@ public class MainScene extends Scene
         this.menu = new MainMenuBar();
         this.tree = new ProjectTree();
         this.content = new ContentPane();
+        this.status = new StatusBar();
 
         // Add the components
         parent.setTop(this.menu);
         parent.setLeft(this.tree);
         parent.setCenter(this.content);
+        parent.setBottom(this.status);
     }    
 
     /**
@@ -70,6 +76,33 @@ public class MainScene extends Scene
         this.menu.setStage(this.stage);
     }
 
+    /**
+     * The function used to subscribe the components to the changes made to
+     * the project, so that each is redrawn when something it shows changes.
+     * 
+     * @param ui The application UI
+     * @param project The project to follow
+     */
+    public void subscribe(UI ui, Project project)
+    {
+        this.menu.subscribe(ui, project);
+        this.tree.subscribe(ui, project);
+    }
+
+    /**
+     * The function used to enable or disable the components which change the
+     * project, depending on whether a background task is running, so that
+     * the project isn't changed while a task is reading it.
+     * 
+     * @param ui The application UI
+     * @param project The project to display
+     */
+    public void updateBusy(UI ui, Project project)
+    {
+        this.menu.update(ui, project);
+        this.tree.update(ui, project);
+    }
+
     /**
      * The update function. This takes a specified project and ensures that the
      * application reflects the active project state.
@@ -104,4 +137,24 @@ public class MainScene extends Scene
     {
         return this.content;
     }
+
+    /**
+     * The status bar for showing the progress of background tasks.
+     * 
+     * @return The status bar
+     */
+    public StatusBar getStatusBar()
+    {
+        return this.status;
+    }
+
+    /**
+     * The menu bar for starting tasks and opening files.
+     * 
+     * @return The menu bar
+     */
+    public MainMenuBar getMenuBar()
+    {
+        return this.menu;
+    }
 }
@@ -0,0 +1,76 @@
+package com.stata;
+
+import com.stata.project.Datatable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The tables class. This static class builds small data tables from CSV text
+ * and reads them back as text, so that tests can state tables and their
+ * expected contents directly.
+ *
+ * @author Dan Jenkins
+ */
+public class Tables
+{
+    /**
+     * A function used to create a table from CSV text. The first line holds
+     * the headers, and the types of the columns are inferred from the rows.
+     *
+     * @param csv The CSV text
+     *
+     * @return The new table
+     */
+    public static Datatable table(String csv)
+    {
+        // Split the headers from the rows
+        int end = csv.indexOf('\n');
+        String headers = end < 0 ? csv : csv.substring(0, end);
+        String rows = end < 0 ? "" : csv.substring(end + 1);
+
+        try
+        {
+            // And import the table
+            Datatable table = new Datatable();
+            table.importHeaders(headers, Datatable.INPUT_CSV);
+            table.importData(new StringReader(rows), true);
+            return table;
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * A function used to read the rows of a table as text, with the values
+     * of each row joined by commas.
+     *
+     * @param table The table to read
+     *
+     * @return The rows of the table
+     */
+    public static List<String> rows(Datatable table)
+    {
+        // Read each of the rows
+        List<String> rows = new ArrayList<>();
+        for (int r = 0; r < table.getRowCount(); r++)
+        {
+            // Join the values of the row
+            StringBuilder row = new StringBuilder();
+            for (int c = 0; c < table.getColumnCount(); c++)
+            {
+                if (c > 0) row.append(',');
+                row.append(table.getColumn(c).get(r));
+            }
+
+            // And add the row
+            rows.add(row.toString());
+        }
+        return rows;
+    }
+}
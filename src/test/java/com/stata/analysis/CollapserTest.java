@@ -0,0 +1,265 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.Datatype;
+import com.stata.project.columns.Column;
+import com.stata.query.Query;
+import com.stata.query.Selection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The tests of the collapser, which check each statistic of each group
+ * against the same statistic computed from the rows of the group.
+ *
+ * @author Dan Jenkins
+ */
+public class CollapserTest
+{
+    /** The number of rows in the table, which spans several segments. */
+    private static final int ROWS = 2 * Column.SEGMENT_SIZE + 999;
+
+    /** The statistics computed by each collapse. */
+    private static final List<Aggregation> AGGREGATIONS = List.of(
+        new Aggregation(Statistic.SUM, "v", "sum_v"),
+        new Aggregation(Statistic.MEAN, "v", "mean_v"),
+        new Aggregation(Statistic.MIN, "v", "min_v"),
+        new Aggregation(Statistic.COUNT, "v", "count_v"),
+        new Aggregation(Statistic.LAST, "v", "last_v"),
+        new Aggregation(Statistic.SUM, "i", "sum_i"),
+        new Aggregation(Statistic.MEAN, "i", "mean_i"),
+        new Aggregation(Statistic.MAX, "i", "max_i"),
+        new Aggregation(Statistic.FIRST, "t", "first_t"),
+        new Aggregation(Statistic.COUNT, "t", "count_t"));
+
+    /** The table to collapse. */
+    private static Datatable table;
+
+    /**
+     * A function used to create the table to collapse, with a tenth of each
+     * column missing. Some groups have every value of v missing.
+     */
+    @BeforeClass
+    public static void createTable()
+    {
+        Random random = new Random(5);
+        StringBuilder csv = new StringBuilder("g,s,v,i,t\n");
+        for (int r = 0; r < ROWS; r++)
+        {
+            int g = random.nextInt(50);
+            csv.append(CollapserTest.value(random, Integer.toString(g))).append(',');
+            csv.append(CollapserTest.value(random, Character.toString((char) ('a' + random.nextInt(3))))).append(',');
+            csv.append(g == 7 ? "" : CollapserTest.value(random, String.format(Locale.ROOT, "%.3f", random.nextGaussian()))).append(',');
+            csv.append(CollapserTest.value(random, Integer.toString(random.nextInt(1000) - 500))).append(',');
+            csv.append(CollapserTest.value(random, "text" + random.nextInt(100))).append('\n');
+        }
+        table = Tables.table(csv.toString());
+    }
+
+    /**
+     * Checks collapsing by one column.
+     */
+    @Test
+    public void collapsesByOneColumn()
+    {
+        CollapserTest.assertCollapses(List.of("g"), null);
+    }
+
+    /**
+     * Checks collapsing by two columns of different types.
+     */
+    @Test
+    public void collapsesBySeveralColumns()
+    {
+        CollapserTest.assertCollapses(List.of("s", "g"), null);
+    }
+
+    /**
+     * Checks collapsing the rows which satisfy a condition.
+     */
+    @Test
+    public void collapsesSelections()
+    {
+        CollapserTest.assertCollapses(List.of("g", "s"), Query.select(table, "i > 0 & v < ."));
+    }
+
+    /**
+     * Checks collapsing the whole table into a single group.
+     */
+    @Test
+    public void collapsesWithoutGroups()
+    {
+        CollapserTest.assertCollapses(List.of(), null);
+    }
+
+    /**
+     * Checks that the statistics keep or widen the types of their columns.
+     */
+    @Test
+    public void keepsTypes()
+    {
+        Datatable result = Collapser.collapse(table, AGGREGATIONS, List.of("g"));
+        assertEquals(Datatype.INTEGER, result.getColumn("g").getType());
+        assertEquals(Datatype.NUMBER, result.getColumn("sum_v").getType());
+        assertEquals(Datatype.INTEGER, result.getColumn("sum_i").getType());
+        assertEquals(Datatype.NUMBER, result.getColumn("mean_i").getType());
+        assertEquals(Datatype.INTEGER, result.getColumn("max_i").getType());
+        assertEquals(Datatype.INTEGER, result.getColumn("count_t").getType());
+        assertEquals(Datatype.STRING, result.getColumn("first_t").getType());
+    }
+
+    /**
+     * Checks that unknown columns and numeric statistics of text are
+     * reported.
+     */
+    @Test
+    public void rejectsInvalidCollapses()
+    {
+        List<Aggregation> sum = List.of(new Aggregation(Statistic.SUM, "v", "sum_v"));
+        IllegalArgumentException exception;
+        exception = assertThrows(IllegalArgumentException.class, () -> Collapser.collapse(table, sum, List.of("x")));
+        assertEquals("variable x not found", exception.getMessage());
+        exception = assertThrows(IllegalArgumentException.class, () -> Collapser.collapse(table, List.of(new Aggregation(Statistic.MEAN, "y", "m")), List.of("g")));
+        assertEquals("variable y not found", exception.getMessage());
+        exception = assertThrows(IllegalArgumentException.class, () -> Collapser.collapse(table, List.of(new Aggregation(Statistic.MEAN, "t", "m")), List.of("g")));
+        assertEquals("type mismatch", exception.getMessage());
+    }
+
+    /**
+     * A function used to collapse the table and check every group against
+     * the statistics computed from its rows.
+     *
+     * @param by The columns to group by
+     * @param selection The rows to collapse, or null for every row
+     */
+    private static void assertCollapses(List<String> by, Selection selection)
+    {
+        // Group the rows by their keys, ordered with missing keys last
+        Comparator<List<String>> comparator = (a, b) -> 0;
+        for (int k = 0; k < by.size(); k++)
+        {
+            Column column = table.getColumn(by.get(k));
+            int key = k;
+            comparator = comparator.thenComparing((a, b) -> CollapserTest.compare(column, a.get(key), b.get(key)));
+        }
+        TreeMap<List<String>, List<Integer>> groups = new TreeMap<>(comparator);
+        for (int r = 0; r < ROWS; r++)
+        {
+            if (selection != null && !selection.contains(r)) continue;
+            List<String> key = new ArrayList<>();
+            for (String name : by) key.add(table.getColumn(name).get(r));
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(r);
+        }
+
+        // Collapse the table
+        Datatable result = Collapser.collapse(table, AGGREGATIONS, by, selection);
+        assertEquals(groups.size(), result.getRowCount());
+
+        // And check each of the groups
+        int row = 0;
+        for (List<String> key : groups.keySet())
+        {
+            // Check the keys of the group
+            for (int k = 0; k < by.size(); k++) assertEquals(key.get(k), result.getColumn(by.get(k)).get(row));
+
+            // And check its statistics
+            List<Integer> rows = groups.get(key);
+            CollapserTest.assertStatistics(result, row, rows, "v", "sum_v", "mean_v", "min_v", null, "count_v");
+            CollapserTest.assertStatistics(result, row, rows, "i", "sum_i", "mean_i", null, "max_i", null);
+            assertEquals(table.getColumn("v").get(rows.get(rows.size() - 1)), result.getColumn("last_v").get(row));
+            assertEquals(table.getColumn("t").get(rows.get(0)), result.getColumn("first_t").get(row));
+            assertEquals(Long.toString(CollapserTest.present(table.getColumn("t"), rows).size()), result.getColumn("count_t").get(row));
+            row++;
+        }
+    }
+
+    /**
+     * A function used to check the numeric statistics of a group. The sum of
+     * a group without values is zero, and its mean and bounds are missing.
+     *
+     * @param result The collapsed table
+     * @param row The row of the group in the collapsed table
+     * @param rows The rows of the group in the original table
+     * @param source The column being aggregated
+     * @param sum The column holding the sum, or null
+     * @param mean The column holding the mean, or null
+     * @param min The column holding the minimum, or null
+     * @param max The column holding the maximum, or null
+     * @param count The column holding the count, or null
+     */
+    private static void assertStatistics(Datatable result, int row, List<Integer> rows, String source,
+                                         String sum, String mean, String min, String max, String count)
+    {
+        // Gather the values of the group
+        List<String> values = CollapserTest.present(table.getColumn(source), rows);
+        double total = values.stream().mapToDouble(Double::parseDouble).sum();
+        String smallest = values.stream().min(Comparator.comparingDouble(Double::parseDouble)).orElse("");
+        String largest = values.stream().max(Comparator.comparingDouble(Double::parseDouble)).orElse("");
+
+        // And check each of the statistics
+        if (sum != null)   assertEquals(total, Double.parseDouble(result.getColumn(sum).get(row)), 1e-9);
+        if (mean != null && values.isEmpty()) assertEquals("", result.getColumn(mean).get(row));
+        if (mean != null && !values.isEmpty()) assertEquals(total / values.size(), Double.parseDouble(result.getColumn(mean).get(row)), 1e-9);
+        if (min != null)   assertEquals(smallest, result.getColumn(min).get(row));
+        if (max != null)   assertEquals(largest, result.getColumn(max).get(row));
+        if (count != null) assertEquals(Integer.toString(values.size()), result.getColumn(count).get(row));
+    }
+
+    /**
+     * A function used to find the values of the rows of a column which
+     * aren't missing.
+     *
+     * @param column The column
+     * @param rows The rows to read
+     *
+     * @return The values which are present
+     */
+    private static List<String> present(Column column, List<Integer> rows)
+    {
+        List<String> values = new ArrayList<>();
+        for (int row : rows) if (!column.isMissing(row)) values.add(column.get(row));
+        return values;
+    }
+
+    /**
+     * A function used to compare two keys of a column, with missing keys
+     * after every other key.
+     *
+     * @param column The column of the keys
+     * @param a The first key
+     * @param b The second key
+     *
+     * @return The comparison of the keys
+     */
+    private static int compare(Column column, String a, String b)
+    {
+        if (a.isEmpty() || b.isEmpty()) return Boolean.compare(a.isEmpty(), b.isEmpty());
+        if (column.getType() == Datatype.STRING) return a.compareTo(b);
+        return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+    }
+
+    /**
+     * A function used to leave a tenth of the values missing.
+     *
+     * @param random The source of the missing values
+     * @param value The value
+     *
+     * @return The value, or an empty string for a missing value
+     */
+    private static String value(Random random, String value)
+    {
+        return random.nextInt(10) == 0 ? "" : value;
+    }
+}
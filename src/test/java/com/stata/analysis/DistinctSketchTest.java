@@ -0,0 +1,94 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The tests of the distinct sketch, which check that its estimates are within
+ * the error bound of the sketch, for small and large counts of numbers and
+ * text.
+ *
+ * @author Dan Jenkins
+ */
+public class DistinctSketchTest
+{
+    /** The largest error allowed in an estimate, which is three standard errors of the sketch. */
+    private static final double ERROR = 0.05;
+
+    /**
+     * Checks the estimates of numbers across small and large counts, which
+     * are estimated in different ways.
+     */
+    @Test
+    public void boundsTheErrorOfNumbers()
+    {
+        for (int count : new int[] { 10, 1000, 10_000, 100_000, 1_000_000 })
+        {
+            DistinctSketch sketch = new DistinctSketch();
+            for (int i = 0; i < count; i++) sketch.add(i * 0.5);
+
+            DistinctSketchTest.assertEstimate(count, sketch);
+        }
+    }
+
+    /**
+     * Checks the estimates of text.
+     */
+    @Test
+    public void boundsTheErrorOfText()
+    {
+        DistinctSketch sketch = new DistinctSketch();
+        for (int i = 0; i < 200_000; i++) sketch.add("value" + i);
+
+        DistinctSketchTest.assertEstimate(200_000, sketch);
+    }
+
+    /**
+     * Checks that repeated values, and integers and negative zero stored as
+     * numbers, are only counted once.
+     */
+    @Test
+    public void countsRepeatsOnce()
+    {
+        DistinctSketch sketch = new DistinctSketch();
+        for (int repeat = 0; repeat < 5; repeat++)
+        {
+            for (int i = 0; i < 50_000; i++) sketch.add(i);
+        }
+        sketch.add(-0.0);
+
+        DistinctSketchTest.assertEstimate(50_000, sketch);
+    }
+
+    /**
+     * Checks that merging the sketches of overlapping ranges estimates the
+     * count of their union, and that sketches survive being stored as text.
+     */
+    @Test
+    public void mergesSketches()
+    {
+        // Sketch two overlapping ranges
+        DistinctSketch first = new DistinctSketch(), second = new DistinctSketch();
+        for (int i = 0; i < 60_000; i++) first.add(i);
+        for (int i = 40_000; i < 100_000; i++) second.add(i);
+
+        // And check their union and its stored copy
+        first.merge(second);
+        DistinctSketchTest.assertEstimate(100_000, first);
+        assertEquals(first.getEstimate(), DistinctSketch.fromString(first.getString()).getEstimate());
+    }
+
+    /**
+     * A function used to check an estimate against the exact count.
+     *
+     * @param count The exact number of distinct values
+     * @param sketch The sketch
+     */
+    private static void assertEstimate(long count, DistinctSketch sketch)
+    {
+        long estimate = sketch.getEstimate();
+        assertTrue(count + " distinct values estimated as " + estimate, Math.abs(estimate - count) <= ERROR * count);
+    }
+}
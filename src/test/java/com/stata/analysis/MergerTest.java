@@ -0,0 +1,241 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * The tests of the merger, which check the rows of one-to-one, many-to-one
+ * and one-to-many merges, and that keys which don't fit the merge are
+ * reported.
+ *
+ * @author Dan Jenkins
+ */
+public class MergerTest
+{
+    /**
+     * Checks a one-to-one merge, which keeps the master rows in order and
+     * adds the unmatched using rows after them.
+     */
+    @Test
+    public void mergesOneToOne()
+    {
+        Datatable master = Tables.table("id,a\n1,x\n2,y\n3,z");
+        Datatable using = Tables.table("id,b\n3,30\n1,10\n4,40");
+        Datatable result = Merger.merge(master, using, MergeType.ONE_TO_ONE, List.of("id"));
+
+        assertEquals(List.of("id", "a", "b", "_merge"), result.getHeaders());
+        assertEquals(List.of("1,x,10,3", "2,y,,1", "3,z,30,3", "4,,40,2"), Tables.rows(result));
+    }
+
+    /**
+     * Checks a many-to-one merge, which gives each master row the values of
+     * its using row.
+     */
+    @Test
+    public void mergesManyToOne()
+    {
+        Datatable master = Tables.table("k,v\na,1\nb,2\na,3\nc,4");
+        Datatable using = Tables.table("k,w\na,10\nb,20\nd,40");
+        Datatable result = Merger.merge(master, using, MergeType.MANY_TO_ONE, List.of("k"));
+
+        assertEquals(List.of("a,1,10,3", "b,2,20,3", "a,3,10,3", "c,4,,1", "d,,40,2"), Tables.rows(result));
+    }
+
+    /**
+     * Checks a one-to-many merge, which repeats each master row for every
+     * using row it matches.
+     */
+    @Test
+    public void mergesOneToMany()
+    {
+        Datatable master = Tables.table("k,v\na,1\nb,2");
+        Datatable using = Tables.table("k,w\na,10\nc,30\na,11");
+        Datatable result = Merger.merge(master, using, MergeType.ONE_TO_MANY, List.of("k"));
+
+        assertEquals(List.of("a,1,10,3", "a,1,11,3", "b,2,,1", "c,,30,2"), Tables.rows(result));
+    }
+
+    /**
+     * Checks merging by several keys, where missing keys match each other.
+     */
+    @Test
+    public void mergesBySeveralKeys()
+    {
+        Datatable master = Tables.table("k,n,v\na,1,p\na,2,q\n,1,r\nb,,s");
+        Datatable using = Tables.table("k,n,w\na,2,20\n,1,10\nb,,30\nb,1,40");
+        Datatable result = Merger.merge(master, using, MergeType.ONE_TO_ONE, List.of("k", "n"));
+
+        assertEquals(List.of("a,1,p,,1", "a,2,q,20,3", ",1,r,10,3", "b,,s,30,3", "b,1,,40,2"), Tables.rows(result));
+    }
+
+    /**
+     * Checks that the master values are kept for columns in both tables.
+     */
+    @Test
+    public void keepsMasterValues()
+    {
+        Datatable master = Tables.table("id,v\n1,a\n2,b");
+        Datatable using = Tables.table("id,v\n2,c\n3,d");
+        Datatable result = Merger.merge(master, using, MergeType.ONE_TO_ONE, List.of("id"));
+
+        assertEquals(List.of("1,a,1", "2,b,3", "3,d,2"), Tables.rows(result));
+    }
+
+    /**
+     * Checks a many-to-one merge of tables spanning several segments against
+     * the rows paired up one by one.
+     */
+    @Test
+    public void mergesLargeTables()
+    {
+        // Create the tables, with some keys missing from each
+        Random random = new Random(3);
+        StringBuilder masterCsv = new StringBuilder("id,v\n");
+        List<String> masterKeys = new ArrayList<>();
+        for (int r = 0; r < 2 * Column.SEGMENT_SIZE + 50; r++)
+        {
+            String key = Integer.toString(random.nextInt(1200));
+            masterKeys.add(key);
+            masterCsv.append(key).append(',').append(r).append('\n');
+        }
+        StringBuilder usingCsv = new StringBuilder("id,w\n");
+        Map<String, Integer> usingRows = new HashMap<>();
+        List<String> usingKeys = new ArrayList<>();
+        for (int key = 1399; key >= 0; key -= 1 + random.nextInt(2))
+        {
+            usingRows.put(Integer.toString(key), usingKeys.size());
+            usingKeys.add(Integer.toString(key));
+            usingCsv.append(key).append(',').append(key * 10).append('\n');
+        }
+
+        // Pair up the rows
+        List<String> expected = new ArrayList<>();
+        Set<String> matched = new HashSet<>();
+        for (int r = 0; r < masterKeys.size(); r++)
+        {
+            String key = masterKeys.get(r);
+            if (usingRows.containsKey(key)) matched.add(key);
+            expected.add(key + "," + r + "," + (usingRows.containsKey(key) ? Integer.parseInt(key) * 10 + ",3" : ",1"));
+        }
+        for (String key : usingKeys)
+        {
+            if (!matched.contains(key)) expected.add(key + ",," + Integer.parseInt(key) * 10 + ",2");
+        }
+
+        // And compare the merge
+        Datatable result = Merger.merge(Tables.table(masterCsv.toString()), Tables.table(usingCsv.toString()), MergeType.MANY_TO_ONE, List.of("id"));
+        assertEquals(expected, Tables.rows(result));
+    }
+
+    /**
+     * Checks that keys which don't uniquely identify the rows they must are
+     * reported, whichever table is larger.
+     */
+    @Test
+    public void rejectsDuplicateKeys()
+    {
+        Datatable small = Tables.table("id,a\n1,x\n1,y");
+        Datatable large = Tables.table("id,b\n1,10\n2,20\n3,30");
+        String master = "variables id do not uniquely identify observations in the master data";
+        String using = "variables id do not uniquely identify observations in the using data";
+
+        MergerTest.assertRejects(master, small, large, MergeType.ONE_TO_ONE, "id");
+        MergerTest.assertRejects(using, large, small, MergeType.ONE_TO_ONE, "id");
+        MergerTest.assertRejects(using, large, small, MergeType.MANY_TO_ONE, "id");
+        MergerTest.assertRejects(master, small, large, MergeType.ONE_TO_MANY, "id");
+        MergerTest.assertRejects(master, Tables.table("id\n1\n2\n2\n3"), Tables.table("id\n1"), MergeType.ONE_TO_MANY, "id");
+    }
+
+    /**
+     * Checks that missing keys, keys of different types, and an existing
+     * merge column are reported.
+     */
+    @Test
+    public void rejectsInvalidKeys()
+    {
+        Datatable numbers = Tables.table("id,a\n1,x\n2,y");
+        Datatable text = Tables.table("id,b\nx,1\ny,2");
+
+        MergerTest.assertRejects("no key variables specified", numbers, numbers, MergeType.ONE_TO_ONE);
+        MergerTest.assertRejects("variable q not found in master data", numbers, text, MergeType.ONE_TO_ONE, "q");
+        MergerTest.assertRejects("variable a not found in using data", numbers, text, MergeType.ONE_TO_ONE, "a");
+        MergerTest.assertRejects("key variable id is numeric in master but str in using data", numbers, text, MergeType.ONE_TO_ONE, "id");
+        MergerTest.assertRejects("key variable id is str in master but numeric in using data", text, numbers, MergeType.ONE_TO_ONE, "id");
+
+        Datatable merged = Merger.merge(numbers, numbers, MergeType.ONE_TO_ONE, List.of("id"));
+        MergerTest.assertRejects("variable _merge already defined", merged, numbers, MergeType.ONE_TO_ONE, "id");
+    }
+
+    /**
+     * Checks that tables whose loading was deferred are loaded before they
+     * are merged.
+     */
+    @Test
+    public void loadsDeferredTables() throws IOException
+    {
+        Datatable master = MergerTest.deferred("id,a", "1,x\n2,y\n");
+        Datatable using = MergerTest.deferred("id,b", "2,20\n3,30\n");
+
+        Datatable result = Merger.merge(master, using, MergeType.ONE_TO_ONE, List.of("id"));
+        assertEquals(List.of("1,x,,1", "2,y,20,3", "3,,30,2"), Tables.rows(result));
+    }
+
+    /**
+     * Checks that tables whose keys would need more values than fit in an
+     * array are reported rather than overflowing.
+     */
+    @Test
+    public void rejectsOversizedKeys()
+    {
+        assertEquals(3 * 1000, Merger.getKeySize(1000, 3, "master"));
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> Merger.getKeySize(Integer.MAX_VALUE / 2, 3, "using"));
+        assertEquals("too many observations in the using data to merge on 2 key variables", exception.getMessage());
+    }
+
+    /**
+     * A function used to create a table whose data is only loaded when it is
+     * first needed.
+     *
+     * @param headers The CSV headers
+     * @param data The CSV data
+     *
+     * @return The table
+     */
+    private static Datatable deferred(String headers, String data) throws IOException
+    {
+        Datatable table = new Datatable();
+        table.importHeaders(headers, Datatable.INPUT_CSV);
+        table.setLoader(loaded -> loaded.importData(data));
+        return table;
+    }
+
+    /**
+     * A function used to check that a merge is rejected with a message.
+     *
+     * @param message The expected message
+     * @param master The master table
+     * @param using The using table
+     * @param type The type of the merge
+     * @param keys The key columns
+     */
+    private static void assertRejects(String message, Datatable master, Datatable using, MergeType type, String... keys)
+    {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> Merger.merge(master, using, type, List.of(keys)));
+        assertEquals(message, exception.getMessage());
+    }
+}
@@ -0,0 +1,188 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The tests of the numeric kernels, which check the kernels chosen at run
+ * time against the scalar kernels over ranges of every length and alignment.
+ * Without the vector profile both are the scalar kernels, so they are also
+ * checked against plain loops.
+ *
+ * @author Dan Jenkins
+ */
+public class NumericKernelsTest
+{
+    /** The largest array used by the tests. */
+    private static final int LENGTH = 1100;
+
+    /** The scalar kernels, and the kernels chosen at run time. */
+    private static NumericKernels scalar, chosen;
+
+    /** The values used by the tests. */
+    private static double[] a, b;
+
+    /**
+     * A function used to find both kernels, and to create the values, which
+     * include ties with the bounds of the ranges.
+     */
+    @BeforeClass
+    public static void selectKernels()
+    {
+        // Find the kernels
+        NumericKernels.select(false);
+        scalar = NumericKernels.getInstance();
+        NumericKernels.select(true);
+        chosen = NumericKernels.getInstance();
+
+        // And create the values
+        Random random = new Random(13);
+        a = new double[LENGTH];
+        b = new double[LENGTH];
+        for (int i = 0; i < LENGTH; i++)
+        {
+            a[i] = random.nextInt(8) == 0 ? random.nextInt(5) - 2 : random.nextGaussian() * 100;
+            b[i] = random.nextGaussian();
+        }
+    }
+
+    /**
+     * A function used to restore the kernels chosen at run time.
+     */
+    @AfterClass
+    public static void restoreKernels()
+    {
+        NumericKernels.select(true);
+    }
+
+    /**
+     * Checks the sums, sums of squares and dot products.
+     */
+    @Test
+    public void reducesRanges()
+    {
+        for (int from = 0; from < 4; from++)
+        {
+            for (int to = from; to < LENGTH; to += to < 80 ? 1 : 97)
+            {
+                // Compute the reductions with plain loops
+                double sum = 0, squares = 0, dot = 0, scale = 0;
+                for (int i = from; i < to; i++)
+                {
+                    sum += a[i];
+                    squares += (a[i] - 1.5) * (a[i] - 1.5);
+                    dot += a[i] * b[i];
+                    scale += Math.abs(a[i]) * (1 + Math.abs(b[i]) + Math.abs(a[i]));
+                }
+
+                // And compare both kernels, allowing for the order of the additions
+                double tolerance = 1e-12 * (1 + scale);
+                String range = from + ".." + to;
+                assertEquals(range, sum, scalar.sum(a, from, to), tolerance);
+                assertEquals(range, sum, chosen.sum(a, from, to), tolerance);
+                assertEquals(range, squares, chosen.squares(a, from, to, 1.5), tolerance);
+                assertEquals(range, scalar.squares(a, from, to, 1.5), chosen.squares(a, from, to, 1.5), tolerance);
+                assertEquals(range, dot, chosen.dot(a, b, from, to), tolerance);
+                assertEquals(range, scalar.dot(a, b, from, to), chosen.dot(a, b, from, to), tolerance);
+            }
+        }
+    }
+
+    /**
+     * Checks the smallest and largest values, which must match exactly, and
+     * are infinite for empty ranges.
+     */
+    @Test
+    public void boundsRanges()
+    {
+        for (int from = 0; from < 4; from++)
+        {
+            for (int to = from; to < LENGTH; to += to < 80 ? 1 : 97)
+            {
+                // Find the bounds with a plain loop
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++)
+                {
+                    min = Math.min(min, a[i]);
+                    max = Math.max(max, a[i]);
+                }
+
+                // And compare both kernels
+                String range = from + ".." + to;
+                assertEquals(range, min, scalar.min(a, from, to), 0);
+                assertEquals(range, min, chosen.min(a, from, to), 0);
+                assertEquals(range, max, scalar.max(a, from, to), 0);
+                assertEquals(range, max, chosen.max(a, from, to), 0);
+            }
+        }
+    }
+
+    /**
+     * Checks the element-wise sums and products, which must match exactly.
+     */
+    @Test
+    public void combinesArrays()
+    {
+        for (int from = 0; from < 4; from++)
+        {
+            for (int to = from; to < LENGTH; to += to < 80 ? 1 : 97)
+            {
+                // Compute the sums and products with a plain loop
+                double[] sums = new double[LENGTH], products = new double[LENGTH];
+                for (int i = from; i < to; i++)
+                {
+                    sums[i] = a[i] + b[i];
+                    products[i] = a[i] * b[i];
+                }
+
+                // And compare both kernels
+                String range = from + ".." + to;
+                double[] result = new double[LENGTH];
+                scalar.add(a, b, result, from, to);
+                assertArrayEquals(range, sums, result, 0);
+                chosen.add(a, b, result = new double[LENGTH], from, to);
+                assertArrayEquals(range, sums, result, 0);
+                scalar.multiply(a, b, result = new double[LENGTH], from, to);
+                assertArrayEquals(range, products, result, 0);
+                chosen.multiply(a, b, result = new double[LENGTH], from, to);
+                assertArrayEquals(range, products, result, 0);
+            }
+        }
+    }
+
+    /**
+     * Checks the bitmaps of the values within a range, including values equal
+     * to the bounds and infinite bounds.
+     */
+    @Test
+    public void selectsRanges()
+    {
+        double[][] bounds = { { -1, 1 }, { 0, 0 }, { -2, Double.POSITIVE_INFINITY }, { Double.NEGATIVE_INFINITY, 2 }, { 5, -5 } };
+        for (double[] bound : bounds)
+        {
+            for (int from = 0; from + 64 <= LENGTH; from += 37)
+            {
+                for (int count = 0; count <= 64; count++)
+                {
+                    // Build the bitmap with a plain loop
+                    long word = 0;
+                    for (int i = 0; i < count; i++)
+                    {
+                        if (a[from + i] >= bound[0] && a[from + i] <= bound[1]) word |= 1L << i;
+                    }
+
+                    // And compare both kernels
+                    String range = from + "+" + count + " in " + bound[0] + ".." + bound[1];
+                    assertEquals(range, word, scalar.range(a, from, count, bound[0], bound[1]));
+                    assertEquals(range, word, chosen.range(a, from, count, bound[0], bound[1]));
+                }
+            }
+        }
+    }
+}
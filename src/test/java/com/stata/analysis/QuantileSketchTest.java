@@ -0,0 +1,129 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The tests of the quantile sketch, which check that the rank of each
+ * estimated quantile is within the error bound of the sketch, however the
+ * values are added.
+ *
+ * @author Dan Jenkins
+ */
+public class QuantileSketchTest
+{
+    /** The number of values sketched, which is enough to fill many levels. */
+    private static final int VALUES = 1_000_000;
+
+    /** The largest error allowed in the rank of a quantile, as a fraction of the values. */
+    private static final double RANK_ERROR = 0.02;
+
+    /** The quantiles checked. */
+    private static final double[] QUANTILES = { 0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99 };
+
+    /**
+     * Checks the quantiles of values added one at a time.
+     */
+    @Test
+    public void boundsTheRankOfSingleValues()
+    {
+        double[] values = QuantileSketchTest.values(1);
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) sketch.add(value);
+
+        QuantileSketchTest.assertQuantiles(sketch);
+    }
+
+    /**
+     * Checks the quantiles of values added in blocks, which are sampled.
+     */
+    @Test
+    public void boundsTheRankOfBlocks()
+    {
+        double[] values = QuantileSketchTest.values(2);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int from = 0; from < values.length; from += 50_000) sketch.addAll(values, from, Math.min(values.length, from + 50_000));
+
+        QuantileSketchTest.assertQuantiles(sketch);
+    }
+
+    /**
+     * Checks the quantiles of sketches of separate ranges merged together,
+     * and that they survive being stored as text.
+     */
+    @Test
+    public void boundsTheRankOfMergedSketches()
+    {
+        // Sketch ranges of uneven sizes and merge them
+        double[] values = QuantileSketchTest.values(3);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int from = 0, size = 1000; from < values.length; from += size, size *= 2)
+        {
+            QuantileSketch range = new QuantileSketch();
+            range.addAll(values, from, Math.min(values.length, from + size));
+            sketch.merge(range);
+        }
+
+        // And check the merged sketch and its stored copy
+        QuantileSketchTest.assertQuantiles(sketch);
+        QuantileSketchTest.assertQuantiles(QuantileSketch.fromString(sketch.getString()));
+    }
+
+    /**
+     * Checks that the extreme quantiles are the exact bounds of the values.
+     */
+    @Test
+    public void keepsTheBounds()
+    {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.addAll(QuantileSketchTest.values(4), 0, VALUES);
+
+        assertEquals(VALUES, sketch.getCount());
+        assertEquals(0, sketch.getQuantile(0), 0);
+        assertEquals(VALUES - 1, sketch.getQuantile(1), 0);
+    }
+
+    /**
+     * A function used to check the rank of each quantile of a sketch of the
+     * numbers below the number of values. The rank of each number is the
+     * number itself, so the error of a quantile is its distance from the
+     * exact quantile.
+     *
+     * @param sketch The sketch
+     */
+    private static void assertQuantiles(QuantileSketch sketch)
+    {
+        assertEquals(VALUES, sketch.getCount());
+        for (double quantile : QUANTILES)
+        {
+            double rank = sketch.getQuantile(quantile) / VALUES;
+            assertTrue("quantile " + quantile + " has rank " + rank, Math.abs(rank - quantile) <= RANK_ERROR);
+        }
+    }
+
+    /**
+     * A function used to shuffle the numbers below the number of values.
+     *
+     * @param seed The seed of the shuffle
+     *
+     * @return The shuffled numbers
+     */
+    private static double[] values(long seed)
+    {
+        Random random = new Random(seed);
+        double[] values = new double[VALUES];
+        for (int i = 0; i < values.length; i++) values[i] = i;
+        for (int i = values.length - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,203 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+import com.stata.query.Selection;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The tests of the regressor, which check its coefficients against certified
+ * results and against data built from known coefficients, and that collinear
+ * variables are omitted.
+ *
+ * @author Dan Jenkins
+ */
+public class RegressorTest
+{
+    /** The Longley data, whose independent variables are highly collinear. */
+    private static final String LONGLEY = "employed,deflator,gnp,unemployed,armed,population,year\n"
+        + "60323,83.0,234289,2356,1590,107608,1947\n"
+        + "61122,88.5,259426,2325,1456,108632,1948\n"
+        + "60171,88.2,258054,3682,1616,109773,1949\n"
+        + "61187,89.5,284599,3351,1650,110929,1950\n"
+        + "63221,96.2,328975,2099,3099,112075,1951\n"
+        + "63639,98.1,346999,1932,3594,113270,1952\n"
+        + "64989,99.0,365385,1870,3547,115094,1953\n"
+        + "63761,100.0,363112,3578,3350,116219,1954\n"
+        + "66019,101.2,397469,2904,3048,117388,1955\n"
+        + "67857,104.6,419180,2822,2857,118734,1956\n"
+        + "68169,108.4,442769,2936,2798,120445,1957\n"
+        + "66513,110.8,444546,4681,2637,121950,1958\n"
+        + "68655,112.6,482704,3813,2552,123366,1959\n"
+        + "69564,114.2,502601,3931,2514,125368,1960\n"
+        + "69331,115.7,518173,4806,2572,127852,1961\n"
+        + "70551,116.9,554894,4007,2827,130081,1962\n";
+
+    /**
+     * Checks the regression of the Longley data against the certified
+     * coefficients and standard errors published by NIST.
+     */
+    @Test
+    public void matchesCertifiedResults()
+    {
+        Regression regression = Regressor.regress(Tables.table(LONGLEY), "employed",
+            List.of("deflator", "gnp", "unemployed", "armed", "population", "year"));
+
+        // Check the coefficients and standard errors, with the constant last
+        double[] coefficients = { 15.0618722713733, -0.358191792925910E-01, -2.02022980381683, -1.03322686717359,
+            -0.511041056535807E-01, 1829.15146461355, -3482258.63459582 };
+        double[] errors = { 84.9149257747669, 0.334910077722432E-01, 0.488399681651699, 0.214274163161675,
+            0.226073200069370, 455.478499142212, 890420.383607373 };
+        for (int j = 0; j < coefficients.length; j++)
+        {
+            RegressorTest.assertRelative(regression.getTerms().get(j), coefficients[j], regression.getCoefficient(j));
+            RegressorTest.assertRelative(regression.getTerms().get(j), errors[j], regression.getStandardError(j));
+        }
+
+        // And check the fit of the model
+        assertEquals(16, regression.getCount());
+        assertEquals(6, regression.getModelDegrees());
+        assertEquals(9, regression.getResidualDegrees());
+        RegressorTest.assertRelative("rmse", 304.854073561965, regression.getRootMSE());
+        RegressorTest.assertRelative("r2", 0.995479004577296, regression.getRSquared());
+    }
+
+    /**
+     * Checks the regression of data built from known coefficients with a
+     * little noise, across several segments and skipping the rows which are
+     * missing any of the variables.
+     */
+    @Test
+    public void recoversKnownCoefficients()
+    {
+        // Build the data, leaving some values missing
+        Random random = new Random(5);
+        StringBuilder csv = new StringBuilder("y,a,b,flag\n");
+        int rows = 3 * Column.SEGMENT_SIZE + 123, missing = 0;
+        for (int r = 0; r < rows; r++)
+        {
+            double a = random.nextGaussian() * 10, b = 1000 + random.nextGaussian();
+            boolean flag = random.nextBoolean();
+            double y = 2.5 + 3 * a - 1.5 * b + (flag ? 4 : 0) + random.nextGaussian() * 0.01;
+            boolean skip = r % 97 == 0;
+            if (skip) missing++;
+            csv.append(skip ? "" : String.format(Locale.ROOT, "%.6f", y)).append(',')
+                .append(String.format(Locale.ROOT, "%.6f,%.6f,%b\n", a, b, flag));
+        }
+        Datatable table = Tables.table(csv.toString());
+
+        // And check the coefficients
+        Regression regression = Regressor.regress(table, "y", List.of("a", "b", "flag"));
+        assertEquals(rows - missing, regression.getCount());
+        assertEquals(3, regression.getCoefficient(0), 1e-4);
+        assertEquals(-1.5, regression.getCoefficient(1), 1e-3);
+        assertEquals(4, regression.getCoefficient(2), 1e-3);
+        assertEquals(2.5, regression.getCoefficient(3), 1);
+        assertEquals(0.01, regression.getRootMSE(), 1e-3);
+    }
+
+    /**
+     * Checks that a variable which is a combination of the variables before
+     * it is omitted, while the rest of the regression is unaffected.
+     */
+    @Test
+    public void omitsCollinearVariables()
+    {
+        // Add a variable which is the sum of two others
+        Datatable table = Tables.table("y,a,b,c\n"
+            + "3.1,1,2,3\n"
+            + "4.9,2,1,3\n"
+            + "8.2,3,5,8\n"
+            + "9.8,4,4,8\n"
+            + "13.1,5,7,12\n"
+            + "13.9,6,5,11\n");
+        Regression full = Regressor.regress(table, "y", List.of("a", "b", "c"));
+        Regression reduced = Regressor.regress(table, "y", List.of("a", "b"));
+
+        // Check that the sum is omitted
+        assertFalse(full.isOmitted(0));
+        assertFalse(full.isOmitted(1));
+        assertTrue(full.isOmitted(2));
+        assertEquals(0, full.getCoefficient(2), 0);
+        assertTrue(Double.isNaN(full.getStandardError(2)));
+
+        // And check that the rest of the regression is the same as without it
+        assertEquals(reduced.getModelDegrees(), full.getModelDegrees());
+        assertEquals(reduced.getResidualDegrees(), full.getResidualDegrees());
+        assertEquals(reduced.getCoefficient(0), full.getCoefficient(0), 1e-9);
+        assertEquals(reduced.getCoefficient(1), full.getCoefficient(1), 1e-9);
+        assertEquals(reduced.getCoefficient(2), full.getCoefficient(3), 1e-9);
+        assertEquals(reduced.getStandardError(0), full.getStandardError(0), 1e-9);
+        assertEquals(reduced.getRSquared(), full.getRSquared(), 1e-12);
+    }
+
+    /**
+     * Checks that only the selected rows are used.
+     */
+    @Test
+    public void usesSelectedRows()
+    {
+        // Select the rows which follow one line, leaving out the rest
+        Datatable table = Tables.table("y,x\n1,0\n3,1\n5,2\n7,3\n100,4\n-50,5\n");
+        BitSet rows = new BitSet();
+        rows.set(0, 4);
+
+        // And check that the line is found
+        Regression regression = Regressor.regress(table, "y", List.of("x"), new Selection(rows, 6));
+        assertEquals(4, regression.getCount());
+        assertEquals(2, regression.getCoefficient(0), 1e-12);
+        assertEquals(1, regression.getCoefficient(1), 1e-12);
+    }
+
+    /**
+     * Checks that unusable regressions are reported.
+     */
+    @Test
+    public void rejectsUnusableRegressions()
+    {
+        Datatable table = Tables.table("y,x,s,m\n1,2,a,\n2,,b,\n");
+
+        assertThrows(IllegalArgumentException.class, () -> Regressor.regress(table, "y", List.of("z")));
+        assertThrows(IllegalArgumentException.class, () -> Regressor.regress(table, "y", List.of("s")));
+        assertThrows(IllegalArgumentException.class, () -> Regressor.regress(table, "y", List.of("m")));
+    }
+
+    /**
+     * Checks that a variable which doesn't vary over the rows used is
+     * omitted, as it is collinear with the constant.
+     */
+    @Test
+    public void omitsConstantVariables()
+    {
+        Regression regression = Regressor.regress(Tables.table("y,x\n1,2\n2,\n"), "y", List.of("x"));
+
+        assertEquals(1, regression.getCount());
+        assertTrue(regression.isOmitted(0));
+        assertEquals(1, regression.getCoefficient(1), 0);
+    }
+
+    /**
+     * A function used to check that a value matches its expected value to
+     * within a millionth of its size.
+     *
+     * @param message The name of the value
+     * @param expected The expected value
+     * @param actual The value
+     */
+    private static void assertRelative(String message, double expected, double actual)
+    {
+        assertEquals(message, expected, actual, Math.abs(expected) * 1e-6);
+    }
+}
@@ -0,0 +1,207 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The tests of the sorter, which check its orders against a stable sort of
+ * the rows with the missing values of each column last.
+ *
+ * @author Dan Jenkins
+ */
+public class SorterTest
+{
+    /** The number of rows in the table, which spans several segments. */
+    private static final int ROWS = 2 * Column.SEGMENT_SIZE + 4321;
+
+    /** The table to sort. */
+    private static Datatable table;
+
+    /**
+     * A function used to create the table to sort. The columns have few
+     * distinct values, so that there are many ties, except for the large
+     * integers, which need every pass of the radix sort.
+     */
+    @BeforeClass
+    public static void createTable()
+    {
+        Random random = new Random(11);
+        StringBuilder csv = new StringBuilder("n,x,s,b,big\n");
+        for (int r = 0; r < ROWS; r++)
+        {
+            csv.append(SorterTest.value(random, Integer.toString(random.nextInt(20) - 10))).append(',');
+            csv.append(SorterTest.value(random, String.format(Locale.ROOT, "%.1f", random.nextGaussian()))).append(',');
+            csv.append(SorterTest.value(random, "text" + random.nextInt(30))).append(',');
+            csv.append(SorterTest.value(random, Boolean.toString(random.nextBoolean()))).append(',');
+            csv.append(SorterTest.value(random, Long.toString(random.nextLong() / 10))).append('\n');
+        }
+        table = Tables.table(csv.toString());
+    }
+
+    /**
+     * Checks sorting by a single column of each type.
+     */
+    @Test
+    public void sortsBySingleColumns()
+    {
+        SorterTest.assertSorts("n");
+        SorterTest.assertSorts("x");
+        SorterTest.assertSorts("s");
+        SorterTest.assertSorts("b");
+        SorterTest.assertSorts("big");
+    }
+
+    /**
+     * Checks sorting by several columns, which keeps the rows which tie on
+     * the first column sorted by the later columns.
+     */
+    @Test
+    public void sortsBySeveralColumns()
+    {
+        SorterTest.assertSorts("n", "x");
+        SorterTest.assertSorts("s", "b", "n");
+        SorterTest.assertSorts("b", "x", "s");
+    }
+
+    /**
+     * Checks sorting by columns in descending order, alone and mixed with
+     * ascending columns, which keeps ties in order and missing values last.
+     */
+    @Test
+    public void sortsEachColumnInItsDirection()
+    {
+        SorterTest.assertSorts(new boolean[] { true }, "n");
+        SorterTest.assertSorts(new boolean[] { true }, "x");
+        SorterTest.assertSorts(new boolean[] { true }, "s");
+        SorterTest.assertSorts(new boolean[] { true }, "big");
+        SorterTest.assertSorts(new boolean[] { true, false }, "n", "x");
+        SorterTest.assertSorts(new boolean[] { false, true, false }, "s", "b", "n");
+        SorterTest.assertSorts(new boolean[] { true, true }, "b", "x");
+    }
+
+    /**
+     * Checks that the table caches the orders of the same columns in
+     * different directions separately.
+     */
+    @Test
+    public void cachesEachDirection()
+    {
+        int[] ascending = table.getSortOrder(List.of("n", "s"));
+        int[] descending = table.getSortOrder(List.of("n", "s"), new boolean[] { true, false });
+
+        assertArrayEquals(Sorter.sort(table, List.of("n", "s")), ascending);
+        assertArrayEquals(Sorter.sort(table, List.of("n", "s"), new boolean[] { true, false }), descending);
+        assertArrayEquals(ascending, table.getSortOrder(List.of("n", "s")));
+    }
+
+    /**
+     * Checks that the table caches the order of each sort.
+     */
+    @Test
+    public void cachesSortOrders()
+    {
+        assertArrayEquals(Sorter.sort(table, List.of("x", "n")), table.getSortOrder(List.of("x", "n")));
+        assertArrayEquals(Sorter.sort(table, List.of("x", "n")), table.getSortOrder(List.of("x", "n")));
+    }
+
+    /**
+     * Checks that sorting by an unknown column is reported.
+     */
+    @Test
+    public void rejectsUnknownColumns()
+    {
+        assertThrows(IllegalArgumentException.class, () -> Sorter.sort(table, List.of("n", "y")));
+    }
+
+    /**
+     * A function used to check the order of the rows sorted by columns
+     * against a stable sort of the rows.
+     *
+     * @param by The columns to sort by
+     */
+    private static void assertSorts(String... by)
+    {
+        SorterTest.assertSorts(new boolean[by.length], by);
+    }
+
+    /**
+     * A function used to check the order of the rows sorted by columns in
+     * the given directions against a stable sort of the rows.
+     *
+     * @param descending Whether each column is sorted in descending order
+     * @param by The columns to sort by
+     */
+    private static void assertSorts(boolean[] descending, String... by)
+    {
+        // Compare the rows by the values of each column in turn
+        Comparator<Integer> comparator = (a, b) -> 0;
+        for (int c = 0; c < by.length; c++)
+        {
+            Comparable<Object>[] values = SorterTest.values(table.getColumn(by[c]));
+            Comparator<Comparable<Object>> order = descending[c] ? Comparator.reverseOrder() : Comparator.naturalOrder();
+            comparator = comparator.thenComparing(row -> values[row], Comparator.nullsLast(order));
+        }
+
+        // Stably sort the rows
+        List<Integer> rows = new ArrayList<>();
+        for (int r = 0; r < ROWS; r++) rows.add(r);
+        rows.sort(comparator);
+
+        // And compare the orders
+        int[] expected = rows.stream().mapToInt(Integer::intValue).toArray();
+        assertArrayEquals(String.join(", ", by), expected, Sorter.sort(table, List.of(by), descending));
+    }
+
+    /**
+     * A function used to read the values of a column, with null for the
+     * missing values. Numbers are read so that zero and negative zero tie.
+     *
+     * @param column The column to read
+     *
+     * @return The value of each row
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object>[] values(Column column)
+    {
+        Comparable<?>[] values = new Comparable<?>[column.size()];
+        for (int r = 0; r < values.length; r++)
+        {
+            String value = column.get(r);
+            if (column.isMissing(r)) continue;
+            switch (column.getType())
+            {
+                case STRING:  values[r] = value; break;
+                case BOOLEAN: values[r] = Boolean.parseBoolean(value); break;
+                case INTEGER: values[r] = Long.parseLong(value); break;
+                default:      values[r] = Double.parseDouble(value) + 0.0;
+            }
+        }
+        return (Comparable<Object>[]) values;
+    }
+
+    /**
+     * A function used to leave a twentieth of the values missing.
+     *
+     * @param random The source of the missing values
+     * @param value The value
+     *
+     * @return The value, or an empty string for a missing value
+     */
+    private static String value(Random random, String value)
+    {
+        return random.nextInt(20) == 0 ? "" : value;
+    }
+}
@@ -0,0 +1,242 @@
+package com.stata.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.stata.project.Datatype;
+import com.stata.project.columns.Column;
+import com.stata.query.Selection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+/**
+ * The tests of the summarizer, which check its summaries against the same
+ * statistics computed naively from every value of a column.
+ *
+ * @author Dan Jenkins
+ */
+public class SummarizerTest
+{
+    /** The number of rows in each column, which spans several segments. */
+    private static final int ROWS = 3 * Column.SEGMENT_SIZE + 777;
+
+    /**
+     * Checks the summary of an integer column.
+     */
+    @Test
+    public void summarizesIntegers()
+    {
+        Column column = SummarizerTest.column(Datatype.INTEGER, random -> Integer.toString(random.nextInt(2001) - 1000));
+        SummarizerTest.assertSummary(column, null);
+    }
+
+    /**
+     * Checks the summary of a number column.
+     */
+    @Test
+    public void summarizesNumbers()
+    {
+        Column column = SummarizerTest.column(Datatype.NUMBER, random -> Double.toString(100 + random.nextGaussian() * 15));
+        SummarizerTest.assertSummary(column, null);
+    }
+
+    /**
+     * Checks the summary of a boolean column, whose values count as zero or
+     * one.
+     */
+    @Test
+    public void summarizesBooleans()
+    {
+        Column column = SummarizerTest.column(Datatype.BOOLEAN, random -> Boolean.toString(random.nextInt(3) == 0));
+        SummarizerTest.assertSummary(column, null);
+    }
+
+    /**
+     * Checks that only the missing rows of a text column are counted.
+     */
+    @Test
+    public void countsMissingText()
+    {
+        // Summarize a text column
+        Column column = SummarizerTest.column(Datatype.STRING, random -> "value" + random.nextInt(10));
+        Summary summary = Summarizer.summarize(column);
+
+        // And check the counts
+        assertEquals(0, summary.getCount());
+        assertEquals(column.getMissingCount(), summary.getMissing());
+    }
+
+    /**
+     * Checks the summary of the rows selected from a column.
+     */
+    @Test
+    public void summarizesSelections()
+    {
+        // Select every third row, and a run of rows crossing a segment
+        BitSet rows = new BitSet(ROWS);
+        for (int r = 0; r < ROWS; r += 3) rows.set(r);
+        rows.set(Column.SEGMENT_SIZE - 100, Column.SEGMENT_SIZE + 100);
+
+        // And check the summary of the selected rows
+        Column column = SummarizerTest.column(Datatype.NUMBER, random -> Double.toString(random.nextDouble() * 50));
+        SummarizerTest.assertSummary(column, new Selection(rows, ROWS));
+    }
+
+    /**
+     * Checks that merging the summaries of two halves of a column gives the
+     * summary of the whole column.
+     */
+    @Test
+    public void mergesSummaries()
+    {
+        // Summarize each half of the column
+        Column column = SummarizerTest.column(Datatype.NUMBER, random -> Double.toString(random.nextGaussian()));
+        BitSet half = new BitSet(ROWS);
+        half.set(0, ROWS / 2);
+        Selection first = new Selection(half, ROWS);
+        Summary summary = new Summary();
+        summary.merge(Summarizer.summarize(column, first, false));
+        summary.merge(Summarizer.summarize(column, first.not(), false));
+
+        // And compare the merged summary with the whole column
+        SummarizerTest.assertSummary(Summarizer.summarize(column), summary);
+    }
+
+    /**
+     * Checks the percentiles of a small column against values worked out by
+     * hand.
+     */
+    @Test
+    public void percentilesOfSmallColumns()
+    {
+        // Summarize the values one to ten
+        Column column = Column.create(Datatype.INTEGER);
+        for (int value = 10; value >= 1; value--) column.append(Integer.toString(value));
+        double[] percentiles = Summarizer.summarize(column, null, true).getPercentiles();
+
+        // And check the median and quartiles
+        assertEquals(Arrays.toString(percentiles), 5.5, percentiles[4], 0);
+        assertEquals(3, percentiles[3], 0);
+        assertEquals(8, percentiles[5], 0);
+    }
+
+    /**
+     * A function used to check the summary of the selected rows of a column
+     * against the statistics computed naively.
+     *
+     * @param column The column to summarize
+     * @param selection The rows to summarize, or null for every row
+     */
+    private static void assertSummary(Column column, Selection selection)
+    {
+        // Gather the selected values
+        List<Double> values = new ArrayList<>();
+        long missing = 0;
+        for (int r = 0; r < column.size(); r++)
+        {
+            if (selection != null && !selection.contains(r)) continue;
+            if (column.isMissing(r)) missing++;
+            else values.add(SummarizerTest.value(column.get(r)));
+        }
+
+        // Compute the mean and the variance
+        double sum = 0, squares = 0;
+        for (double value : values) sum += value;
+        double mean = sum / values.size();
+        for (double value : values) squares += (value - mean) * (value - mean);
+
+        // Check the summary
+        Summary summary = Summarizer.summarize(column, selection, true);
+        double tolerance = 1e-9 * Math.max(1, Math.abs(mean));
+        assertEquals(values.size(), summary.getCount());
+        assertEquals(missing, summary.getMissing());
+        assertEquals(mean, summary.getMean(), tolerance);
+        assertEquals(squares / (values.size() - 1), summary.getVariance(), 1e-9 * Math.max(1, squares / values.size()));
+        assertEquals(values.stream().mapToDouble(Double::doubleValue).min().getAsDouble(), summary.getMin(), 0);
+        assertEquals(values.stream().mapToDouble(Double::doubleValue).max().getAsDouble(), summary.getMax(), 0);
+
+        // And check the percentiles
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        assertArrayEquals(SummarizerTest.percentiles(sorted), summary.getPercentiles(), 0);
+    }
+
+    /**
+     * A function used to check that two summaries hold the same statistics.
+     *
+     * @param expected The expected summary
+     * @param actual The summary to check
+     */
+    private static void assertSummary(Summary expected, Summary actual)
+    {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMissing(), actual.getMissing());
+        assertEquals(expected.getMean(), actual.getMean(), 1e-12);
+        assertEquals(expected.getVariance(), actual.getVariance(), 1e-9);
+        assertEquals(expected.getMin(), actual.getMin(), 0);
+        assertEquals(expected.getMax(), actual.getMax(), 0);
+    }
+
+    /**
+     * A function used to find the percentiles of sorted values the way the
+     * summarize command does, averaging two values when a percentile falls
+     * exactly between them.
+     *
+     * @param sorted The sorted values
+     *
+     * @return The value at each percentile
+     */
+    private static double[] percentiles(double[] sorted)
+    {
+        double[] percentiles = new double[Summary.PERCENTILES.length];
+        for (int p = 0; p < percentiles.length; p++)
+        {
+            double position = sorted.length * Summary.PERCENTILES[p] / 100;
+            int index = (int) Math.floor(position);
+            if (position == index && index > 0) percentiles[p] = (sorted[index - 1] + sorted[index]) / 2;
+            else                                percentiles[p] = sorted[Math.min(index, sorted.length - 1)];
+        }
+        return percentiles;
+    }
+
+    /**
+     * A function used to read the numeric value of a cell.
+     *
+     * @param text The text of the cell
+     *
+     * @return The value of the cell
+     */
+    private static double value(String text)
+    {
+        if (text.equals("true"))  return 1;
+        if (text.equals("false")) return 0;
+        return Double.parseDouble(text);
+    }
+
+    /**
+     * A function used to create a column of random values, a tenth of which
+     * are missing.
+     *
+     * @param type The type of the column
+     * @param values The function which creates each value
+     *
+     * @return The column
+     */
+    private static Column column(Datatype type, Function<Random, String> values)
+    {
+        Random random = new Random(type.ordinal());
+        Column column = Column.create(type);
+        for (int r = 0; r < ROWS; r++)
+        {
+            if (random.nextInt(10) == 0) column.appendMissing();
+            else                         column.append(values.apply(random));
+        }
+        return column;
+    }
+}
@@ -0,0 +1,198 @@
+package com.stata.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.Datatype;
+import com.stata.project.columns.Column;
+import com.stata.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The tests of the expressions, which check that operations on missing
+ * values give missing values, that missing values are larger than any number
+ * and count as true, and that generate and replace only change the selected
+ * rows.
+ *
+ * @author Dan Jenkins
+ */
+public class ExpressionTest
+{
+    /** The table which the expressions read, with a missing value in x and y. */
+    private static final String TABLE = "x,y,s\n1,2,ab\n,3,\n4,,c\n0,0,d\n-2,5,e";
+
+    /**
+     * Checks that arithmetic on missing values, and arithmetic without a
+     * result, gives missing values.
+     */
+    @Test
+    public void arithmeticGivesMissing()
+    {
+        ExpressionTest.assertValues("x + y", "3", "", "", "0", "3");
+        ExpressionTest.assertValues("x / y", "0.5", "", "", "", "-0.4");
+        ExpressionTest.assertValues("sqrt(x)", "1", "", "2", "0", "");
+        ExpressionTest.assertValues("x - .", "", "", "", "", "");
+    }
+
+    /**
+     * Checks that missing values are larger than any number in comparisons,
+     * and count as true in logical operations.
+     */
+    @Test
+    public void comparesMissing()
+    {
+        ExpressionTest.assertValues("x > y", "0", "1", "0", "0", "0");
+        ExpressionTest.assertValues("x == .", "0", "1", "0", "0", "0");
+        ExpressionTest.assertValues("x < .", "1", "0", "1", "1", "1");
+        ExpressionTest.assertValues("x & y", "1", "1", "1", "0", "1");
+        ExpressionTest.assertValues("!x", "0", "0", "0", "1", "0");
+        ExpressionTest.assertValues("cond(x, 1, 2)", "1", "1", "1", "2", "1");
+    }
+
+    /**
+     * Checks the functions which treat missing values specially.
+     */
+    @Test
+    public void evaluatesMissingFunctions()
+    {
+        ExpressionTest.assertValues("min(x, y)", "1", "3", "4", "0", "-2");
+        ExpressionTest.assertValues("max(x, y)", "2", "3", "4", "0", "5");
+        ExpressionTest.assertValues("missing(x, y)", "0", "1", "1", "0", "0");
+        ExpressionTest.assertValues("missing(s)", "0", "1", "0", "0", "0");
+        ExpressionTest.assertValues("string(x)", "1", ".", "4", "0", "-2");
+        ExpressionTest.assertValues("real(s)", "", "", "", "", "");
+    }
+
+    /**
+     * Checks the row numbers and the number of rows.
+     */
+    @Test
+    public void evaluatesRowNumbers()
+    {
+        ExpressionTest.assertValues("_n", "1", "2", "3", "4", "5");
+        ExpressionTest.assertValues("_N - _n", "4", "3", "2", "1", "0");
+    }
+
+    /**
+     * Checks that generate leaves the rows which aren't selected missing.
+     */
+    @Test
+    public void generatesSelectedRows()
+    {
+        // Generate a column for the rows where y is larger than two, which
+        // includes the row where y is missing
+        Datatable table = Tables.table(TABLE);
+        table.generate("z", "x * 10", Query.select(table, "y > 2"));
+
+        // And check the column
+        assertEquals(List.of("", "", "40", "", "-20"), ExpressionTest.values(table.getColumn("z")));
+    }
+
+    /**
+     * Checks that replace keeps the values of the rows which aren't selected,
+     * and widens integers into numbers.
+     */
+    @Test
+    public void replacesSelectedRows()
+    {
+        // Replace the negative values with zero
+        Datatable table = Tables.table(TABLE);
+        table.replace("x", "0", Query.select(table, "x < 0"));
+        assertEquals(List.of("1", "", "4", "0", "0"), ExpressionTest.values(table.getColumn("x")));
+
+        // Replace a value with a missing value
+        table.replace("x", ".", Query.select(table, "x == 4"));
+        assertEquals(List.of("1", "", "", "0", "0"), ExpressionTest.values(table.getColumn("x")));
+
+        // And replace every value with numbers
+        table.replace("y", "y / 2", null);
+        assertEquals(Datatype.NUMBER, table.getColumn("y").getType());
+        assertEquals(List.of("1", "1.5", "", "0", "2.5"), ExpressionTest.values(table.getColumn("y")));
+    }
+
+    /**
+     * Checks an expression over several segments against the same
+     * expression computed row by row.
+     */
+    @Test
+    public void evaluatesLargeTables()
+    {
+        // Create a column with a tenth of its values missing, next to the
+        // number of each row so that no line is empty
+        Random random = new Random(9);
+        int rows = 2 * Column.SEGMENT_SIZE + 10;
+        StringBuilder csv = new StringBuilder("v,r\n");
+        List<Double> values = new ArrayList<>();
+        for (int r = 0; r < rows; r++)
+        {
+            String value = random.nextInt(10) == 0 ? "" : String.format(Locale.ROOT, "%.2f", random.nextGaussian());
+            values.add(value.isEmpty() ? null : Double.parseDouble(value));
+            csv.append(value).append(',').append(r).append('\n');
+        }
+
+        // Evaluate the expression
+        Datatable table = Tables.table(csv.toString());
+        table.generate("z", "cond(v > 0, v * 2, v - 1) + _n", null);
+        Column column = table.getColumn("z");
+
+        // And compare each of the rows, where missing values of v are larger
+        // than zero but still give missing values
+        for (int r = 0; r < rows; r++)
+        {
+            Double v = values.get(r);
+            if (v == null) assertTrue(column.isMissing(r));
+            else           assertEquals((v > 0 ? v * 2 : v - 1) + r + 1, Double.parseDouble(column.get(r)), 1e-9);
+        }
+    }
+
+    /**
+     * Checks that invalid expressions are reported.
+     */
+    @Test
+    public void rejectsInvalidExpressions()
+    {
+        Datatable table = Tables.table(TABLE);
+        assertThrows(IllegalArgumentException.class, () -> table.generate("x", "y", null));
+        assertThrows(IllegalArgumentException.class, () -> table.generate("z", "q + 1", null));
+        assertThrows(IllegalArgumentException.class, () -> table.generate("z", "x + s", null));
+        assertThrows(IllegalArgumentException.class, () -> table.replace("s", "x", null));
+        assertThrows(IllegalArgumentException.class, () -> table.replace("q", "x", null));
+    }
+
+    /**
+     * A function used to check the values of an expression against the
+     * table, with missing values empty.
+     *
+     * @param expression The expression to evaluate
+     * @param expected The expected value of each row
+     */
+    private static void assertValues(String expression, String... expected)
+    {
+        Datatable table = Tables.table(TABLE);
+        Column column = Expression.compile(table, expression).evaluate(null);
+        assertEquals(expression, List.of(expected), ExpressionTest.values(column));
+    }
+
+    /**
+     * A function used to read the values of a column.
+     *
+     * @param column The column to read
+     *
+     * @return The value of each row, with missing values empty
+     */
+    private static List<String> values(Column column)
+    {
+        List<String> values = new ArrayList<>();
+        for (int r = 0; r < column.size(); r++) values.add(column.get(r));
+        return values;
+    }
+}
@@ -0,0 +1,459 @@
+package com.stata.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.stata.Stata;
+import com.stata.Tables;
+import com.stata.analysis.Summary;
+import com.stata.project.Datatable;
+import com.stata.project.Datatype;
+import com.stata.project.Project;
+import com.stata.project.columns.Column;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The tests of the IO manager, which check what is kept when projects are
+ * saved and loaded, and the progress of saving them both on worker threads
+ * and on the calling thread.
+ *
+ * @author Dan Jenkins
+ */
+public class IOManagerTest
+{
+    /** The folder holding the project files. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A function used to restore the default of saving on worker threads.
+     */
+    @After
+    public void restoreParallel()
+    {
+        IOManagerTest.setParallel(true);
+    }
+
+    /**
+     * Checks that the progress of a save counts each table once, whether it
+     * is written or copied from the previous file, in both modes.
+     */
+    @Test
+    public void countsEachTableOnce() throws IOException
+    {
+        for (boolean parallel : new boolean[] { true, false })
+        {
+            // Create a project of three tables
+            IOManagerTest.setParallel(parallel);
+            Project project = new Project();
+            for (String name : List.of("a", "b", "c")) project.addTable(IOManagerTest.table(name));
+
+            // Check the progress of writing every table
+            File file = this.folder.newFile();
+            assertEquals(List.of(1L, 2L, 3L), IOManagerTest.save(project, file));
+
+            // And check the progress of copying two tables and writing the third
+            project.getDatatables().get("b").importData("7,z\n");
+            assertEquals(List.of(1L, 2L, 3L), IOManagerTest.save(project, file));
+        }
+    }
+
+    /**
+     * Checks that projects saved on worker threads or on the calling thread
+     * load back the same in either mode.
+     */
+    @Test
+    public void roundTripsInBothModes() throws IOException
+    {
+        for (boolean saving : new boolean[] { true, false })
+        {
+            // Create a project of several tables
+            Project project = new Project();
+            for (String name : List.of("a", "b", "c", "d")) project.addTable(IOManagerTest.mixed(name, Column.SEGMENT_SIZE + name.charAt(0)));
+
+            // Save it in one mode
+            IOManagerTest.setParallel(saving);
+            File file = this.folder.newFile();
+            project.save(file, (done, total) -> {});
+
+            for (boolean loading : new boolean[] { true, false })
+            {
+                // And check that it loads back in either mode
+                IOManagerTest.setParallel(loading);
+                Project opened = IOManager.load(file);
+                for (Datatable table : project.getDatatables().values())
+                {
+                    IOManagerTest.assertTable(table, opened.getDatatables().get(table.getName()));
+                }
+                opened.close();
+            }
+        }
+    }
+
+    /**
+     * Checks that saving an opened project copies the tables which haven't
+     * changed without loading them, and writes the tables which have.
+     */
+    @Test
+    public void copiesUnchangedTables() throws IOException
+    {
+        // Save a project of three tables
+        Project project = new Project();
+        for (String name : List.of("kept", "edited", "renamed")) project.addTable(IOManagerTest.mixed(name, 400 + name.length()));
+        File file = this.folder.newFile();
+        IOManagerTest.save(project, file);
+
+        // Open it, and change the rows of one table and the name of another
+        Project opened = new Project();
+        opened.open(IOManager.load(file), file);
+        Datatable edited = opened.getDatatables().get("edited");
+        edited.importData("1,2.5,true,new,\n");
+        assertTrue(opened.renameTable(opened.getDatatables().get("renamed"), "moved"));
+
+        // Save it again, and check that the unchanged rows were copied without loading them
+        assertEquals(List.of(1L, 2L, 3L), IOManagerTest.save(opened, file));
+        assertFalse(opened.getDatatables().get("kept").isLoaded());
+        assertFalse(opened.getDatatables().get("moved").isLoaded());
+        assertFalse(edited.isModified());
+
+        // And check each of the tables read back
+        Project reopened = IOManager.load(file);
+        IOManagerTest.assertTable(project.getDatatables().get("kept"), reopened.getDatatables().get("kept"));
+        IOManagerTest.assertTable(edited, reopened.getDatatables().get("edited"));
+        assertEquals(Tables.rows(project.getDatatables().get("renamed")), Tables.rows(reopened.getDatatables().get("moved")));
+        assertNull(reopened.getDatatables().get("renamed"));
+        assertEquals(Tables.rows(project.getDatatables().get("edited")).size() + 1, edited.getRowCount());
+        reopened.close();
+        opened.close();
+    }
+
+    /**
+     * Checks that saving a project opened from the legacy layout writes its
+     * tables in the current layout, keeping their rows.
+     */
+    @Test
+    public void savesLegacyTables() throws IOException
+    {
+        // Open a legacy project and save it over itself
+        File file = this.folder.newFile();
+        IOManagerTest.writeLegacy(file);
+        Project opened = new Project();
+        opened.open(IOManager.load(file), file);
+        opened.save(file, (done, total) -> {});
+        opened.close();
+
+        // And check the table read back
+        Project reopened = IOManager.load(file);
+        Datatable loaded = reopened.getDatatables().get("old");
+        assertEquals(3, loaded.getRowCount());
+        assertEquals(List.of("1,a", ",b,c", "3,"), Tables.rows(loaded));
+        reopened.close();
+    }
+
+    /**
+     * Checks that saving on worker threads leaves nothing but the project
+     * file in its directory.
+     */
+    @Test
+    public void leavesOnlyTheProjectFile() throws IOException
+    {
+        // Save a project of several tables
+        Project project = new Project();
+        for (String name : List.of("a", "b", "c")) project.addTable(IOManagerTest.table(name));
+        File directory = this.folder.newFolder();
+        File file = new File(directory, "project.stata");
+        IOManagerTest.save(project, file);
+
+        // And check the directory
+        assertArrayEquals(new String[] { "project.stata" }, directory.list());
+    }
+
+    /**
+     * Checks that a table of every type of column, spanning several segments
+     * and with missing values, is loaded back exactly as it was saved.
+     */
+    @Test
+    public void roundTripsEveryColumnType() throws IOException
+    {
+        // Save a table of every type
+        Project project = new Project();
+        Datatable table = IOManagerTest.mixed("mixed", 2 * Column.SEGMENT_SIZE + 77);
+        project.addTable(table);
+        File file = this.folder.newFile();
+        IOManagerTest.save(project, file, 1);
+
+        // And check the table loaded back
+        Project opened = IOManager.load(file);
+        Datatable loaded = opened.getDatatables().get("mixed");
+        IOManagerTest.assertTable(table, loaded);
+        opened.close();
+    }
+
+    /**
+     * Checks that projects written by earlier versions, which hold the data
+     * of each table as CSV text rather than binary columns, can be read.
+     */
+    @Test
+    public void readsLegacyProjects() throws IOException
+    {
+        // Write a project in the legacy layout
+        File file = this.folder.newFile();
+        IOManagerTest.writeLegacy(file);
+
+        // And check the table read from it, whose rows are only counted once it is loaded
+        Project opened = IOManager.load(file);
+        Datatable loaded = opened.getDatatables().get("old");
+        loaded.load();
+        assertEquals(List.of("1,a", ",b,c", "3,"), Tables.rows(loaded));
+        assertEquals("b,c", loaded.getColumn(1).get(1));
+        assertEquals(Datatype.INTEGER, loaded.getType(0));
+        assertEquals(Datatype.STRING, loaded.getType(1));
+        opened.close();
+    }
+
+    /**
+     * Checks that opening a project only reads the headers of its tables,
+     * and that each table is loaded when it is first used.
+     */
+    @Test
+    public void loadsTablesOnFirstUse() throws IOException
+    {
+        // Save a project of two tables
+        Project project = new Project();
+        Datatable first = IOManagerTest.mixed("first", 500), second = IOManagerTest.mixed("second", 700);
+        project.addTable(first);
+        project.addTable(second);
+        File file = this.folder.newFile();
+        IOManagerTest.save(project, file, 2);
+
+        // Check that opening it only reads the headers
+        Project opened = IOManager.load(file);
+        Datatable loaded = opened.getDatatables().get("first"), other = opened.getDatatables().get("second");
+        assertFalse(loaded.isLoaded());
+        assertFalse(other.isLoaded());
+        assertEquals(first.getHeaders(), loaded.getHeaders());
+        assertEquals(500, loaded.getRowCount());
+        assertEquals(Datatype.BOOLEAN, loaded.getType(2));
+
+        // And check that using one table only loads that table
+        assertEquals(first.getColumn(3).get(42), loaded.getColumn(3).get(42));
+        assertTrue(loaded.isLoaded());
+        assertFalse(other.isLoaded());
+        IOManagerTest.assertTable(first, loaded);
+        IOManagerTest.assertTable(second, other);
+        opened.close();
+    }
+
+    /**
+     * Checks that prefetching loads every table of a project in the
+     * background.
+     */
+    @Test
+    public void prefetchesEveryTable() throws IOException, InterruptedException
+    {
+        // Save a project of several tables
+        Project project = new Project();
+        for (String name : List.of("a", "b", "c")) project.addTable(IOManagerTest.mixed(name, 300));
+        File file = this.folder.newFile();
+        IOManagerTest.save(project, file);
+
+        // Open it and prefetch its tables
+        Project opened = IOManager.load(file);
+        opened.prefetch();
+
+        // And wait for each of them to be loaded
+        for (String name : List.of("a", "b", "c"))
+        {
+            Datatable table = opened.getDatatables().get(name);
+            for (int wait = 0; wait < 200 && !table.isLoaded(); wait++) Thread.sleep(50);
+            assertTrue(name, table.isLoaded());
+            IOManagerTest.assertTable(project.getDatatables().get(name), table);
+        }
+        opened.close();
+    }
+
+    /**
+     * Checks that the summaries of the columns are saved with the project,
+     * so that they can be shown before the tables are loaded.
+     */
+    @Test
+    public void keepsSummariesOfUnloadedTables() throws IOException
+    {
+        // Save a summarized table
+        Project project = new Project();
+        Datatable table = Tables.table("n,x\n1,0.5\n,1.5\n3,2.5\n");
+        table.setName("t");
+        table.summarize();
+        project.addTable(table);
+        File file = this.folder.newFile();
+        IOManagerTest.save(project, file, 1);
+
+        // Open the project without loading the table
+        Project opened = IOManager.load(file);
+        Datatable loaded = opened.getDatatables().values().iterator().next();
+        assertFalse(loaded.isLoaded());
+
+        // And check the summaries read from the file
+        for (int c = 0; c < 2; c++)
+        {
+            Summary saved = table.getSummary(c), read = loaded.getCachedSummary(c);
+            assertEquals(saved.getCount(), read.getCount());
+            assertEquals(saved.getMissing(), read.getMissing());
+            assertEquals(saved.getMean(), read.getMean(), 0);
+            assertEquals(saved.getMin(), read.getMin(), 0);
+            assertEquals(saved.getMax(), read.getMax(), 0);
+        }
+        assertFalse(loaded.isLoaded());
+        opened.close();
+    }
+
+    /**
+     * A function used to save a project, recording the progress reported.
+     *
+     * @param project The project to save
+     * @param file The file to save the project as
+     *
+     * @return The number of tables done at each update
+     */
+    private static List<Long> save(Project project, File file) throws IOException
+    {
+        return IOManagerTest.save(project, file, 3);
+    }
+
+    /**
+     * A function used to save a project of some number of tables, recording
+     * the progress reported.
+     *
+     * @param project The project to save
+     * @param file The file to save the project as
+     * @param tables The number of tables in the project
+     *
+     * @return The number of tables done at each update
+     */
+    private static List<Long> save(Project project, File file, int tables) throws IOException
+    {
+        List<Long> updates = new ArrayList<>();
+        project.save(file, (done, total) ->
+        {
+            assertEquals(tables, total);
+            updates.add(done);
+        });
+        return updates;
+    }
+
+    /**
+     * A function used to create a small named table.
+     *
+     * @param name The name of the table
+     *
+     * @return The table
+     */
+    private static Datatable table(String name)
+    {
+        Datatable table = Tables.table("n,s\n1,x\n2,y\n");
+        table.setName(name);
+        return table;
+    }
+
+    /**
+     * A function used to create a named table with a column of each type,
+     * leaving some of the values missing.
+     *
+     * @param name The name of the table
+     * @param rows The number of rows
+     *
+     * @return The table
+     */
+    private static Datatable mixed(String name, int rows)
+    {
+        // Create the rows
+        Random random = new Random(rows);
+        StringBuilder csv = new StringBuilder("i,x,b,s,m\n");
+        for (int r = 0; r < rows; r++)
+        {
+            boolean missing = r % 13 == 0;
+            csv.append(missing ? "" : Long.toString(random.nextLong() >> 8)).append(',')
+                .append(missing ? "" : Double.toString(random.nextGaussian())).append(',')
+                .append(missing ? "" : Boolean.toString(random.nextBoolean())).append(',')
+                .append(missing ? "" : "text" + random.nextInt(500)).append(",\n");
+        }
+
+        // And create the table
+        Datatable table = Tables.table(csv.toString());
+        table.setName(name);
+        return table;
+    }
+
+    /**
+     * A function used to check that a loaded table matches the table that
+     * was saved.
+     *
+     * @param expected The table that was saved
+     * @param actual The table that was loaded
+     */
+    private static void assertTable(Datatable expected, Datatable actual)
+    {
+        assertEquals(expected.getHeaders(), actual.getHeaders());
+        for (int c = 0; c < expected.getColumnCount(); c++) assertEquals(expected.getType(c), actual.getType(c));
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        assertEquals(Tables.rows(expected), Tables.rows(actual));
+    }
+
+    /**
+     * A function used to write a project file in the layout of earlier
+     * versions, holding a table whose data is CSV text.
+     *
+     * @param file The project file
+     */
+    private static void writeLegacy(File file) throws IOException
+    {
+        String directory = "datatables" + File.separator + "0f8fad5b-d9cb-469f-a165-70867728950e" + File.separator;
+        try (ZipArchiveOutputStream output = new ZipArchiveOutputStream(file))
+        {
+            IOManagerTest.write(output, "metadata", "{\"date_create\":0,\"project_name\":\"old\"}");
+            IOManagerTest.write(output, directory + "headers", "{\"name\":\"old\",\"uuid\":\"0f8fad5b-d9cb-469f-a165-70867728950e\","
+                + "\"fields\":[{\"name\":\"n\",\"type\":\"Integer\"},{\"name\":\"s\",\"type\":\"Text\"}]}");
+            IOManagerTest.write(output, directory + "data", "1,a\n,\"b,c\"\n3,\n");
+        }
+    }
+
+    /**
+     * A function used to write a text entry into a project file.
+     *
+     * @param output The project file
+     * @param name The name of the entry
+     * @param text The text of the entry
+     */
+    private static void write(ZipArchiveOutputStream output, String name, String text) throws IOException
+    {
+        output.putArchiveEntry(new ZipArchiveEntry(name));
+        output.write(text.getBytes(StandardCharsets.UTF_8));
+        output.closeArchiveEntry();
+    }
+
+    /**
+     * A function used to choose whether tables are saved on worker threads.
+     *
+     * @param parallel Whether to save on worker threads
+     */
+    private static void setParallel(boolean parallel)
+    {
+        Stata.getInstance().getRuntime().setRuntimeValue("io_parallel", parallel);
+    }
+}
@@ -0,0 +1,256 @@
+package com.stata.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+import com.stata.project.columns.MappedStorage;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The tests of the parallel importer, which check that it reads exactly the
+ * same table as the sequential import.
+ *
+ * @author Dan Jenkins
+ */
+public class ParallelImporterTest
+{
+    /** The number of records written to the large files. */
+    private static final int RECORDS = 50000;
+
+    /** The folder holding the files to import. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Checks that a file of several chunks is read the same way as by the
+     * sequential import, including types widened by later chunks.
+     */
+    @Test
+    public void matchesSequentialImport() throws IOException
+    {
+        File file = this.write(new Random(1), false);
+        this.assertSameImport(file);
+    }
+
+    /**
+     * Checks that quoted fields holding commas, escaped quotes and whole
+     * lines which look like records are kept together. Most of the file is
+     * inside quotes, so the chunk boundaries fall inside quoted fields.
+     */
+    @Test
+    public void keepsQuotedFieldsAcrossChunks() throws IOException
+    {
+        // Import a file which is mostly quoted text
+        File file = this.write(new Random(2), true);
+        Datatable table = this.assertSameImport(file);
+
+        // And check a quoted value directly
+        assertEquals(RECORDS, table.getRowCount());
+        assertEquals(ParallelImporterTest.note(RECORDS - 1), table.getColumn("note").get(RECORDS - 1));
+    }
+
+    /**
+     * Checks that the preview import hands over every record in order when
+     * the first records are parsed on their own.
+     */
+    @Test
+    public void previewKeepsEveryRecord() throws IOException
+    {
+        // Import the file through a sink
+        File file = this.write(new Random(3), true);
+        Datatable table = new Datatable();
+        ParallelImporter.importTable(table, file, Progress.NONE, 100, table::append);
+
+        // And compare it with the sequential import
+        Datatable expected = new Datatable();
+        expected.importTable(file);
+        assertEquals(Tables.rows(expected), Tables.rows(table));
+    }
+
+    /**
+     * Checks that a file without any records gives a table with headers but
+     * no rows in both imports.
+     */
+    @Test
+    public void importsHeadersWithoutRecords() throws IOException
+    {
+        // Write the headers alone
+        File file = this.folder.newFile("empty.csv");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file)))
+        {
+            writer.println("a,b");
+        }
+
+        // And check both imports
+        Datatable table = this.assertSameImport(file);
+        assertEquals(List.of("a", "b"), table.getHeaders());
+        assertEquals(0, table.getRowCount());
+    }
+
+    /**
+     * Checks that a verbatim import keeps the text of the values in every
+     * chunk, even in a column which a later chunk widens into text.
+     */
+    @Test
+    public void keepsTextOfVerbatimImports() throws IOException
+    {
+        // Import the file both ways, keeping the text of the values
+        File file = this.write(new Random(4), false);
+        Datatable sequential = new Datatable();
+        sequential.setVerbatim(true);
+        sequential.importTable(file);
+        Datatable parallel = new Datatable();
+        parallel.setVerbatim(true);
+        ParallelImporter.importTable(parallel, file);
+
+        // And check that both export the values as they were written
+        StringWriter expected = new StringWriter(), actual = new StringWriter();
+        sequential.exportData(expected);
+        parallel.exportData(actual);
+        assertEquals(expected.toString(), actual.toString());
+        assertTrue(actual.toString().contains(",1.50,"));
+    }
+
+    /**
+     * Checks that the chunks are parsed into the storage of the table, and
+     * are released once they have been appended, so that releasing the table
+     * leaves nothing behind.
+     */
+    @Test
+    public void releasesChunksInTableStorage() throws IOException
+    {
+        // Import the file into mapped storage
+        File file = this.write(new Random(5), false, 3 * Column.SEGMENT_SIZE);
+        Path directory = this.folder.newFolder().toPath();
+        MappedStorage storage = new MappedStorage(directory);
+        Datatable table = new Datatable();
+        table.setStorage(storage);
+        ParallelImporter.importTable(table, file);
+
+        // Check that the table matches the sequential import
+        Datatable expected = new Datatable();
+        expected.importTable(file);
+        assertEquals(Tables.rows(expected), Tables.rows(table));
+
+        // Check that only the segments of the table are left in the storage
+        assertTrue(storage.getUsed() > 0);
+        table.release();
+        assertEquals(0, storage.getUsed());
+
+        // And check that closing the storage deletes its directory
+        storage.close();
+        assertFalse(Files.exists(directory));
+    }
+
+    /**
+     * A function used to import a file both ways and check that the tables
+     * match, value by value.
+     *
+     * @param file The file to import
+     *
+     * @return The table read by the parallel import
+     */
+    private Datatable assertSameImport(File file) throws IOException
+    {
+        // Import the file both ways
+        Datatable sequential = new Datatable();
+        sequential.importTable(file);
+        Datatable parallel = new Datatable();
+        ParallelImporter.importTable(parallel, file);
+
+        // Check the shape of the tables
+        assertEquals(sequential.getHeaders(), parallel.getHeaders());
+        assertEquals(sequential.getRowCount(), parallel.getRowCount());
+
+        // Check the type of each column
+        for (int c = 0; c < sequential.getColumnCount(); c++)
+        {
+            assertEquals(sequential.getHeaders().get(c), sequential.getType(c), parallel.getType(c));
+        }
+
+        // And check each of the values
+        assertEquals(Tables.rows(sequential), Tables.rows(parallel));
+        return parallel;
+    }
+
+    /**
+     * A function used to write a file of the usual number of random records.
+     *
+     * @param random The source of the records
+     * @param quoted Whether each record holds a long quoted note
+     *
+     * @return The file
+     */
+    private File write(Random random, boolean quoted) throws IOException
+    {
+        return this.write(random, quoted, RECORDS);
+    }
+
+    /**
+     * A function used to write a file of random records. Numbers are written
+     * in several forms, such as 1.50, and the final record widens one of the
+     * numeric columns into text.
+     *
+     * @param random The source of the records
+     * @param quoted Whether each record holds a long quoted note
+     * @param records The number of records to write
+     *
+     * @return The file
+     */
+    private File write(Random random, boolean quoted, int records) throws IOException
+    {
+        File file = this.folder.newFile();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file))))
+        {
+            writer.print(quoted ? "id,x,y,label,note\n" : "id,x,y,label\n");
+            for (int r = 0; r < records; r++)
+            {
+                // Write the numbers, with the final record widening y into text
+                List<String> values = new ArrayList<>();
+                values.add(Integer.toString(r));
+                values.add(random.nextInt(10) == 0 ? "" : String.format("%.3f", random.nextGaussian()));
+                values.add(r == records - 1 ? "n/a" : random.nextBoolean() ? "1.50" : Integer.toString(random.nextInt(100)));
+                values.add("label" + random.nextInt(50));
+
+                // And write the note
+                if (quoted) values.add('"' + ParallelImporterTest.note(r).replace("\"", "\"\"") + '"');
+                writer.print(String.join(",", values) + "\n");
+            }
+        }
+        return file;
+    }
+
+    /**
+     * A function used to create the note of a record, which holds commas,
+     * quotes and lines which look like records of their own.
+     *
+     * @param record The record
+     *
+     * @return The note
+     */
+    private static String note(int record)
+    {
+        StringBuilder note = new StringBuilder("note \"" + record + "\", with commas");
+        for (int line = 0; line < 4; line++) note.append('\n').append(record).append(",1.5,2,label").append(line);
+        return note.toString();
+    }
+}
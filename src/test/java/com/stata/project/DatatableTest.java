@@ -0,0 +1,331 @@
+package com.stata.project;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.stata.Tables;
+import com.stata.analysis.Summarizer;
+import com.stata.analysis.Summary;
+import com.stata.project.columns.Column;
+import com.stata.query.Selection;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The tests of the data table, which check the types inferred as records are
+ * imported, the text that the table is exported as, and the summaries and
+ * sort orders that it caches.
+ *
+ * @author Dan Jenkins
+ */
+public class DatatableTest
+{
+    /**
+     * Checks that each column is given the narrowest type which holds all of
+     * its values, widening as later records arrive.
+     */
+    @Test
+    public void infersColumnTypes()
+    {
+        Datatable table = Tables.table("i,x,b,s,c,id,m\n"
+            + "1,1,true,a,\"1,5\",0012,\n"
+            + "-2,2.5,F,1,2,3,\n"
+            + ",3,,b,3,12345678901234567890,\n");
+
+        assertEquals(Datatype.INTEGER, table.getColumn("i").getType());
+        assertEquals(Datatype.NUMBER, table.getColumn("x").getType());
+        assertEquals(Datatype.BOOLEAN, table.getColumn("b").getType());
+        assertEquals(Datatype.STRING, table.getColumn("s").getType());
+        assertEquals(Datatype.STRING, table.getColumn("c").getType());
+        assertEquals(Datatype.STRING, table.getColumn("id").getType());
+        assertEquals(Datatype.NULL, table.getColumn("m").getType());
+        assertEquals(List.of("1,1,true,a,\"1,5\",0012,", "-2,2.5,false,1,2,3,", "\"\",3,,b,3,12345678901234567890,"),
+            DatatableTest.export(table));
+    }
+
+    /**
+     * Checks that the values of a column which is widened after some rows
+     * have been imported are kept, including the missing values.
+     */
+    @Test
+    public void keepsValuesWhenWidening()
+    {
+        Datatable table = Tables.table("n,s\n1,a\n,b\n2,c\n2.5,d\nx,e\n");
+
+        assertEquals(Datatype.STRING, table.getColumn("n").getType());
+        assertEquals(List.of("1,a", ",b", "2,c", "2.5,d", "x,e"), Tables.rows(table));
+    }
+
+    /**
+     * Checks that a verbatim table exports the text of its values exactly as
+     * it was imported, including after its columns are widened, while the
+     * values themselves are still typed.
+     */
+    @Test
+    public void exportsVerbatim() throws IOException
+    {
+        // Import the records into a verbatim table
+        Datatable table = new Datatable();
+        table.setVerbatim(true);
+        table.importHeaders("n,x,b", Datatable.INPUT_CSV);
+        table.importData(new StringReader("1,1.50,TRUE\n2,2,f\n3.0,1e3,\n"), true);
+
+        // Check the types and the values
+        assertTrue(table.isVerbatim());
+        assertEquals(Datatype.NUMBER, table.getColumn("n").getType());
+        assertEquals(Datatype.NUMBER, table.getColumn("x").getType());
+        assertEquals(Datatype.BOOLEAN, table.getColumn("b").getType());
+        assertEquals(List.of("1,1.5,true", "2,2,false", "3,1000,"), Tables.rows(table));
+
+        // And check the text
+        assertEquals(List.of("1,1.50,TRUE", "2,2,f", "3.0,1e3,"), DatatableTest.export(table));
+    }
+
+    /**
+     * Checks that tables only keep the text of their values when asked to.
+     */
+    @Test
+    public void keepsTextOnlyWhenAsked()
+    {
+        Datatable table = Tables.table("n,x\n1,1.50\n2,2\n");
+
+        assertFalse(table.isVerbatim());
+        assertFalse(table.getColumn("n").keepsText());
+        assertFalse(table.getColumn("x").keepsText());
+        assertEquals(List.of("1,1.5", "2,2"), DatatableTest.export(table));
+    }
+
+    /**
+     * Checks that text holding commas, quotes and line breaks is exported so
+     * that it reads back as the same values.
+     */
+    @Test
+    public void exportsTextWhichReadsBack() throws IOException
+    {
+        // Export a table of awkward text
+        Datatable table = Tables.table("s,n\n\"a,b\",1\n\"say \"\"hi\"\"\",2\n\"two\nlines\",\n,4\n");
+        StringWriter output = new StringWriter();
+        table.exportData(output);
+
+        // And check that it reads back the same
+        Datatable copy = Tables.table("s,n\n" + output);
+        assertEquals(Tables.rows(table), Tables.rows(copy));
+        assertEquals(List.of("a,b", "say \"hi\"", "two\nlines", ""), List.of(copy.getColumn(0).get(0), copy.getColumn(0).get(1),
+            copy.getColumn(0).get(2), copy.getColumn(0).get(3)));
+    }
+
+    /**
+     * Checks that only the selected rows are exported, across several
+     * segments, in order. Missing values at the start of a record are
+     * quoted so that the record isn't read as an empty line.
+     */
+    @Test
+    public void exportsSelectedRows() throws IOException
+    {
+        // Select every thousandth row of a large table
+        Datatable table = new Datatable();
+        table.importHeaders("n,s", Datatable.INPUT_CSV);
+        table.importData(new StringReader(DatatableTest.records(0, 2 * Column.SEGMENT_SIZE + 10)), true);
+        BitSet rows = new BitSet();
+        for (int r = 0; r < table.getRowCount(); r += 1000) rows.set(r);
+
+        // Export them
+        StringWriter output = new StringWriter();
+        table.exportData(output, new Selection(rows, table.getRowCount()));
+
+        // And check the rows exported
+        String[] lines = output.toString().split("\n");
+        assertEquals(rows.cardinality(), lines.length);
+        for (int i = 0, r = rows.nextSetBit(0); r >= 0; i++, r = rows.nextSetBit(r + 1))
+        {
+            assertEquals((r % 7 == 0 ? "\"\"" : Integer.toString(r)) + ",text" + r / 5, lines[i]);
+        }
+    }
+
+    /**
+     * Checks that a view of a table keeps the rows that it was taken with
+     * while more rows are appended to the table, across several segments and
+     * new dictionary values, and that a published view only summarizes and
+     * sorts its own rows.
+     */
+    @Test
+    public void viewsIgnoreLaterRows() throws IOException
+    {
+        // Fill the table past its first segment, and take a view of it
+        Datatable table = new Datatable();
+        table.importHeaders("n,s", Datatable.INPUT_CSV);
+        table.importData(new StringReader(DatatableTest.records(0, Column.SEGMENT_SIZE + 10)), true);
+        Datatable view = table.view();
+        List<String> rows = Tables.rows(view);
+
+        // Append more rows to the table, with new text and missing values
+        table.importData(new StringReader(DatatableTest.records(Column.SEGMENT_SIZE + 10, 2 * Column.SEGMENT_SIZE + 10)), true);
+        assertEquals(2 * Column.SEGMENT_SIZE + 10, table.getRowCount());
+
+        // Check that the view hasn't changed
+        assertEquals(Column.SEGMENT_SIZE + 10, view.getRowCount());
+        assertEquals(Column.SEGMENT_SIZE + 10, view.getColumn("s").size());
+        assertEquals(rows, Tables.rows(view));
+
+        // And check that the published view only covers its own rows
+        Datatable shown = new Datatable();
+        shown.publish(view);
+        assertEquals(Column.SEGMENT_SIZE + 10, shown.getSummary(0).getCount() + shown.getSummary(0).getMissing());
+        assertEquals(Column.SEGMENT_SIZE + 10, shown.getSortOrder(List.of("s")).length);
+        assertEquals(2 * Column.SEGMENT_SIZE + 10, table.getSummary(0).getCount() + table.getSummary(0).getMissing());
+    }
+
+    /**
+     * Checks that rows appended to a published view don't reach the table
+     * that it was taken from.
+     */
+    @Test
+    public void viewsAreIndependent() throws IOException
+    {
+        // Take a view of a table
+        Datatable table = Tables.table("n,s\n1,a\n2,b\n");
+        Datatable view = table.view();
+
+        // Append different rows to both
+        table.importData(new StringReader("3,c\n"), true);
+        view.importData(new StringReader("4,d\n"), true);
+
+        // And check that each only has its own rows
+        assertEquals(List.of("1,a", "2,b", "3,c"), Tables.rows(table));
+        assertEquals(List.of("1,a", "2,b", "4,d"), Tables.rows(view));
+    }
+
+    /**
+     * Checks that the summary of a column is cached until the column is
+     * replaced or more rows are imported.
+     */
+    @Test
+    public void cachesSummariesUntilColumnsChange() throws IOException
+    {
+        // Check that the summary is cached
+        Datatable table = Tables.table("n,s\n1,a\n2,b\n3,c\n");
+        Summary summary = table.getSummary(0);
+        assertSame(summary, table.getSummary(0));
+        assertSame(summary, table.getCachedSummary(0));
+
+        // Check that replacing the column drops the summary
+        table.replace("n", "n * 2", null);
+        assertNull(table.getCachedSummary(0));
+        assertEquals(6, table.getSummary(0).getMax(), 0);
+
+        // And check that importing rows drops it too
+        table.importData(new StringReader("10,d\n,e\n"), true);
+        assertNull(table.getCachedSummary(0));
+        assertEquals(4, table.getSummary(0).getCount());
+        assertEquals(1, table.getSummary(0).getMissing());
+        assertEquals(10, table.getSummary(0).getMax(), 0);
+    }
+
+    /**
+     * Checks that appending a table merges the summaries of both tables,
+     * rather than dropping them, including when a column is widened.
+     */
+    @Test
+    public void mergesSummariesOnAppend()
+    {
+        // Summarize both tables
+        Datatable table = Tables.table("n,x\n1,2\n2,\n3,4\n");
+        Datatable other = Tables.table("n,x\n4,0.5\n,1.5\n");
+        table.summarize();
+        other.summarize();
+
+        // Append one to the other
+        table.append(other);
+
+        // And check that the merged summaries match fresh ones
+        for (int c = 0; c < table.getColumnCount(); c++)
+        {
+            Summary merged = table.getCachedSummary(c);
+            Summary fresh = Summarizer.summarize(table.getColumn(c));
+            assertNotNull(merged);
+            assertEquals(fresh.getCount(), merged.getCount());
+            assertEquals(fresh.getMissing(), merged.getMissing());
+            assertEquals(fresh.getMean(), merged.getMean(), 1e-12);
+            assertEquals(fresh.getVariance(), merged.getVariance(), 1e-12);
+            assertEquals(fresh.getMin(), merged.getMin(), 0);
+            assertEquals(fresh.getMax(), merged.getMax(), 0);
+        }
+    }
+
+    /**
+     * Checks that a sort order is cached until a column sorted by is
+     * replaced or more rows are imported, while other columns can change.
+     */
+    @Test
+    public void cachesSortOrdersUntilColumnsChange() throws IOException
+    {
+        // Check that the order is cached
+        Datatable table = Tables.table("n,s\n2,a\n3,b\n1,c\n");
+        int[] order = table.getSortOrder(List.of("n"));
+        assertArrayEquals(new int[] { 2, 0, 1 }, order);
+        assertSame(order, table.getSortOrder(List.of("n")));
+
+        // Check that replacing another column keeps the order
+        table.replace("s", "\"z\"", null);
+        assertSame(order, table.getSortOrder(List.of("n")));
+
+        // Check that replacing the column sorted by drops the order
+        table.replace("n", "-n", null);
+        assertArrayEquals(new int[] { 1, 0, 2 }, table.getSortOrder(List.of("n")));
+
+        // And check that importing rows drops it too
+        table.importData(new StringReader("0,d\n"), true);
+        assertArrayEquals(new int[] { 1, 0, 2, 3 }, table.getSortOrder(List.of("n")));
+    }
+
+    /**
+     * A function used to create CSV records numbering a range of rows, with
+     * every seventh number missing and a new text value every few rows.
+     *
+     * @param from The first row
+     * @param to The end of the rows
+     *
+     * @return The records
+     */
+    private static String records(int from, int to)
+    {
+        StringBuilder records = new StringBuilder();
+        for (int r = from; r < to; r++)
+        {
+            records.append(r % 7 == 0 ? "" : Integer.toString(r)).append(",text").append(r / 5).append('\n');
+        }
+        return records.toString();
+    }
+
+    /**
+     * A function used to export the rows of a table as CSV lines.
+     *
+     * @param table The table to export
+     *
+     * @return The exported lines
+     */
+    private static List<String> export(Datatable table)
+    {
+        try
+        {
+            StringWriter output = new StringWriter();
+            table.exportData(output);
+            return List.of(output.toString().split("\n"));
+        }
+        catch (IOException exception)
+        {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.stata.project;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The tests of the datatypes, which check the type inferred for single
+ * values and for lists of values.
+ *
+ * @author Dan Jenkins
+ */
+public class DatatypeTest
+{
+    /**
+     * Checks that whole numbers are integers, including the longest run of
+     * digits which always fits a long.
+     */
+    @Test
+    public void parsesIntegers()
+    {
+        assertEquals(Datatype.INTEGER, Datatype.parse("0"));
+        assertEquals(Datatype.INTEGER, Datatype.parse("42"));
+        assertEquals(Datatype.INTEGER, Datatype.parse("-7"));
+        assertEquals(Datatype.INTEGER, Datatype.parse("123456789012345678"));
+        assertEquals(Datatype.INTEGER, Datatype.parse("-123456789012345678"));
+    }
+
+    /**
+     * Checks that numbers with a decimal point or an exponent are numbers.
+     */
+    @Test
+    public void parsesNumbers()
+    {
+        assertEquals(Datatype.NUMBER, Datatype.parse("1.5"));
+        assertEquals(Datatype.NUMBER, Datatype.parse("-0.25"));
+        assertEquals(Datatype.NUMBER, Datatype.parse(".5"));
+        assertEquals(Datatype.NUMBER, Datatype.parse("1.50"));
+        assertEquals(Datatype.NUMBER, Datatype.parse("1.2E-5"));
+        assertEquals(Datatype.NUMBER, Datatype.parse("3e+10"));
+        assertEquals(Datatype.NUMBER, Datatype.parse("0.5e2"));
+    }
+
+    /**
+     * Checks that commas are not taken as decimal separators, as 1,234 is as
+     * likely to be a thousand as a fraction.
+     */
+    @Test
+    public void keepsCommasAsText()
+    {
+        assertEquals(Datatype.STRING, Datatype.parse("1,234"));
+        assertEquals(Datatype.STRING, Datatype.parse("1,5"));
+        assertEquals(Datatype.STRING, Datatype.parse("-0,25"));
+        assertEquals(Datatype.STRING, Datatype.parse("1,234.5"));
+    }
+
+    /**
+     * Checks that runs of digits which may not fit a long, and runs with
+     * leading zeros, are kept as text rather than losing digits.
+     */
+    @Test
+    public void keepsIdentifiersAsText()
+    {
+        assertEquals(Datatype.STRING, Datatype.parse("1234567890123456789"));
+        assertEquals(Datatype.STRING, Datatype.parse("-1234567890123456789"));
+        assertEquals(Datatype.STRING, Datatype.parse("99999999999999999999999"));
+        assertEquals(Datatype.STRING, Datatype.parse("007"));
+        assertEquals(Datatype.STRING, Datatype.parse("00.5"));
+    }
+
+    /**
+     * Checks the values which are neither numbers nor booleans.
+     */
+    @Test
+    public void parsesText()
+    {
+        assertEquals(Datatype.STRING, Datatype.parse("-"));
+        assertEquals(Datatype.STRING, Datatype.parse("."));
+        assertEquals(Datatype.STRING, Datatype.parse("1."));
+        assertEquals(Datatype.STRING, Datatype.parse("1e"));
+        assertEquals(Datatype.STRING, Datatype.parse("1.5x"));
+        assertEquals(Datatype.STRING, Datatype.parse("tru"));
+        assertEquals(Datatype.STRING, Datatype.parse("hello"));
+    }
+
+    /**
+     * Checks the boolean forms in any case, and that empty values are missing.
+     */
+    @Test
+    public void parsesBooleansAndMissingValues()
+    {
+        assertEquals(Datatype.BOOLEAN, Datatype.parse("t"));
+        assertEquals(Datatype.BOOLEAN, Datatype.parse("F"));
+        assertEquals(Datatype.BOOLEAN, Datatype.parse("true"));
+        assertEquals(Datatype.BOOLEAN, Datatype.parse("FALSE"));
+        assertEquals(Datatype.BOOLEAN, Datatype.parse("True"));
+        assertEquals(Datatype.NULL, Datatype.parse(""));
+    }
+
+    /**
+     * Checks the widening of pairs of types.
+     */
+    @Test
+    public void widensTypes()
+    {
+        assertEquals(Datatype.INTEGER, Datatype.widen(Datatype.NULL, Datatype.INTEGER));
+        assertEquals(Datatype.INTEGER, Datatype.widen(Datatype.INTEGER, Datatype.NULL));
+        assertEquals(Datatype.NUMBER, Datatype.widen(Datatype.INTEGER, Datatype.NUMBER));
+        assertEquals(Datatype.NUMBER, Datatype.widen(Datatype.NUMBER, Datatype.INTEGER));
+        assertEquals(Datatype.STRING, Datatype.widen(Datatype.BOOLEAN, Datatype.INTEGER));
+        assertEquals(Datatype.STRING, Datatype.widen(Datatype.NUMBER, Datatype.STRING));
+        assertEquals(Datatype.BOOLEAN, Datatype.widen(Datatype.BOOLEAN, Datatype.BOOLEAN));
+    }
+
+    /**
+     * Checks the type of lists of values, which is the narrowest type that
+     * holds every value.
+     */
+    @Test
+    public void parsesLists()
+    {
+        assertEquals(Datatype.NULL, Datatype.parse(List.of()));
+        assertEquals(Datatype.NULL, Datatype.parse(List.of("", "")));
+        assertEquals(Datatype.INTEGER, Datatype.parse(Arrays.asList("1", "", "-3")));
+        assertEquals(Datatype.NUMBER, Datatype.parse(Arrays.asList("1", "2.5", "")));
+        assertEquals(Datatype.BOOLEAN, Datatype.parse(Arrays.asList("t", "false")));
+        assertEquals(Datatype.STRING, Datatype.parse(Arrays.asList("1", "1,5", "2")));
+        assertEquals(Datatype.STRING, Datatype.parse(Arrays.asList("1", "true")));
+    }
+}
@@ -0,0 +1,197 @@
+package com.stata.project.columns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.stata.project.Datatype;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The tests of the column codec, which check that every type of column is
+ * read back exactly as it was written, into columns on the heap and columns
+ * in memory-mapped files.
+ *
+ * @author Dan Jenkins
+ */
+public class ColumnCodecTest
+{
+    /** The number of rows in each column, which spans several segments. */
+    private static final int ROWS = 2 * Column.SEGMENT_SIZE + 1234;
+
+    /** The folder holding the memory-mapped files. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Checks that integer columns survive a round trip.
+     */
+    @Test
+    public void roundTripsIntegers() throws IOException
+    {
+        this.assertRoundTrips(Datatype.INTEGER, random -> Long.toString(random.nextLong() >> random.nextInt(64)));
+    }
+
+    /**
+     * Checks that number columns survive a round trip, including values
+     * which are formatted with exponents.
+     */
+    @Test
+    public void roundTripsNumbers() throws IOException
+    {
+        this.assertRoundTrips(Datatype.NUMBER, random -> Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20)));
+    }
+
+    /**
+     * Checks that boolean columns survive a round trip.
+     */
+    @Test
+    public void roundTripsBooleans() throws IOException
+    {
+        this.assertRoundTrips(Datatype.BOOLEAN, random -> Boolean.toString(random.nextBoolean()));
+    }
+
+    /**
+     * Checks that text columns survive a round trip, including text which
+     * isn't ASCII.
+     */
+    @Test
+    public void roundTripsText() throws IOException
+    {
+        this.assertRoundTrips(Datatype.STRING, random -> "välue " + random.nextInt(5000));
+    }
+
+    /**
+     * Checks that a column without any rows survives a round trip.
+     */
+    @Test
+    public void roundTripsEmptyColumns() throws IOException
+    {
+        for (Datatype type : new Datatype[] { Datatype.INTEGER, Datatype.NUMBER, Datatype.BOOLEAN, Datatype.STRING })
+        {
+            Column column = this.read(this.write(Column.create(type)), Storage.HEAP);
+            assertEquals(0, column.size());
+        }
+    }
+
+    /**
+     * Checks that releasing columns in a memory-mapped file frees their
+     * regions for the next column, and that closing the storage deletes the
+     * file.
+     */
+    @Test
+    public void releaseFreesMappedRegions() throws IOException
+    {
+        // Read a column into a mapped file
+        MappedStorage storage = new MappedStorage(this.folder.newFolder().toPath());
+        byte[] bytes = this.write(this.create(Datatype.NUMBER, random -> "1.5", new Random(1)));
+        Column column = this.read(bytes, storage);
+        long used = storage.getUsed();
+        assertTrue(used > 0);
+
+        // Release it, and check that the next column reuses its regions
+        column.release();
+        assertEquals(0, storage.getUsed());
+        column = this.read(bytes, storage);
+        assertEquals(used, storage.getUsed());
+        try (Stream<?> files = Files.list(storage.getDirectory()))
+        {
+            assertEquals(1, files.count());
+        }
+
+        // And close the storage
+        storage.close();
+        assertFalse(Files.exists(storage.getDirectory()));
+    }
+
+    /**
+     * A function used to write a column of random values, a tenth of which
+     * are missing, and check that it is read back into both storages.
+     *
+     * @param type The type of the column
+     * @param values The function which creates each value
+     */
+    private void assertRoundTrips(Datatype type, Function<Random, String> values) throws IOException
+    {
+        // Write the column
+        Column column = this.create(type, values, new Random(type.ordinal()));
+        byte[] bytes = this.write(column);
+
+        // And check that it is read back in both storages
+        Storage[] storages = { Storage.HEAP, new MappedStorage(this.folder.newFolder().toPath()) };
+        for (Storage storage : storages)
+        {
+            Column read = this.read(bytes, storage);
+            assertEquals(type, read.getType());
+            assertEquals(column.size(), read.size());
+            assertEquals(column.getMissingCount(), read.getMissingCount());
+            for (int r = 0; r < column.size(); r++)
+            {
+                if (column.isMissing(r) != read.isMissing(r) || !column.get(r).equals(read.get(r)))
+                {
+                    assertEquals("row " + r, column.get(r), read.get(r));
+                    assertEquals("row " + r, column.isMissing(r), read.isMissing(r));
+                }
+            }
+            read.release();
+        }
+    }
+
+    /**
+     * A function used to create a column of random values.
+     *
+     * @param type The type of the column
+     * @param values The function which creates each value
+     * @param random The source of the values
+     *
+     * @return The column
+     */
+    private Column create(Datatype type, Function<Random, String> values, Random random)
+    {
+        Column column = Column.create(type);
+        for (int r = 0; r < ROWS; r++) column.append(random.nextInt(10) == 0 ? "" : values.apply(random));
+        return column;
+    }
+
+    /**
+     * A function used to write a column into an array of bytes.
+     *
+     * @param column The column to write
+     *
+     * @return The bytes of the column
+     */
+    private byte[] write(Column column) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ColumnCodec.write(column, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * A function used to read a column from an array of bytes.
+     *
+     * @param bytes The bytes of the column
+     * @param storage The storage in which to create the column
+     *
+     * @return The column
+     */
+    private Column read(byte[] bytes, Storage storage) throws IOException
+    {
+        try (InputStream input = new ByteArrayInputStream(bytes))
+        {
+            return ColumnCodec.read(input, storage);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.stata.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.stata.Tables;
+import com.stata.project.Datatable;
+import com.stata.project.columns.Column;
+
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The tests of the query parser, which check the rows selected by each
+ * condition against the same condition tested row by row. Missing numbers
+ * are larger than any other number, and missing text is empty.
+ *
+ * @author Dan Jenkins
+ */
+public class QueryTest
+{
+    /** The number of rows in the table, which spans several segments. */
+    private static final int ROWS = 2 * Column.SEGMENT_SIZE + 321;
+
+    /** The table to query. */
+    private static Datatable table;
+
+    /** The values of the number column, the integer column, and the text column. */
+    private static double[] x, n;
+    private static String[] s;
+
+    /**
+     * A function used to create the table to query, with a tenth of each
+     * column missing.
+     */
+    @BeforeClass
+    public static void createTable()
+    {
+        // Create the values of each column
+        Random random = new Random(7);
+        x = new double[ROWS];
+        n = new double[ROWS];
+        s = new String[ROWS];
+        StringBuilder csv = new StringBuilder("x,n,s\n");
+        for (int r = 0; r < ROWS; r++)
+        {
+            // Create the values of the row
+            String number = random.nextInt(10) == 0 ? "" : String.format(Locale.ROOT, "%.2f", random.nextGaussian() * 2);
+            String integer = random.nextInt(10) == 0 ? "" : Integer.toString(random.nextInt(10));
+            s[r] = random.nextInt(10) == 0 ? "" : Character.toString((char) ('a' + random.nextInt(5)));
+            x[r] = number.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(number);
+            n[r] = integer.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(integer);
+
+            // And write the row
+            csv.append(number).append(',').append(integer).append(',').append(s[r]).append('\n');
+        }
+
+        // And import the table
+        table = Tables.table(csv.toString());
+    }
+
+    /**
+     * Checks comparisons with numbers, in which missing values are larger
+     * than any number.
+     */
+    @Test
+    public void comparesNumbers()
+    {
+        QueryTest.assertSelects("x > 0.5", r -> x[r] > 0.5);
+        QueryTest.assertSelects("x <= -1.25", r -> x[r] <= -1.25);
+        QueryTest.assertSelects("n == 3", r -> n[r] == 3);
+        QueryTest.assertSelects("n != 3", r -> n[r] != 3);
+        QueryTest.assertSelects("3 < n", r -> n[r] > 3);
+        QueryTest.assertSelects("x >= -0.5", r -> x[r] >= -0.5);
+    }
+
+    /**
+     * Checks comparisons with missing values, and a column on its own, which
+     * holds when it isn't zero.
+     */
+    @Test
+    public void comparesMissing()
+    {
+        QueryTest.assertSelects("x < .", r -> x[r] != Double.POSITIVE_INFINITY);
+        QueryTest.assertSelects("x == .", r -> x[r] == Double.POSITIVE_INFINITY);
+        QueryTest.assertSelects("x > .", r -> false);
+        QueryTest.assertSelects("n", r -> n[r] != 0);
+        QueryTest.assertSelects("!n", r -> n[r] == 0);
+    }
+
+    /**
+     * Checks comparisons with text, in which missing text is empty.
+     */
+    @Test
+    public void comparesText()
+    {
+        QueryTest.assertSelects("s == \"b\"", r -> s[r].equals("b"));
+        QueryTest.assertSelects("s > \"b\"", r -> s[r].compareTo("b") > 0);
+        QueryTest.assertSelects("s <= \"c\"", r -> s[r].compareTo("c") <= 0);
+    }
+
+    /**
+     * Checks comparisons between two columns.
+     */
+    @Test
+    public void comparesColumns()
+    {
+        QueryTest.assertSelects("x > n", r -> x[r] > n[r]);
+        QueryTest.assertSelects("x == n", r -> x[r] == n[r]);
+    }
+
+    /**
+     * Checks the missing, inrange and inlist functions.
+     */
+    @Test
+    public void evaluatesFunctions()
+    {
+        QueryTest.assertSelects("missing(x)", r -> x[r] == Double.POSITIVE_INFINITY);
+        QueryTest.assertSelects("missing(x, s)", r -> x[r] == Double.POSITIVE_INFINITY || s[r].isEmpty());
+        QueryTest.assertSelects("inrange(x, -1, 1)", r -> x[r] >= -1 && x[r] <= 1);
+        QueryTest.assertSelects("inrange(s, \"b\", \"c\")", r -> s[r].equals("b") || s[r].equals("c"));
+        QueryTest.assertSelects("inlist(n, 1, 4, 8)", r -> n[r] == 1 || n[r] == 4 || n[r] == 8);
+        QueryTest.assertSelects("inlist(n, 2, .)", r -> n[r] == 2 || n[r] == Double.POSITIVE_INFINITY);
+        QueryTest.assertSelects("inlist(s, \"a\", \"e\")", r -> s[r].equals("a") || s[r].equals("e"));
+    }
+
+    /**
+     * Checks conditions combined with and, or, not and parentheses.
+     */
+    @Test
+    public void combinesConditions()
+    {
+        QueryTest.assertSelects("x > 0 & n < 5", r -> x[r] > 0 && n[r] < 5);
+        QueryTest.assertSelects("x > 2 | s == \"a\" & n == 1", r -> x[r] > 2 || (s[r].equals("a") && n[r] == 1));
+        QueryTest.assertSelects("(x > 2 | s == \"a\") & n == 1", r -> (x[r] > 2 || s[r].equals("a")) && n[r] == 1);
+        QueryTest.assertSelects("!(x < 0) & ~missing(s)", r -> !(x[r] < 0) && !s[r].isEmpty());
+    }
+
+    /**
+     * Checks that invalid conditions are reported.
+     */
+    @Test
+    public void rejectsInvalidConditions()
+    {
+        assertThrows(IllegalArgumentException.class, () -> Query.select(table, "y > 1"));
+        assertThrows(IllegalArgumentException.class, () -> Query.select(table, "s > 1"));
+        assertThrows(IllegalArgumentException.class, () -> Query.select(table, "x > \"a\""));
+        assertThrows(IllegalArgumentException.class, () -> Query.select(table, "x > s"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("x > 1 )"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("1 > 2"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("median(x)"));
+    }
+
+    /**
+     * A function used to check that a condition selects exactly the rows
+     * which satisfy a test.
+     *
+     * @param condition The condition to select
+     * @param test The test of each row
+     */
+    private static void assertSelects(String condition, IntPredicate test)
+    {
+        // Test each of the rows
+        BitSet expected = new BitSet(ROWS);
+        for (int r = 0; r < ROWS; r++) if (test.test(r)) expected.set(r);
+
+        // And compare the selection
+        Selection selection = Query.select(table, condition);
+        BitSet actual = new BitSet(ROWS);
+        for (int r = 0; r < ROWS; r++) if (selection.contains(r)) actual.set(r);
+        assertEquals(condition, expected, actual);
+        assertEquals(condition, expected.cardinality(), selection.count());
+    }
+}